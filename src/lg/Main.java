@@ -38,12 +38,7 @@ public class Main {
 	 */
 	public static void main(String[] args) {
 
-        Pack wjtp = PackManager.v().getPack("wjtp");
-        
-        Transform lg = new Transform("wjtp.lg", new AtomicTransformer());
-        lg.setDeclaredOptions("enabled debug reduce-cfg show-summary output-dot exceptions lvalues aggregate dfa locks intermediate-results library notails method savenfas nfalocks cold instrument timecompose deltas hashset compaction sweep threads reduce-cfg-delta store-entry compact stats compact-every locks-print compact-summaries avoid-deadlock load-summaries save-summaries order-worklists meminfo method-list instrument-debug ignore-types juc implicit-locking read-locks client-lib-stats-only ignore-wait-notify thread-local thread-local-debug instance-local lock-dominators class-local method-local global-lock manual-locks ignore-unreachable-atomics slow-transformers");
-        lg.setDefaultOptions("enabled:true debug:false reduce-cfg:true show-summary:false output-dot:false exceptions:true lvalues:true aggregate:false dfa:false locks:true intermediate-results:true library:false notails:false method:1 savenfas:false nfalocks:false cold:false instrument:true timecompose:false deltas:true hashset:false compaction:99999 sweep:true threads:1 reduce-cfg-delta:true store-entry:true compact:false stats:false compact-every:1 locks-print:true compact-summaries:false avoid-deadlock:true load-summaries:null save-summaries:null order-worklists:true meminfo:mem.txt method-list:false instrument-debug:false ignore-types:null juc:true implicit-locking:false read-locks:false client-lib-stats-only:false ignore-wait-notify:false thread-local:false thread-local-debug:false instance-local:false lock-dominators:false class-local:false method-local:false global-lock:false manual-locks:false ignore-unreachable-atomics:false slow-transformers:false");
-        wjtp.add(lg);
+        addTransform();
                 
         System.out.println(Arrays.toString(args));
 
@@ -51,4 +46,14 @@ public class Main {
 
 	}
 
+	// registers wjtp.lg with its options
+	public static void addTransform() {
+        Pack wjtp = PackManager.v().getPack("wjtp");
+        
+        Transform lg = new Transform("wjtp.lg", new AtomicTransformer());
+        lg.setDeclaredOptions("enabled debug reduce-cfg show-summary output-dot exceptions lvalues aggregate dfa locks intermediate-results library notails method savenfas nfalocks cold instrument timecompose deltas hashset compaction sweep threads reduce-cfg-delta store-entry compact stats compact-every locks-print compact-summaries avoid-deadlock load-summaries save-summaries order-worklists meminfo method-list instrument-debug ignore-types juc implicit-locking read-locks client-lib-stats-only ignore-wait-notify thread-local thread-local-debug instance-local lock-dominators class-local method-local global-lock manual-locks ignore-unreachable-atomics slow-transformers parallel-components parallel-atomics incremental work-stealing edge-sets share-edge-sets persistent-maps symbol-bits recycle-locals compose-cache freeze-summaries minimise-nfa");
+        lg.setDefaultOptions("enabled:true debug:false reduce-cfg:true show-summary:false output-dot:false exceptions:true lvalues:true aggregate:false dfa:false locks:true intermediate-results:true library:false notails:false method:1 savenfas:false nfalocks:false cold:false instrument:true timecompose:false deltas:true hashset:false compaction:99999 sweep:true threads:1 reduce-cfg-delta:true store-entry:true compact:false stats:false compact-every:1 locks-print:true compact-summaries:false avoid-deadlock:true load-summaries:null save-summaries:null order-worklists:true meminfo:mem.txt method-list:false instrument-debug:false ignore-types:null juc:true implicit-locking:false read-locks:false client-lib-stats-only:false ignore-wait-notify:false thread-local:false thread-local-debug:false instance-local:false lock-dominators:false class-local:false method-local:false global-lock:false manual-locks:false ignore-unreachable-atomics:false slow-transformers:false parallel-components:false parallel-atomics:false incremental:null work-stealing:false edge-sets:hash share-edge-sets:false persistent-maps:false symbol-bits:auto recycle-locals:true compose-cache:0 freeze-summaries:true minimise-nfa:true");
+        wjtp.add(lg);
+	}
+
 }
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2013, Khilan Gudka.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package lg;
+
+import java.io.*;
+import java.util.*;
+
+import javax.tools.*;
+
+import lg.util.*;
+
+/**
+ * Scalability harness: generates a synthetic workload (see
+ * WorkloadGenerator), compiles it, runs wjtp.lg on it and records the time
+ * and peak heap of each phase to <dir>/phases.csv.
+ * 
+ * Usage: WorkloadMain <dir> [key=value ...] [-- soot and wjtp.lg options]
+ */
+public class WorkloadMain {
+
+	public static void main(String[] args) {
+	    if (args.length < 1) {
+	        System.err.println("usage: WorkloadMain <dir> [key=value ...] [-- soot and wjtp.lg options]");
+	        System.exit(1);
+	    }
+	    List<String> argsList = Arrays.asList(args);
+	    int sep = argsList.indexOf("--");
+	    List<String> genArgs = argsList.subList(1, sep == -1 ? args.length : sep);
+	    List<String> extraArgs = sep == -1 ? new ArrayList<String>() : argsList.subList(sep+1, args.length);
+	    
+	    File dir = new File(args[0]);
+	    File src = new File(dir, "src");
+	    File classes = new File(dir, "classes");
+	    
+	    WorkloadGenerator g = new WorkloadGenerator(WorkloadGenerator.parseOptions(genArgs));
+	    g.generate(src);
+	    System.out.println("Generated workload: " + g);
+	    
+	    JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+	    if (javac == null) {
+	        throw new RuntimeException("no system java compiler (run with a JDK)");
+	    }
+	    classes.mkdirs();
+	    int rc = javac.run(null, null, null, "-d", classes.getPath(), new File(src, "Node.java").getPath(), new File(src, WorkloadGenerator.MAIN_CLASS + ".java").getPath());
+	    if (rc != 0) {
+	        throw new RuntimeException("compiling workload failed");
+	    }
+	    
+	    List<String> sootArgs = new ArrayList<String>(Arrays.asList("-w", "-pp", "-cp", classes.getPath(), "-f", "n", "-main-class", WorkloadGenerator.MAIN_CLASS));
+	    sootArgs.addAll(extraArgs);
+	    sootArgs.add(WorkloadGenerator.MAIN_CLASS);
+	    
+	    Main.addTransform();
+	    
+	    // "soot" covers everything before wjtp.lg starts, e.g. call graph
+	    // construction
+	    PhaseStats.clear();
+	    PhaseStats.begin("soot");
+	    soot.Main.main(sootArgs.toArray(new String[0]));
+	    PhaseStats.end();
+	    
+	    try {
+	        PrintStream p = new PrintStream(new File(dir, "phases.csv"));
+	        p.println("# " + g);
+	        PhaseStats.output(p);
+	        p.close();
+	    }
+	    catch (FileNotFoundException fnfe) {
+	        throw new RuntimeException(fnfe);
+	    }
+	    PhaseStats.output(System.out);
+	}
+
+}
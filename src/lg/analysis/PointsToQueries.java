@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2013, Khilan Gudka.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package lg.analysis;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import soot.*;
+import soot.jimple.Stmt;
+import soot.jimple.paddle.ContextAllocNode;
+import soot.jimple.paddle.PointsToSetReadOnly;
+import soot.jimple.spark.pag.Node;
+import soot.jimple.spark.sets.PointsToSetInternal;
+
+// Memoising front-end to the points-to analysis. Paddle's BDD queries are
+// expensive and the same locals are asked about repeatedly by the locks,
+// thread-local and dominator passes, so results are cached per local and
+// per points-to set. All maps are concurrent so that passes running in
+// parallel can share them.
+public class PointsToQueries {
+
+    private static final ConcurrentMap<Local,PointsToSet> localToPts = new ConcurrentHashMap<Local, PointsToSet>();
+    private static final ConcurrentMap<PointsToSet,Results> ptsToResults = new ConcurrentHashMap<PointsToSet, Results>();
+    private static final ConcurrentMap<Stmt,Set<Type>> stmtToTypes = new ConcurrentHashMap<Stmt, Set<Type>>();
+
+    // Per points-to set results. Each field is filled in lazily, recomputing
+    // is harmless so no locking is needed.
+    private static class Results {
+        volatile Set<Type> types;
+        volatile List<Object> nodes; // distinct alloc nodes
+        volatile BitSet allocs;      // alloc node numbers
+        volatile boolean singleton;
+    }
+
+    public static PointsToSet reachingObjects(Local l) {
+        PointsToSet pts = localToPts.get(l);
+        if (pts == null) {
+            pts = Scene.v().getPointsToAnalysis().reachingObjects(l);
+            PointsToSet old = localToPts.putIfAbsent(l, pts);
+            if (old != null) {
+                pts = old;
+            }
+        }
+        return pts;
+    }
+
+    public static Set<Type> possibleTypes(Local l) {
+        return possibleTypes(reachingObjects(l));
+    }
+
+    public static Set<Type> possibleTypes(PointsToSet pts) {
+        Results o = objects(pts);
+        Set<Type> types = o.types;
+        if (types == null) {
+            types = pts.possibleTypes();
+            o.types = types;
+        }
+        return types;
+    }
+
+    public static List<Object> allocNodes(Local l) {
+        return allocNodes(reachingObjects(l));
+    }
+
+    // Spark sets yield spark AllocNodes, Paddle sets yield paddle AllocNodes
+    // (contexts are dropped)
+    public static List<Object> allocNodes(PointsToSet pts) {
+        return visit(pts).nodes;
+    }
+
+    public static BitSet allocNumbers(Local l) {
+        return allocNumbers(reachingObjects(l));
+    }
+
+    public static BitSet allocNumbers(PointsToSet pts) {
+        return visit(pts).allocs;
+    }
+
+    // true iff pts has exactly one element
+    public static boolean isSingleton(PointsToSet pts) {
+        return visit(pts).singleton;
+    }
+
+    // types of the object dereferenced by access statement n, if known
+    public static Set<Type> stmtTypes(Stmt n) {
+        return stmtToTypes.get(n);
+    }
+
+    public static void storeStmtTypes(Stmt n, Set<Type> types) {
+        stmtToTypes.put(n, types);
+    }
+
+    public static Set<Type> stmtTypes(Stmt n, Local base) {
+        Set<Type> types = stmtToTypes.get(n);
+        if (types == null) {
+            types = possibleTypes(base);
+            stmtToTypes.put(n, types);
+        }
+        return types;
+    }
+
+    private static Results objects(PointsToSet pts) {
+        Results o = ptsToResults.get(pts);
+        if (o == null) {
+            o = new Results();
+            Results old = ptsToResults.putIfAbsent(pts, o);
+            if (old != null) {
+                o = old;
+            }
+        }
+        return o;
+    }
+
+    private static Results visit(PointsToSet pts) {
+        Results o = objects(pts);
+        if (o.nodes == null) {
+            final List<Object> nodes = new ArrayList<Object>();
+            final BitSet allocs = new BitSet();
+            final int[] size = new int[1];
+            if (pts instanceof PointsToSetInternal) {
+                ((PointsToSetInternal)pts).forall(new soot.jimple.spark.sets.P2SetVisitor() {
+                    @Override
+                    public void visit(Node n) {
+                        size[0]++;
+                        if (!allocs.get(n.getNumber())) {
+                            allocs.set(n.getNumber());
+                            nodes.add(n);
+                        }
+                    }
+                });
+            }
+            else if (pts instanceof PointsToSetReadOnly) {
+                ((PointsToSetReadOnly)pts).forall(new soot.jimple.paddle.P2SetVisitor() {
+                    @Override
+                    public void visit(ContextAllocNode cn) {
+                        soot.jimple.paddle.AllocNode n = cn.obj();
+                        size[0]++;
+                        if (!allocs.get(n.getNumber())) {
+                            allocs.set(n.getNumber());
+                            nodes.add(n);
+                        }
+                    }
+                });
+            }
+            else {
+                throw new UnsupportedOperationException("Unknown points-to set type: " + pts.getClass());
+            }
+            o.allocs = allocs;
+            o.singleton = size[0] == 1;
+            o.nodes = Collections.unmodifiableList(nodes);
+        }
+        return o;
+    }
+
+}
@@ -28,6 +28,7 @@ package lg.analysis.local;
 
 import java.util.*;
 
+import lg.analysis.PointsToQueries;
 import lg.util.*;
 import soot.*;
 import soot.jimple.*;
@@ -438,9 +439,7 @@ public class ClassLocalAnalysisTransformer extends SceneTransformer {
                 ArrayRef arrRef = (ArrayRef)lval;
                 Local x = (Local)arrRef.getBase();
                 EquivalentValue xv = init(x, mSummary, changed);
-                PointsToAnalysis pta = Scene.v().getPointsToAnalysis();
-                PointsToSet pts = pta.reachingObjects(x);
-                Set<Type> types = pts.possibleTypes();
+                Set<Type> types = PointsToQueries.possibleTypes(x);
                 if (rval instanceof Local) {
                     // x[i] = y
                     Local y = (Local)rval;
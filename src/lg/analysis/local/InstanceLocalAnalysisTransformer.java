@@ -31,6 +31,7 @@ import gnu.trove.list.array.TIntArrayList;
 
 import java.util.*;
 
+import lg.analysis.PointsToQueries;
 import lg.analysis.local.InstanceLocalAnalysisTransformer.EscapeState;
 import lg.cfg.CFGCache;
 import lg.util.*;
@@ -730,10 +731,10 @@ public class InstanceLocalAnalysisTransformer extends SceneTransformer {
                     Local y = (Local)arrRef.getBase();
                     EquivalentValue yv = init(y, mSummary, changed);
                     PointsToAnalysis pta = Scene.v().getPointsToAnalysis();
-                    PointsToSet pts = pta.reachingObjects(y);
+                    PointsToSet pts = PointsToQueries.reachingObjects(y);
                     PointsToSet ptsElements = pta.reachingObjectsOfArrayElement(pts);
                     Set<Type> elemTypes = ptsElements.possibleTypes();
-                    Set<Type> arrayTypes = pts.possibleTypes();
+                    Set<Type> arrayTypes = PointsToQueries.possibleTypes(pts);
                     EscapeState escapeMeet = EscapeState.INTERNAL;
                     for (Type type : arrayTypes) {
                         if (!(type instanceof ArrayType)) {
@@ -855,9 +856,7 @@ public class InstanceLocalAnalysisTransformer extends SceneTransformer {
                 ArrayRef arrRef = (ArrayRef)lval;
                 Local x = (Local)arrRef.getBase();
                 EquivalentValue xv = init(x, mSummary, changed);
-                PointsToAnalysis pta = Scene.v().getPointsToAnalysis();
-                PointsToSet pts = pta.reachingObjects(x);
-                Set<Type> types = pts.possibleTypes();
+                Set<Type> types = PointsToQueries.possibleTypes(x);
                 if (rval instanceof Local) {
                     // x[i] = y
                     Local y = (Local)rval;
@@ -39,34 +39,6 @@ public class PaddleThreadLocalAnalysis extends ThreadLocalAnalysis{
         shared = new HashSet<AllocNode>();
     }
     
-    public boolean isThreadShared(Local l) {
-        PointsToAnalysis pta = Scene.v().getPointsToAnalysis();
-        PointsToSetReadOnly pts = (PointsToSetReadOnly)pta.reachingObjects(l);
-        
-        try {
-            pts.forall(new P2SetVisitor() {
-                @Override
-                public void visit(ContextAllocNode n) {
-                    AllocNode obj = n.obj();
-                    if (shared.contains(obj)) {
-                        // no need to check further
-                        throw new RuntimeException("shared");
-                    }
-                }
-            });
-        }
-        catch (RuntimeException re) {
-            if (re.getMessage().equals("shared")) {
-                return true;
-            }
-            else {
-                throw re;
-            }
-        }
-
-        return false;
-    }
-    
     public void doAnalysis() {
         
         G.v().out.println("[wjtp.lg] tla: running bdd escape analysis");
@@ -77,8 +49,11 @@ public class PaddleThreadLocalAnalysis extends ThreadLocalAnalysis{
         G.v().out.println("[wjtp.lg] tla: storing thread-shared objects");
         
         for (Iterator sharedIt=bddEscape.escapesThread(); sharedIt.hasNext(); ) {
-            shared.add((AllocNode)sharedIt.next());
+            AllocNode obj = (AllocNode)sharedIt.next();
+            shared.add(obj);
+            sharedAllocs.set(obj.getNumber());
         }
+        localToShared.clear();
         
     }
     
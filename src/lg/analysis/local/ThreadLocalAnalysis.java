@@ -27,7 +27,9 @@
 package lg.analysis.local;
 
 import java.util.*;
+import java.util.concurrent.*;
 
+import lg.analysis.PointsToQueries;
 import lg.transformer.AtomicTransformer;
 
 import soot.*;
@@ -41,8 +43,14 @@ public class ThreadLocalAnalysis {
 
     protected Set<Node> shared;
     
+    // numbers of shared alloc nodes, and memoised isThreadShared results
+    protected BitSet sharedAllocs;
+    protected ConcurrentMap<Local,Boolean> localToShared;
+    
     public ThreadLocalAnalysis() {
         shared = new HashSet<Node>();
+        sharedAllocs = new BitSet();
+        localToShared = new ConcurrentHashMap<Local, Boolean>();
     }
     
     public boolean isThreadLocal(SootMethod m, Local l) {
@@ -50,30 +58,12 @@ public class ThreadLocalAnalysis {
     }
     
     public boolean isThreadShared(Local l) {
-        PointsToAnalysis pta = Scene.v().getPointsToAnalysis();
-        PointsToSetInternal pts = (PointsToSetInternal)pta.reachingObjects(l);
-        
-        try {
-            pts.forall(new P2SetVisitor() {
-                @Override
-                public void visit(Node n) {
-                    if (shared.contains(n)) {
-                        // no need to check further
-                        throw new RuntimeException("shared");
-                    }
-                }
-            });
+        Boolean b = localToShared.get(l);
+        if (b == null) {
+            b = PointsToQueries.allocNumbers(l).intersects(sharedAllocs);
+            localToShared.put(l, b);
         }
-        catch (RuntimeException re) {
-            if (re.getMessage().equals("shared")) {
-                return true;
-            }
-            else {
-                throw re;
-            }
-        }
-
-        return false;
+        return b;
     }
     
     public void doAnalysis() {
@@ -155,6 +145,7 @@ public class ThreadLocalAnalysis {
                     if (t2Accesses.contains(n)) {
                         if (AtomicTransformer.THREAD_LOCAL_DEBUG) G.v().out.println("[wjtp.lg]        " + n + " is shared between t" + i + " and t" + j);
                         shared.add(n);
+                        sharedAllocs.set(n.getNumber());
                         break;
                     }
                 }
@@ -168,6 +159,7 @@ public class ThreadLocalAnalysis {
         }
         
         G.v().out.println("[wjtp.lg] tla: " + shared.size() + "/" + totalAccesses.size() + " shared objects");
+        localToShared.clear();
         
         
     }
@@ -26,8 +26,11 @@
 
 package lg.analysis.locks;
 
+import gnu.trove.list.array.TIntArrayList;
+
 import java.util.*;
 
+import lg.analysis.PointsToQueries;
 import lg.analysis.local.*;
 import lg.analysis.paths.*;
 import lg.analysis.paths.automata.*;
@@ -46,13 +49,29 @@ public class AutomatonToLocks {
     private Set<Lock> locks;
     private Set<State> cyclicStates;
     private Set<State> threadLocalStates;
-    private static Map<Stmt, Set<Type>> stmtToTypesCache = new HashMap<Stmt, Set<Type>>();
     private ThreadLocalAnalysis tla;
     private InstanceLocalAnalysisTransformer ila;
     private ClassLocalAnalysisTransformer cla;
 
     private Map<State,Set<Transition>> stateToIncidentTransitions;
     
+    // fa's states reachable from the start state, numbered densely (the
+    // start state is 0). The transitions of state i are
+    // trans[first[i]..first[i+1]) and lead to transDst[..].
+    private State[] states;
+    private int[] first;
+    private Transition[] trans;
+    private int[] transDst;
+    
+    private BitSet cyclic;
+    private BitSet threadLocal;
+    
+    // per transition and per state, computed on first use
+    private PathLookup[] transLookup;
+    private BitSet transInstanceLocal;
+    private BitSet transClassLocal;
+    private PointsToSet[] statePts;
+    
     public AutomatonToLocks(Automaton a, ThreadLocalAnalysis t, InstanceLocalAnalysisTransformer i, ClassLocalAnalysisTransformer c) {
         fa = a;
         locks = new LockSet();
@@ -63,6 +82,7 @@ public class AutomatonToLocks {
         cla = c;
         stateToIncidentTransitions = new HashMap<State, Set<Transition>>();
         buildStateToIncidentTransitions();
+        indexStates();
         convert();
     }
     
@@ -80,6 +100,86 @@ public class AutomatonToLocks {
         }
     }
 
+    private void indexStates() {
+        Map<State,Integer> stateToIndex = new HashMap<State, Integer>();
+        List<State> order = new ArrayList<State>();
+        List<Transition> ts = new ArrayList<Transition>();
+        TIntArrayList dsts = new TIntArrayList();
+        TIntArrayList firsts = new TIntArrayList();
+        State start = fa.getStartState();
+        stateToIndex.put(start, 0);
+        order.add(start);
+        for (int i=0; i<order.size(); i++) {
+            firsts.add(ts.size());
+            Set<Transition> outgoingTransitions = fa.getTransitions(order.get(i));
+            if (outgoingTransitions != null) {
+                for (Transition t : outgoingTransitions) {
+                    State dest = t.getDst();
+                    Integer j = stateToIndex.get(dest);
+                    if (j == null) {
+                        j = order.size();
+                        stateToIndex.put(dest, j);
+                        order.add(dest);
+                    }
+                    ts.add(t);
+                    dsts.add(j);
+                }
+            }
+        }
+        firsts.add(ts.size());
+        states = order.toArray(new State[order.size()]);
+        first = firsts.toArray();
+        trans = ts.toArray(new Transition[ts.size()]);
+        transDst = dsts.toArray();
+        
+        cyclic = new BitSet(states.length);
+        threadLocal = new BitSet(states.length);
+        transLookup = new PathLookup[trans.length];
+        transInstanceLocal = new BitSet(trans.length);
+        transClassLocal = new BitSet(trans.length);
+        statePts = new PointsToSet[states.length];
+    }
+
+    // Keys for CompactAutomaton.minimise: states are only merged if they
+    // give the same locks, i.e. their accesses have the same base local
+    // (and so the same points-to set, types and thread-locality) and, for
+    // the instance-local check, the same incoming labels.
+    @SuppressWarnings("unchecked")
+    public static Object[] stateKeys(CompactAutomaton nfa) {
+        int n = nfa.stateCount();
+        Object[] keys = new Object[n];
+        Set<Integer>[] incoming = null;
+        if (AtomicTransformer.INSTANCE_LOCAL) {
+            incoming = new Set[n];
+            for (int s=0; s<n; s++) {
+                for (int t=nfa.first(s); t<nfa.end(s); t++) {
+                    int d = nfa.dst(t);
+                    if (incoming[d] == null) {
+                        incoming[d] = new HashSet<Integer>();
+                    }
+                    incoming[d].add(nfa.lbl(t));
+                }
+            }
+        }
+        for (int s=0; s<n; s++) {
+            Stmt st = s == CompactAutomaton.START ? null : nfa.state(s).getStmt();
+            Local l = null;
+            if (st != null && (st.containsFieldRef() || st.containsArrayRef())) {
+                l = getLocalFromStmt(st);
+            }
+            if (l == null) {
+                keys[s] = new Object(); // never merged
+            }
+            else if (incoming != null) {
+                keys[s] = Arrays.asList(l, incoming[s]);
+            }
+            else {
+                keys[s] = l;
+            }
+        }
+        return keys;
+    }
+
     public Set<Lock> getLocks() {
         return locks;
     }
@@ -110,21 +210,10 @@ public class AutomatonToLocks {
     }
     
     private void findThreadLocalStates() {
-        findThreadLocalStatesHelper(fa.getStartState(), new HashSet<State>());
-    }
-
-    private void findThreadLocalStatesHelper(State s, HashSet<State> visited) {
-        if (!visited.contains(s)) {
-            visited.add(s);
-            if (isThreadLocal(s)) {
-                threadLocalStates.add(s);
-            }
-            Set<Transition> outgoingTransitions = fa.getTransitions(s);
-            if (outgoingTransitions != null) {
-                for (Transition t : outgoingTransitions) {
-                    State dest = t.getDst();
-                    findThreadLocalStatesHelper(dest, visited);
-                }
+        for (int i=0; i<states.length; i++) {
+            if (isThreadLocal(states[i])) {
+                threadLocal.set(i);
+                threadLocalStates.add(states[i]);
             }
         }
     }
@@ -143,101 +232,98 @@ public class AutomatonToLocks {
         return false;
     }
     
+    // Each (state, prefix) is expanded once: equal prefixes reaching a
+    // state by different paths give equal locks below it. What a lock
+    // needs from its transition is computed once per transition.
     private void convertPaths() {
-        convertPathsHelper(fa.getStartState(), null);
-    }
-
-    Set<State> convertedCyclicStates = new HashSet<State>();
-    private void convertPathsHelper(State s, PathLock prefix) {
-        if (cyclicStates.contains(s)) { 
-            convertCyclicPathsHelper(s);
+        @SuppressWarnings("unchecked")
+        Set<PathLock>[] expanded = new Set[states.length];
+        List<PathLock> prefixes = new ArrayList<PathLock>();
+        TIntArrayList todo = new TIntArrayList();
+        BitSet convertedCyclic = new BitSet(states.length);
+        todo.add(0);
+        prefixes.add(null);
+        while (!todo.isEmpty()) {
+            int s = todo.removeAt(todo.size()-1);
+            PathLock prefix = prefixes.remove(prefixes.size()-1);
+            if (cyclic.get(s)) {
+                convertCyclicPaths(s, convertedCyclic);
+                continue;
+            }
+            if (expanded[s] == null) {
+                expanded[s] = new HashSet<PathLock>();
+            }
+            if (!expanded[s].add(prefix)) {
+                continue;
+            }
+            for (int t=first[s]; t<first[s+1]; t++) {
+                PathLock lock = convertTransition(s, t, prefix);
+                locks.add(lock);
+                todo.add(transDst[t]);
+                prefixes.add(lock);
+            }
         }
-        else {
-            Set<Transition> outgoingTransitions = fa.getTransitions(s);
-            if (outgoingTransitions != null) {
-                for (Transition t : outgoingTransitions) {
-                    Object lbl = t.getLbl();
-                    State dest = t.getDst();
-                    PathLookup lookup = lblToLookup(lbl, prefix, s, dest);
-                    boolean isWrite = t.isWrite();
-                    boolean threadLocal = threadLocalStates.contains(dest);
-                    boolean instanceLocal = false;
-                    boolean classLocal = false;
-                    PointsToSet pts = stateToPointsToSet(dest);
-                    if (AtomicTransformer.INSTANCE_LOCAL) {
-                        if (lbl instanceof SootField) {
-                            SootField f = (SootField)lbl;
-                            instanceLocal = ila.isLocal(f);
-                        }
-                        else if (lbl instanceof ArrayElement) {
-                            Set<Type> types = stateToTypes(s); // get possible array types
-                            instanceLocal = true;
-                            for (Type type : types) {
-                                if (!ila.isArrayAccessLocal(type)) {
-                                    instanceLocal = false;
-                                    break;
-                                }
-                            }
-                        }
-                    }
-                    if (AtomicTransformer.CLASS_LOCAL) {
-                        if (lbl instanceof SootField) {
-                            SootField f = (SootField)lbl;
-                            if (f.isStatic()) {
-                                classLocal = cla.isLocal(f);
-                                if (!prefix.isStatic()) {
-                                    throw new IllegalStateException("field is static but prefix lock is not a class! prefix: " + prefix + ", field: " + f);
-                                }
-                            }
+    }
+    
+    private PathLock convertTransition(int s, int t, PathLock prefix) {
+        Transition tn = trans[t];
+        Object lbl = tn.getLbl();
+        int dest = transDst[t];
+        if (transLookup[t] == null) {
+            transLookup[t] = lblToLookup(lbl, prefix, states[s], states[dest]);
+            if (AtomicTransformer.INSTANCE_LOCAL) {
+                boolean instanceLocal = false;
+                if (lbl instanceof SootField) {
+                    SootField f = (SootField)lbl;
+                    instanceLocal = ila.isLocal(f);
+                }
+                else if (lbl instanceof ArrayElement) {
+                    Set<Type> types = stateToTypes(states[s]); // get possible array types
+                    instanceLocal = true;
+                    for (Type type : types) {
+                        if (!ila.isArrayAccessLocal(type)) {
+                            instanceLocal = false;
+                            break;
                         }
                     }
-                    PathLock lock = new PathLock(prefix, lookup, isWrite, threadLocal, instanceLocal, pts, false, false, classLocal, false, true, false);
-                    if (pts.isEmpty()) {
-//                        Logger.println("VERIFY EMPTY POINTS-TO SET FOR " + lock);
-//                        ProfilerSupport.waitForKeyPress();
-                    }
-                    //                    Logger.println(lock + " is instanceLocal?: " + instanceLocal);
-//                    if (lock.toStringPath().contains("java.util.Collections.EMPTY_LIST")) {
-//                        ContainingMethodTag tag = (ContainingMethodTag)s.getStmt().getTag("ContainingMethodTag");
-//                        SootMethod m = tag.getMethod();
-//                        Logger.println(lock.toString(), ANSICode.FG_RED);
-//                        Logger.println("\tstmt: " + s.getStmt(), ANSICode.FG_BLUE);
-//                        Logger.println("\tmethod: " + m, ANSICode.FG_BLUE);
-//                    }
-                    locks.add(lock);
-                    convertPathsHelper(dest, lock);
                 }
+                transInstanceLocal.set(t, instanceLocal);
+            }
+            if (AtomicTransformer.CLASS_LOCAL && lbl instanceof SootField && ((SootField)lbl).isStatic()) {
+                transClassLocal.set(t, cla.isLocal((SootField)lbl));
             }
         }
+        if (AtomicTransformer.CLASS_LOCAL && lbl instanceof SootField && ((SootField)lbl).isStatic() && !prefix.isStatic()) {
+            throw new IllegalStateException("field is static but prefix lock is not a class! prefix: " + prefix + ", field: " + lbl);
+        }
+        if (statePts[dest] == null) {
+            statePts[dest] = stateToPointsToSet(states[dest]);
+        }
+        return new PathLock(prefix, transLookup[t], tn.isWrite(), threadLocal.get(dest), transInstanceLocal.get(t), statePts[dest], false, false, transClassLocal.get(t), false, true, false);
     }
 
-    private void convertCyclicPathsHelper(State s) {
-        if (!convertedCyclicStates.contains(s)) {
-            convertedCyclicStates.add(s);
-            Set<Transition> outgoingTransitions = fa.getTransitions(s);
-            if (outgoingTransitions != null) {
-                for (Transition ot : outgoingTransitions) {
-                    //Object lbl = ot.getLbl();
-                    //Type t2 = lblToType(lbl, t);
-                    State dest = ot.getDst();
-                    Set<Type> types = stateToTypes(dest);
-                    boolean instanceLocal = AtomicTransformer.INSTANCE_LOCAL ? isStateInstanceLocal(dest) : false;
-                    boolean isWrite = ot.isWrite();
-                    boolean threadLocal = threadLocalStates.contains(dest);
-                    for (Type t : types) {
-//                        if (t.toString().contains("java.lang.String")) {
-//                            Stmt dstStmt = dest.getStmt();
-//                            SootMethod m = null;
-//                            if (dstStmt.hasTag(ContainingMethodTag.TAG_NAME)) {
-//                                ContainingMethodTag tag = (ContainingMethodTag)dstStmt.getTag(ContainingMethodTag.TAG_NAME);
-//                                m = tag.getMethod();
-//                            }
-//                            Logger.println("Lock on j.l.String: stmt = " + dstStmt + ", m = " + m);
-//                            ProfilerSupport.waitForKeyPress();
-//                        }
-                        locks.add(new TypeLock(t, isWrite, threadLocal, instanceLocal, false, false));
-                    }
-                    convertCyclicPathsHelper(dest);
+    // type locks for the transitions reachable from the cyclic state s
+    private void convertCyclicPaths(int s, BitSet converted) {
+        if (converted.get(s)) {
+            return;
+        }
+        converted.set(s);
+        TIntArrayList todo = new TIntArrayList();
+        todo.add(s);
+        while (!todo.isEmpty()) {
+            int u = todo.removeAt(todo.size()-1);
+            for (int t=first[u]; t<first[u+1]; t++) {
+                int dest = transDst[t];
+                State d = states[dest];
+                Set<Type> types = stateToTypes(d);
+                boolean instanceLocal = AtomicTransformer.INSTANCE_LOCAL ? isStateInstanceLocal(d) : false;
+                boolean isWrite = trans[t].isWrite();
+                for (Type type : types) {
+                    locks.add(new TypeLock(type, isWrite, threadLocal.get(dest), instanceLocal, false, false));
+                }
+                if (!converted.get(dest)) {
+                    converted.set(dest);
+                    todo.add(dest);
                 }
             }
         }
@@ -276,7 +362,7 @@ public class AutomatonToLocks {
         Set<Type> typesAll = new HashSet<Type>();
         for (State s : ds.getStates()) {
             Stmt n = s.getStmt();
-            Set<Type> types = stmtToTypesCache.get(n);
+            Set<Type> types = PointsToQueries.stmtTypes(n);
             if (types == null) {
                 Local l;
                 if (n.containsFieldRef()) {
@@ -297,10 +383,7 @@ public class AutomatonToLocks {
                     throw new UnsupportedOperationException("Unknown access generating stmt: " + n);
                 }
                 
-                PointsToAnalysis pta = Scene.v().getPointsToAnalysis();
-                PointsToSet pts = pta.reachingObjects(l);
-                types = pts.possibleTypes();
-                stmtToTypesCache.put(n, types);
+                types = PointsToQueries.stmtTypes(n, l);
             }
             typesAll.addAll(types);
         }
@@ -319,14 +402,11 @@ public class AutomatonToLocks {
 
     private Set<Type> stateToTypesNormal(State s) {
         Stmt n = s.getStmt();
-        Set<Type> types = stmtToTypesCache.get(n);
+        Set<Type> types = PointsToQueries.stmtTypes(n);
         if (types == null) {
             Local l = getLocalFromStmt(n);
             if (l != null) {
-                PointsToAnalysis pta = Scene.v().getPointsToAnalysis();
-                PointsToSet pts = pta.reachingObjects(l);
-                types = pts.possibleTypes();
-                stmtToTypesCache.put(n, types);
+                types = PointsToQueries.stmtTypes(n, l);
             }
         }
         return types;
@@ -335,12 +415,10 @@ public class AutomatonToLocks {
     private PointsToSet stateToPointsToSet(State s) {
         Stmt n = s.getStmt();
         Local l = getLocalFromStmt(n);
-        PointsToAnalysis pta = Scene.v().getPointsToAnalysis();
-        PointsToSet pts = pta.reachingObjects(l);
-        return pts;
+        return PointsToQueries.reachingObjects(l);
     }
 
-    private Local getLocalFromStmt(Stmt n) {
+    private static Local getLocalFromStmt(Stmt n) {
         if (n.containsFieldRef()) {
             FieldRef fr = n.getFieldRef();
             if (fr instanceof InstanceFieldRef) {
@@ -361,7 +439,7 @@ public class AutomatonToLocks {
     }
 
     public static void storeStmtToTypeMapping(Stmt n, Set<Type> types) {
-        stmtToTypesCache.put(n, types);
+        PointsToQueries.storeStmtTypes(n, types);
     }
     
     /*
@@ -405,48 +483,85 @@ public class AutomatonToLocks {
         return cyclicStates;
     }
     
-    private void findCyclicStates() {        
-        findCyclicStatesHelper(fa.getStartState(), new HashSet<State>(), new HashSet<State>());
-    }
-
-    private void findCyclicStatesHelper(State s, Set<State> visited, Set<State> stack) {
-        if (cyclicStates.contains(s)) {
-            return;
-        }
-        else if (stack.contains(s)) {
-            cyclicStates.add(s);
-            collectAllReachable(s);
-        }
-        else if (!visited.contains(s)) {
-            visited.add(s);
-            stack.add(s);
-            Set<Transition> outgoingTransitions = fa.getTransitions(s);
-            if (outgoingTransitions != null) {
-                for (Transition t : outgoingTransitions) {
-                    State s2 = t.getDst();
-                    findCyclicStatesHelper(s2, visited, stack);
+    // A state is cyclic if it is on a cycle or reachable from one. Cycles
+    // are found by an iterative Tarjan pass: states of SCCs with more than
+    // one state, or with a self loop.
+    private void findCyclicStates() {
+        int n = states.length;
+        int[] index = new int[n];
+        int[] low = new int[n];
+        Arrays.fill(index, -1);
+        BitSet onStack = new BitSet(n);
+        int[] sccStack = new int[n];
+        int sp = 0;
+        int[] callStack = new int[n];
+        int[] next = new int[n]; // next transition to follow, per call stack entry
+        int cp = 0;
+        int counter = 0;
+        
+        index[0] = low[0] = counter++;
+        sccStack[sp++] = 0;
+        onStack.set(0);
+        callStack[cp] = 0;
+        next[cp++] = first[0];
+        while (cp > 0) {
+            int v = callStack[cp-1];
+            if (next[cp-1] < first[v+1]) {
+                int w = transDst[next[cp-1]++];
+                if (w == v) {
+                    cyclic.set(v);
+                }
+                if (index[w] == -1) {
+                    index[w] = low[w] = counter++;
+                    sccStack[sp++] = w;
+                    onStack.set(w);
+                    callStack[cp] = w;
+                    next[cp++] = first[w];
+                }
+                else if (onStack.get(w)) {
+                    low[v] = Math.min(low[v], index[w]);
+                }
+            }
+            else {
+                cp--;
+                if (cp > 0) {
+                    int u = callStack[cp-1];
+                    low[u] = Math.min(low[u], low[v]);
+                }
+                if (low[v] == index[v]) {
+                    int top = sp;
+                    int w;
+                    do {
+                        w = sccStack[--sp];
+                        onStack.clear(w);
+                    } while (w != v);
+                    if (top - sp > 1) {
+                        for (int i=sp; i<top; i++) {
+                            cyclic.set(sccStack[i]);
+                        }
+                    }
                 }
             }
-            stack.remove(s);
         }
-    }
-
-    private void collectAllReachable(State s) {
-        collectAllHelper(s, new HashSet<State>());
-    }
-
-    private void collectAllHelper(State s, HashSet<State> visited) {
-        if (!visited.contains(s)) {
-            visited.add(s);
-            cyclicStates.add(s);
-            Set<Transition> ts = fa.getTransitions(s);
-            if (ts != null) {
-                for (Transition t : ts) {
-                    State s2 = t.getDst();
-                    collectAllHelper(s2, visited);
+        
+        // everything reachable from a cycle
+        TIntArrayList todo = new TIntArrayList();
+        for (int s=cyclic.nextSetBit(0); s>=0; s=cyclic.nextSetBit(s+1)) {
+            todo.add(s);
+        }
+        while (!todo.isEmpty()) {
+            int s = todo.removeAt(todo.size()-1);
+            for (int t=first[s]; t<first[s+1]; t++) {
+                int d = transDst[t];
+                if (!cyclic.get(d)) {
+                    cyclic.set(d);
+                    todo.add(d);
                 }
             }
         }
+        for (int s=cyclic.nextSetBit(0); s>=0; s=cyclic.nextSetBit(s+1)) {
+            cyclicStates.add(states[s]);
+        }
     }
 
     private PathLookup lblToLookup(Object lbl, PathLock prefix, State prefixState, State currState) {
@@ -29,6 +29,7 @@ package lg.analysis.locks.dominators;
 import java.util.*;
 import java.util.Map.Entry;
 
+import lg.analysis.PointsToQueries;
 import lg.analysis.locks.*;
 import lg.analysis.paths.LockSet;
 import lg.cfg.AtomicSection;
@@ -67,18 +68,15 @@ public class LockDominatorsAnalysis {
                     final PathLock pl = (PathLock)l;
                     BDDPointsToSet pts = (BDDPointsToSet)pl.getPointsToSet();
                     if (isSingleUniqueObject(pts, multiRunAllocNodes)) {
-                        pts.forall(new P2SetVisitor() {
-                            @Override
-                            public void visit(ContextAllocNode n) {
-                                AllocNode an = n.obj();
-                                List<Lock> anLocks = allocToLocks.get(an);
-                                if (anLocks == null) {
-                                    anLocks = new ArrayList<Lock>();
-                                    allocToLocks.put(an, anLocks);
-                                }
-                                anLocks.add(pl);
+                        for (Object o : PointsToQueries.allocNodes(pts)) {
+                            AllocNode an = (AllocNode)o;
+                            List<Lock> anLocks = allocToLocks.get(an);
+                            if (anLocks == null) {
+                                anLocks = new ArrayList<Lock>();
+                                allocToLocks.put(an, anLocks);
                             }
-                        });
+                            anLocks.add(pl);
+                        }
                     }
                 }
             }
@@ -126,24 +124,19 @@ public class LockDominatorsAnalysis {
                     PointsToSetReadOnly pts = (PointsToSetReadOnly)pl.getPointsToSet();
                     if (isSingleUniqueObject(pts, multiRunAllocNodes)) {
                         Logger.println(l + " in atomic " + a.getId() + " is a potential dominator lock", ANSICode.FG_BLUE);
-                        pts.forall(new P2SetVisitor() {
-                            public void visit(ContextAllocNode n) {
-                                AllocNode an = (AllocNode)n.obj();
-                                potentialDominators.add(an); 
-                                potentialDominated.add(an); // all locks dominate themselves
-                                allocs.add(an);
-                            }
-                        });
+                        for (Object o : PointsToQueries.allocNodes(pts)) {
+                            AllocNode an = (AllocNode)o;
+                            potentialDominators.add(an); 
+                            potentialDominated.add(an); // all locks dominate themselves
+                            allocs.add(an);
+                        }
                     }
                     else {
-                        pts.forall(new P2SetVisitor() {
-                            @Override
-                            public void visit(ContextAllocNode n) {
-                                AllocNode an = (AllocNode)n.obj();
-                                potentialDominated.add(an);
-                                allocs.add(an);
-                            }
-                        });
+                        for (Object o : PointsToQueries.allocNodes(pts)) {
+                            AllocNode an = (AllocNode)o;
+                            potentialDominated.add(an);
+                            allocs.add(an);
+                        }
                     }
                 }
             }
@@ -240,18 +233,15 @@ public class LockDominatorsAnalysis {
                     PointsToSetReadOnly pts = (PointsToSetReadOnly)pl.getPointsToSet();
                     // pts may contain multiple alloc nodes, they must all
                     // be dominated for l to be dominated
-                    boolean isDominated = !pl.isStatic() && !pts.isEmpty() && pts.forall(new P2SetVisitor() {
-                        boolean returnValue2 = true;
-                        @Override
-                        public void visit(ContextAllocNode n) {
-                            AllocNode an = n.obj();
-                            returnValue2 &= dominatedToDominator.containsKey(an); 
-                        }
-                        @Override
-                        public boolean getReturnValue() {
-                            return returnValue2;
+                    boolean isDominated = !pl.isStatic() && !pts.isEmpty();
+                    if (isDominated) {
+                        for (Object o : PointsToQueries.allocNodes(pts)) {
+                            if (!dominatedToDominator.containsKey(o)) {
+                                isDominated = false;
+                                break;
+                            }
                         }
-                    });
+                    }
                     // pre: pl.willBeAcquired() == true ?
                     pl.setDominated(isDominated);
                     // post: isDominated -> pl.willBeAcquired() == false ?
@@ -288,20 +278,17 @@ public class LockDominatorsAnalysis {
                 if (l instanceof PathLock) {
                     final PathLock pl = (PathLock)l;
                     BDDPointsToSet pts = (BDDPointsToSet)pl.getPointsToSet();
-                    pts.forall(new P2SetVisitor() {
-                        @Override
-                        public void visit(ContextAllocNode n) {
-                            AllocNode an = n.obj();
-                            if (dominatedToDominator.containsValue(an)) {
-                                Set<Lock> dLocks = dominatorToLocks.get(an);
-                                if (dLocks == null) {
-                                    dLocks = new HashSet<Lock>();
-                                    dominatorToLocks.put(an, dLocks);
-                                }
-                                dLocks.add(pl);
+                    for (Object o : PointsToQueries.allocNodes(pts)) {
+                        AllocNode an = (AllocNode)o;
+                        if (dominatedToDominator.containsValue(an)) {
+                            Set<Lock> dLocks = dominatorToLocks.get(an);
+                            if (dLocks == null) {
+                                dLocks = new HashSet<Lock>();
+                                dominatorToLocks.put(an, dLocks);
                             }
+                            dLocks.add(pl);
                         }
-                    });
+                    }
                 }
             }
             // Second, build dominator lock -> dominated locks relation
@@ -312,26 +299,22 @@ public class LockDominatorsAnalysis {
                         // find all dominator locks for this atomic and add pl
                         // to their sets
                         BDDPointsToSet pts = (BDDPointsToSet)pl.getPointsToSet();
-                        pts.forall(new P2SetVisitor() {
-                            @Override
-                            public void visit(ContextAllocNode n) {
-                                AllocNode an = n.obj();
-                                AllocNode dr = dominatedToDominator.get(an);
-                                if (dr != null) {
-                                    Set<Lock> drlocks = dominatorToLocks.get(dr);
-                                    if (drlocks != null) {
-                                        for (Lock drlock : drlocks) {
-                                            Set<Lock> ddlocks = dominatorToDominatedLocks.get(drlock);
-                                            if (ddlocks == null) {
-                                                ddlocks = new HashSet<Lock>();
-                                                dominatorToDominatedLocks.put(drlock, ddlocks);
-                                            }
-                                            ddlocks.add(pl);
+                        for (Object o : PointsToQueries.allocNodes(pts)) {
+                            AllocNode dr = dominatedToDominator.get(o);
+                            if (dr != null) {
+                                Set<Lock> drlocks = dominatorToLocks.get(dr);
+                                if (drlocks != null) {
+                                    for (Lock drlock : drlocks) {
+                                        Set<Lock> ddlocks = dominatorToDominatedLocks.get(drlock);
+                                        if (ddlocks == null) {
+                                            ddlocks = new HashSet<Lock>();
+                                            dominatorToDominatedLocks.put(drlock, ddlocks);
                                         }
+                                        ddlocks.add(pl);
                                     }
                                 }
                             }
-                        });
+                        }
                     }
                 }
             }
@@ -363,20 +346,11 @@ public class LockDominatorsAnalysis {
     
     private boolean isSingleUniqueObject(PointsToSet pts, final Set<AllocNode> multiRunAllocNodes) {
         if (pts instanceof PointsToSetReadOnly) {
-            PointsToSetReadOnly ptsi = (PointsToSetReadOnly)pts;
-            if (ptsi.size() == 1) {
-                final boolean[] b = new boolean[1];
-                b[0] = false;
-                ptsi.forall(new P2SetVisitor() {
-                    @Override
-                    public void visit(ContextAllocNode n) {
-                        // check that the AllocNode n is only ever executed once
-                        // (i.e. so that the created object is unique)
-                        AllocNode an = (AllocNode)n.obj();
-                        b[0] = isSingleRunAllocNode(an, multiRunAllocNodes);
-                    }
-                });
-                return b[0];
+            if (PointsToQueries.isSingleton(pts)) {
+                // check that the AllocNode is only ever executed once
+                // (i.e. so that the created object is unique)
+                AllocNode an = (AllocNode)PointsToQueries.allocNodes(pts).get(0);
+                return isSingleRunAllocNode(an, multiRunAllocNodes);
             }
             else {
                 return false;
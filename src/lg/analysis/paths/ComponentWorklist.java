@@ -0,0 +1,359 @@
+/*
+ * Copyright (c) 2013, Khilan Gudka.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package lg.analysis.paths;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import lg.util.Component;
+import soot.SootMethod;
+import soot.Unit;
+
+/**
+ * Intra- and inter-procedural worklists for the units of a component.
+ * 
+ * Pending units are kept in two lock-free bitsets indexed by unit number.
+ * As the units of each method are numbered contiguously (end unit first,
+ * start unit last), the bits of a method form a range and polling returns
+ * its lowest numbered pending unit, i.e. units are processed in pseudo
+ * topological order without building per-method sorted sets.
+ * 
+ * Units can either be processed in alternating intra and inter sweeps
+ * (sweepIntra/sweepInter) or asynchronously until a fixed point is reached
+ * (run). In the latter, a method with pending units is pushed onto the
+ * deque of the worker that made it pending. Workers take methods from the
+ * tail of their own deque and steal from the head of the others'. A method
+ * is owned by at most one worker at a time, which processes both its intra
+ * and inter units, so only the owner updates the per-unit state of the
+ * method's own units. Processors that read or write state belonging to
+ * another method must provide their own happens-before edge. PathsAnalysis
+ * publishes callee summaries through the synchronized methodToSummary map.
+ * A published summary is not updated in place until the workers have
+ * finished: when the owner keeps updating its stored start entry
+ * (store-entry), it publishes a copy. Callee deltas are added to a call
+ * site only while holding the call site's monitor, which the caller also
+ * holds when it takes the delta.
+ */
+public class ComponentWorklist {
+    
+    public interface UnitProcessor {
+        void process(Unit u, SootMethod m);
+    }
+    
+    UnitNumberer numberer;
+    
+    // methods sorted by their first unit number
+    SootMethod[] methods;
+    int[] firstUnit;
+    int[] lastUnit;
+    
+    AtomicLongArray intraBits;
+    AtomicLongArray interBits;
+    AtomicInteger intraCount;
+    AtomicInteger interCount;
+    
+    // used when running asynchronously. deques is assigned before async is
+    // set, so any thread that sees async sees the deques.
+    volatile boolean async;
+    AtomicIntegerArray scheduled;
+    AtomicInteger active;
+    AtomicBoolean failed;
+    List<ConcurrentLinkedDeque<Integer>> deques;
+    ThreadLocal<ConcurrentLinkedDeque<Integer>> localDeque;
+    AtomicInteger nextDeque;
+    
+    public ComponentWorklist(Component c, UnitNumberer n, Map<SootMethod,Unit> methodToEndUnit, Map<SootMethod,Unit> methodToStartUnit) {
+        numberer = n;
+        
+        List<SootMethod> ms = new ArrayList<SootMethod>(c);
+        final Map<SootMethod,Integer> firsts = new HashMap<SootMethod, Integer>();
+        for (SootMethod m : ms) {
+            firsts.put(m, numberer.getNumber(methodToEndUnit.get(m)));
+        }
+        Collections.sort(ms, new Comparator<SootMethod>() {
+            public int compare(SootMethod m1, SootMethod m2) {
+                return firsts.get(m1) - firsts.get(m2);
+            }
+        });
+        methods = ms.toArray(new SootMethod[ms.size()]);
+        firstUnit = new int[methods.length];
+        lastUnit = new int[methods.length];
+        for (int i=0; i<methods.length; i++) {
+            firstUnit[i] = firsts.get(methods[i]);
+            lastUnit[i] = numberer.getNumber(methodToStartUnit.get(methods[i]));
+        }
+        
+        int words = (numberer.size() >>> 6) + 1;
+        intraBits = new AtomicLongArray(words);
+        interBits = new AtomicLongArray(words);
+        intraCount = new AtomicInteger(0);
+        interCount = new AtomicInteger(0);
+        
+        scheduled = new AtomicIntegerArray(methods.length);
+        active = new AtomicInteger(0);
+        failed = new AtomicBoolean(false);
+        nextDeque = new AtomicInteger(0);
+        localDeque = new ThreadLocal<ConcurrentLinkedDeque<Integer>>();
+    }
+    
+    public void addIntra(Unit u) {
+        add(u, intraBits, intraCount);
+    }
+    
+    public void addInter(Unit u) {
+        add(u, interBits, interCount);
+    }
+    
+    public int intraSize() {
+        return intraCount.get();
+    }
+    
+    public int interSize() {
+        return interCount.get();
+    }
+    
+    public boolean isEmpty() {
+        return intraCount.get() == 0 && interCount.get() == 0;
+    }
+    
+    // Processes all pending intra units, one task per method. Units added
+    // to a method's worklist while it is being processed are processed too.
+    public void sweepIntra(final UnitProcessor processor, ExecutorService pool) {
+        sweep(processor, pool, intraBits, intraCount);
+    }
+    
+    // Processes all pending inter units, one task per method
+    public void sweepInter(final UnitProcessor processor, ExecutorService pool) {
+        sweep(processor, pool, interBits, interCount);
+    }
+    
+    private void sweep(final UnitProcessor processor, ExecutorService pool, final AtomicLongArray bits, final AtomicInteger count) {
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+        for (int i=0; i<methods.length; i++) {
+            if (hasPending(bits, i)) {
+                final int mi = i;
+                tasks.add(new Callable<Object>() {
+                    public Object call() {
+                        Unit u;
+                        while ((u = poll(bits, count, mi)) != null) {
+                            processor.process(u, methods[mi]);
+                        }
+                        return null;
+                    }
+                });
+            }
+        }
+        invokeAll(pool, tasks);
+    }
+    
+    // Processes units until no more are pending, using the given number of
+    // workers. Intra units of a method are processed before its inter units,
+    // so that exits are available when call sites are revisited.
+    public void run(final UnitProcessor intra, final UnitProcessor inter, ExecutorService pool, int workers) {
+        deques = new ArrayList<ConcurrentLinkedDeque<Integer>>();
+        for (int i=0; i<workers; i++) {
+            deques.add(new ConcurrentLinkedDeque<Integer>());
+        }
+        async = true;
+        for (int i=0; i<methods.length; i++) {
+            if (hasPending(intraBits, i) || hasPending(interBits, i)) {
+                schedule(i);
+            }
+        }
+        
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+        for (int i=0; i<workers; i++) {
+            final int wi = i;
+            tasks.add(new Callable<Object>() {
+                public Object call() {
+                    ConcurrentLinkedDeque<Integer> own = deques.get(wi);
+                    localDeque.set(own);
+                    try {
+                        while (!failed.get()) {
+                            Integer mi = own.pollLast();
+                            if (mi == null) {
+                                mi = steal(wi);
+                            }
+                            if (mi != null) {
+                                processMethod(mi, intra, inter);
+                            }
+                            else if (active.get() == 0) {
+                                break;
+                            }
+                            else {
+                                Thread.yield();
+                            }
+                        }
+                    }
+                    catch (RuntimeException e) {
+                        failed.set(true);
+                        throw e;
+                    }
+                    catch (Error e) {
+                        failed.set(true);
+                        throw e;
+                    }
+                    finally {
+                        localDeque.remove();
+                    }
+                    return null;
+                }
+            });
+        }
+        invokeAll(pool, tasks);
+        async = false;
+        deques = null;
+    }
+    
+    private void processMethod(int mi, UnitProcessor intra, UnitProcessor inter) {
+        SootMethod m = methods[mi];
+        do {
+            while (true) {
+                Unit u;
+                while ((u = poll(intraBits, intraCount, mi)) != null) {
+                    intra.process(u, m);
+                }
+                u = poll(interBits, interCount, mi);
+                if (u == null) {
+                    break;
+                }
+                inter.process(u, m);
+            }
+            // Release m. Units may have been added after the last poll but
+            // before scheduled was reset, in which case we continue with m.
+            scheduled.set(mi, 0);
+        } while ((hasPending(intraBits, mi) || hasPending(interBits, mi)) && scheduled.compareAndSet(mi, 0, 1));
+        active.decrementAndGet();
+    }
+    
+    private Integer steal(int wi) {
+        for (int i=1; i<deques.size(); i++) {
+            Integer mi = deques.get((wi + i) % deques.size()).pollFirst();
+            if (mi != null) {
+                return mi;
+            }
+        }
+        return null;
+    }
+    
+    private void schedule(int mi) {
+        if (scheduled.compareAndSet(mi, 0, 1)) {
+            active.incrementAndGet();
+            ConcurrentLinkedDeque<Integer> deque = localDeque.get();
+            if (deque == null) {
+                deque = deques.get((nextDeque.getAndIncrement() & Integer.MAX_VALUE) % deques.size());
+            }
+            deque.addLast(mi);
+        }
+    }
+    
+    private void add(Unit u, AtomicLongArray bits, AtomicInteger count) {
+        int n = numberer.getNumber(u);
+        if (n < 0) {
+            throw new IllegalArgumentException("Unit has not been numbered: " + u);
+        }
+        int w = n >>> 6;
+        long b = 1L << (n & 63);
+        while (true) {
+            long cur = bits.get(w);
+            if ((cur & b) != 0) {
+                return;
+            }
+            if (bits.compareAndSet(w, cur, cur | b)) {
+                count.incrementAndGet();
+                break;
+            }
+        }
+        if (async) {
+            schedule(methodIndex(n));
+        }
+    }
+    
+    // removes and returns the lowest numbered pending unit of method mi
+    private Unit poll(AtomicLongArray bits, AtomicInteger count, int mi) {
+        int lo = firstUnit[mi];
+        int hi = lastUnit[mi];
+        for (int w = lo >>> 6; w <= hi >>> 6; w++) {
+            long mask = rangeMask(w, lo, hi);
+            while (true) {
+                long cur = bits.get(w);
+                long pending = cur & mask;
+                if (pending == 0) {
+                    break;
+                }
+                long b = Long.lowestOneBit(pending);
+                if (bits.compareAndSet(w, cur, cur & ~b)) {
+                    count.decrementAndGet();
+                    return numberer.get((w << 6) + Long.numberOfTrailingZeros(b));
+                }
+            }
+        }
+        return null;
+    }
+    
+    private boolean hasPending(AtomicLongArray bits, int mi) {
+        int lo = firstUnit[mi];
+        int hi = lastUnit[mi];
+        for (int w = lo >>> 6; w <= hi >>> 6; w++) {
+            if ((bits.get(w) & rangeMask(w, lo, hi)) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    // bits of word w that lie within [lo,hi]
+    private static long rangeMask(int w, int lo, int hi) {
+        int from = Math.max(lo, w << 6) & 63;
+        int to = Math.min(hi, (w << 6) + 63) & 63;
+        return (-1L << from) & (-1L >>> (63 - to));
+    }
+    
+    private int methodIndex(int n) {
+        int i = Arrays.binarySearch(firstUnit, n);
+        return i >= 0 ? i : -i - 2;
+    }
+    
+    private static void invokeAll(ExecutorService pool, List<Callable<Object>> tasks) {
+        try {
+            for (Future<Object> f : pool.invokeAll(tasks)) {
+                f.get();
+            }
+        }
+        catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
@@ -0,0 +1,354 @@
+/*
+ * Copyright (c) 2013, Khilan Gudka.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package lg.analysis.paths;
+
+import gnu.trove.map.hash.TIntIntHashMap;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import lg.analysis.paths.transformer.*;
+import lg.analysis.paths.transformer.fast.TransformerEdgeFactory;
+import lg.analysis.paths.transformer.state.*;
+import lg.cfg.CFGCache;
+import lg.util.*;
+import soot.*;
+import soot.jimple.Stmt;
+
+// Summaries persisted across runs for incremental re-analysis. Each method
+// has a fingerprint of its Jimple body and each component has a fingerprint
+// of its methods and (transitively) of its callee components. A component's
+// saved summaries are reused only if its fingerprint is unchanged, so a
+// change in a method invalidates it and everything that (indirectly) calls
+// it. Symbol and state numbers are not stable across runs, so they are saved
+// as keys (field signatures, method signature + unit index, ...) and mapped
+// to this run's numbers when summaries are reused.
+public class IncrementalSummaries {
+
+    // fingerprints for this run
+    static Map<SootMethod,Long> methodToFingerprint = new ConcurrentHashMap<SootMethod, Long>();
+    static Map<Component,Long> componentToFingerprint = new ConcurrentHashMap<Component, Long>();
+    static Map<SootMethod,Long> methodToComponentFingerprint = new ConcurrentHashMap<SootMethod, Long>();
+    
+    // from the previous run
+    static Map<String,Long> savedMethodFingerprints = null;
+    static Map<String,Long> savedComponentFingerprints = null;
+    static Map<String,ITransformer> savedSummaries = null;
+    static Map<Integer,String> savedSymbols = null;
+    static Map<Integer,String> savedStates = null;
+    
+    // previous run's numbers -> this run's numbers
+    static TIntIntHashMap symbolMap = null;
+    static TIntIntHashMap stateMap = null;
+    
+    private IncrementalSummaries() { }
+    
+    @SuppressWarnings("unchecked")
+    public static void load(String filename) {
+        File f = new File(filename);
+        if (!f.exists()) {
+            Logger.println("No summaries in " + filename + ", analysing from scratch");
+            return;
+        }
+        long startTime = System.currentTimeMillis();
+        try {
+            ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(f)));
+            savedMethodFingerprints = (Map<String,Long>)in.readObject();
+            savedComponentFingerprints = (Map<String,Long>)in.readObject();
+            savedSummaries = (Map<String,ITransformer>)in.readObject();
+            savedSymbols = (Map<Integer,String>)in.readObject();
+            savedStates = (Map<Integer,String>)in.readObject();
+            int symbolBits = TransformerEdgeFactory.DEFAULT_SYMBOL_BITS;
+            try {
+                symbolBits = (Integer)in.readObject();
+            }
+            catch (EOFException e) {
+                // saved before the edge layout was recorded
+            }
+            in.close();
+            if (symbolBits != TransformerEdgeFactory.getSymbolBits()) {
+                Logger.println("Summaries in " + filename + " use " + symbolBits + "-bit symbols, analysing from scratch");
+                savedSummaries = null;
+                return;
+            }
+        }
+        catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        long took = System.currentTimeMillis() - startTime;
+        Logger.println("Loaded " + savedSummaries.size() + " summaries from " + filename + String.format(" (took %.2f seconds)", took/1000.0));
+    }
+    
+    // Installs c's saved summaries if c is unchanged since they were saved.
+    // Returns false if c needs to be (re-)analysed.
+    public static boolean reuse(Component c, StronglyConnectedComponentsDAG dag) {
+        if (savedSummaries == null) {
+            return false;
+        }
+        long fp = getFingerprint(c, dag);
+        for (SootMethod m : c) {
+            String sig = m.getSignature();
+            Long savedFp = savedComponentFingerprints.get(sig);
+            if (savedFp == null || savedFp.longValue() != fp || !savedSummaries.containsKey(sig)) {
+                return false;
+            }
+        }
+        resolveNumbers();
+        Map<SootMethod,ITransformer> summaries = new HashMap<SootMethod, ITransformer>();
+        for (SootMethod m : c) {
+            ITransformer t = savedSummaries.get(m.getSignature()).renumber(symbolMap, stateMap);
+            if (t == null) {
+                return false;
+            }
+            summaries.put(m, t);
+        }
+        for (SootMethod m : c) {
+            PathsAnalysis.methodToSummary.put(m, summaries.get(m));
+            methodToComponentFingerprint.put(m, fp);
+        }
+        Logger.println("Reusing saved summaries for component " + c.getId() + " (" + c.size() + " methods)");
+        return true;
+    }
+    
+    // records the fingerprint of a freshly analysed component so that its
+    // summaries are saved
+    public static void analysed(Component c, StronglyConnectedComponentsDAG dag) {
+        long fp = getFingerprint(c, dag);
+        for (SootMethod m : c) {
+            methodToComponentFingerprint.put(m, fp);
+        }
+    }
+    
+    // must be called before instrumentation changes any method bodies
+    public static void save(String filename) {
+        long startTime = System.currentTimeMillis();
+        
+        Map<String,Long> methodFps = new HashMap<String, Long>();
+        Map<String,Long> componentFps = new HashMap<String, Long>();
+        Map<String,ITransformer> summaries = new HashMap<String, ITransformer>();
+        for (Map.Entry<SootMethod,Long> e : methodToComponentFingerprint.entrySet()) {
+            SootMethod m = e.getKey();
+            ITransformer t = PathsAnalysis.getSummary(m);
+            if (t != null) {
+                String sig = m.getSignature();
+                summaries.put(sig, t);
+                componentFps.put(sig, e.getValue());
+                methodFps.put(sig, getFingerprint(m));
+            }
+        }
+        
+        Map<Integer,String> symbols = new HashMap<Integer, String>();
+        for (int i=1; i<=SymbolNumberer.size(); i++) {
+            String key = symbolKey(SymbolNumberer.getObject(i));
+            if (key != null) {
+                symbols.put(i, key);
+            }
+        }
+        
+        Map<Integer,String> states = new HashMap<Integer, String>();
+        Map<SootMethod,Map<Unit,Integer>> methodToUnitIndices = new HashMap<SootMethod, Map<Unit,Integer>>();
+        for (State s : StateFactory.getNumToStateMap().values()) {
+            Stmt n = s.getStmt();
+            ContainingMethodTag tag = n == null ? null : (ContainingMethodTag)n.getTag(ContainingMethodTag.TAG_NAME);
+            if (tag != null) {
+                SootMethod m = tag.getMethod();
+                Map<Unit,Integer> unitIndices = methodToUnitIndices.get(m);
+                if (unitIndices == null) {
+                    unitIndices = new HashMap<Unit, Integer>();
+                    int i = 0;
+                    for (Unit u : CFGCache.getCFG(m).getBody().getUnits()) {
+                        unitIndices.put(u, i++);
+                    }
+                    methodToUnitIndices.put(m, unitIndices);
+                    methodFps.put(m.getSignature(), getFingerprint(m));
+                }
+                Integer i = unitIndices.get(n);
+                if (i != null) {
+                    states.put(s.getNumber(), m.getSignature() + "#" + i);
+                }
+            }
+        }
+        
+        try {
+            ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(filename)));
+            out.writeObject(methodFps);
+            out.writeObject(componentFps);
+            out.writeObject(summaries);
+            out.writeObject(symbols);
+            out.writeObject(states);
+            out.writeObject(TransformerEdgeFactory.getSymbolBits());
+            out.close();
+        }
+        catch (IOException ioe) {
+            throw new RuntimeException(ioe);
+        }
+        long took = System.currentTimeMillis() - startTime;
+        Logger.println("Saved " + summaries.size() + " summaries to " + filename + String.format(" (took %.2f seconds)", took/1000.0));
+    }
+    
+    // 64-bit FNV-1a hash of m's signature and Jimple body
+    static long getFingerprint(SootMethod m) {
+        Long fp = methodToFingerprint.get(m);
+        if (fp == null) {
+            long h = 0xcbf29ce484222325L;
+            h = hash(h, m.getSignature());
+            for (Unit u : CFGCache.getCFG(m).getBody().getUnits()) {
+                h = hash(h, u.toString());
+            }
+            fp = h;
+            methodToFingerprint.put(m, fp);
+        }
+        return fp;
+    }
+    
+    // combines c's methods and its successors' fingerprints (order independent
+    // as a component's methods are sorted by their soot numbers, which aren't
+    // stable across runs)
+    static long getFingerprint(Component c, StronglyConnectedComponentsDAG dag) {
+        Long fp = componentToFingerprint.get(c);
+        if (fp == null) {
+            long h = c.size();
+            for (SootMethod m : c) {
+                h += mix(getFingerprint(m));
+            }
+            for (Component c2 : dag.getSuccsOf(c)) {
+                h += 31 * mix(getFingerprint(c2, dag));
+            }
+            fp = h;
+            componentToFingerprint.put(c, fp);
+        }
+        return fp;
+    }
+    
+    private static long hash(long h, String s) {
+        for (int i=0; i<s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= '\n';
+        h *= 0x100000001b3L;
+        return h;
+    }
+    
+    // murmur3 finaliser
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+    
+    private static String symbolKey(Object o) {
+        if (o instanceof SootField) {
+            return "F" + ((SootField)o).getSignature();
+        }
+        else if (o instanceof SootClass) {
+            return "C" + ((SootClass)o).getName();
+        }
+        else if (o instanceof ReturnVariable) {
+            return "R";
+        }
+        else if (o instanceof ThisVariable) {
+            return "T";
+        }
+        else if (o instanceof ParameterVariable) {
+            return "P" + ((ParameterVariable)o).getNum();
+        }
+        else if (o instanceof Access) {
+            return "A";
+        }
+        else if (o instanceof ArrayElement) {
+            return "E";
+        }
+        // locals are method-specific and shouldn't appear in summaries
+        return null;
+    }
+    
+    private static Object resolveSymbol(String key) {
+        Scene scene = Scene.v();
+        String s = key.substring(1);
+        switch (key.charAt(0)) {
+            case 'F': return scene.containsField(s) ? scene.getField(s) : null;
+            case 'C': return scene.containsClass(s) ? scene.getSootClass(s) : null;
+            case 'R': return ReturnVariable.v();
+            case 'T': return ThisVariable.v();
+            case 'P': return ParameterVariable.v(Integer.parseInt(s));
+            case 'A': return Access.v();
+            case 'E': return ArrayElement.v();
+            default: return null;
+        }
+    }
+    
+    // Maps the previous run's symbol and state numbers to this run's. States
+    // are only mapped for methods whose bodies haven't changed.
+    private static synchronized void resolveNumbers() {
+        if (symbolMap != null) {
+            return;
+        }
+        TIntIntHashMap symbols = new TIntIntHashMap();
+        for (Map.Entry<Integer,String> e : savedSymbols.entrySet()) {
+            Object o = resolveSymbol(e.getValue());
+            if (o != null) {
+                symbols.put(e.getKey(), SymbolNumberer.getNumber(o));
+            }
+        }
+        
+        TIntIntHashMap states = new TIntIntHashMap();
+        Map<SootMethod,List<Unit>> methodToUnits = new HashMap<SootMethod, List<Unit>>();
+        Scene scene = Scene.v();
+        for (Map.Entry<Integer,String> e : savedStates.entrySet()) {
+            String key = e.getValue();
+            int hash = key.lastIndexOf('#');
+            String sig = key.substring(0, hash);
+            if (!scene.containsMethod(sig)) {
+                continue;
+            }
+            SootMethod m = scene.getMethod(sig);
+            List<Unit> units = methodToUnits.get(m);
+            if (units == null) {
+                Long savedFp = savedMethodFingerprints.get(sig);
+                if (!m.isConcrete() || savedFp == null || savedFp.longValue() != getFingerprint(m)) {
+                    continue;
+                }
+                units = new ArrayList<Unit>(CFGCache.getCFG(m).getBody().getUnits());
+                methodToUnits.put(m, units);
+            }
+            Stmt n = (Stmt)units.get(Integer.parseInt(key.substring(hash+1)));
+            if (!n.hasTag(ContainingMethodTag.TAG_NAME)) {
+                n.addTag(new ContainingMethodTag(m));
+            }
+            states.put(e.getKey(), StateFactory.v(n).getNumber());
+        }
+        
+        stateMap = states;
+        symbolMap = symbols;
+    }
+    
+}
@@ -31,16 +31,22 @@ import gnu.trove.map.hash.TIntIntHashMap;
 
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import lg.analysis.locks.AutomatonToLocks;
+import lg.analysis.paths.ComponentWorklist.UnitProcessor;
 import lg.analysis.paths.automata.Automaton;
 import lg.analysis.paths.transformer.*;
 import lg.analysis.paths.transformer.fast.*;
 import lg.analysis.paths.transformer.fast.Transformer;
 import lg.analysis.paths.transformer.state.*;
 import lg.cfg.*;
-import lg.cg.NonColdEdgesPred;
+import lg.cg.CallGraphIndex;
 import lg.dot.CFGToDotGraphWithLabels;
 import lg.transformer.AtomicTransformer;
 import lg.util.*;
@@ -54,29 +60,37 @@ import soot.util.dot.DotGraph;
 
 public class PathsAnalysis {
     
-	Map<Unit,ITransformer> unitToTransformer;
-	Map<Unit,ITransformer> unitToTransformerDelta;
-	Map<Unit,ITransformer> unitToEntry;
+	// Per-unit state is kept in arrays indexed by unitNumberer, which
+	// numbers the units of the component being analysed densely.
+	UnitMap<ITransformer> unitToTransformer;
+	UnitMap<ITransformer> unitToTransformerDelta;
+	UnitMap<ITransformer> unitToEntry;
 //	Map<Unit,Transformer> unitToEntryDelta;
-	Map<Unit,ITransformer> unitToExit;
-	Map<Unit,ITransformer> unitToExitDelta;
-	Map<Unit,List<Unit>> unitToPreds;
-	Map<Unit,List<Unit>> unitToSuccs;
+	UnitMap<ITransformer> unitToExit;
+	UnitMap<ITransformer> unitToExitDelta;
+	UnitMap<List<Unit>> unitToPreds;
+	UnitMap<List<Unit>> unitToSuccs;
 	
-	Map<Unit,List<Unit>> unitToJumpPreds;
-	Map<Unit,Map<Unit,ITransformer>> unitToJumpSuccs;
+	UnitMap<List<Unit>> unitToJumpPreds;
+	UnitMap<Map<Unit,ITransformer>> unitToJumpSuccs;
 	
-	Map<Unit,TIntIntHashMap> callToParamsArgs;
-	Map<Unit,List<SootMethod>> callerToCallees;
+	UnitMap<TIntIntHashMap> callToParamsArgs;
+	UnitMap<List<SootMethod>> callerToCallees;
 	Map<SootMethod,List<Unit>> calleeToCallers;
 	Map<SootMethod,Unit> methodToStartUnit;
 	Map<SootMethod,Unit> methodToEndUnit;
-	Map<Unit,SootMethod> startUnitToMethod;
-	Map<Unit,SootMethod> unitToMethod;
+	UnitMap<SootMethod> startUnitToMethod;
+	UnitMap<SootMethod> unitToMethod;
 	
-	Map<Unit,Integer> numbers;
+	UnitNumberer unitNumberer;
+	List<UnitMap<?>> unitMaps;
 
 	static Map<SootMethod,ITransformer> methodToSummary = Collections.synchronizedMap(new HashMap<SootMethod, ITransformer>());
+	
+	// Components that some PathsAnalysis has claimed. Ensures that, when
+	// atomics are analysed concurrently, each component is analysed once and
+	// nobody reads the placeholder summaries of a component still in progress.
+	static ConcurrentMap<Component,FutureTask<Component>> componentToTask = new ConcurrentHashMap<Component, FutureTask<Component>>();
 
 	AtomicSection a;
 	Set<Component> components;
@@ -95,7 +109,7 @@ public class PathsAnalysis {
 
 	CFGToDotGraph cfgToDotter;
 	CallGraph cg;
-	NonColdEdgesPred edgesPred;
+	CallGraphIndex cgIndex;
 	
 	List<Unit> unitsToCompactInComponent;
 	
@@ -104,6 +118,13 @@ public class PathsAnalysis {
 	//Map<Unit,Set<Unit>> unitToReachables;
 	
 	public PathsAnalysis(AtomicSection as, Set<Component> cs, StronglyConnectedComponentsDAG componentsDag) {
+	    this(as, cs, componentsDag, null);
+	}
+	
+	// When parent is non-null, this is a worker used to analyse a single
+	// component in parallel with others. It has its own unit maps but shares
+	// methodToSummary (and the component counter) with the parent.
+	private PathsAnalysis(AtomicSection as, Set<Component> cs, StronglyConnectedComponentsDAG componentsDag, PathsAnalysis parent) {
 	    
         debug = AtomicTransformer.DEBUG;
         reduceCfg = AtomicTransformer.REDUCE_CFG;
@@ -113,31 +134,40 @@ public class PathsAnalysis {
         storeEntry = AtomicTransformer.STORE_ENTRY;
         useDeltas = AtomicTransformer.DELTAS;	    
 	    
-		unitToTransformer = Collections.synchronizedMap(new HashMap<Unit, ITransformer>());
-		unitToTransformerDelta = useDeltas ? Collections.synchronizedMap(new HashMap<Unit, ITransformer>()) : null;
-		unitToEntry = Collections.synchronizedMap(new HashMap<Unit, ITransformer>());
+		unitNumberer = new UnitNumberer();
+		unitMaps = new ArrayList<UnitMap<?>>();
+		unitToTransformer = newUnitMap();
+		unitToTransformerDelta = useDeltas ? this.<ITransformer>newUnitMap() : null;
+		unitToEntry = newUnitMap();
 //		unitToEntryDelta = Collections.synchronizedMap(new HashMap<Unit, Transformer>());
-		unitToExit = Collections.synchronizedMap(new HashMap<Unit, ITransformer>());
-		unitToExitDelta = useDeltas ? Collections.synchronizedMap(new HashMap<Unit, ITransformer>()) : null;
-		unitToPreds = Collections.synchronizedMap(new HashMap<Unit, List<Unit>>());
-		unitToSuccs = Collections.synchronizedMap(new HashMap<Unit, List<Unit>>());
-		unitToJumpPreds = Collections.synchronizedMap(new HashMap<Unit, List<Unit>>());
-		unitToJumpSuccs = Collections.synchronizedMap(new HashMap<Unit, Map<Unit,ITransformer>>());
-		methodToStartUnit = Collections.synchronizedMap(new HashMap<SootMethod, Unit>());
-		methodToEndUnit = Collections.synchronizedMap(new HashMap<SootMethod, Unit>());
-		startUnitToMethod = Collections.synchronizedMap(new HashMap<Unit,SootMethod>());
-		unitToMethod = Collections.synchronizedMap(new HashMap<Unit, SootMethod>());
-		numbers = Collections.synchronizedMap(new HashMap<Unit, Integer>());
-		callerToCallees = Collections.synchronizedMap(new HashMap<Unit, List<SootMethod>>());
-		calleeToCallers = Collections.synchronizedMap(new HashMap<SootMethod, List<Unit>>());
-		callToParamsArgs = Collections.synchronizedMap(new HashMap<Unit, TIntIntHashMap>());
+		unitToExit = newUnitMap();
+		unitToExitDelta = useDeltas ? this.<ITransformer>newUnitMap() : null;
+		unitToPreds = newUnitMap();
+		unitToSuccs = newUnitMap();
+		unitToJumpPreds = newUnitMap();
+		unitToJumpSuccs = newUnitMap();
+		// only written serially (while numbering units), so not synchronized
+		methodToStartUnit = new HashMap<SootMethod, Unit>();
+		methodToEndUnit = new HashMap<SootMethod, Unit>();
+		calleeToCallers = new HashMap<SootMethod, List<Unit>>();
+		startUnitToMethod = newUnitMap();
+		unitToMethod = newUnitMap();
+		callerToCallees = newUnitMap();
+		callToParamsArgs = newUnitMap();
 		a = as;
 		components = cs;
-		numComponents = 0;
-		for (Component c : components) {
-		    if (!hasAlreadyBeenAnalysed(c)) {
-		        numComponents++;
+		if (parent != null) {
+		    numComponents = parent.numComponents;
+		    componentCounter = parent.componentCounter;
+		}
+		else {
+		    numComponents = 0;
+		    for (Component c : components) {
+		        if (!hasAlreadyBeenAnalysed(c)) {
+		            numComponents++;
+		        }
 		    }
+		    componentCounter = new AtomicInteger(0);
 		}
 		
 		dag = componentsDag;
@@ -147,7 +177,7 @@ public class PathsAnalysis {
 		
 		cfgToDotter = new CFGToDotGraphWithLabels();
 		cg = Scene.v().getCallGraph();
-		edgesPred = new NonColdEdgesPred();
+		cgIndex = CallGraphIndex.v();
 		
 		unitsToCompactInComponent = Collections.synchronizedList(new ArrayList<Unit>());
 	}
@@ -177,6 +207,43 @@ public class PathsAnalysis {
 
         final AtomicInteger invokeCount = new AtomicInteger(0);
         final AtomicInteger allInLowerComponentsCount = new AtomicInteger(0);
+        
+        // Number units densely. The orderings are computed in parallel but
+        // numbers are handed out serially: for each method, its end unit,
+        // then its units in pseudo topological order and finally its start
+        // unit. This is also the order in which worklists are processed.
+        final Map<SootMethod,List<Unit>> methodToOrderedUnits = new ConcurrentHashMap<SootMethod, List<Unit>>();
+        List<Callable<Object>> orderTasks = new ArrayList<Callable<Object>>();
+        for (final SootMethod m : c) {
+            orderTasks.add(new Callable<Object>() {
+                public Object call() {
+                    ExceptionalUnitGraph cfg = CFGCache.getCFG(m);
+                    methodToOrderedUnits.put(m, new PseudoTopologicalOrderer().newList(cfg, true));
+                    return null;
+                }
+            });
+        }
+        
+        try {
+            AtomicTransformer.POOL.invokeAll(orderTasks);
+        }
+        catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        
+        for (SootMethod m : c) {
+            Stmt start = new StartStmt();
+            Stmt end = new EndStmt();
+            unitNumberer.add(end);
+            for (Unit u : methodToOrderedUnits.get(m)) {
+                unitNumberer.add(u);
+            }
+            unitNumberer.add(start);
+            methodToStartUnit.put(m, start);
+            methodToEndUnit.put(m, end);
+            calleeToCallers.put(m, Collections.synchronizedList(new ArrayList<Unit>()));
+        }
+        allocateUnitMaps();
 
         List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
 		// populate maps
@@ -199,7 +266,7 @@ public class PathsAnalysis {
         			}
         
         			// insert single start node
-        			Stmt start = new StartStmt();
+        			Unit start = methodToStartUnit.get(m);
         			startUnitToMethod.put(start, m);
         			unitToTransformer.put(start, createTransformer(start, m));
         			for (Unit h : cfg.getHeads()) {
@@ -211,10 +278,9 @@ public class PathsAnalysis {
         			unitToEntry.put(start, identityTransformer);
         //			unitToExitDelta.put(start, initialDeltaTransformer);
         			unitToMethod.put(start, m);
-        			methodToStartUnit.put(m, start);
         			
         			// insert single end node
-        			Stmt end = new EndStmt();
+        			Unit end = methodToEndUnit.get(m);
         			for (Unit t : cfg.getTails()) {
         				List<Unit> succs = unitToSuccs.get(t);
         				succs.add(end);
@@ -222,41 +288,18 @@ public class PathsAnalysis {
         			List<Unit> tails = cfg.getTails();
         			unitToPreds.put(end, tails);
         			unitToSuccs.put(end, new ArrayList<Unit>());
-        			methodToEndUnit.put(m, end);
         			unitToTransformer.put(end, createTransformer(end, m));
         //			unitToExitDelta.put(end, initialDeltaTransformer);
         			unitToMethod.put(end, m);
-        			
-        			// calculate pseudo topological ordering
-                    List<Unit> orderedUnits = new PseudoTopologicalOrderer().newList(cfg, true);
-                    numbers.put(end, 1);
-                    int i = 2;
-                    for (Unit u : orderedUnits) {
-                        numbers.put(u, new Integer(i));
-                        i++;
-                    }
-                    numbers.put(start, i);
         
                     // record caller to callees, create invoke stmt transformers
                     for (Unit u : cfg) {
                         Stmt s = (Stmt)u;
                         if (s.containsInvokeExpr()) {
-                            List<SootMethod> targets = new ArrayList<SootMethod>();
-                            for (Iterator<Edge> edgesIt=cg.edgesOutOf(u); edgesIt.hasNext(); ) {
-                                Edge e = edgesIt.next();
-                                if (edgesPred.want(e)) {
-                                    SootMethod tgt = e.tgt();
-                                    if (tgt.isConcrete()) {
-                                        targets.add(tgt);
-                                        if (c.contains(tgt)) { // we don't want callees from other components
-                                            List<Unit> callers = calleeToCallers.get(tgt);
-                                            if (callers == null) {
-                                                callers = Collections.synchronizedList(new ArrayList<Unit>());
-                                                calleeToCallers.put(tgt, callers);
-                                            }
-                                            callers.add(u);
-                                        }
-                                    }
+                            List<SootMethod> targets = cgIndex.getNonColdTargets(u);
+                            for (SootMethod tgt : targets) {
+                                if (c.contains(tgt)) { // we don't want callees from other components
+                                    calleeToCallers.get(tgt).add(u);
                                 }
                             }
 //                            if (u.toString().contains("next") || u.toString().contains("get")) {
@@ -371,7 +414,7 @@ public class PathsAnalysis {
         callerToCallees.clear();
         calleeToCallers.clear();
         callToParamsArgs.clear();
-        numbers.clear();
+        unitNumberer.clear();
         unitsToCompactInComponent.clear();
         //callToReturnTransformer.clear();
         //callToCallTransformer.clear();
@@ -385,6 +428,19 @@ public class PathsAnalysis {
         
 	}
 	
+	private <V> UnitMap<V> newUnitMap() {
+	    UnitMap<V> map = new UnitMap<V>(unitNumberer);
+	    unitMaps.add(map);
+	    return map;
+	}
+	
+	// size unit maps for the units numbered so far
+	private void allocateUnitMaps() {
+	    for (UnitMap<?> map : unitMaps) {
+	        map.allocate();
+	    }
+	}
+	
 	public void outputDot() {
 		for (Component c : components) {
 			if (hasAlreadyBeenAnalysed(c)) {
@@ -421,7 +477,7 @@ public class PathsAnalysis {
 		Map<Unit,Map<Unit,ITransformer>> unitToJumpEntry = new HashMap<Unit, Map<Unit,ITransformer>>();
 		Map<Unit,Map<Unit,ITransformer>> unitToJumpExit = new HashMap<Unit, Map<Unit,ITransformer>>();
 //		List<Unit> worklist = new ArrayList<Unit>();
-		SortedSet<Unit> worklist = constructWorklist(numbers);
+		SortedSet<Unit> worklist = constructWorklist();
 		List<Unit> invokesToFold = new ArrayList<Unit>();
 		
 		// build up list of end node + all invoke stmts (that have targets in the current component)
@@ -582,7 +638,7 @@ public class PathsAnalysis {
         Map<Unit,Map<Unit,ITransformer>> unitToJumpExitDelta = new HashMap<Unit, Map<Unit,ITransformer>>();
         
 //      List<Unit> worklist = new ArrayList<Unit>();
-        SortedSet<Unit> worklist = constructWorklist(numbers);
+        SortedSet<Unit> worklist = constructWorklist();
         List<Unit> invokesToFold = new ArrayList<Unit>();
         
         // build up list of end node + all invoke stmts (that have targets in the current component)
@@ -1214,9 +1270,14 @@ public class PathsAnalysis {
 
 		long startTime = System.currentTimeMillis();
 		
-		// perform post-order traversal of components
-		for (Component c : dag.getRoots()) {
-			doAnalysis(c);
+		if (AtomicTransformer.PARALLEL_COMPONENTS) {
+		    doAnalysisParallel();
+		}
+		else {
+    		// perform post-order traversal of components
+    		for (Component c : dag.getRoots()) {
+    			doAnalysis(c);
+    		}
 		}
 		
 		double timeTaken = (System.currentTimeMillis()-startTime)/1000.0;
@@ -1228,6 +1289,75 @@ public class PathsAnalysis {
 
 	}
 	
+	// Schedules components bottom-up over the SCC-DAG, analysing those whose
+	// successors have all been summarised concurrently. Each component keeps
+	// a count of its unanalysed successors and is submitted once it reaches 0.
+	// Component workers run on COMPONENT_POOL so that their own invokeAll's
+	// on POOL cannot starve. methodToSummary is the only state they share.
+	private void doAnalysisParallel() {
+	    
+	    final Map<Component,Integer> pendingSuccs = new HashMap<Component, Integer>();
+	    for (Component c : components) {
+	        if (!isAnalysed(c)) {
+	            pendingSuccs.put(c, 0);
+	        }
+	    }
+	    for (Component c : pendingSuccs.keySet()) {
+	        int count = 0;
+	        for (Component c2 : dag.getSuccsOf(c)) {
+	            if (pendingSuccs.containsKey(c2)) {
+	                count++;
+	            }
+	        }
+	        pendingSuccs.put(c, count);
+	    }
+	    
+	    CompletionService<Component> completion = new ExecutorCompletionService<Component>(AtomicTransformer.COMPONENT_POOL);
+	    int running = 0;
+	    for (Component c : pendingSuccs.keySet()) {
+	        if (pendingSuccs.get(c) == 0) {
+	            submitComponent(c, completion);
+	            running++;
+	        }
+	    }
+	    
+	    while (running > 0) {
+	        Component done;
+	        try {
+	            done = completion.take().get();
+	        }
+	        catch (Exception e) {
+	            throw new RuntimeException(e);
+	        }
+	        running--;
+	        pendingSuccs.remove(done);
+	        for (Component p : dag.getPredsOf(done)) {
+	            Integer count = pendingSuccs.get(p);
+	            if (count != null) {
+	                pendingSuccs.put(p, count-1);
+	                if (count == 1) {
+	                    submitComponent(p, completion);
+	                    running++;
+	                }
+	            }
+	        }
+	    }
+	    
+	    if (!pendingSuccs.isEmpty()) {
+	        throw new RuntimeException(pendingSuccs.size() + " components could not be scheduled (cycle in SCC-DAG?)");
+	    }
+	}
+	
+	private void submitComponent(final Component c, CompletionService<Component> completion) {
+	    completion.submit(new Callable<Component>() {
+	        public Component call() {
+	            PathsAnalysis worker = new PathsAnalysis(null, components, dag, PathsAnalysis.this);
+	            worker.analyseComponentOnce(c);
+	            return c;
+	        }
+	    });
+	}
+	
 	private void propagateAtomic() {
 	    
 	    long startTime = System.currentTimeMillis();
@@ -1236,6 +1366,16 @@ public class PathsAnalysis {
 	    Logger.println("----------------------------------");
 	    Logger.println("Initialising atomic section " + a.getId());
 	    
+        // number nodes (in the same order as for methods)
+        Stmt start = new StartStmt();
+        Stmt end = new EndStmt();
+        unitNumberer.add(end);
+        for (Unit u : new PseudoTopologicalOrderer().newList(a, true)) {
+            unitNumberer.add(u);
+        }
+        unitNumberer.add(start);
+        allocateUnitMaps();
+	    
         for (Unit u : a) {
             unitToPreds.put(u, new ArrayList<Unit>(exceptions ? a.getPredsOf(u) : a.getUnexceptionalPredsOf(u)));
             unitToSuccs.put(u, new ArrayList<Unit>(exceptions ? a.getSuccsOf(u) : a.getUnexceptionalSuccsOf(u)));
@@ -1244,7 +1384,6 @@ public class PathsAnalysis {
         }
         
         // insert single start node
-        Stmt start = new StartStmt();
         unitToTransformer.put(start, createTransformer(start, null));
         for (Unit h : a.getHeads()) {
             List<Unit> preds = unitToPreds.get(h);
@@ -1255,7 +1394,6 @@ public class PathsAnalysis {
         unitToEntry.put(start, identityTransformer);
         
         // insert single end node
-        Stmt end = new EndStmt();
         List<Unit> atails = a.getTails();
         for (Unit t : atails) {
             List<Unit> succs = unitToSuccs.get(t);
@@ -1265,31 +1403,12 @@ public class PathsAnalysis {
         unitToPreds.put(end, tails);
         unitToSuccs.put(end, new ArrayList<Unit>());
         unitToTransformer.put(end, createTransformer(end, null));
-
-        // order nodes
-        List<Unit> orderedUnits = new PseudoTopologicalOrderer().newList(a, true);
-        numbers.put(end, 1);
-        int i = 2;
-        for (Unit u : orderedUnits) {
-            numbers.put(u, new Integer(i));
-            i++;
-        }
-        numbers.put(start, i);
         
         // record caller to callees, create invoke stmt transformers
         for (Unit u : a) {
             Stmt s = (Stmt)u;
             if (s.containsInvokeExpr()) {
-                List<SootMethod> targets = new ArrayList<SootMethod>();
-                for (Iterator<Edge> edgesIt=cg.edgesOutOf(u); edgesIt.hasNext(); ) {
-                    Edge e = edgesIt.next();
-                    if (edgesPred.want(e)) {
-                        SootMethod tgt = e.tgt();
-                        if (tgt.isConcrete()) {
-                            targets.add(tgt);
-                        }
-                    }
-                }
+                List<SootMethod> targets = cgIndex.getNonColdTargets(u);
                 if (u.toString().contains("next") || u.toString().contains("get")) {
                     Logger.println("u: " + u, ANSICode.FG_BLUE);
                     Logger.println("targets: " + targets, ANSICode.FG_BLUE);
@@ -1301,7 +1420,7 @@ public class PathsAnalysis {
             }
         }
         
-        SortedSet<Unit> worklist = constructWorklist(numbers);
+        SortedSet<Unit> worklist = constructWorklist();
         worklist.add(end);
         
         Logger.println("Running analysis");
@@ -1367,84 +1486,141 @@ public class PathsAnalysis {
     }
    
 
-	int componentCounter = 0;
+	AtomicInteger componentCounter;
 	int numComponents;
 
 	public void doAnalysis(Component c) {
 	    
-		if (!hasAlreadyBeenAnalysed(c)) {
+		if (!isAnalysed(c)) {
 			
 			for (Component c2 : dag.getSuccsOf(c)) {
 				doAnalysis(c2);
 			}
 			
-			final boolean debug = AtomicTransformer.DEBUG;
-			final boolean stats = AtomicTransformer.STATS;
+			analyseComponentOnce(c);
+		}
+	}
+	
+	// true if c's summaries are final
+	private boolean isAnalysed(Component c) {
+	    FutureTask<Component> task = componentToTask.get(c);
+	    if (task == null) {
+	        // with concurrent atomics, summaries present for an unclaimed 
+	        // component may be about to be claimed, so go through the claim
+	        return !AtomicTransformer.PARALLEL_ATOMICS && hasAlreadyBeenAnalysed(c);
+	    }
+	    return task.isDone();
+	}
+	
+	// Analyses c if nobody else has claimed it, otherwise waits for whoever
+	// did. All of c's successors must already be analysed.
+	private void analyseComponentOnce(final Component c) {
+	    FutureTask<Component> task = new FutureTask<Component>(new Callable<Component>() {
+	        public Component call() {
+	            if (!hasAlreadyBeenAnalysed(c)) { // e.g. loaded from file
+	                if (AtomicTransformer.INCREMENTAL == null) {
+	                    analyseComponent(c);
+	                }
+	                else if (!IncrementalSummaries.reuse(c, dag)) {
+	                    analyseComponent(c);
+	                    IncrementalSummaries.analysed(c, dag);
+	                }
+	            }
+	            return c;
+	        }
+	    });
+	    FutureTask<Component> claimed = componentToTask.putIfAbsent(c, task);
+	    if (claimed == null) {
+	        task.run();
+	        claimed = task;
+	    }
+	    try {
+	        claimed.get();
+	    }
+	    catch (Exception e) {
+	        throw new RuntimeException(e);
+	    }
+	}
+	
+	// all of c's successor components must have been analysed already.
+	// c's locals are numbered in its summaries until their dead edges have
+	// been removed, and are released even if the analysis fails.
+	private void analyseComponent(Component c) {
+	    SymbolNumberer.acquireLocals(c);
+	    try {
+	        analyseComponentLocals(c);
+	    }
+	    finally {
+	        SymbolNumberer.releaseLocals(c);
+	    }
+	}
+	
+	private void analyseComponentLocals(Component c) {
+		
+		final boolean debug = AtomicTransformer.DEBUG;
+		final boolean stats = AtomicTransformer.STATS;
 
-			if (debug) Logger.println("Analysing " + c);
-			
-            if (stats) Logger.printstats("*********************************************************************");
-            if (stats) Logger.printstats("Initialising component " + c.getId() + " (" + c.size() + " methods)");
-            if (stats) Logger.printstats("*********************************************************************");
-			
-			// All dependent components have been analysed, now analyse c
-			long startTime = System.currentTimeMillis();
-			
-			if (AtomicTransformer.INTERMEDIATE_RESULTS) {
-    			Logger.println("Initialising component " + c.getId() + " (" + c.size() + " methods) (" + ++componentCounter + " of " + numComponents + ") (total: " + components.size() + ")");
-    			if (c.size() == 1) {
-    				Logger.println("Singleton method: " + c.first());
-    			}
+		if (debug) Logger.println("Analysing " + c);
+		
+        if (stats) Logger.printstats("*********************************************************************");
+        if (stats) Logger.printstats("Initialising component " + c.getId() + " (" + c.size() + " methods)");
+        if (stats) Logger.printstats("*********************************************************************");
+		
+		// All dependent components have been analysed, now analyse c
+		long startTime = System.currentTimeMillis();
+		
+		if (AtomicTransformer.INTERMEDIATE_RESULTS) {
+			Logger.println("Initialising component " + c.getId() + " (" + c.size() + " methods) (" + componentCounter.incrementAndGet() + " of " + numComponents + ") (total: " + components.size() + ")");
+			if (c.size() == 1) {
+				Logger.println("Singleton method: " + c.first());
 			}
-			
-			init(c);
-			
-			if (stats) Logger.printstats("cfg nodes: " + unitToJumpSuccs.size());
+		}
+		
+		init(c);
+		
+		if (stats) Logger.printstats("cfg nodes: " + unitToJumpSuccs.size());
 
 //			List<Unit> intraWorklist = new ArrayList<Unit>();
-			final List<Unit> intraWorklist = new ArrayList<Unit>();
-			final List<Unit> interWorklist = new ArrayList<Unit>();
-			
-			// calculate per-method unit ordering
-	        
-            Logger.println("First method: " + c.first());
-			for (SootMethod mm : c) {
-				intraWorklist.add(methodToEndUnit.get(mm));
-			}
+		final ComponentWorklist worklists = new ComponentWorklist(c, unitNumberer, methodToEndUnit, methodToStartUnit);
+		
+        Logger.println("First method: " + c.first());
+		for (SootMethod mm : c) {
+			worklists.addIntra(methodToEndUnit.get(mm));
+		}
 
-			if (AtomicTransformer.INTERMEDIATE_RESULTS)
-			    Logger.println("Running analysis");
-			
+		if (AtomicTransformer.INTERMEDIATE_RESULTS)
+		    Logger.println("Running analysis");
+		
 //			Map<SootMethod,List<Unit>> callersToBeUpdated = new HashMap<SootMethod, List<Unit>>();
-			
+		
 //			Map<SootMethod,Transformer> methodToCommonTransformer = new HashMap<SootMethod, Transformer>();
-			final Set<SootMethod> methodsToComputeCommonTransformer = Collections.synchronizedSet(new HashSet<SootMethod>());
-			final Set<SootMethod> methodsToCompact = Collections.synchronizedSet(new HashSet<SootMethod>());
-			for (SootMethod m : c) {
-			    ExceptionalUnitGraph cfg = CFGCache.getCFG(m);
-			    int stmtCount = 0;
-			    for (Unit u : cfg) {
-                    if (unitToJumpSuccs.containsKey(u)) {
-    			        // check that succ is not only endstmt
-                        boolean onlySuccIsEnd = true;
-                        for (Unit s : unitToJumpSuccs.get(u).keySet()) {
-                            if (!(s instanceof EndStmt)) {
-                                onlySuccIsEnd = false;
-                            }
-                        }
-                        if (!onlySuccIsEnd) {
-                            stmtCount++;
+		final Set<SootMethod> methodsToComputeCommonTransformer = Collections.synchronizedSet(new HashSet<SootMethod>());
+		final Set<SootMethod> methodsToCompact = Collections.synchronizedSet(new HashSet<SootMethod>());
+		for (SootMethod m : c) {
+		    ExceptionalUnitGraph cfg = CFGCache.getCFG(m);
+		    int stmtCount = 0;
+		    for (Unit u : cfg) {
+                if (unitToJumpSuccs.containsKey(u)) {
+			        // check that succ is not only endstmt
+                    boolean onlySuccIsEnd = true;
+                    for (Unit s : unitToJumpSuccs.get(u).keySet()) {
+                        if (!(s instanceof EndStmt)) {
+                            onlySuccIsEnd = false;
                         }
                     }
-			    }
-			    stmtCount++; // 1 more for start stmt
-			    if (stmtCount > 1) {
-			        methodsToCompact.add(m);
-			    }
-			}
-			
-			Logger.println(methodsToCompact.size() + " methods can be compacted");
-			
+                    if (!onlySuccIsEnd) {
+                        stmtCount++;
+                    }
+                }
+		    }
+		    stmtCount++; // 1 more for start stmt
+		    if (stmtCount > 1) {
+		        methodsToCompact.add(m);
+		    }
+		}
+		
+		Logger.println(methodsToCompact.size() + " methods can be compacted");
+		
 //          THE FOLLOWING CODE IS WRONG:
 //			Set<SootMethod> methodsWithOneRecursiveCall = new HashSet<SootMethod>();
 //			for (SootMethod m : c) {
@@ -1467,7 +1643,7 @@ public class PathsAnalysis {
 //			}
 //			
 //			Logger.println(methodsWithOneRecursiveCall.size() + " methods with one recursive call");
-			
+		
 //			Set<SootMethod> component = new HashSet<SootMethod>(c);
 //			component.removeAll(methodsToCompact);
 //			component.removeAll(methodsWithOneRecursiveCall);
@@ -1481,606 +1657,914 @@ public class PathsAnalysis {
 //			        }
 //			    }
 //			}
-			
+		
 //			int totalStmtCount = unitToJumpSuccs.keySet().size();
 //			Logger.println(unitsToCompactInComponent.size() + " stmts (of " + totalStmtCount + ") can be compacted");
-			
-			final AtomicInteger entry_deltas = new AtomicInteger(0), entry_nondeltas = new AtomicInteger(0), transformer_delta = new AtomicInteger(0), transformer_nondelta = new AtomicInteger(0);
-			
-			int compactionCounter = 0;
-			final int startCompaction = AtomicTransformer.START_COMPACTION;
-			boolean sweep = AtomicTransformer.SWEEP;
-			boolean intra = true;
-			while (!intraWorklist.isEmpty() || !interWorklist.isEmpty()) {
-//				Logger.println("Inter worklist: " + interWorklist, ANSICode.FG_DEFAULT, ANSICode.BG_YELLOW);
-//				Logger.println("Intra worklist: " + intraWorklist, ANSICode.FG_DEFAULT, ANSICode.BG_YELLOW);
-//			    if (++counter == 100) {
-//			        Logger.println("e_deltas: " + entry_deltas + ", e: " + entry_nondeeltas + ", t_deltas: " + transformer_delta + ", t: " + transformer_nondelta + ", intra: " + intraWorklist.size() + ", inter: " + interWorklist.size());
-//			        counter = 0;
-//			    }
-				if((sweep && intra) || (!sweep && !intraWorklist.isEmpty())) {
-//				    
-//                    // organise worklist into per-method worklists
-				    
-                    Logger.println("e_deltas: " + entry_deltas + ", e: " + entry_nondeltas + ", t_deltas: " + transformer_delta + ", t: " + transformer_nondelta + ", intra: " + intraWorklist.size() + ", inter: " + interWorklist.size());
-				    
-                    final Map<SootMethod,SortedSet<Unit>> methodToWorklist = new HashMap<SootMethod, SortedSet<Unit>>();
-                    for (Unit u : intraWorklist) {
-                        SootMethod mm = unitToMethod.get(u);
-                        SortedSet<Unit> mWorklist = methodToWorklist.get(mm);
-                        if (mWorklist == null) {
-                            mWorklist = constructWorklist(numbers);
-                            methodToWorklist.put(mm, mWorklist);
-                        }
-                        mWorklist.add(u);
-                    }
-                    intraWorklist.clear(); // clear here as no need to keep it
-//                    
-                    List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
-                    for (final SootMethod mm : methodToWorklist.keySet()) {
-				    
-                        tasks.add(new Callable<Object>(){
-                            public Object call() {
-                                SortedSet<Unit> worklist = methodToWorklist.get(mm);
-        //				        List<Unit> worklist = intraWorklist;
-                                
-                                long start = System.currentTimeMillis();
-                                
-                                while (!worklist.isEmpty()) {
-                				    Unit u = worklist.first();
-                				    worklist.remove(u);
-        //                            SootMethod mm = unitToMethod.get(u);
+		
+		final AtomicInteger entry_deltas = new AtomicInteger(0), entry_nondeltas = new AtomicInteger(0), transformer_delta = new AtomicInteger(0), transformer_nondelta = new AtomicInteger(0), summary_deltas = new AtomicInteger(0);
+		
+		int compactionCounter = 0;
+		final int startCompaction = AtomicTransformer.START_COMPACTION;
+		boolean sweep = AtomicTransformer.SWEEP;
+		boolean intra = true;
+		
+		final UnitProcessor intraProcessor = new UnitProcessor() {
+		    public void process(Unit u, SootMethod mm) {
+                long start = System.currentTimeMillis();
                 
-                                    if (methodsToCompact.contains(mm)) {
-                                        methodsToComputeCommonTransformer.add(mm);
-                                    }
-                                    
-                                    if (debug) Logger.println("");
-                                    if (debug) Logger.println("");
-                                    if (debug) Logger.println("Unit: " + u + " (" + StateFactory.v((Stmt)u).getNumber() + ")");
-                                    if (debug) Logger.println("Method: " + unitToMethod.get(u));
-                                    ITransformer t = unitToTransformer.get(u);
-                                    if (debug) Logger.println("Transformer: " + t, ANSICode.FG_BLUE);
+                if (methodsToCompact.contains(mm)) {
+                    methodsToComputeCommonTransformer.add(mm);
+                }
+                
+                if (debug) Logger.println("");
+                if (debug) Logger.println("");
+                if (debug) Logger.println("Unit: " + u + " (" + StateFactory.v((Stmt)u).getNumber() + ")");
+                if (debug) Logger.println("Method: " + unitToMethod.get(u));
+                ITransformer t = unitToTransformer.get(u);
+                if (debug) Logger.println("Transformer: " + t, ANSICode.FG_BLUE);
 
 //                                    if (stats) Logger.printstats("Unit: " + u);
 //                                    if (stats) Logger.printstats("Method: " + unitToMethod.get(u));
 //                                    if (stats) Logger.printstats("Transformer: " + t.size());
-                                    
-                                    // Take meet of all successors
-                                    // Step 1: determine if any have non-delta aggregates
+                
+                // Take meet of all successors
+                // Step 1: determine if any have non-delta aggregates
 //                                    Collection<Unit> succs = reduceCfg ? unitToJumpSuccs.get(u).keySet() : unitToSuccs.get(u);
-                                    ITransformer oldExit = getResult(u, unitToExit);//unitToExit.get(u);
-                                    if (debug) Logger.println("Exit (old): " + oldExit, ANSICode.FG_RED);
-                                    ITransformer newExit = useDeltas ? getResult(u, unitToExitDelta) : null;//unitToExit.get(u);
-                                    if (debug) Logger.println("Exit (delta): " + newExit, ANSICode.FG_RED);
-                                    
+                ITransformer oldExit = getResult(u, unitToExit);//unitToExit.get(u);
+                if (debug) Logger.println("Exit (old): " + oldExit, ANSICode.FG_RED);
+                ITransformer newExit = useDeltas ? getResult(u, unitToExitDelta) : null;//unitToExit.get(u);
+                if (debug) Logger.println("Exit (delta): " + newExit, ANSICode.FG_RED);
+                
 //                                    if (stats) Logger.printstats("Exit (delta): " + (newExit == null ? "null" : newExit.size()));                                    
-                                    
-                                    boolean useDeltasThisTime = newExit != null && newExit != initialDeltaTransformer;
-                                    if (useDeltasThisTime) entry_deltas.incrementAndGet(); else entry_nondeltas.incrementAndGet();
-                //                    if (useDeltas) {
-                //                        for (Unit s : succs) {
-                //                            if (unitToEntryDelta.get(s) == null) {
-                ////                                Logger.println(s + "'s delta is null", ANSICode.FG_RED);
-                //                                useDeltas = false;
-                //                                break;
-                //                            }
-                //                        }
-                //                    }
-                //                    else {
-                ////                        Logger.println("not using deltas (1)");
-                //                    }
-                                    
-                //                    if (useDeltas) {
-                //                        Logger.println("using deltas to compute entry", ANSICode.FG_GREEN);
-                //                    }
-                //                    else {
-                //                        Logger.println("not using deltas to compute entry", ANSICode.FG_BLUE);
-                //                    }
-                                    
-                                    // Step 2: take meet
-                                    if (newExit == null) {
-                //                        Transformer newExit = useDeltas ? new DeltaTransformer() : new Transformer();
-                                        newExit = newEmptyTransformer();
-                                        if (reduceCfg) {
-                                            boolean firstSucc = true;
-                                            Map<Unit,ITransformer> jumpSuccs = unitToJumpSuccs.get(u);
-                    //                        Logger.println("Succs: " + jumpSuccs.keySet());
-                                            for (Unit s : jumpSuccs.keySet()) {
-                                                ITransformer succEntry = null;
-                                                if (storeEntry) {
-                                                    succEntry = getResult(s, unitToEntry);
-                                                }
-                                                else {
-                                                    ITransformer succExit = getResult(s, unitToExit);
-                                                    if (succExit != null) {
-                                                        ITransformer succT = getResult(s, unitToTransformer);
-                                                        succEntry = succExit.composeWith(succT);
-                                                    }
-                                                }
+                
+                boolean useDeltasThisTime = newExit != null && newExit != initialDeltaTransformer;
+                if (useDeltasThisTime) entry_deltas.incrementAndGet(); else entry_nondeltas.incrementAndGet();
+//                    if (useDeltas) {
+//                        for (Unit s : succs) {
+//                            if (unitToEntryDelta.get(s) == null) {
+////                                Logger.println(s + "'s delta is null", ANSICode.FG_RED);
+//                                useDeltas = false;
+//                                break;
+//                            }
+//                        }
+//                    }
+//                    else {
+////                        Logger.println("not using deltas (1)");
+//                    }
+                
+//                    if (useDeltas) {
+//                        Logger.println("using deltas to compute entry", ANSICode.FG_GREEN);
+//                    }
+//                    else {
+//                        Logger.println("not using deltas to compute entry", ANSICode.FG_BLUE);
+//                    }
+                
+                // Step 2: take meet
+                if (newExit == null) {
+//                        Transformer newExit = useDeltas ? new DeltaTransformer() : new Transformer();
+                    newExit = newEmptyTransformer();
+                    if (reduceCfg) {
+                        boolean firstSucc = true;
+                        Map<Unit,ITransformer> jumpSuccs = unitToJumpSuccs.get(u);
+//                        Logger.println("Succs: " + jumpSuccs.keySet());
+                        for (Unit s : jumpSuccs.keySet()) {
+                            ITransformer succEntry = null;
+                            if (storeEntry) {
+                                succEntry = getResult(s, unitToEntry);
+                            }
+                            else {
+                                ITransformer succExit = getResult(s, unitToExit);
+                                if (succExit != null) {
+                                    ITransformer succT = getResult(s, unitToTransformer);
+                                    succEntry = succExit.composeWith(succT);
+                                }
+                            }
 //                                                Transformer succEntry = getResult(s, unitToEntry);//unitToEntryDelta.get(s) : unitToEntry.get(s);
-                                                if (succEntry != null) {
-                                                    ITransformer pathTransformer = jumpSuccs.get(s);
-                                                    ITransformer succEntryTransformed = succEntry.composeWith(pathTransformer);
-                                                    if (firstSucc) {
-                                                        newExit.overwriteWith(succEntryTransformed);
-                                                        firstSucc = false;
-                                                    }
-                                                    else {
-                                                        newExit.unionWith(succEntryTransformed);
-                                                    }
-                                                }
-                                            }
-                                            if (!useDeltasThisTime) {
-                                                newExit.cleanup();
-                                            }
+                            if (succEntry != null) {
+                                ITransformer pathTransformer = jumpSuccs.get(s);
+                                ITransformer succEntryTransformed = succEntry.composeWith(pathTransformer);
+                                if (firstSucc) {
+                                    newExit.overwriteWith(succEntryTransformed);
+                                    firstSucc = false;
+                                }
+                                else {
+                                    newExit.unionWith(succEntryTransformed);
+                                }
+                            }
+                        }
+                        if (!useDeltasThisTime) {
+                            newExit.cleanup();
+                        }
 //                                            newExit.compact();
-                                        }
-                                        else {
-                                            boolean firstSucc = true;
-                                            for (Unit s : unitToSuccs.get(u)) {
-                                                ITransformer succEntry = getResult(s, unitToEntry); //unitToEntryDelta.get(s) : unitToEntry.get(s);
-                                                if (succEntry != null) { // in case we reach u before s (e.g in if (b) { ... } ; x = y; )
-                                                    if (firstSucc) {
-                                                        newExit.overwriteWith(succEntry);
-                                                        firstSucc = false;
-                                                    }
-                                                    else {
-                                                        newExit.unionWith(succEntry);
-                                                    }
-                                                }
-                    //                            else {
-                                                    // successor result still hasn't been computed
-                                                    // therefore skip unit u (u will be added to the
-                                                    // worklist again anyway)
-                                                    // THIS DOESN'T WORK WHEN USING DELTAS AND WHEN IN 
-                                                    // A LOOP BECAUSE INITIALLY DELTA IS NULL
-                    //                                Logger.println(s + "'s entry is null, skipping " + u, ANSICode.FG_RED);
-                    //                                continue outer;
-                    //                            }
-                                            }
-                                            if (!useDeltasThisTime) {
-                                                newExit.cleanup();
-                                            }
-                                        }
+                    }
+                    else {
+                        boolean firstSucc = true;
+                        for (Unit s : unitToSuccs.get(u)) {
+                            ITransformer succEntry = getResult(s, unitToEntry); //unitToEntryDelta.get(s) : unitToEntry.get(s);
+                            if (succEntry != null) { // in case we reach u before s (e.g in if (b) { ... } ; x = y; )
+                                if (firstSucc) {
+                                    newExit.overwriteWith(succEntry);
+                                    firstSucc = false;
+                                }
+                                else {
+                                    newExit.unionWith(succEntry);
+                                }
+                            }
+//                            else {
+                                // successor result still hasn't been computed
+                                // therefore skip unit u (u will be added to the
+                                // worklist again anyway)
+                                // THIS DOESN'T WORK WHEN USING DELTAS AND WHEN IN 
+                                // A LOOP BECAUSE INITIALLY DELTA IS NULL
+//                                Logger.println(s + "'s entry is null, skipping " + u, ANSICode.FG_RED);
+//                                continue outer;
+//                            }
+                        }
+                        if (!useDeltasThisTime) {
+                            newExit.cleanup();
+                        }
+                    }
 //                                        newExit.toArraySets();
-                                        if (debug) Logger.println("Exit (new): " + newExit, ANSICode.FG_MAGENTA);
-
-                                        // even if originally exit was null,
-                                        // the new exit might be a superset of
-                                        // the old exit
-                                        if (useDeltas) {
-                                            if (!storeEntry && oldExit != null && newExit.subsumes(oldExit)) {
-                                                newExit = newExit.differenceWith(oldExit);
-                                                useDeltasThisTime = true;
-                                            }
-                                        }
-                                    }
-                                    
-                //                    boolean firstSucc = true;
-                //                    Map<Unit,Transformer> jumpSuccs = unitToJumpSuccs.get(u);
-                //                    Transformer exit2 = new Transformer();
-                //                    for (Unit s : jumpSuccs.keySet()) {
-                //                        Transformer succEntry = unitToEntry.get(s);
-                //                        if (succEntry != null) {
-                //                            Transformer pathTransformer = jumpSuccs.get(s);
-                //                            Transformer succEntryTransformed = succEntry.composeWith(pathTransformer);
-                //                            if (firstSucc) {
-                //                                exit2.overwriteWith(succEntryTransformed);
-                //                                firstSucc = false;
-                //                            }
-                //                            else {
-                //                                exit2.unionWith(succEntryTransformed);
-                //                            }
-                //                        }
-                //                    }
-                //                    exit2.cleanup();
+                    if (debug) Logger.println("Exit (new): " + newExit, ANSICode.FG_MAGENTA);
+
+                    // even if originally exit was null,
+                    // the new exit might be a superset of
+                    // the old exit
+                    if (useDeltas) {
+                        if (!storeEntry && oldExit != null && newExit.subsumes(oldExit)) {
+                            newExit = newExit.differenceWith(oldExit);
+                            useDeltasThisTime = true;
+                        }
+                    }
+                }
                 
-                                    // Step 3: update stored exit
-                                    DeltaTransformer deltaExit = null;
+//                    boolean firstSucc = true;
+//                    Map<Unit,Transformer> jumpSuccs = unitToJumpSuccs.get(u);
+//                    Transformer exit2 = new Transformer();
+//                    for (Unit s : jumpSuccs.keySet()) {
+//                        Transformer succEntry = unitToEntry.get(s);
+//                        if (succEntry != null) {
+//                            Transformer pathTransformer = jumpSuccs.get(s);
+//                            Transformer succEntryTransformed = succEntry.composeWith(pathTransformer);
+//                            if (firstSucc) {
+//                                exit2.overwriteWith(succEntryTransformed);
+//                                firstSucc = false;
+//                            }
+//                            else {
+//                                exit2.unionWith(succEntryTransformed);
+//                            }
+//                        }
+//                    }
+//                    exit2.cleanup();
+
+                // Step 3: update stored exit
+                DeltaTransformer deltaExit = null;
 //                                    int oldExitSize = oldExit == null ? 0 : oldExit.size();
 //                                    int oldDeltaExitSize = newExit.size();
-                                    if (useDeltasThisTime) {
-                //                        deltaExit = (DeltaTransformer)newExit;
-                //                        newExit = oldExit.addAll(deltaExit);
-                                        deltaExit = new DeltaTransformer();
-                                        newExit = oldExit.addAllReturnDelta(newExit, deltaExit);
-                //                        newExit.cleanup();
-                //                        oldExit.addAllModify(deltaExit);
-                //                        newExit = oldExit;
-                                    }
-                                    //unitToExit.put(u, newExit);
-                                    newExit.compact();
-                                    storeResult(u, newExit, unitToExit);
-                                    if (useDeltas) {
-                                        storeResult(u, new DeltaTransformer(), unitToExitDelta); // reset exit
-                                    }
-                                    
+                if (useDeltasThisTime) {
+//                        deltaExit = (DeltaTransformer)newExit;
+//                        newExit = oldExit.addAll(deltaExit);
+                    deltaExit = new DeltaTransformer();
+                    newExit = oldExit.addAllReturnDelta(newExit, deltaExit);
+//                        newExit.cleanup();
+//                        oldExit.addAllModify(deltaExit);
+//                        newExit = oldExit;
+                }
+                //unitToExit.put(u, newExit);
+                newExit.compact();
+                storeResult(u, newExit, unitToExit);
+                if (useDeltas) {
+                    storeResult(u, new DeltaTransformer(), unitToExitDelta); // reset exit
+                }
+                
 //                                    if (stats) Logger.printstats("Exit (new): " + newExit.size());
-                                    
-                //                    outputLocalStats(u, newExit, "Exit");
-                                    
-                //                    int numRelevantEdges = newExit.howManyEdgesWouldBeTransformed(t);
-                //                    Logger.println("newExit.size: " + newExit.size() +" relevant: " + numRelevantEdges + ", t.size: " + t.size());
-                                    
-                //                    Logger.println("useDeltas: " + useDeltas + ", oldExit: " + (oldExit==null ? "null" : oldExit.size()) + ", deltaExit: " + (deltaExit==null ? "null" : deltaExit.size()) + ", newExit: " + newExit.size() + ", exit2: " + exit2.size());
-                //                    if (!newExit.equals(exit2)) {
-                //                        Logger.println("useDeltas: " + useDeltas + ", oldExit: " + (oldExit==null ? "null" : oldExitSize) + ", deltaExit (old): " + oldDeltaExitSize + ", deltaExit (new): " + (deltaExit==null ? "null" : deltaExit.size()) + ", newExit: " + newExit.size() + ", exit2: " + exit2.size(), ANSICode.FG_RED);
-                //                        ExceptionalUnitGraph cfg = CFGCache.getCFG(mm);
-                //                        for (Unit u2 : cfg) {
-                //                            Map<Unit,Transformer> jumpSuccs2 = unitToJumpSuccs.get(u2);
-                //                            if (jumpSuccs2 != null) {
-                //                                Logger.println("u: " + u2 + "(" + u2.getNumber() + ")");
-                //                                for (Unit s2 : jumpSuccs2.keySet()) {
-                //                                    Logger.println("(" + s2.getNumber() + ")" + s2.toString(), ANSICode.FG_GREEN);
-                //                                }
-                //                            }
-                //                        }
-                //                        ProfilerSupport.waitForKeyPress();
-                //                    }
-                                    // Step 3: if exit:
-                                    //             entry = tn o exit
-                                    //             newEntry = oldEntry U entry
-                                    //         else
-                                    //             newEntry = tn o newExit
-                                    //             if newEntry subsumes oldEntry,
-                                    //                 entry = newEntry - oldEntry
-                                    //             else
-                                    //                 entry = null
-                                    
-                                    ITransformer oldEntry = getResult(u, unitToEntry); //unitToEntry.get(u);
-                                    if (debug) Logger.println("Entry (old): " + oldEntry, ANSICode.FG_RED);
-                                    ITransformer newEntry = null;
-                                    DeltaTransformer deltaEntry = null;
-//                                    int oldEntrySize = oldEntry == null ? 0 : oldEntry.size();
-                                    if (useDeltasThisTime) {
-                                        deltaEntry = (u instanceof StartStmt) ? (DeltaTransformer)deltaExit.removeMethodLocalVars() : (DeltaTransformer)deltaExit.composeWith(t);
-                //                        if (mm.toString().equals("<java.lang.System: java.lang.String getProperty(java.lang.String)>")) {
-                //                            Set<TransformerEdge> edges = deltaEntry.getEdges("<java.security.Permission: java.lang.String name>");
-                //                            if (edges != null) {
-                //                                for (TransformerEdge te3 : edges) {
-                //                                    if (te3.getJumpFunction() == IdentityJumpFunction.v()) {
-                //                                        if (te3.getDest().toString().equals("<java.security.Permission: java.lang.String name>")) {
-                //                                            Logger.println("method has the id edge in deltaEntry");
-                //                                        }
-                //                                    }
-                //                                }
-                //                            }
-                //                        }
-                //                        newEntry = oldEntry.addAll(deltaEntry);
-                //                        newEntry.cleanup();
-                //                        DeltaTransformer newDeltaEntry = newEntry.differenceWith(oldEntry);
-                //                        DeltaTransformer oldDeltaEntry = (DeltaTransformer)unitToEntryDelta.get(u);
-                //                        if (oldDeltaEntry != null && ((Stmt)u).containsInvokeExpr()) {
-                //                            oldDeltaEntry.addAll(deltaEntry);
-                //                            deltaEntry = oldDeltaEntry;
-                //                        }
-                                        if (storeEntry) {
-                                            DeltaTransformer newDeltaEntry = new DeltaTransformer();
-                                            newEntry = oldEntry.addAllReturnDelta(deltaEntry, newDeltaEntry);
-                                            // debugging
-                    //                        if (!newDeltaEntry.equals(deltaEntry)) {
-                    //                            Logger.println("--- newDeltaEntry does not equal deltaEntry", ANSICode.FG_RED);
-                    //                        }
-                                            deltaEntry = newDeltaEntry;
-                                        }
-                //                        deltaEntry = oldEntry.addAllModifyReturnDelta(deltaEntry);
-                //                        newEntry = oldEntry;
-                                    }
-                                    else {
-                                        if (storeEntry) {
-                                            newEntry = (u instanceof StartStmt) ? newExit.removeMethodLocalVars() : newExit.composeWith(t);
-                                            newEntry.cleanup();
-                                            if (useDeltas) {
-                                                if (oldEntry != null && newEntry.subsumes(oldEntry)) {
-                                                    deltaEntry = (DeltaTransformer)newEntry.differenceWith(oldEntry);
-                                                }
-                                                else {
-                                                    deltaEntry = null;
-                                                }
-                                            }
-                                        }
-                                        else {
-                                            deltaEntry = null;
-                                        }
-                                    }
-                                    
-                                    
-                //                    Transformer tmpEntry = (u instanceof StartStmt) ? exit2.removeMethodLocalVars() : exit2.composeWith(t);
-                //                    if (!newEntry.equals(tmpEntry)) {
-                //                        Logger.println("useDeltas: " + useDeltas + ", t o exit2: " + tmpEntry.size() + ", oldEntry: " + oldEntrySize + ", newEntry: " + newEntry.size(), ANSICode.FG_RED);
-                //                        ProfilerSupport.waitForKeyPress();
-                //                    }
-                //                    outputLocalStats(u, newExit, "Entry");
-                //                    Transformer newEntry2 = newEntry.clone();
-                //                    Transformer newEntry3 = newEntry2.removeDeadEdges();
-                //                    Logger.println("newEntry.size: " + newEntry.size() + ", newEntry3.size: " + newEntry3.size());
                 
-                //                    if (mm.toString().equals("<java.lang.System: java.lang.String getProperty(java.lang.String)>")) {
-                //                        Set<TransformerEdge> edges = newEntry.getEdges("<java.security.Permission: java.lang.String name>");
-                //                        if (edges != null) {
-                //                            for (TransformerEdge te3 : edges) {
-                //                                if (te3.getJumpFunction() == IdentityJumpFunction.v()) {
-                //                                    if (te3.getDest().toString().equals("<java.security.Permission: java.lang.String name>")) {
-                //                                        Logger.println("method has the id edge in newEntry");
-                //                                    }
-                //                                }
-                //                            }
-                //                        }
-                //                    }
-                //                    if (deltaEntry != null && mm.toString().equals("<java.lang.System: java.lang.String getProperty(java.lang.String)>")) {
-                //                        Set<TransformerEdge> edges = deltaEntry.getEdges("<java.security.Permission: java.lang.String name>");
-                //                        if (edges != null) {
-                //                            for (TransformerEdge te3 : edges) {
-                //                                if (te3.getJumpFunction() == IdentityJumpFunction.v()) {
-                //                                    if (te3.getDest().toString().equals("<java.security.Permission: java.lang.String name>")) {
-                //                                        Logger.println("method has the id edge in deltaEntry (2)");
-                //                                    }
-                //                                }
-                //                            }
-                //                        }
-                //                    }                    
-                //                    Transformer entry2 = (u instanceof StartStmt) ? exit2.removeMethodLocalVars() : exit2.composeWith(t);
-                //                    entry2.cleanup();
-                //                    Logger.println("useDeltas: " + useDeltas + ", oldEntry: " + (oldEntry==null ? "null" : oldEntry.size()) + ", newEntry: " + newEntry.size() + ", deltaEntry: " + (deltaEntry==null ? "null" : deltaEntry.size()) + ", entry2: " + entry2.size());
-                //                    if (!newEntry.equals(entry2)) {
-                //                        ProfilerSupport.waitForKeyPress();
-                //                    }
-                //                    
-                //                    unitToEntry.put(u, newEntry);
-                //                    unitToEntryDelta.put(u, deltaEntry);
-                                    
-                                    if (storeEntry) {
-                                        newEntry.compact();
-                                        storeResult(u, newEntry, unitToEntry);
-                                    }
-//                                    storeResult(u, deltaEntry, unitToEntryDelta);
-                                    
-                                    if (u instanceof StartStmt) {
-                                        if (!storeEntry) {
-                                            newEntry = newExit.removeMethodLocalVars();
-                                            newEntry.compact();
-                                        }
-                                        SootMethod m = startUnitToMethod.get(u);
-                                        methodToSummary.put(m, newEntry);
-                                        // Summary deltas accumulate, however, if it has been
-                                        // set to null in the current round of updates 
-                                        // (due to a deletion), it must remain null so that 
-                                        // callers get the full transformer
-                                        
-                //                        DeltaTransformer oldSummaryDelta = (DeltaTransformer)methodToSummaryDelta.get(m);
-                //                        DeltaTransformer newSummaryDelta = null;
-                //                        
-                //                        // if oldSummaryDelta is null, it stays null
-                //                        if (oldSummaryDelta != null) {
-                //                            if (deltaEntry == null) {
-                //                                newSummaryDelta = null;
-                //                            }
-                //                            else {
-                //                                newSummaryDelta = (DeltaTransformer)oldSummaryDelta.addAll(deltaEntry);
-                //                            }
-                //                            if (newSummaryDelta == null) {
-                //                                Logger.println(m.toString() + ": setting summaryDelta to null");
-                //                            }
-                //                            else {
-                //                                Logger.println(m.toString() + ": setting summaryDelta to non-null");
-                //                            }
-                //                            methodToSummaryDelta.put(m, newSummaryDelta);
-                //                        }
-                                    }
-                                    
-                                    if (debug) Logger.println("Entry (new): " + newEntry, ANSICode.FG_MAGENTA);
-                                    if (debug) Logger.println("Entry (delta): " + deltaEntry, ANSICode.FG_MAGENTA);
-
-//                                    if (stats) Logger.printstats("Entry (new): " + newEntry.size());
-//                                    if (stats) Logger.printstats("Entry (delta): " + (deltaEntry == null ? "null" : deltaEntry.size()));                                    
-                                    
-                                    // Step 4: If a change occurred, put preds onto worklist
-                                    if (useDeltas) {
-                                        if (deltaEntry == null || !deltaEntry.isEmpty()) {
-                    
-                                            if (u instanceof EndStmt) {
-                                                deltaEntry = new DeltaTransformer();
-                    //                          unitToEntryDelta.put(u, deltaEntry);
-    //                                            storeResult(u, deltaEntry, unitToEntryDelta);
-                                            }
-                                            
-                                            if (u instanceof StartStmt) {
-                                                // method entry
-                                                SootMethod m = startUnitToMethod.get(u);
-                                                List<Unit> callers = calleeToCallers.get(m);
-                                                if (callers != null) {
-                                                    for (Unit caller : callers) {
-                                                        if (caller == null) {
-                                                            Logger.println("caller is null!");
-                                                            Logger.println("m: " + mm);
-                                                            Logger.println("callers: " + callers);
-                                                        }
-                                                        synchronized(caller) {
-                                                            synchronized(interWorklist) {
-                                                                if (!interWorklist.contains(caller)) {
-                                                                    interWorklist.add(caller);
-                                                                }
-                                                            }
-                                                            // update caller's delta
-                                                            if (deltaEntry == null) {
-                        //                                        unitToTransformerDelta.put(caller, null);
-                        //                                        Logger.println(m + " is setting caller's deltaT to null");
-                                                                storeResult(caller, null, unitToTransformerDelta);
-                                                            }
-                                                            else {
-                                                                DeltaTransformer deltaT = (DeltaTransformer)getResult(caller, unitToTransformerDelta); //unitToTransformerDelta.get(caller);
-                                                                if (deltaT != null) {
-                                                                    // if delta is null, it stays null until it is reset
-                                                                    DeltaTransformer newDeltaT = (DeltaTransformer)deltaT.addAll(deltaEntry);
-                                                                    storeResult(caller, newDeltaT, unitToTransformerDelta);
-                        //                                            deltaT.addAllModify(deltaEntry);
-                                                                    
-                                                                    //boolean found = false;
-                        //                                            if (mm.toString().equals("<java.lang.System: java.lang.String getProperty(java.lang.String)>")) {
-                        //                                                Logger.println("Updating deltaT for " + caller);
-                        //                                                Set<TransformerEdge> edges = newDeltaT.getEdges("<java.security.Permission: java.lang.String name>");
-                        //                                                if (edges != null) {
-                        //                                                    for (TransformerEdge te3 : edges) {
-                        //                                                        if (te3.getJumpFunction() == IdentityJumpFunction.v()) {
-                        //                                                            if (te3.getDest().toString().equals("<java.security.Permission: java.lang.String name>")) {
-                        //                                                                found = true;
-                        //                                                                Logger.println("id edge is in newDeltaT");
-                        //                                                            }
-                        //                                                        }
-                        //                                                    }
-                        //                                                }
-                        //                                                if (!found) {
-                        //                                                    Logger.println("id edge not found");
-                        //                                                }
-                        //                                            }
-                                                                    //unitToTransformerDelta.put(caller, newDeltaT);
-                                                                    
-                                                                }
-                                                                else {
-                        //                                            Logger.println(m + "'s caller's deltaT is null");
-                                                                }
-                                                            }
-                                                        }
-                                                        
-                    //                                    SootMethod callerMethod = unitToMethod.get(caller);
-                    //                                    if (!callerMethodsToPropagate.contains(callerMethod)) {
-                    //                                        callerMethodsToPropagate.add(callerMethod);
-                    //                                    }
-                                                    }
-                    //                                callersToBeUpdated.put(m, callers);
-                                                }
-                                            }
-                                            else {
-                                                List<Unit> preds = reduceCfg ? unitToJumpPreds.get(u) : unitToPreds.get(u);
-                    //                            boolean addU = false; // add u last
-                                                if (preds == null) {
-                                                    Logger.println("preds null --> u: " + u + " of " + mm);
-                                                }
-                                                for (Unit p : preds) { // no need to sync on p as this implementation is per-method single-threaded
-                    //                                if (p == u) {
-                    //                                    addU = true;
-                    //                                }
-                                                    if (!worklist.contains(p)) {
-                                                        worklist.add(p);
-                                                    }
-                                                    ITransformer predDeltaExit = getResult(p, unitToExitDelta);
-                                                    if (predDeltaExit != null) { // if null, leave null. will be reset when p is processed
-                                                        Map<Unit,ITransformer> predSuccTransformers = unitToJumpSuccs.get(p);
-                                                        ITransformer predSuccTransformer = reduceCfg ? predSuccTransformers.get(u) : null;
-                                                        if (deltaEntry == null) {
-                                                            storeResult(p, null, unitToExitDelta);
-                                                        }
-                                                        else {
-                                                            ITransformer tmp = reduceCfg ? deltaEntry.composeWith(predSuccTransformer) : deltaEntry;
-                                                            ITransformer newPredDeltaExit = predDeltaExit.addAll(tmp);
-                                                            storeResult(p, newPredDeltaExit, unitToExitDelta);
-                                                        }
-                                                    }
-                                                }
-                    //                            if (addU) {
-                    //                                // add to the end
-                    //                                intraWorklist.remove(u); // (in case already in list)
-                    //                                intraWorklist.add(u);
-                    //                            }
-                                            }
-                                        }
-                                    }
-                                    else {
-                                        if (oldEntry == null || !newEntry.equals(oldEntry)) {
-                                            if (u instanceof StartStmt) {
-                                                // method entry
-                                                SootMethod m = startUnitToMethod.get(u);
-                                                List<Unit> callers = calleeToCallers.get(m);
-                                                if (callers != null) {
-                                                    for (Unit caller : callers) {
-                                                        synchronized(interWorklist) {
-                                                            if (!interWorklist.contains(caller)) {
-                                                                interWorklist.add(caller);
-                                                            }
-                                                        }
-                                                    }
-                                                }
-                                            }
+//                    outputLocalStats(u, newExit, "Exit");
+                
+//                    int numRelevantEdges = newExit.howManyEdgesWouldBeTransformed(t);
+//                    Logger.println("newExit.size: " + newExit.size() +" relevant: " + numRelevantEdges + ", t.size: " + t.size());
+                
+//                    Logger.println("useDeltas: " + useDeltas + ", oldExit: " + (oldExit==null ? "null" : oldExit.size()) + ", deltaExit: " + (deltaExit==null ? "null" : deltaExit.size()) + ", newExit: " + newExit.size() + ", exit2: " + exit2.size());
+//                    if (!newExit.equals(exit2)) {
+//                        Logger.println("useDeltas: " + useDeltas + ", oldExit: " + (oldExit==null ? "null" : oldExitSize) + ", deltaExit (old): " + oldDeltaExitSize + ", deltaExit (new): " + (deltaExit==null ? "null" : deltaExit.size()) + ", newExit: " + newExit.size() + ", exit2: " + exit2.size(), ANSICode.FG_RED);
+//                        ExceptionalUnitGraph cfg = CFGCache.getCFG(mm);
+//                        for (Unit u2 : cfg) {
+//                            Map<Unit,Transformer> jumpSuccs2 = unitToJumpSuccs.get(u2);
+//                            if (jumpSuccs2 != null) {
+//                                Logger.println("u: " + u2 + "(" + u2.getNumber() + ")");
+//                                for (Unit s2 : jumpSuccs2.keySet()) {
+//                                    Logger.println("(" + s2.getNumber() + ")" + s2.toString(), ANSICode.FG_GREEN);
+//                                }
+//                            }
+//                        }
+//                        ProfilerSupport.waitForKeyPress();
+//                    }
+                // Step 3: if exit:
+                //             entry = tn o exit
+                //             newEntry = oldEntry U entry
+                //         else
+                //             newEntry = tn o newExit
+                //             if newEntry subsumes oldEntry,
+                //                 entry = newEntry - oldEntry
+                //             else
+                //                 entry = null
+                
+                ITransformer oldEntry = getResult(u, unitToEntry); //unitToEntry.get(u);
+                if (debug) Logger.println("Entry (old): " + oldEntry, ANSICode.FG_RED);
+                ITransformer newEntry = null;
+                DeltaTransformer deltaEntry = null;
+//                                    int oldEntrySize = oldEntry == null ? 0 : oldEntry.size();
+                if (useDeltasThisTime) {
+                    deltaEntry = (u instanceof StartStmt) ? (DeltaTransformer)deltaExit.removeMethodLocalVars() : (DeltaTransformer)deltaExit.composeWith(t);
+//                        if (mm.toString().equals("<java.lang.System: java.lang.String getProperty(java.lang.String)>")) {
+//                            Set<TransformerEdge> edges = deltaEntry.getEdges("<java.security.Permission: java.lang.String name>");
+//                            if (edges != null) {
+//                                for (TransformerEdge te3 : edges) {
+//                                    if (te3.getJumpFunction() == IdentityJumpFunction.v()) {
+//                                        if (te3.getDest().toString().equals("<java.security.Permission: java.lang.String name>")) {
+//                                            Logger.println("method has the id edge in deltaEntry");
+//                                        }
+//                                    }
+//                                }
+//                            }
+//                        }
+//                        newEntry = oldEntry.addAll(deltaEntry);
+//                        newEntry.cleanup();
+//                        DeltaTransformer newDeltaEntry = newEntry.differenceWith(oldEntry);
+//                        DeltaTransformer oldDeltaEntry = (DeltaTransformer)unitToEntryDelta.get(u);
+//                        if (oldDeltaEntry != null && ((Stmt)u).containsInvokeExpr()) {
+//                            oldDeltaEntry.addAll(deltaEntry);
+//                            deltaEntry = oldDeltaEntry;
+//                        }
+                    if (storeEntry) {
+                        DeltaTransformer newDeltaEntry = new DeltaTransformer();
+                        newEntry = oldEntry.addAllReturnDelta(deltaEntry, newDeltaEntry);
+                        // debugging
+//                        if (!newDeltaEntry.equals(deltaEntry)) {
+//                            Logger.println("--- newDeltaEntry does not equal deltaEntry", ANSICode.FG_RED);
+//                        }
+                        deltaEntry = newDeltaEntry;
+                    }
+//                        deltaEntry = oldEntry.addAllModifyReturnDelta(deltaEntry);
+//                        newEntry = oldEntry;
+                }
+                else {
+                    if (storeEntry) {
+                        newEntry = (u instanceof StartStmt) ? newExit.removeMethodLocalVars() : newExit.composeWith(t);
+                        newEntry.cleanup();
+                        if (useDeltas) {
+                            if (oldEntry != null && newEntry.subsumes(oldEntry)) {
+                                deltaEntry = (DeltaTransformer)newEntry.differenceWith(oldEntry);
+                            }
+                            else {
+                                deltaEntry = null;
+                            }
+                        }
+                    }
+                    else {
+                        deltaEntry = null;
+                    }
+                }
+                
+                
+//                    Transformer tmpEntry = (u instanceof StartStmt) ? exit2.removeMethodLocalVars() : exit2.composeWith(t);
+//                    if (!newEntry.equals(tmpEntry)) {
+//                        Logger.println("useDeltas: " + useDeltas + ", t o exit2: " + tmpEntry.size() + ", oldEntry: " + oldEntrySize + ", newEntry: " + newEntry.size(), ANSICode.FG_RED);
+//                        ProfilerSupport.waitForKeyPress();
+//                    }
+//                    outputLocalStats(u, newExit, "Entry");
+//                    Transformer newEntry2 = newEntry.clone();
+//                    Transformer newEntry3 = newEntry2.removeDeadEdges();
+//                    Logger.println("newEntry.size: " + newEntry.size() + ", newEntry3.size: " + newEntry3.size());
+
+//                    if (mm.toString().equals("<java.lang.System: java.lang.String getProperty(java.lang.String)>")) {
+//                        Set<TransformerEdge> edges = newEntry.getEdges("<java.security.Permission: java.lang.String name>");
+//                        if (edges != null) {
+//                            for (TransformerEdge te3 : edges) {
+//                                if (te3.getJumpFunction() == IdentityJumpFunction.v()) {
+//                                    if (te3.getDest().toString().equals("<java.security.Permission: java.lang.String name>")) {
+//                                        Logger.println("method has the id edge in newEntry");
+//                                    }
+//                                }
+//                            }
+//                        }
+//                    }
+//                    if (deltaEntry != null && mm.toString().equals("<java.lang.System: java.lang.String getProperty(java.lang.String)>")) {
+//                        Set<TransformerEdge> edges = deltaEntry.getEdges("<java.security.Permission: java.lang.String name>");
+//                        if (edges != null) {
+//                            for (TransformerEdge te3 : edges) {
+//                                if (te3.getJumpFunction() == IdentityJumpFunction.v()) {
+//                                    if (te3.getDest().toString().equals("<java.security.Permission: java.lang.String name>")) {
+//                                        Logger.println("method has the id edge in deltaEntry (2)");
+//                                    }
+//                                }
+//                            }
+//                        }
+//                    }                    
+//                    Transformer entry2 = (u instanceof StartStmt) ? exit2.removeMethodLocalVars() : exit2.composeWith(t);
+//                    entry2.cleanup();
+//                    Logger.println("useDeltas: " + useDeltas + ", oldEntry: " + (oldEntry==null ? "null" : oldEntry.size()) + ", newEntry: " + newEntry.size() + ", deltaEntry: " + (deltaEntry==null ? "null" : deltaEntry.size()) + ", entry2: " + entry2.size());
+//                    if (!newEntry.equals(entry2)) {
+//                        ProfilerSupport.waitForKeyPress();
+//                    }
+//                    
+//                    unitToEntry.put(u, newEntry);
+//                    unitToEntryDelta.put(u, deltaEntry);
+                
+                if (storeEntry) {
+                    newEntry.compact();
+                    storeResult(u, newEntry, unitToEntry);
+                }
+//                                    storeResult(u, deltaEntry, unitToEntryDelta);
+                
+                if (u instanceof StartStmt) {
+                    if (!storeEntry) {
+                        newEntry = newExit.removeMethodLocalVars();
+                        newEntry.compact();
+                    }
+                    SootMethod m = startUnitToMethod.get(u);
+                    if (useDeltas && !storeEntry) {
+                        // semi-naive across return edges: callers only see summary edges they have not yet composed
+                        ITransformer oldSummary = methodToSummary.get(m);
+                        // the difference is only a valid delta if no edge was
+                        // removed from the summary, otherwise callers need the
+                        // full entry
+                        if (oldSummary != null) {
+                            if (!newEntry.subsumes(oldSummary)) {
+                                deltaEntry = null;
+                            }
+                            else if (deltaEntry != null) {
+                                deltaEntry.differenceWithInPlace(oldSummary);
+                            }
+                            else {
+                                deltaEntry = (DeltaTransformer)newEntry.differenceWith(oldSummary);
+                            }
+                            if (deltaEntry != null) {
+                                deltaEntry.compact();
+                                summary_deltas.incrementAndGet();
+                            }
+                        }
+                    }
+                    // With store-entry, newEntry is also the start unit's
+                    // stored entry, which later visits update in place
+                    // (addAllReturnDelta, compact). When work stealing,
+                    // workers analysing callers may read the summary
+                    // meanwhile, so they are given a copy that is never
+                    // updated. Either way they read it through the
+                    // (synchronized) map, which orders their reads after
+                    // this put
+                    methodToSummary.put(m, storeEntry && AtomicTransformer.WORK_STEALING ? newEntry.clone() : newEntry);
+                    // Summary deltas accumulate, however, if it has been
+                    // set to null in the current round of updates 
+                    // (due to a deletion), it must remain null so that 
+                    // callers get the full transformer
+                    
+//                        DeltaTransformer oldSummaryDelta = (DeltaTransformer)methodToSummaryDelta.get(m);
+//                        DeltaTransformer newSummaryDelta = null;
+//                        
+//                        // if oldSummaryDelta is null, it stays null
+//                        if (oldSummaryDelta != null) {
+//                            if (deltaEntry == null) {
+//                                newSummaryDelta = null;
+//                            }
+//                            else {
+//                                newSummaryDelta = (DeltaTransformer)oldSummaryDelta.addAll(deltaEntry);
+//                            }
+//                            if (newSummaryDelta == null) {
+//                                Logger.println(m.toString() + ": setting summaryDelta to null");
+//                            }
+//                            else {
+//                                Logger.println(m.toString() + ": setting summaryDelta to non-null");
+//                            }
+//                            methodToSummaryDelta.put(m, newSummaryDelta);
+//                        }
+                }
+                
+                if (debug) Logger.println("Entry (new): " + newEntry, ANSICode.FG_MAGENTA);
+                if (debug) Logger.println("Entry (delta): " + deltaEntry, ANSICode.FG_MAGENTA);
+
+//                                    if (stats) Logger.printstats("Entry (new): " + newEntry.size());
+//                                    if (stats) Logger.printstats("Entry (delta): " + (deltaEntry == null ? "null" : deltaEntry.size()));                                    
+                
+                // Step 4: If a change occurred, put preds onto worklist
+                if (useDeltas) {
+                    if (deltaEntry == null || !deltaEntry.isEmpty()) {
+
+                        if (u instanceof EndStmt) {
+                            deltaEntry = new DeltaTransformer();
+//                          unitToEntryDelta.put(u, deltaEntry);
+//                                            storeResult(u, deltaEntry, unitToEntryDelta);
+                        }
+                        
+                        if (u instanceof StartStmt) {
+                            // method entry
+                            SootMethod m = startUnitToMethod.get(u);
+                            List<Unit> callers = calleeToCallers.get(m);
+                            if (callers != null) {
+                                for (Unit caller : callers) {
+                                    if (caller == null) {
+                                        Logger.println("caller is null!");
+                                        Logger.println("m: " + mm);
+                                        Logger.println("callers: " + callers);
+                                    }
+                                    synchronized(caller) {
+                                        worklists.addInter(caller);
+                                        // update caller's delta
+                                        if (deltaEntry == null) {
+    //                                        unitToTransformerDelta.put(caller, null);
+    //                                        Logger.println(m + " is setting caller's deltaT to null");
+                                            storeResult(caller, null, unitToTransformerDelta);
+                                        }
+                                        else {
+                                            DeltaTransformer deltaT = (DeltaTransformer)getResult(caller, unitToTransformerDelta); //unitToTransformerDelta.get(caller);
+                                            if (deltaT != null) {
+                                                // if delta is null, it stays null until it is reset
+                                                DeltaTransformer newDeltaT = (DeltaTransformer)deltaT.addAll(deltaEntry);
+                                                storeResult(caller, newDeltaT, unitToTransformerDelta);
+    //                                            deltaT.addAllModify(deltaEntry);
+                                                
+                                                //boolean found = false;
+    //                                            if (mm.toString().equals("<java.lang.System: java.lang.String getProperty(java.lang.String)>")) {
+    //                                                Logger.println("Updating deltaT for " + caller);
+    //                                                Set<TransformerEdge> edges = newDeltaT.getEdges("<java.security.Permission: java.lang.String name>");
+    //                                                if (edges != null) {
+    //                                                    for (TransformerEdge te3 : edges) {
+    //                                                        if (te3.getJumpFunction() == IdentityJumpFunction.v()) {
+    //                                                            if (te3.getDest().toString().equals("<java.security.Permission: java.lang.String name>")) {
+    //                                                                found = true;
+    //                                                                Logger.println("id edge is in newDeltaT");
+    //                                                            }
+    //                                                        }
+    //                                                    }
+    //                                                }
+    //                                                if (!found) {
+    //                                                    Logger.println("id edge not found");
+    //                                                }
+    //                                            }
+                                                //unitToTransformerDelta.put(caller, newDeltaT);
+                                                
+                                            }
                                             else {
-                                                List<Unit> preds = reduceCfg ? unitToJumpPreds.get(u) : unitToPreds.get(u);
-                                                for (Unit p : preds) { // no need to sync on p as this implementation is per-method single-threaded
-                                                    if (!worklist.contains(p)) {
-                                                        worklist.add(p);
-                                                    }
-                                                }
+    //                                            Logger.println(m + "'s caller's deltaT is null");
                                             }
                                         }
                                     }
                                     
-        //                            if (debug) Logger.println("Entry: " + newEntry, ANSICode.FG_MAGENTA);
-        //                            if (intraWorklist.isEmpty()) {
-        //        //                        Logger.println("Switching to inter", ANSICode.FG_BLUE);
-        //                                intra = false;
-        //                            }
-                                    if(debug) ProfilerSupport.waitForKeyPress(); // single-step
-                                
-                                    if (stats) {
-                                        int exitSize = newExit.size();
-                                        int exitLocalCount = newExit.countLocalAccesses();
-                                        int exitXCount = 0;
-                                        if (u instanceof AssignStmt) {
-                                            Local x = (Local)((AssignStmt)u).getLeftOp();
-                                            exitXCount = newExit.countLocalAccesses(x);
-                                        }
-                                        int entrySize = newEntry.size();
-                                        int entryLocalCount = newEntry.countLocalAccesses();
-                                        int tSize = t.size();
-                                        int exit_live = newExit.clone().removeDeadEdges().size();
-                                        int entry_live = newEntry.clone().removeDeadEdges().size();
-                                        Logger.printstats("**************************");
-                                        Logger.printstats("u: " + u);
-                                        Logger.printstats("m: " + mm);
-                                        Logger.printstats(String.format("%d (exit: %d %d %d, entry: %d %d, t: %d)", (exitSize + entrySize + tSize), exitSize, exitLocalCount, exitXCount, entrySize, entryLocalCount, tSize));
-                                        Logger.printstats(String.format("%d (exit_live: %d, entry_live: %d", (exit_live + entry_live + tSize), exit_live, entry_live));
+//                                    SootMethod callerMethod = unitToMethod.get(caller);
+//                                    if (!callerMethodsToPropagate.contains(callerMethod)) {
+//                                        callerMethodsToPropagate.add(callerMethod);
+//                                    }
+                                }
+//                                callersToBeUpdated.put(m, callers);
+                            }
+                        }
+                        else {
+                            List<Unit> preds = reduceCfg ? unitToJumpPreds.get(u) : unitToPreds.get(u);
+//                            boolean addU = false; // add u last
+                            if (preds == null) {
+                                Logger.println("preds null --> u: " + u + " of " + mm);
+                            }
+                            for (Unit p : preds) { // no need to sync on p as this implementation is per-method single-threaded
+//                                if (p == u) {
+//                                    addU = true;
+//                                }
+                                worklists.addIntra(p);
+                                ITransformer predDeltaExit = getResult(p, unitToExitDelta);
+                                if (predDeltaExit != null) { // if null, leave null. will be reset when p is processed
+                                    Map<Unit,ITransformer> predSuccTransformers = unitToJumpSuccs.get(p);
+                                    ITransformer predSuccTransformer = reduceCfg ? predSuccTransformers.get(u) : null;
+                                    if (deltaEntry == null) {
+                                        storeResult(p, null, unitToExitDelta);
+                                    }
+                                    else {
+                                        ITransformer tmp = reduceCfg ? deltaEntry.composeWith(predSuccTransformer) : deltaEntry;
+                                        ITransformer newPredDeltaExit = predDeltaExit.addAll(tmp);
+                                        storeResult(p, newPredDeltaExit, unitToExitDelta);
                                     }
                                 }
-                                
-                                long took = System.currentTimeMillis()-start;
-                                AnalysisTimer.addForIntra(took, mm);
-                                
-                                return null;
                             }
-                        });
+//                            if (addU) {
+//                                // add to the end
+//                                intraWorklist.remove(u); // (in case already in list)
+//                                intraWorklist.add(u);
+//                            }
+                        }
                     }
-                    
-//                    for (Callable<Object> ca : tasks) {
-//                        try {
-//                            ca.call();
+                }
+                else {
+                    if (oldEntry == null || !newEntry.equals(oldEntry)) {
+                        if (u instanceof StartStmt) {
+                            // method entry
+                            SootMethod m = startUnitToMethod.get(u);
+                            List<Unit> callers = calleeToCallers.get(m);
+                            if (callers != null) {
+                                for (Unit caller : callers) {
+                                    worklists.addInter(caller);
+                                }
+                            }
+                        }
+                        else {
+                            List<Unit> preds = reduceCfg ? unitToJumpPreds.get(u) : unitToPreds.get(u);
+                            for (Unit p : preds) { // no need to sync on p as this implementation is per-method single-threaded
+                                worklists.addIntra(p);
+                            }
+                        }
+                    }
+                }
+                
+    //                            if (debug) Logger.println("Entry: " + newEntry, ANSICode.FG_MAGENTA);
+    //                            if (intraWorklist.isEmpty()) {
+    //        //                        Logger.println("Switching to inter", ANSICode.FG_BLUE);
+    //                                intra = false;
+    //                            }
+                if(debug) ProfilerSupport.waitForKeyPress(); // single-step
+            
+                if (stats) {
+                    int exitSize = newExit.size();
+                    int exitLocalCount = newExit.countLocalAccesses();
+                    int exitXCount = 0;
+                    if (u instanceof AssignStmt) {
+                        Local x = (Local)((AssignStmt)u).getLeftOp();
+                        exitXCount = newExit.countLocalAccesses(x);
+                    }
+                    int entrySize = newEntry.size();
+                    int entryLocalCount = newEntry.countLocalAccesses();
+                    int tSize = t.size();
+                    int exit_live = newExit.clone().removeDeadEdges().size();
+                    int entry_live = newEntry.clone().removeDeadEdges().size();
+                    Logger.printstats("**************************");
+                    Logger.printstats("u: " + u);
+                    Logger.printstats("m: " + mm);
+                    Logger.printstats(String.format("%d (exit: %d %d %d, entry: %d %d, t: %d)", (exitSize + entrySize + tSize), exitSize, exitLocalCount, exitXCount, entrySize, entryLocalCount, tSize));
+                    Logger.printstats(String.format("%d (exit_live: %d, entry_live: %d", (exit_live + entry_live + tSize), exit_live, entry_live));
+                }
+                
+                long took = System.currentTimeMillis()-start;
+                AnalysisTimer.addForIntra(took, mm);
+		    }
+		};
+		
+		final UnitProcessor interProcessor = new UnitProcessor() {
+		    public void process(Unit u, SootMethod mm) {
+                long start = System.currentTimeMillis();
+//                    Logger.println(u.toString(), ANSICode.FG_MAGENTA);
+//                    Logger.println(mm.toString(), ANSICode.FG_MAGENTA);
+                if (debug) Logger.println("");
+                if (debug) Logger.println("");
+                if (debug) Logger.println("Unit: " + u + " (" + StateFactory.v((Stmt)u).getNumber() + ")");
+                if (debug) Logger.println("Method: " + unitToMethod.get(u));
+                // u contains an invoke stmt
+                // Calculate meet of all target methods to give tm and apply
+                // tm to current exit transformer
+                
+                // Step 1: are we using deltas or full transformers?
+//                    List<SootMethod> targets = callerToCallees.get(u);
+                ITransformer oldT = getResult(u, unitToTransformer);//unitToTransformer.get(u);
+                if (debug) Logger.println("T (old): " + oldT, ANSICode.FG_RED);
+                ITransformer newT = null;
+                // take and reset transformer delta. Callees may be adding to
+                // it concurrently (they also synchronize on u).
+                DeltaTransformer deltaT = null;
+                if (useDeltas) {
+                    synchronized(u) {
+                        deltaT = (DeltaTransformer)getResult(u, unitToTransformerDelta); //unitToTransformerDelta.get(u);
+                        storeResult(u, new DeltaTransformer(), unitToTransformerDelta);
+                    }
+                }
+                if (debug) Logger.println("T (delta): " + deltaT, ANSICode.FG_RED);
+//                    for (SootMethod target : targets) {
+//                        if (methodToSummaryDelta.get(target) == null) {
+//                            Logger.println(target.toString() + "'s summaryDelta is null", ANSICode.FG_RED);
+//                            useDeltas = false;
+//                            break;
+//                        }
+//                    }
+//                    Transformer t2 = new Transformer();
+//                    boolean fTarget = true;
+//                    for (SootMethod target : callerToCallees.get(u)) {
+//                        Transformer summary2 = methodToSummary.get(target);
+//                        Set<TransformerEdge> edges = summary2.getEdges("<java.security.Permission: java.lang.String name>");
+//                        if (edges != null) {
+//                            for (TransformerEdge te3 : edges) {
+//                                if (te3.getJumpFunction() == IdentityJumpFunction.v()) {
+//                                    if (te3.getDest().toString().equals("<java.security.Permission: java.lang.String name>")) {
+//                                        Logger.println(target.toString() + " has the id edge");
+//                                    }
+//                                }
+//                            }
 //                        }
-//                        catch (Exception e) {
-//                            throw new RuntimeException(e);
+//                        if (fTarget) {
+//                            t2.overwriteWith(summary2);
+//                            fTarget = false;
+//                        }
+//                        else {
+//                            t2.unionWith(summary2);
 //                        }
 //                    }
-                    
-                    try {
-                        AtomicTransformer.POOL.invokeAll(tasks);
+//                    t2 = t2.calleeToCallerContext(callToParamsArgs.get(u));
+//                    Logger.println("starting cleanup");
+//                    t2.cleanup();
+//                    Logger.println("finished");
+
+//                    int newTSizeBeforeCleanup = -1;
+                if (deltaT == null) transformer_nondelta.incrementAndGet(); else transformer_delta.incrementAndGet();
+                if (deltaT == null) {
+//                        Logger.println("Using non-deltas to compute transformer", ANSICode.FG_BLUE);
+                    //newT = unitToLowerTransformer.get(u);
+                    newT = newEmptyTransformer();
+                    boolean firstTarget = true;
+                    for (SootMethod target : callerToCallees.get(u)) {
+                        ITransformer summary = methodToSummary.get(target);
+                        if (firstTarget) {
+                            newT.overwriteWith(summary);
+                            firstTarget = false;
+                        }
+                        else {
+                            newT.unionWith(summary);
+                        }
+//                        List<Unit> targetCallers = callersToBeUpdated.get(target);
+//                        // if targetCallers is null, then target is in another
+//                        // component or their summary hasn't been updated yet
+////                        if (targetCallers == null && c.contains(target)) {
+////                            throw new RuntimeException("targetCallers is null but target is in current component!");
+////                        }
+//                        if (targetCallers != null) {
+//                            targetCallers.remove(u);
+//                            if (targetCallers.isEmpty()) {
+//                                methodToSummaryDelta.put(target, new DeltaTransformer());
+//                            }
+//                        }
                     }
-                    catch (Exception e) {
-                        throw new RuntimeException(e);
+//                        newT.toArraySets();
+                    newT = newT.calleeToCallerContext(callToParamsArgs.get(u));
+                    newT.cleanup();
+//                                    newT.compact();
+                    // optimisation
+                    if (useDeltas && !storeEntry && oldT != null && newT.subsumes(oldT)) {
+                        deltaT = (DeltaTransformer)newT.differenceWith(oldT);
+                        deltaT.compact();
                     }
-                    
-                    intra = false;
                 }
-				else {
-				    
-				    Logger.println("e_deltas: " + entry_deltas + ", e: " + entry_nondeltas + ", t_deltas: " + transformer_delta + ", t: " + transformer_nondelta + ", intra: " + intraWorklist.size() + ", inter: " + interWorklist.size());
-				    
-				    if (entry_nondeltas.intValue() == startCompaction && !methodsToComputeCommonTransformer.isEmpty() && ++compactionCounter == AtomicTransformer.COMPACT_EVERY) {
-				        compactExits(methodsToComputeCommonTransformer);
-				        if (AtomicTransformer.COMPACT_SUMMARIES) {
-				            compactSummaries(c);
-				        }
-				        methodsToComputeCommonTransformer.clear();
-				        compactionCounter = 0;
-				        
-				    }
-				    
+                else if (useDeltas) {
+//                        Logger.println("Using deltas to compute transformer", ANSICode.FG_GREEN);
+                    // PROBLEMATIC W.R.T. ALIASING (requires composeWith* to be pure) 
+                    deltaT = (DeltaTransformer)deltaT.calleeToCallerContext(callToParamsArgs.get(u));
+//                        newT = oldT.addAll(deltaT);
+////                        newT.cleanup();
+//                        // recompute delta as a lot of the time it is smaller
+//                        deltaT = newT.differenceWith(oldT);
+//                        deltaT = oldT.addAllModifyReturnDelta(deltaT);
+//                        newT = oldT;
+                    DeltaTransformer newDeltaT = new DeltaTransformer();
+                    newT = oldT.addAllReturnDelta(deltaT, newDeltaT);
+                    deltaT = newDeltaT;
+                    deltaT.compact();
+                }
+
+                
+//                    Logger.println("oldT: " + (oldT == null ? "null" : oldT.size()) + ", newTBeforeCleanup: " + newTSizeBeforeCleanup + ", newT: " + newT.size() + ", deltaT: " + (deltaT == null ? "null" : deltaT.size()) + ", t2: " + t2.size(), ANSICode.FG_MAGENTA);
+                
+//                    if (!newT.equals(t2)) {
+//                        Logger.println("diff1: " + newT.differenceWith(t2), ANSICode.FG_MAGENTA);
+//                        Logger.println("diff2: " + t2.differenceWith(newT), ANSICode.FG_MAGENTA);
+//                        Logger.println("newT: " + newT.getEdges("<java.security.Permission: java.lang.String name>"), ANSICode.FG_MAGENTA);
+//                        Logger.println("t2: " + t2.getEdges("<java.security.Permission: java.lang.String name>"), ANSICode.FG_MAGENTA);
+//                        
+//                        ProfilerSupport.waitForKeyPress();
+//                    }
+                
+                if (debug) Logger.println("T (new): " + newT, ANSICode.FG_MAGENTA);
+
+//                    if (useDeltas) {
+//                        Logger.println("Computing transfer func from deltas", ANSICode.FG_GREEN);
+//                        deltaT = (DeltaTransformer)t;
+//                        newT = oldT.addAll(deltaT); // using deltas, so oldT cannot be null
+////                        if (!newT.subsumes(oldT)) {
+////                            Logger.errprintln("newT does not subsume oldT!", ANSICode.FG_RED);
+////                            ProfilerSupport.waitForKeyPress();
+////                        }
+////                        DeltaTransformer newDeltaT = newT.differenceWith(oldT); 
+//                        // debugging
+////                        if (!newDeltaT.equals(deltaT)) {
+////                            Logger.errprintln("--- newDeltaT does not equal deltaT", ANSICode.FG_RED);
+////                        }
+////                        deltaT = newDeltaT;
+//    
+//                        // test that newT is the same as what would have been obtained if we
+//                        // took the full meet.
+////                        if (!newT.equals(t2)) {
+////                            Logger.println("delta and non-delta transfer func are not the same!", ANSICode.FG_RED);
+////                            Logger.println("u: " + u, ANSICode.FG_RED);
+////                            Logger.println("m: " + unitToMethod.get(u), ANSICode.FG_RED);
+////                            Logger.println("targets: " + callerToCallees.get(u), ANSICode.FG_RED);
+////                        }
+//                    }
+//                    else {
+//                        Logger.println("Computing transfer func from non-deltas", ANSICode.FG_BLUE);
+//                        newT = t;
+//                        if (oldT != null && newT.subsumes(oldT)) {
+//                            deltaT = newT.differenceWith(oldT);
+//                        }
+//                        else {
+//                            deltaT = null;
+//                        }
+//                    }
+
+//                    unitToTransformer.put(u, newT);
+                newT.compact();
+                storeResult(u, newT, unitToTransformer);
+                //                    unitToTransformerDelta.put(u, deltaT);
+                
+                int exitSize = 0;
+                int entrySize = 0;
+
+                if (useDeltas) {
+                    if (deltaT == null || !deltaT.isEmpty()) {
+
+                        ITransformer oldEntry = getResult(u, unitToEntry); //unitToEntry.get(u);
+                        ITransformer newEntry = null;
+                        ITransformer deltaEntry = null;
+                        ITransformer exit = getResult(u, unitToExit); //unitToExit.get(u);
+                        if (stats) exitSize = exit.size();
+                        
+                        if (debug) Logger.println("Exit: " + exit, ANSICode.FG_RED);
+                        if (debug) Logger.println("Entry (old): " + oldEntry, ANSICode.FG_RED);
+                        if (deltaT == null) {
+                            // t o e
+                            if (storeEntry) {
+                                if (exit == null) {
+                                    Logger.println("exit null");
+                                    Logger.println("u: " + u);
+                                    Logger.println("m: " + mm);
+                                    Logger.println("entry: " + oldEntry);
+                                }
+                                newEntry = exit.composeWith(newT);
+                                if (newEntry.subsumes(oldEntry)) {
+                                    deltaEntry = newEntry.differenceWith(oldEntry);
+                                }
+                                else {
+                                    deltaEntry = null;
+                                }
+                            }
+                            else {
+                                deltaEntry = null;
+                            }
+                        }
+                        else {
+                            // t o e
+                            deltaEntry = deltaT.composeWithAbove((Transformer)exit);
+//                            newEntry = oldEntry.addAll(deltaEntry);
+//                            newEntry.cleanup();
+//                            deltaEntry = newEntry.differenceWith(oldEntry); // improves performance a lot
+                            if (storeEntry) {
+                                DeltaTransformer newDeltaEntry = new DeltaTransformer();
+                                newEntry = oldEntry.addAllReturnDelta(deltaEntry, newDeltaEntry);
+                                deltaEntry = newDeltaEntry;
+                            }
+//                            deltaEntry = oldEntry.addAllModifyReturnDelta(deltaEntry);
+//                            newEntry = oldEntry;
+                        }
+                        if (storeEntry) {
+                            newEntry.compact();
+                        }
+                        if (deltaEntry != null) deltaEntry.compact();
+                        if (stats) entrySize = newEntry == null ? 0 : newEntry.size();
+//                        unitToEntry.put(u, newEntry);
+//                        unitToEntryDelta.put(u, deltaEntry);
+                        if (storeEntry) {
+                            storeResult(u, newEntry, unitToEntry);
+                        }
+                        
+                        if (debug) Logger.println("Entry (new): " + newEntry, ANSICode.FG_MAGENTA);
+                        if (debug) Logger.println("Entry (delta): " + deltaEntry, ANSICode.FG_MAGENTA);
+//                                    storeResult(u, deltaEntry, unitToEntryDelta);
+                          
+                        if (deltaEntry == null || !deltaEntry.isEmpty()) {
+                            List<Unit> preds = reduceCfg ? unitToJumpPreds.get(u) : unitToPreds.get(u);
+//                            boolean addU = false;
+//                            for (Unit p : preds) {
+//                                if (p == u) {
+//                                    addU = true;
+//                                }
+//                                else if (!intraWorklist.contains(p)) {
+//                                    intraWorklist.add(p);
+//                                }
+//                            }
+//                            if (addU) {
+//                                intraWorklist.add(u);
+//                            }
+//                            
+//                            // the following "if" ensures that when the 
+//                            // if(intra) line is uncommented, u's deltaEntry 
+//                            // is not overwritten before all u's preds have 
+//                            // read it (achieved by moving u to after preds
+//                            // in intra
+//                            if (sweep && deltaEntry != null) {
+//                                if (intraWorklist.contains(u)) {
+//                                    intraWorklist.remove(u); 
+//                                    intraWorklist.add(u);
+//                                }
+//                            }
+                            for (Unit p : preds) { // no need to sync on p as only the thread processing mm updates it
+                                worklists.addIntra(p);
+                                ITransformer predDeltaExit = getResult(p, unitToExitDelta);
+                                if (predDeltaExit != null) { // if null, leave null. will be reset when p is processed
+                                    Map<Unit,ITransformer> predSuccTransformers = unitToJumpSuccs.get(p);
+                                    ITransformer predSuccTransformer = reduceCfg ? predSuccTransformers.get(u) : null;
+                                    if (deltaEntry == null) {
+                                        storeResult(p, null, unitToExitDelta);
+                                    }
+                                    else {
+                                        ITransformer tmp = reduceCfg ? deltaEntry.composeWith(predSuccTransformer) : deltaEntry;
+                                        ITransformer newPredDeltaExit = predDeltaExit.addAll(tmp);
+                                        storeResult(p, newPredDeltaExit, unitToExitDelta);
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+                else {
+                    if (oldT == null || !newT.equals(oldT)) {
+                        worklists.addIntra(u);
+                    }
+                }
+//                    else if (!deltaT.isEmpty()) {
+//                        // t o e
+//                        Transformer exit = unitToExit.get(u);
+//                        if (exit != null) {
+//                            Transformer oldEntry = unitToEntry.get(u);
+//                            Transformer newEntry = null;
+//                            Transformer deltaEntry = null;
+//                            // t o e
+//                            //deltaEntry = exit.composeWith(deltaT);
+//                            deltaEntry = deltaT.composeWithAbove(exit);
+//                            newEntry = oldEntry.addAll(deltaEntry);
+//                            deltaEntry = newEntry.differenceWith(oldEntry); // improves performance a lot
+//                            
+//                            unitToEntry.put(u, newEntry);
+//                            unitToEntryDelta.put(u, deltaEntry);
+//                            
+//                            if (!deltaEntry.isEmpty()) {
+//                                List<Unit> preds = reduceCfg ? unitToJumpPreds.get(u) : unitToPreds.get(u);
+//                                for (Unit p : preds) {
+//                                    if (!intraWorklist.contains(p)) {
+//                                        intraWorklist.add(p);
+//                                    }
+//                                }
+//                            }
+//                        }
+//                    }
+                
+                if (debug) ProfilerSupport.waitForKeyPress();
+    //                        if (interWorklist.isEmpty()) {
+    //    //                        Logger.println("Switching to intra", ANSICode.FG_BLUE);
+    //                            intra = true;
+    //                        }
+                if (stats) {
+                    int tSize = newT.size();
+                    Logger.printstats("**************************");
+                    Logger.printstats("u: " + u);
+                    Logger.printstats("m: " + mm);
+                    Logger.printstats(String.format("%d (exit: %d, entry: %d, t: %d)", (exitSize + entrySize + tSize), exitSize, entrySize, tSize));
+                }
+                
+                long took = System.currentTimeMillis()-start;
+                AnalysisTimer.addForInter(took, mm);
+		    }
+		};
+		
+		if (AtomicTransformer.WORK_STEALING) {
+		    // propagate until a fixed point is reached, without sweeps
+		    worklists.run(intraProcessor, interProcessor, AtomicTransformer.POOL, AtomicTransformer.THREADS);
+		}
+		
+		while (!worklists.isEmpty()) {
+//				Logger.println("Inter worklist: " + interWorklist, ANSICode.FG_DEFAULT, ANSICode.BG_YELLOW);
+//				Logger.println("Intra worklist: " + intraWorklist, ANSICode.FG_DEFAULT, ANSICode.BG_YELLOW);
+//			    if (++counter == 100) {
+//			        Logger.println("e_deltas: " + entry_deltas + ", e: " + entry_nondeeltas + ", t_deltas: " + transformer_delta + ", t: " + transformer_nondelta + ", intra: " + intraWorklist.size() + ", inter: " + interWorklist.size());
+//			        counter = 0;
+//			    }
+			if((sweep && intra) || (!sweep && worklists.intraSize() > 0)) {
+                Logger.println("e_deltas: " + entry_deltas + ", e: " + entry_nondeltas + ", t_deltas: " + transformer_delta + ", t: " + transformer_nondelta + ", s_deltas: " + summary_deltas + ", intra: " + worklists.intraSize() + ", inter: " + worklists.interSize());
+                worklists.sweepIntra(intraProcessor, AtomicTransformer.POOL);
+                intra = false;
+            }
+			else {
+			    
+			    Logger.println("e_deltas: " + entry_deltas + ", e: " + entry_nondeltas + ", t_deltas: " + transformer_delta + ", t: " + transformer_nondelta + ", s_deltas: " + summary_deltas + ", intra: " + worklists.intraSize() + ", inter: " + worklists.interSize());
+			    
+			    if (entry_nondeltas.intValue() == startCompaction && !methodsToComputeCommonTransformer.isEmpty() && ++compactionCounter == AtomicTransformer.COMPACT_EVERY) {
+			        compactExits(methodsToComputeCommonTransformer);
+			        if (AtomicTransformer.COMPACT_SUMMARIES) {
+			            compactSummaries(c);
+			        }
+			        methodsToComputeCommonTransformer.clear();
+			        compactionCounter = 0;
+			        
+			    }
+			    
 //                    if (entry_nondeeltas.intValue() == startCompaction && ++compactionCounter == AtomicTransformer.COMPACT_EVERY) {
 //                        compactExitsAcrossComponent(c);
 //                        compactionCounter = 0;
@@ -2133,372 +2617,12 @@ public class PathsAnalysis {
 //				        Logger.println("    took " + String.format("%.2f", (took/1000.0)) + " secs", ANSICode.FG_BLUE);
 //				    }
 
-				    List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
-				    for (final Unit u : interWorklist) {
-				        tasks.add(new Callable<Object>() {
-				            public Object call() {
-            //                    Unit u = interWorklist.remove(0);
-                                SootMethod mm = unitToMethod.get(u);
-                                long start = System.currentTimeMillis();
-            //                    Logger.println(u.toString(), ANSICode.FG_MAGENTA);
-            //                    Logger.println(mm.toString(), ANSICode.FG_MAGENTA);
-                                if (debug) Logger.println("");
-                                if (debug) Logger.println("");
-                                if (debug) Logger.println("Unit: " + u + " (" + StateFactory.v((Stmt)u).getNumber() + ")");
-                                if (debug) Logger.println("Method: " + unitToMethod.get(u));
-                                // u contains an invoke stmt
-                                // Calculate meet of all target methods to give tm and apply
-                                // tm to current exit transformer
-                                
-                                // Step 1: are we using deltas or full transformers?
-            //                    List<SootMethod> targets = callerToCallees.get(u);
-                                ITransformer oldT = getResult(u, unitToTransformer);//unitToTransformer.get(u);
-                                if (debug) Logger.println("T (old): " + oldT, ANSICode.FG_RED);
-                                ITransformer newT = null;
-                                DeltaTransformer deltaT = useDeltas ? (DeltaTransformer)getResult(u, unitToTransformerDelta) : null; //unitToTransformerDelta.get(u);
-                                if (debug) Logger.println("T (delta): " + deltaT, ANSICode.FG_RED);
-            //                    for (SootMethod target : targets) {
-            //                        if (methodToSummaryDelta.get(target) == null) {
-            //                            Logger.println(target.toString() + "'s summaryDelta is null", ANSICode.FG_RED);
-            //                            useDeltas = false;
-            //                            break;
-            //                        }
-            //                    }
-            //                    Transformer t2 = new Transformer();
-            //                    boolean fTarget = true;
-            //                    for (SootMethod target : callerToCallees.get(u)) {
-            //                        Transformer summary2 = methodToSummary.get(target);
-            //                        Set<TransformerEdge> edges = summary2.getEdges("<java.security.Permission: java.lang.String name>");
-            //                        if (edges != null) {
-            //                            for (TransformerEdge te3 : edges) {
-            //                                if (te3.getJumpFunction() == IdentityJumpFunction.v()) {
-            //                                    if (te3.getDest().toString().equals("<java.security.Permission: java.lang.String name>")) {
-            //                                        Logger.println(target.toString() + " has the id edge");
-            //                                    }
-            //                                }
-            //                            }
-            //                        }
-            //                        if (fTarget) {
-            //                            t2.overwriteWith(summary2);
-            //                            fTarget = false;
-            //                        }
-            //                        else {
-            //                            t2.unionWith(summary2);
-            //                        }
-            //                    }
-            //                    t2 = t2.calleeToCallerContext(callToParamsArgs.get(u));
-            //                    Logger.println("starting cleanup");
-            //                    t2.cleanup();
-            //                    Logger.println("finished");
-            
-            //                    int newTSizeBeforeCleanup = -1;
-                                if (deltaT == null) transformer_nondelta.incrementAndGet(); else transformer_delta.incrementAndGet();
-                                if (deltaT == null) {
-            //                        Logger.println("Using non-deltas to compute transformer", ANSICode.FG_BLUE);
-                                    //newT = unitToLowerTransformer.get(u);
-                                    newT = newEmptyTransformer();
-                                    boolean firstTarget = true;
-                                    for (SootMethod target : callerToCallees.get(u)) {
-                                        ITransformer summary = methodToSummary.get(target);
-                                        if (firstTarget) {
-                                            newT.overwriteWith(summary);
-                                            firstTarget = false;
-                                        }
-                                        else {
-                                            newT.unionWith(summary);
-                                        }
-                //                        List<Unit> targetCallers = callersToBeUpdated.get(target);
-                //                        // if targetCallers is null, then target is in another
-                //                        // component or their summary hasn't been updated yet
-                ////                        if (targetCallers == null && c.contains(target)) {
-                ////                            throw new RuntimeException("targetCallers is null but target is in current component!");
-                ////                        }
-                //                        if (targetCallers != null) {
-                //                            targetCallers.remove(u);
-                //                            if (targetCallers.isEmpty()) {
-                //                                methodToSummaryDelta.put(target, new DeltaTransformer());
-                //                            }
-                //                        }
-                                    }
-            //                        newT.toArraySets();
-                                    newT = newT.calleeToCallerContext(callToParamsArgs.get(u));
-                                    newT.cleanup();
-//                                    newT.compact();
-                                    // optimisation
-                                    if (useDeltas && !storeEntry && oldT != null && newT.subsumes(oldT)) {
-                                        deltaT = (DeltaTransformer)newT.differenceWith(oldT);
-                                        deltaT.compact();
-                                    }
-                                }
-                                else if (useDeltas) {
-            //                        Logger.println("Using deltas to compute transformer", ANSICode.FG_GREEN);
-                                    // PROBLEMATIC W.R.T. ALIASING (requires composeWith* to be pure) 
-                                    deltaT = (DeltaTransformer)deltaT.calleeToCallerContext(callToParamsArgs.get(u));
-            //                        newT = oldT.addAll(deltaT);
-            ////                        newT.cleanup();
-            //                        // recompute delta as a lot of the time it is smaller
-            //                        deltaT = newT.differenceWith(oldT);
-            //                        deltaT = oldT.addAllModifyReturnDelta(deltaT);
-            //                        newT = oldT;
-                                    DeltaTransformer newDeltaT = new DeltaTransformer();
-                                    newT = oldT.addAllReturnDelta(deltaT, newDeltaT);
-                                    deltaT = newDeltaT;
-                                    deltaT.compact();
-                                }
-            
-                                
-            //                    Logger.println("oldT: " + (oldT == null ? "null" : oldT.size()) + ", newTBeforeCleanup: " + newTSizeBeforeCleanup + ", newT: " + newT.size() + ", deltaT: " + (deltaT == null ? "null" : deltaT.size()) + ", t2: " + t2.size(), ANSICode.FG_MAGENTA);
-                                
-            //                    if (!newT.equals(t2)) {
-            //                        Logger.println("diff1: " + newT.differenceWith(t2), ANSICode.FG_MAGENTA);
-            //                        Logger.println("diff2: " + t2.differenceWith(newT), ANSICode.FG_MAGENTA);
-            //                        Logger.println("newT: " + newT.getEdges("<java.security.Permission: java.lang.String name>"), ANSICode.FG_MAGENTA);
-            //                        Logger.println("t2: " + t2.getEdges("<java.security.Permission: java.lang.String name>"), ANSICode.FG_MAGENTA);
-            //                        
-            //                        ProfilerSupport.waitForKeyPress();
-            //                    }
-                                
-                                if (debug) Logger.println("T (new): " + newT, ANSICode.FG_MAGENTA);
-            
-            //                    if (useDeltas) {
-            //                        Logger.println("Computing transfer func from deltas", ANSICode.FG_GREEN);
-            //                        deltaT = (DeltaTransformer)t;
-            //                        newT = oldT.addAll(deltaT); // using deltas, so oldT cannot be null
-            ////                        if (!newT.subsumes(oldT)) {
-            ////                            Logger.errprintln("newT does not subsume oldT!", ANSICode.FG_RED);
-            ////                            ProfilerSupport.waitForKeyPress();
-            ////                        }
-            ////                        DeltaTransformer newDeltaT = newT.differenceWith(oldT); 
-            //                        // debugging
-            ////                        if (!newDeltaT.equals(deltaT)) {
-            ////                            Logger.errprintln("--- newDeltaT does not equal deltaT", ANSICode.FG_RED);
-            ////                        }
-            ////                        deltaT = newDeltaT;
-            //    
-            //                        // test that newT is the same as what would have been obtained if we
-            //                        // took the full meet.
-            ////                        if (!newT.equals(t2)) {
-            ////                            Logger.println("delta and non-delta transfer func are not the same!", ANSICode.FG_RED);
-            ////                            Logger.println("u: " + u, ANSICode.FG_RED);
-            ////                            Logger.println("m: " + unitToMethod.get(u), ANSICode.FG_RED);
-            ////                            Logger.println("targets: " + callerToCallees.get(u), ANSICode.FG_RED);
-            ////                        }
-            //                    }
-            //                    else {
-            //                        Logger.println("Computing transfer func from non-deltas", ANSICode.FG_BLUE);
-            //                        newT = t;
-            //                        if (oldT != null && newT.subsumes(oldT)) {
-            //                            deltaT = newT.differenceWith(oldT);
-            //                        }
-            //                        else {
-            //                            deltaT = null;
-            //                        }
-            //                    }
-            
-            //                    unitToTransformer.put(u, newT);
-                                newT.compact();
-                                storeResult(u, newT, unitToTransformer);
-                                //                    unitToTransformerDelta.put(u, deltaT);
-                                
-                                int exitSize = 0;
-                                int entrySize = 0;
-
-                                if (useDeltas) {
-                                    if (deltaT == null || !deltaT.isEmpty()) {
-                
-                                        ITransformer oldEntry = getResult(u, unitToEntry); //unitToEntry.get(u);
-                                        ITransformer newEntry = null;
-                                        ITransformer deltaEntry = null;
-                                        ITransformer exit = getResult(u, unitToExit); //unitToExit.get(u);
-                                        if (stats) exitSize = exit.size();
-                                        
-                                        if (debug) Logger.println("Exit: " + exit, ANSICode.FG_RED);
-                                        if (debug) Logger.println("Entry (old): " + oldEntry, ANSICode.FG_RED);
-                                        if (deltaT == null) {
-                                            // t o e
-                                            if (storeEntry) {
-                                                if (exit == null) {
-                                                    Logger.println("exit null");
-                                                    Logger.println("u: " + u);
-                                                    Logger.println("m: " + mm);
-                                                    Logger.println("entry: " + oldEntry);
-                                                }
-                                                newEntry = exit.composeWith(newT);
-                                                if (newEntry.subsumes(oldEntry)) {
-                                                    deltaEntry = newEntry.differenceWith(oldEntry);
-                                                }
-                                                else {
-                                                    deltaEntry = null;
-                                                }
-                                            }
-                                            else {
-                                                deltaEntry = null;
-                                            }
-                                        }
-                                        else {
-                                            // t o e
-                                            deltaEntry = deltaT.composeWithAbove((Transformer)exit);
-                //                            newEntry = oldEntry.addAll(deltaEntry);
-                //                            newEntry.cleanup();
-                //                            deltaEntry = newEntry.differenceWith(oldEntry); // improves performance a lot
-                                            if (storeEntry) {
-                                                DeltaTransformer newDeltaEntry = new DeltaTransformer();
-                                                newEntry = oldEntry.addAllReturnDelta(deltaEntry, newDeltaEntry);
-                                                deltaEntry = newDeltaEntry;
-                                            }
-                //                            deltaEntry = oldEntry.addAllModifyReturnDelta(deltaEntry);
-                //                            newEntry = oldEntry;
-                                        }
-                                        if (storeEntry) {
-                                            newEntry.compact();
-                                        }
-                                        if (deltaEntry != null) deltaEntry.compact();
-                                        if (stats) entrySize = newEntry == null ? 0 : newEntry.size();
-                //                        unitToEntry.put(u, newEntry);
-                //                        unitToEntryDelta.put(u, deltaEntry);
-                                        if (storeEntry) {
-                                            storeResult(u, newEntry, unitToEntry);
-                                        }
-                                        
-                                        if (debug) Logger.println("Entry (new): " + newEntry, ANSICode.FG_MAGENTA);
-                                        if (debug) Logger.println("Entry (delta): " + deltaEntry, ANSICode.FG_MAGENTA);
-    //                                    storeResult(u, deltaEntry, unitToEntryDelta);
-                                          
-                                        if (deltaEntry == null || !deltaEntry.isEmpty()) {
-                                            List<Unit> preds = reduceCfg ? unitToJumpPreds.get(u) : unitToPreds.get(u);
-                //                            boolean addU = false;
-                //                            for (Unit p : preds) {
-                //                                if (p == u) {
-                //                                    addU = true;
-                //                                }
-                //                                else if (!intraWorklist.contains(p)) {
-                //                                    intraWorklist.add(p);
-                //                                }
-                //                            }
-                //                            if (addU) {
-                //                                intraWorklist.add(u);
-                //                            }
-                //                            
-                //                            // the following "if" ensures that when the 
-                //                            // if(intra) line is uncommented, u's deltaEntry 
-                //                            // is not overwritten before all u's preds have 
-                //                            // read it (achieved by moving u to after preds
-                //                            // in intra
-                //                            if (sweep && deltaEntry != null) {
-                //                                if (intraWorklist.contains(u)) {
-                //                                    intraWorklist.remove(u); 
-                //                                    intraWorklist.add(u);
-                //                                }
-                //                            }
-                                            for (Unit p : preds) {
-                                                synchronized(p) {
-                                                    synchronized(intraWorklist) {
-                                                        if (!intraWorklist.contains(p)) {
-                                                            intraWorklist.add(p);
-                                                        }
-                                                    }
-                                                    ITransformer predDeltaExit = getResult(p, unitToExitDelta);
-                                                    if (predDeltaExit != null) { // if null, leave null. will be reset when p is processed
-                                                        Map<Unit,ITransformer> predSuccTransformers = unitToJumpSuccs.get(p);
-                                                        ITransformer predSuccTransformer = reduceCfg ? predSuccTransformers.get(u) : null;
-                                                        if (deltaEntry == null) {
-                                                            storeResult(p, null, unitToExitDelta);
-                                                        }
-                                                        else {
-                                                            ITransformer tmp = reduceCfg ? deltaEntry.composeWith(predSuccTransformer) : deltaEntry;
-                                                            ITransformer newPredDeltaExit = predDeltaExit.addAll(tmp);
-                                                            storeResult(p, newPredDeltaExit, unitToExitDelta);
-                                                        }
-                                                    }
-                                                }
-                                            }
-                                        }
-                                    }
-                                }
-                                else {
-                                    if (oldT == null || !newT.equals(oldT)) {
-                                        synchronized (intraWorklist) {
-                                            if (!intraWorklist.contains(u)) {
-                                                intraWorklist.add(u);
-                                            }
-                                        }
-                                    }
-                                }
-            //                    else if (!deltaT.isEmpty()) {
-            //                        // t o e
-            //                        Transformer exit = unitToExit.get(u);
-            //                        if (exit != null) {
-            //                            Transformer oldEntry = unitToEntry.get(u);
-            //                            Transformer newEntry = null;
-            //                            Transformer deltaEntry = null;
-            //                            // t o e
-            //                            //deltaEntry = exit.composeWith(deltaT);
-            //                            deltaEntry = deltaT.composeWithAbove(exit);
-            //                            newEntry = oldEntry.addAll(deltaEntry);
-            //                            deltaEntry = newEntry.differenceWith(oldEntry); // improves performance a lot
-            //                            
-            //                            unitToEntry.put(u, newEntry);
-            //                            unitToEntryDelta.put(u, deltaEntry);
-            //                            
-            //                            if (!deltaEntry.isEmpty()) {
-            //                                List<Unit> preds = reduceCfg ? unitToJumpPreds.get(u) : unitToPreds.get(u);
-            //                                for (Unit p : preds) {
-            //                                    if (!intraWorklist.contains(p)) {
-            //                                        intraWorklist.add(p);
-            //                                    }
-            //                                }
-            //                            }
-            //                        }
-            //                    }
-                                
-                                // reset transformer delta
-            //                    unitToTransformerDelta.put(u, new DeltaTransformer());
-                                if (useDeltas) {
-                                    storeResult(u, new DeltaTransformer(), unitToTransformerDelta);
-                                }
-                                if (debug) ProfilerSupport.waitForKeyPress();
-        //                        if (interWorklist.isEmpty()) {
-        //    //                        Logger.println("Switching to intra", ANSICode.FG_BLUE);
-        //                            intra = true;
-        //                        }
-                                if (stats) {
-                                    int tSize = newT.size();
-                                    Logger.printstats("**************************");
-                                    Logger.printstats("u: " + u);
-                                    Logger.printstats("m: " + mm);
-                                    Logger.printstats(String.format("%d (exit: %d, entry: %d, t: %d)", (exitSize + entrySize + tSize), exitSize, entrySize, tSize));
-                                }
-                                
-                                long took = System.currentTimeMillis()-start;
-                                AnalysisTimer.addForInter(took, mm);
-                                
-                                return null;
-				            }
-				        });
-				    }
-				    
-				    try {
-				        AtomicTransformer.POOL.invokeAll(tasks);
-				    }
-				    catch (InterruptedException ie) {
-				        throw new RuntimeException(ie);
-				    }
-				    
-//				    for (Callable<Object> ca : tasks) {
-//				        try {
-//				            ca.call();
-//				        }
-//				        catch (Exception e) {
-//				            throw new RuntimeException(e);
-//				        }
-//				    }
-				    
-				    interWorklist.clear();
-				    intra = true;
-				}
-				
-				
-				// compact transformers
+			    worklists.sweepInter(interProcessor, AtomicTransformer.POOL);
+			    intra = true;
+			}
+			
+			
+			// compact transformers
 //				if (AtomicTransformer.COMPACT) {
 //    				List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
 //    				for (final Unit u : unitToEntry.keySet()) {
@@ -2520,53 +2644,53 @@ public class PathsAnalysis {
 //    				    throw new RuntimeException(ie);
 //    				}
 //				}
-			}
+		}
 
 //			Logger.println("intra: " + intraWorklist.size() + ", inter: " + interWorklist.size());
-			
-			if (AtomicTransformer.INTERMEDIATE_RESULTS) {
-			    Logger.println("* Finished analysis in " + (System.currentTimeMillis()-startTime)/1000.0 + " seconds");
+		
+		if (AtomicTransformer.INTERMEDIATE_RESULTS) {
+		    Logger.println("* Finished analysis in " + (System.currentTimeMillis()-startTime)/1000.0 + " seconds");
+		}
+
+		Logger.println("Removing dead edges");
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		long startRemoveDeadEdges = System.currentTimeMillis();
+		if (c.size() > 1) {
+			for (final SootMethod m : c) {
+			    tasks.add(new Callable<Object>() {
+			        public Object call() {
+			            ITransformer summary = methodToSummary.get(m);
+			            methodToSummary.put(m, summary.removeDeadEdges());
+			            return null;
+			        }
+			    });
 			}
 
-			Logger.println("Removing dead edges");
-            List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
-			long startRemoveDeadEdges = System.currentTimeMillis();
-			if (c.size() > 1) {
-    			for (final SootMethod m : c) {
-    			    tasks.add(new Callable<Object>() {
-    			        public Object call() {
-    			            ITransformer summary = methodToSummary.get(m);
-    			            methodToSummary.put(m, summary.removeDeadEdges());
-    			            return null;
-    			        }
-    			    });
-    			}
-
-    			try {
-    			    AtomicTransformer.POOL.invokeAll(tasks);
-    			}
-    			catch (InterruptedException ie) {
-    			    throw new RuntimeException(ie);
-    			}
-    			
-    			// compact summaries
-    			if (AtomicTransformer.COMPACT_SUMMARIES) {
-    			    compactSummaries(c);
-    			}
+			try {
+			    AtomicTransformer.POOL.invokeAll(tasks);
 			}
-			else {
-			    for (SootMethod m : c) {
-			        ITransformer summary = methodToSummary.get(m);
-			        methodToSummary.put(m, summary.removeDeadEdges());
-			    }
+			catch (InterruptedException ie) {
+			    throw new RuntimeException(ie);
 			}
-			long took = System.currentTimeMillis() - startRemoveDeadEdges;
-			Logger.println(String.format("Took %.2f seconds", took/1000.0));
 			
+			// compact summaries
+			if (AtomicTransformer.COMPACT_SUMMARIES) {
+			    compactSummaries(c);
+			}
+		}
+		else {
+		    for (SootMethod m : c) {
+		        ITransformer summary = methodToSummary.get(m);
+		        methodToSummary.put(m, summary.removeDeadEdges());
+		    }
+		}
+		long took = System.currentTimeMillis() - startRemoveDeadEdges;
+		Logger.println(String.format("Took %.2f seconds", took/1000.0));
+		
 //			outputDot(c);
-			
-			// remove dead (i.e. non-reachable NFA) edges from all summaries
-			// and reset summary deltas to id
+		
+		// remove dead (i.e. non-reachable NFA) edges from all summaries
+		// and reset summary deltas to id
 //			List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
 //			for (final SootMethod m : c) {
 //			    tasks.add(new Callable<Object>() {
@@ -2586,17 +2710,19 @@ public class PathsAnalysis {
 //            catch (InterruptedException ie) {
 //                throw new RuntimeException(ie);
 //            }
-			
+		
 //			calculateCommonExitEdges(c);
 //			calculateCommonExitEdgesAcrossComponent(c);
-			calculateCommonSummaryEdges(c);
-			
-			
-			if (AtomicTransformer.INTERMEDIATE_RESULTS)
-			    Logger.println("");
-			
-			clear();
-		}		
+		calculateCommonSummaryEdges(c);
+		
+		if (AtomicTransformer.FREEZE_SUMMARIES) {
+		    freezeSummaries(c);
+		}
+		
+		if (AtomicTransformer.INTERMEDIATE_RESULTS)
+		    Logger.println("");
+		
+		clear();
 	}
 	
 //    private Transformer compactSummaries(Component c) {
@@ -2627,13 +2753,11 @@ public class PathsAnalysis {
 //    }
 
 
-    protected SortedSet<Unit> constructWorklist(final Map<Unit, Integer> numbers) {
+    protected SortedSet<Unit> constructWorklist() {
         if (AtomicTransformer.ORDER_WORKLISTS) {
             return new TreeSet<Unit>(new Comparator<Unit>() {
                 public int compare(Unit o1, Unit o2) {
-                    Integer i1 = numbers.get(o1);
-                    Integer i2 = numbers.get(o2);
-                    return (i1.intValue() - i2.intValue());
+                    return unitNumberer.getNumber(o1) - unitNumberer.getNumber(o2);
                 }
             });
         }
@@ -2772,6 +2896,22 @@ public class PathsAnalysis {
     }        
     
     
+    // c has converged, so its summaries are only read from now on
+    private void freezeSummaries(Component c) {
+        long bytes = 0;
+        int count = 0;
+        for (SootMethod m : c) {
+            ITransformer summary = methodToSummary.get(m);
+            if (summary instanceof Transformer) {
+                Transformer frozen = ((Transformer)summary).freeze();
+                methodToSummary.put(m, frozen);
+                bytes += frozen.frozenBytes();
+                count++;
+            }
+        }
+        Logger.println("Froze " + count + " summaries (" + bytes/1024 + " KB)");
+    }
+    
     private void compactExitsAcrossComponent(Component c) {
         Logger.println("    performing compaction for entire component", ANSICode.FG_BLUE);
         long startCompactTime = System.currentTimeMillis();
@@ -2960,14 +3100,14 @@ public class PathsAnalysis {
 //    }
 
 
-    private void storeResult(Unit u, ITransformer t, Map<Unit, ITransformer> store) {
+    private void storeResult(Unit u, ITransformer t, UnitMap<ITransformer> store) {
 //	    if (t != null) {// && store != unitToTransformer && store != unitToTransformerDelta && store != unitToEntryDelta) {
 //	        t.toArraySets();
 //	    }
 	    store.put(u, t);
     }
 	
-	private ITransformer getResult(Unit u, Map<Unit, ITransformer> store) {
+	private ITransformer getResult(Unit u, UnitMap<ITransformer> store) {
 	    return store.get(u);
 	}
 	
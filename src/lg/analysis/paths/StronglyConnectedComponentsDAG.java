@@ -29,7 +29,7 @@ package lg.analysis.paths;
 import java.io.*;
 import java.util.*;
 
-import lg.cg.NonColdEdgesPred;
+import lg.cg.CallGraphIndex;
 import lg.transformer.AtomicTransformer;
 import lg.util.*;
 
@@ -45,15 +45,25 @@ public class StronglyConnectedComponentsDAG {
 	Set<Component> components;
 	Set<Component> roots;
 	
-	NonColdEdgesPred edgesPred;
+	StronglyConnectedComponents scc;
+	Map<SootMethod,Component> methodToComponent;
 	
 
 	public StronglyConnectedComponentsDAG(Set<Component> cs) {
+		this(cs, null);
+	}
+	
+	// Reuses the method to component mapping computed by scc
+	public StronglyConnectedComponentsDAG(StronglyConnectedComponents scc) {
+		this(new HashSet<Component>(scc.getComponents()), scc);
+	}
+	
+	private StronglyConnectedComponentsDAG(Set<Component> cs, StronglyConnectedComponents sccs) {
 		componentToPreds = new HashMap<Component, Set<Component>>();
 		componentToSuccs = new HashMap<Component, Set<Component>>();
 		roots = new HashSet<Component>();
 		components = cs;
-		edgesPred = new NonColdEdgesPred();
+		scc = sccs;
 		// initialise maps
 		for (Component c : cs) {
 			componentToPreds.put(c, new HashSet<Component>());
@@ -62,32 +72,89 @@ public class StronglyConnectedComponentsDAG {
 		computeDAG();
 	}
 	
+	private StronglyConnectedComponentsDAG() {
+		componentToPreds = new HashMap<Component, Set<Component>>();
+		componentToSuccs = new HashMap<Component, Set<Component>>();
+		roots = new HashSet<Component>();
+		components = new HashSet<Component>();
+	}
+	
+	// Selects the part of this dag that is reachable from the given methods.
+	// The components themselves are shared with this dag.
+	public StronglyConnectedComponentsDAG getSubDAGReachableFrom(Collection<SootMethod> methods) {
+		StronglyConnectedComponentsDAG sub = new StronglyConnectedComponentsDAG();
+		sub.scc = scc;
+		sub.methodToComponent = methodToComponent;
+		
+		// bfs over succs
+		List<Component> worklist = new ArrayList<Component>();
+		for (SootMethod m : methods) {
+			Component c = getComponentOf(m);
+			if (c == null) {
+				throw new RuntimeException(m + " is not in the call graph condensation");
+			}
+			if (sub.components.add(c)) {
+				worklist.add(c);
+			}
+		}
+		for (int i=0; i<worklist.size(); i++) {
+			Component c = worklist.get(i);
+			Set<Component> succs = getSuccsOf(c);
+			sub.componentToSuccs.put(c, new HashSet<Component>(succs));
+			for (Component c2 : succs) {
+				if (sub.components.add(c2)) {
+					worklist.add(c2);
+				}
+			}
+		}
+		
+		// preds restricted to the sub dag
+		for (Component c : sub.components) {
+			Set<Component> preds = new HashSet<Component>();
+			for (Component c2 : getPredsOf(c)) {
+				if (sub.components.contains(c2)) {
+					preds.add(c2);
+				}
+			}
+			sub.componentToPreds.put(c, preds);
+			if (preds.isEmpty()) {
+				sub.roots.add(c);
+			}
+		}
+		
+		return sub;
+	}
+	
+	private Component getComponentOf(SootMethod m) {
+		return scc != null ? scc.getComponentOf(m) : methodToComponent.get(m);
+	}
+	
 	private void computeDAG() {
 		
 		// keep track of which component each method is in for fast lookup
-		Map<SootMethod,Component> methodToComponent = new HashMap<SootMethod, Component>();
-		for (Component c : components) {
-			for (SootMethod m : c) {
-				methodToComponent.put(m, c);
+		if (scc == null) {
+			methodToComponent = new HashMap<SootMethod, Component>();
+			for (Component c : components) {
+				for (SootMethod m : c) {
+					methodToComponent.put(m, c);
+				}
 			}
 		}
 		
 		// compute actual dag
-		CallGraph cg = Scene.v().getCallGraph();
+		CallGraphIndex cgIndex = CallGraphIndex.v();
 		for (Component c : components) {
 			Set<Component> succs = getSuccsOf(c);
 			for (SootMethod m : c) {
-				for (Iterator<Edge> edgesIt = cg.edgesOutOf(m); edgesIt.hasNext(); ) {
-					Edge e = edgesIt.next();
-					if (edgesPred.want(e)) {
-						SootMethod tgt = e.tgt();
-						if (!AtomicTransformer.METHODS_TO_IGNORE.contains(tgt.getNumber()) && tgt.isConcrete()) {
-							Component c2 = methodToComponent.get(tgt);
-							if (c2 != c) {
-								succs.add(c2);
-								Set<Component> preds = getPredsOf(c2);
-								preds.add(c);
-							}
+				int mNum = m.getNumber();
+				for (int i=cgIndex.getSuccsStart(mNum); i<cgIndex.getSuccsEnd(mNum); i++) {
+					int tgtNum = cgIndex.getSucc(i);
+					if (!AtomicTransformer.METHODS_TO_IGNORE.contains(tgtNum)) {
+						Component c2 = getComponentOf(cgIndex.getMethod(tgtNum));
+						if (c2 != c) {
+							succs.add(c2);
+							Set<Component> preds = getPredsOf(c2);
+							preds.add(c);
 						}
 					}
 				}
@@ -103,6 +170,9 @@ public class StronglyConnectedComponentsDAG {
 
 	}
 
+	public Set<Component> getComponents() {
+		return components;
+	}
 
 	public Set<Component> getRoots() {
 		return roots;
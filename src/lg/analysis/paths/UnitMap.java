@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2013, Khilan Gudka.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package lg.analysis.paths;
+
+import java.util.*;
+
+import soot.Unit;
+
+/**
+ * A map from units to values backed by an array indexed by the units'
+ * UnitNumberer numbers. allocate() must be called once numbering is
+ * complete. After that, writes to different units don't interfere, so
+ * threads may update the units of the methods they own without locking.
+ * Null values are treated as absent.
+ */
+public class UnitMap<V> extends AbstractMap<Unit,V> {
+    
+    static final Object[] EMPTY = new Object[0];
+
+    UnitNumberer numberer;
+    Object[] values;
+    
+    public UnitMap(UnitNumberer n) {
+        numberer = n;
+        values = EMPTY;
+    }
+    
+    public void allocate() {
+        values = new Object[numberer.size()];
+    }
+    
+    @SuppressWarnings("unchecked")
+    public V get(Object o) {
+        int n = numberer.getNumber((Unit)o);
+        return (n < 0 || n >= values.length) ? null : (V)values[n];
+    }
+    
+    @SuppressWarnings("unchecked")
+    public V put(Unit u, V v) {
+        int n = numberer.getNumber(u);
+        if (n < 0 || n >= values.length) {
+            throw new IllegalArgumentException("Unit has not been numbered: " + u);
+        }
+        V old = (V)values[n];
+        values[n] = v;
+        return old;
+    }
+    
+    public boolean containsKey(Object o) {
+        return get(o) != null;
+    }
+    
+    @SuppressWarnings("unchecked")
+    public V remove(Object o) {
+        int n = numberer.getNumber((Unit)o);
+        if (n < 0 || n >= values.length) {
+            return null;
+        }
+        V old = (V)values[n];
+        values[n] = null;
+        return old;
+    }
+    
+    public int size() {
+        int size = 0;
+        for (Object v : values) {
+            if (v != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+    
+    // frees the backing array
+    public void clear() {
+        values = EMPTY;
+    }
+    
+    // snapshot of the current mappings, only used for debugging/stats
+    @SuppressWarnings("unchecked")
+    public Set<Map.Entry<Unit,V>> entrySet() {
+        Set<Map.Entry<Unit,V>> entries = new LinkedHashSet<Map.Entry<Unit,V>>();
+        for (int i=0; i<values.length; i++) {
+            if (values[i] != null) {
+                entries.add(new SimpleEntry<Unit,V>(numberer.get(i), (V)values[i]));
+            }
+        }
+        return entries;
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2013, Khilan Gudka.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package lg.analysis.paths;
+
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import soot.Unit;
+
+/**
+ * Numbers units densely from 0 so that per-unit analysis state can be kept
+ * in arrays (see UnitMap). Units are added serially; once numbering is
+ * complete, lookups are read-only and may be made from any thread.
+ */
+public class UnitNumberer {
+
+    TObjectIntHashMap<Unit> unitToNumber;
+    List<Unit> units;
+    
+    public UnitNumberer() {
+        unitToNumber = new TObjectIntHashMap<Unit>(100, 0.5f, -1);
+        units = new ArrayList<Unit>();
+    }
+    
+    public int add(Unit u) {
+        int n = units.size();
+        unitToNumber.put(u, n);
+        units.add(u);
+        return n;
+    }
+    
+    // returns -1 if u has not been numbered
+    public int getNumber(Unit u) {
+        return unitToNumber.get(u);
+    }
+    
+    public Unit get(int n) {
+        return units.get(n);
+    }
+    
+    public int size() {
+        return units.size();
+    }
+    
+    public void clear() {
+        unitToNumber = new TObjectIntHashMap<Unit>(100, 0.5f, -1);
+        units = new ArrayList<Unit>();
+    }
+
+}
@@ -62,7 +62,20 @@ public class Automaton implements Serializable {
     public Set<State> cleanup() {
         // delete states which are not reachable
         Set<State> reachables = new HashSet<State>();
-        cleanupHelper(start, reachables);
+        Deque<State> tovisit = new ArrayDeque<State>();
+        reachables.add(start);
+        tovisit.push(start);
+        while (!tovisit.isEmpty()) {
+            Set<Transition> transitions = stateToTransitions.get(tovisit.pop());
+            if (transitions != null) {
+                for (Transition t : transitions) {
+                    State s2 = t.getDst();
+                    if (reachables.add(s2)) {
+                        tovisit.push(s2);
+                    }
+                }
+            }
+        }
         Set<State> kill = new HashSet<State>();
         for (State s : stateToTransitions.keySet()) {
             if (!reachables.contains(s)) {
@@ -75,19 +88,6 @@ public class Automaton implements Serializable {
         return reachables;
     }
     
-    private void cleanupHelper(State s, Set<State> reachables) {
-        if (!reachables.contains(s)) {
-            reachables.add(s);
-            Set<Transition> transitions = stateToTransitions.get(s);
-            if (transitions != null) {
-                for (Transition t : transitions) {
-                    State s2 = t.getDst();
-                    cleanupHelper(s2, reachables);
-                }
-            }
-        }
-    }
-    
     public int size() {
         int size = 0;
         for (Set<Transition> ts : stateToTransitions.values()) {
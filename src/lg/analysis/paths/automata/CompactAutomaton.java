@@ -0,0 +1,687 @@
+/*
+ * Copyright (c) 2013, Khilan Gudka.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package lg.analysis.paths.automata;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.set.hash.TLongHashSet;
+
+import java.util.*;
+
+import lg.analysis.paths.transformer.fast.TransformerEdgeFactory;
+import lg.analysis.paths.transformer.state.*;
+import lg.util.*;
+
+/**
+ * Accesses NFA built directly from packed access edges, without State or
+ * Transition objects. States are renumbered densely (the start state is 0)
+ * and the transitions of state s are at [first[s], first[s+1]) of the
+ * label (symbol number), destination and write arrays. Reachability and
+ * cleanup are iterative and use bitsets over the dense numbers.
+ * minimise() merges states with the same future.
+ * 
+ * toAutomaton() gives the equivalent Automaton for code that needs one.
+ */
+public class CompactAutomaton {
+    
+    public static final int START = 0;
+    
+    // dense state -> state number
+    private int[] stateNums;
+    private int[] first;
+    private int[] lbls;
+    private int[] dsts;
+    private BitSet writes;
+    
+    // state number -> dense state + 1
+    private TIntIntHashMap numToState;
+    
+    private State[] states;
+    
+    private CompactAutomaton() {
+    }
+    
+    // access edges as found under Access.v() in a fast Transformer. Kill
+    // edges are skipped. An edge whose symbol has no object (e.g. a local
+    // recycled while still in use) would silently lose a lock, so is an
+    // error.
+    public static CompactAutomaton fromEdges(TLongHashSet edges) {
+        int m = edges == null ? 0 : edges.size();
+        TIntIntHashMap numToState = new TIntIntHashMap();
+        TIntArrayList nums = new TIntArrayList();
+        numToState.put((int)TransformerEdgeFactory.START_STATE, 1);
+        nums.add((int)TransformerEdgeFactory.START_STATE);
+        
+        int[] srcs = new int[m];
+        int[] lbls = new int[m];
+        int[] dsts = new int[m];
+        BitSet writes = new BitSet(m);
+        int n = 0;
+        if (edges != null) {
+            LongCursor c = LongCursor.open(edges);
+            while (c.next()) {
+                long te = c.value();
+                if (TransformerEdgeFactory.isKill(te)) {
+                    continue;
+                }
+                int d = TransformerEdgeFactory.getD(te);
+                if (SymbolNumberer.getObject(d) == null) {
+                    throw new IllegalStateException("Access edge (" + TransformerEdgeFactory.getSrcNumber(te) + "," + TransformerEdgeFactory.getDstNumber(te) + ") has unknown symbol " + d);
+                }
+                srcs[n] = state(numToState, nums, TransformerEdgeFactory.getSrcNumber(te));
+                dsts[n] = state(numToState, nums, TransformerEdgeFactory.getDstNumber(te));
+                lbls[n] = d;
+                if (TransformerEdgeFactory.isWrite(te)) {
+                    writes.set(n);
+                }
+                n++;
+            }
+            c.close();
+        }
+        
+        CompactAutomaton a = new CompactAutomaton();
+        a.numToState = numToState;
+        a.stateNums = nums.toArray();
+        a.build(a.stateNums.length, srcs, lbls, dsts, writes, n);
+        return a;
+    }
+    
+    private static int state(TIntIntHashMap numToState, TIntArrayList nums, int num) {
+        int s = numToState.get(num);
+        if (s == 0) {
+            nums.add(num);
+            s = nums.size();
+            numToState.put(num, s);
+        }
+        return s-1;
+    }
+    
+    // lays out the n transitions (srcs[i], lbls[i], dsts[i], writes[i]) by
+    // source state (a counting sort, keeping their relative order)
+    private void build(int stateCount, int[] srcs, int[] ls, int[] ds, BitSet ws, int n) {
+        first = new int[stateCount+1];
+        for (int i=0; i<n; i++) {
+            first[srcs[i]+1]++;
+        }
+        for (int s=0; s<stateCount; s++) {
+            first[s+1] += first[s];
+        }
+        int[] next = Arrays.copyOf(first, stateCount);
+        lbls = new int[n];
+        dsts = new int[n];
+        writes = new BitSet(n);
+        for (int i=0; i<n; i++) {
+            int t = next[srcs[i]]++;
+            lbls[t] = ls[i];
+            dsts[t] = ds[i];
+            if (ws.get(i)) {
+                writes.set(t);
+            }
+        }
+        states = null;
+    }
+    
+    // dense states reachable from the start state
+    public BitSet reachable() {
+        int stateCount = stateCount();
+        BitSet visited = new BitSet(stateCount);
+        int[] stack = new int[Math.max(1, stateCount)];
+        int top = 0;
+        visited.set(START);
+        stack[top++] = START;
+        while (top > 0) {
+            int s = stack[--top];
+            for (int t=first[s]; t<first[s+1]; t++) {
+                int d = dsts[t];
+                if (!visited.get(d)) {
+                    visited.set(d);
+                    stack[top++] = d;
+                }
+            }
+        }
+        return visited;
+    }
+    
+    // removes states (and their transitions) not reachable from the start
+    // state, renumbering the remaining ones. Returns how many remain.
+    public int cleanup() {
+        BitSet reachable = reachable();
+        int stateCount = stateCount();
+        int kept = reachable.cardinality();
+        if (kept == stateCount) {
+            return kept;
+        }
+        int[] newState = new int[stateCount];
+        int[] nums = new int[kept];
+        TIntIntHashMap newNumToState = new TIntIntHashMap(kept);
+        int k = 0;
+        for (int s=reachable.nextSetBit(0); s>=0; s=reachable.nextSetBit(s+1)) {
+            newState[s] = k;
+            nums[k] = stateNums[s];
+            newNumToState.put(stateNums[s], ++k);
+        }
+        int n = 0;
+        for (int s=reachable.nextSetBit(0); s>=0; s=reachable.nextSetBit(s+1)) {
+            n += first[s+1] - first[s];
+        }
+        int[] srcs = new int[n];
+        int[] ls = new int[n];
+        int[] ds = new int[n];
+        BitSet ws = new BitSet(n);
+        int i = 0;
+        for (int s=reachable.nextSetBit(0); s>=0; s=reachable.nextSetBit(s+1)) {
+            for (int t=first[s]; t<first[s+1]; t++) {
+                srcs[i] = newState[s];
+                ls[i] = lbls[t];
+                ds[i] = newState[dsts[t]]; // reachable, as s is
+                if (writes.get(t)) {
+                    ws.set(i);
+                }
+                i++;
+            }
+        }
+        stateNums = nums;
+        numToState = newNumToState;
+        build(kept, srcs, ls, ds, ws, n);
+        return kept;
+    }
+    
+    // states on a cycle or reachable from one: those left once states with
+    // no incoming transitions are repeatedly removed
+    public BitSet cyclicStates() {
+        int stateCount = stateCount();
+        int[] indegree = new int[stateCount];
+        for (int d : dsts) {
+            indegree[d]++;
+        }
+        int[] queue = new int[stateCount];
+        int head = 0, tail = 0;
+        for (int s=0; s<stateCount; s++) {
+            if (indegree[s] == 0) {
+                queue[tail++] = s;
+            }
+        }
+        while (head < tail) {
+            int s = queue[head++];
+            for (int t=first[s]; t<first[s+1]; t++) {
+                if (--indegree[dsts[t]] == 0) {
+                    queue[tail++] = dsts[t];
+                }
+            }
+        }
+        BitSet cyclic = new BitSet(stateCount);
+        cyclic.set(0, stateCount);
+        for (int i=0; i<tail; i++) {
+            cyclic.clear(queue[i]);
+        }
+        return cyclic;
+    }
+    
+    // Merges states with the same future (the coarsest forward bisimulation),
+    // so the set of label paths from the start state is unchanged. States
+    // are only merged if their keys are equal and both or neither are
+    // cyclic, so no cycles are introduced. Each merged state keeps the
+    // number of its first member (in dense order) and the numbers of the
+    // others still lead to it. Returns how many states remain.
+    //
+    // The partition is refined with Paige and Tarjan's algorithm, taking
+    // (label, write) as the transition label: a compound block (a union of
+    // blocks the partition is already stable with respect to) is split by
+    // its smaller half B, and blocks are split by the states with a
+    // transition into B and by those whose transitions into the compound
+    // block all go to B. Counts of transitions per (state, label, compound
+    // block) make the second split cost no more than the first, giving
+    // O(m log n) overall.
+    public int minimise(Object[] keys) {
+        int stateCount = stateCount();
+        int m = lbls.length;
+        BitSet cyclic = cyclicStates();
+        Map<Object,Integer> initial = new HashMap<Object, Integer>();
+        int[] initialBlock = new int[stateCount];
+        for (int s=0; s<stateCount; s++) {
+            Object k = Arrays.asList(keys[s], cyclic.get(s));
+            Integer b = initial.get(k);
+            if (b == null) {
+                b = initial.size();
+                initial.put(k, b);
+            }
+            initialBlock[s] = b;
+        }
+        Partition p = new Partition(stateCount, initialBlock, initial.size());
+        initial = null;
+        
+        // source, label and incoming transitions (by destination) of each
+        // transition
+        int[] sources = new int[m];
+        int[] acts = new int[m];
+        for (int s=0; s<stateCount; s++) {
+            for (int t=first[s]; t<first[s+1]; t++) {
+                sources[t] = s;
+                acts[t] = lbls[t] << 1 | (writes.get(t) ? 1 : 0);
+            }
+        }
+        int[] inFirst = new int[stateCount+1];
+        for (int t=0; t<m; t++) {
+            inFirst[dsts[t]+1]++;
+        }
+        for (int s=0; s<stateCount; s++) {
+            inFirst[s+1] += inFirst[s];
+        }
+        int[] ins = new int[m];
+        int[] next = Arrays.copyOf(inFirst, stateCount);
+        for (int t=0; t<m; t++) {
+            ins[next[dsts[t]]++] = t;
+        }
+        next = null;
+        
+        // counts[cnt[t]]: transitions with t's source and label into the
+        // compound block containing t's destination
+        TIntArrayList counts = new TIntArrayList(m);
+        int[] cnt = new int[m];
+        int[] byAct = new int[m];
+        for (int t=0; t<m; t++) {
+            byAct[t] = t;
+        }
+        int[] tmp = new int[stateCount];
+        int[] rec = new int[stateCount];
+        int[] zs = new int[stateCount];
+        
+        // initially there is one compound block, holding every state, and
+        // the partition must first be made stable with respect to it
+        splitBy(p, byAct, 0, m, acts, sources, counts, cnt, tmp, rec, zs, true);
+        
+        int[] es = new int[m];
+        while (true) {
+            int b = p.nextSplitter();
+            if (b < 0) {
+                break;
+            }
+            int n = 0;
+            for (int i=p.start[b]; i<p.end[b]; i++) {
+                int d = p.elems[i];
+                for (int j=inFirst[d]; j<inFirst[d+1]; j++) {
+                    es[n++] = ins[j];
+                }
+            }
+            splitBy(p, es, 0, n, acts, sources, counts, cnt, tmp, rec, zs, false);
+        }
+        
+        int[] block = p.blockOf;
+        int blocks = p.blocks;
+        if (blocks == stateCount) {
+            return stateCount;
+        }
+        
+        // quotient, numbering blocks in order of their first state
+        int[] blockToState = new int[blocks];
+        Arrays.fill(blockToState, -1);
+        int[] reps = new int[blocks];
+        int k = 0;
+        for (int s=0; s<stateCount; s++) {
+            if (blockToState[block[s]] == -1) {
+                blockToState[block[s]] = k;
+                reps[k++] = s;
+            }
+        }
+        int[] nums = new int[blocks];
+        TIntIntHashMap newNumToState = new TIntIntHashMap(stateCount);
+        for (int s=0; s<stateCount; s++) {
+            newNumToState.put(stateNums[s], blockToState[block[s]]+1);
+        }
+        int n = 0;
+        long[][] outs = new long[blocks][];
+        for (int b=0; b<blocks; b++) {
+            nums[b] = stateNums[reps[b]];
+            outs[b] = outgoing(reps[b], block);
+            n += outs[b].length;
+        }
+        int[] srcs = new int[n];
+        int[] ls = new int[n];
+        int[] ds = new int[n];
+        BitSet ws = new BitSet(n);
+        int i = 0;
+        for (int b=0; b<blocks; b++) {
+            for (long o : outs[b]) {
+                srcs[i] = b;
+                ls[i] = (int)(o >>> 33);
+                ds[i] = blockToState[(int)(o >>> 1) & Integer.MAX_VALUE];
+                if ((o & 1) == 1) {
+                    ws.set(i);
+                }
+                i++;
+            }
+        }
+        stateNums = nums;
+        numToState = newNumToState;
+        build(blocks, srcs, ls, ds, ws, n);
+        return blocks;
+    }
+    
+    // s's transitions as sorted, distinct (label, destination block, write)
+    private long[] outgoing(int s, int[] block) {
+        long[] o = new long[first[s+1]-first[s]];
+        for (int t=first[s]; t<first[s+1]; t++) {
+            o[t-first[s]] = (long)lbls[t] << 33 | (long)block[dsts[t]] << 1 | (writes.get(t) ? 1 : 0);
+        }
+        Arrays.sort(o);
+        int m = 0;
+        for (int j=0; j<o.length; j++) {
+            if (m == 0 || o[j] != o[m-1]) {
+                o[m++] = o[j];
+            }
+        }
+        return m == o.length ? o : Arrays.copyOf(o, m);
+    }
+    
+    // Splits p by the transitions ts[from..to) into a block B. They are
+    // grouped by label and, for each label, blocks are split by the sources
+    // of the transitions and then by the sources all of whose transitions
+    // (with that label) into B's old compound block go to B. The transitions
+    // then count towards B. With initial set, the transitions are all of them
+    // and B is the one compound block, whose counts are set up.
+    private static void splitBy(Partition p, int[] ts, int from, int to, int[] acts, int[] srcs, TIntArrayList counts, int[] cnt, int[] tmp, int[] rec, int[] zs, boolean initial) {
+        sortBy(ts, from, to, acts);
+        int i = from;
+        while (i < to) {
+            int a = acts[ts[i]];
+            int j = i;
+            int n = 0;
+            while (j < to && acts[ts[j]] == a) {
+                int s = srcs[ts[j]];
+                if (tmp[s]++ == 0) {
+                    zs[n++] = s;
+                    rec[s] = initial ? -1 : cnt[ts[j]];
+                }
+                j++;
+            }
+            p.split(zs, n);
+            if (!initial) {
+                int k = 0;
+                for (int z=0; z<n; z++) {
+                    int s = zs[z];
+                    if (tmp[s] == counts.get(rec[s])) {
+                        zs[k++] = s;
+                    }
+                }
+                p.split(zs, k);
+                // the zs were reordered but not lost: recollect them
+                n = 0;
+                for (int t=i; t<j; t++) {
+                    int s = srcs[ts[t]];
+                    if (tmp[s] > 0) {
+                        zs[n++] = s;
+                        counts.set(rec[s], counts.get(rec[s]) - tmp[s]);
+                        rec[s] = counts.size();
+                        counts.add(tmp[s]);
+                        tmp[s] = -tmp[s];
+                    }
+                }
+            }
+            else {
+                for (int z=0; z<n; z++) {
+                    int s = zs[z];
+                    rec[s] = counts.size();
+                    counts.add(tmp[s]);
+                    tmp[s] = -tmp[s];
+                }
+            }
+            for (int t=i; t<j; t++) {
+                cnt[ts[t]] = rec[srcs[ts[t]]];
+            }
+            for (int z=0; z<n; z++) {
+                tmp[zs[z]] = 0;
+            }
+            i = j;
+        }
+    }
+    
+    // sorts ts[from..to) by acts[t]
+    private static void sortBy(int[] ts, int from, int to, int[] acts) {
+        long[] a = new long[to-from];
+        for (int i=from; i<to; i++) {
+            a[i-from] = (long)acts[ts[i]] << 32 | ts[i];
+        }
+        Arrays.sort(a);
+        for (int i=from; i<to; i++) {
+            ts[i] = (int)a[i-from];
+        }
+    }
+    
+    // Partition of the states into blocks, each a range of elems, grouped
+    // into compound blocks (linked lists of blocks). Compound blocks with
+    // more than one block are kept on a stack.
+    private static final class Partition {
+        int[] elems;
+        int[] loc;
+        int[] blockOf;
+        int blocks;
+        int[] start;
+        int[] end;
+        int[] mark;
+        
+        int[] compoundOf;
+        int[] nextInCompound;
+        int[] prevInCompound;
+        int[] firstInCompound;
+        int compounds;
+        
+        int[] stack;
+        int top;
+        boolean[] stacked;
+        
+        int[] touched;
+        
+        Partition(int n, int[] initialBlock, int initialBlocks) {
+            elems = new int[n];
+            loc = new int[n];
+            blockOf = new int[n];
+            start = new int[n];
+            end = new int[n];
+            mark = new int[n];
+            compoundOf = new int[n];
+            nextInCompound = new int[n];
+            prevInCompound = new int[n];
+            firstInCompound = new int[n];
+            stack = new int[n];
+            stacked = new boolean[n];
+            touched = new int[n];
+            
+            // lay out the states by initial block
+            for (int s=0; s<n; s++) {
+                end[initialBlock[s]]++;
+            }
+            int pos = 0;
+            for (int b=0; b<initialBlocks; b++) {
+                start[b] = mark[b] = pos;
+                pos += end[b];
+                end[b] = start[b];
+            }
+            for (int s=0; s<n; s++) {
+                int b = initialBlock[s];
+                int i = end[b]++;
+                elems[i] = s;
+                loc[s] = i;
+                blockOf[s] = b;
+            }
+            blocks = initialBlocks;
+            
+            // one compound block holding them all
+            compounds = 1;
+            firstInCompound[0] = -1;
+            for (int b=initialBlocks-1; b>=0; b--) {
+                addToCompound(b, 0);
+            }
+        }
+        
+        private void addToCompound(int b, int c) {
+            compoundOf[b] = c;
+            int f = firstInCompound[c];
+            nextInCompound[b] = f;
+            prevInCompound[b] = -1;
+            if (f >= 0) {
+                prevInCompound[f] = b;
+                if (nextInCompound[f] < 0 && !stacked[c]) {
+                    // c now has two blocks
+                    stacked[c] = true;
+                    stack[top++] = c;
+                }
+            }
+            firstInCompound[c] = b;
+        }
+        
+        // Removes the smaller of the first two blocks of a compound block
+        // with more than one, making it a compound block of its own, and
+        // returns it, or -1 if all compound blocks are blocks.
+        int nextSplitter() {
+            while (top > 0) {
+                int c = stack[top-1];
+                int b1 = firstInCompound[c];
+                int b2 = nextInCompound[b1];
+                int b = (end[b1]-start[b1] <= end[b2]-start[b2]) ? b1 : b2;
+                int prev = prevInCompound[b];
+                int next = nextInCompound[b];
+                if (prev >= 0) {
+                    nextInCompound[prev] = next;
+                }
+                else {
+                    firstInCompound[c] = next;
+                }
+                if (next >= 0) {
+                    prevInCompound[next] = prev;
+                }
+                int f = firstInCompound[c];
+                if (nextInCompound[f] < 0) {
+                    stacked[c] = false;
+                    top--;
+                }
+                int nc = compounds++;
+                firstInCompound[nc] = -1;
+                addToCompound(b, nc);
+                return b;
+            }
+            return -1;
+        }
+        
+        // splits every block containing some but not all of zs[0..n) in two
+        void split(int[] zs, int n) {
+            int touchedCount = 0;
+            for (int i=0; i<n; i++) {
+                int s = zs[i];
+                int b = blockOf[s];
+                if (mark[b] == start[b]) {
+                    touched[touchedCount++] = b;
+                }
+                // swap s to the end of b's marked prefix
+                int j = mark[b]++;
+                int other = elems[j];
+                elems[loc[s]] = other;
+                loc[other] = loc[s];
+                elems[j] = s;
+                loc[s] = j;
+            }
+            for (int i=0; i<touchedCount; i++) {
+                int b = touched[i];
+                if (mark[b] == end[b]) {
+                    mark[b] = start[b];
+                    continue;
+                }
+                // the marked states become a new block, in b's compound block
+                int nb = blocks++;
+                start[nb] = start[b];
+                end[nb] = mark[b];
+                mark[nb] = start[nb];
+                start[b] = mark[b];
+                for (int j=start[nb]; j<end[nb]; j++) {
+                    blockOf[elems[j]] = nb;
+                }
+                addToCompound(nb, compoundOf[b]);
+            }
+        }
+    }
+    
+    public int stateCount() {
+        return stateNums.length;
+    }
+    
+    // number of transitions
+    public int size() {
+        return lbls.length;
+    }
+    
+    // transitions of s are first(s) .. end(s)-1
+    public int first(int s) {
+        return first[s];
+    }
+    
+    public int end(int s) {
+        return first[s+1];
+    }
+    
+    // symbol number of transition t's label
+    public int lbl(int t) {
+        return lbls[t];
+    }
+    
+    public int dst(int t) {
+        return dsts[t];
+    }
+    
+    public boolean isWrite(int t) {
+        return writes.get(t);
+    }
+    
+    public int stateNumber(int s) {
+        return stateNums[s];
+    }
+    
+    public boolean hasStateNumber(int num) {
+        return numToState.containsKey(num);
+    }
+    
+    public State state(int s) {
+        if (states == null) {
+            states = new State[stateNums.length];
+        }
+        State st = states[s];
+        if (st == null) {
+            st = StateFactory.lookup(stateNums[s]);
+            states[s] = st;
+        }
+        return st;
+    }
+    
+    public Automaton toAutomaton() {
+        Automaton a = new Automaton(state(START));
+        for (int s=0; s<stateCount(); s++) {
+            for (int t=first[s]; t<first[s+1]; t++) {
+                a.addTransition(new Transition(state(s), state(dsts[t]), SymbolNumberer.getObject(lbls[t]), writes.get(t)));
+            }
+        }
+        return a;
+    }
+    
+}
@@ -80,6 +80,11 @@ public interface ITransformer {
     public abstract ITransformer calleeToCallerContext( 
             TIntIntHashMap paramsToArgs);
 
+    // renumbers symbols and states (e.g. of a summary read from disk) wrt
+    // the given old-to-new mappings. Returns null if a number isn't mapped.
+    public abstract ITransformer renumber(TIntIntHashMap symbols,
+            TIntIntHashMap states);
+
     public abstract void outputDot(SootMethod m, boolean aggregate,
             String filename);
 
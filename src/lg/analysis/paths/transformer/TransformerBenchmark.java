@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2013, Khilan Gudka.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package lg.analysis.paths.transformer;
+
+import gnu.trove.map.hash.TIntIntHashMap;
+
+import java.util.*;
+
+import lg.analysis.paths.transformer.fast.DeltaTransformer;
+import lg.transformer.AtomicTransformer;
+import lg.util.SymbolNumberer;
+import soot.*;
+import soot.jimple.*;
+
+/**
+ * Micro-benchmark for the transformer operations used by PathsAnalysis, run
+ * against the fast backend (with hash and with sorted edge sets) and the
+ * slow backend.
+ * 
+ * Transformers are generated from a fixed seed as unions of paths, each path
+ * being a composition of random statement transformers (field loads/stores,
+ * copies, null assignments that kill, accesses, returns), so that all
+ * backends see the same shapes. Each operation is warmed up and then timed
+ * over all generated pairs.
+ * 
+ * Usage: TransformerBenchmark [pairs] [path length] [fan-out] [iterations] [seed]
+ */
+public class TransformerBenchmark {
+
+    static final String[] OPS = { "composeWith", "unionWith", "addAllReturnDelta", "subsumes", "differenceWith", "calleeToCallerContext", "removeMethodLocalVars" };
+    
+    static final int LOCALS = 24;
+    static final int FIELDS = 12;
+    static final int PARAMS = 4;
+    static final int STMTS = 64;
+    
+    int pairs;
+    int pathLength;
+    int fanOut;
+    int iterations;
+    long seed;
+    
+    List<Local> locals;
+    List<SootField> fields;
+    List<Stmt> stmts;
+    TIntIntHashMap paramsToArgs;
+    
+    Random random;
+    ITransformer[] as;
+    ITransformer[] bs;
+    
+    // results are accumulated here so that the JIT can't discard the work
+    long sink;
+
+    public TransformerBenchmark(int pairs, int pathLength, int fanOut, int iterations, long seed) {
+        this.pairs = pairs;
+        this.pathLength = pathLength;
+        this.fanOut = fanOut;
+        this.iterations = iterations;
+        this.seed = seed;
+        
+        // symbols and states are shared by all backends
+        Jimple j = Jimple.v();
+        Type objType = RefType.v("java.lang.Object");
+        locals = new ArrayList<Local>();
+        for (int i=0; i<LOCALS; i++) {
+            locals.add(j.newLocal("r" + i, objType));
+        }
+        fields = new ArrayList<SootField>();
+        for (int i=0; i<FIELDS; i++) {
+            fields.add(new SootField("f" + i, objType));
+        }
+        stmts = new ArrayList<Stmt>();
+        for (int i=0; i<STMTS; i++) {
+            stmts.add(j.newNopStmt());
+        }
+        
+        // last param is left unmapped, so its edges become kill edges
+        paramsToArgs = new TIntIntHashMap();
+        Random r = new Random(seed);
+        paramsToArgs.put(SymbolNumberer.getNumber(ThisVariable.v()), SymbolNumberer.getNumber(locals.get(r.nextInt(LOCALS))));
+        paramsToArgs.put(SymbolNumberer.getNumber(ReturnVariable.v()), SymbolNumberer.getNumber(locals.get(r.nextInt(LOCALS))));
+        for (int i=0; i<PARAMS-1; i++) {
+            paramsToArgs.put(SymbolNumberer.getNumber(ParameterVariable.v(i)), SymbolNumberer.getNumber(locals.get(r.nextInt(LOCALS))));
+        }
+    }
+    
+    public void run() {
+        boolean slow = AtomicTransformer.SLOW_TRANSFORMERS;
+        boolean sorted = AtomicTransformer.SORTED_EDGE_SETS;
+        try {
+            for (String backend : new String[] { "fast", "fast-sorted", "slow" }) {
+                AtomicTransformer.SLOW_TRANSFORMERS = backend.equals("slow");
+                AtomicTransformer.SORTED_EDGE_SETS = backend.equals("fast-sorted");
+                generate();
+                long edges = 0;
+                for (int i=0; i<pairs; i++) {
+                    edges += as[i].size() + bs[i].size();
+                }
+                System.out.println(backend + ": " + pairs + " pairs, average size " + (edges / (2*pairs)));
+                for (String op : OPS) {
+                    for (int i=0; i<iterations; i++) {  // warm up
+                        time(op);
+                    }
+                    long total = 0;
+                    long min = Long.MAX_VALUE;
+                    boolean supported = true;
+                    for (int i=0; i<iterations && supported; i++) {
+                        long took = time(op);
+                        supported = took >= 0;
+                        total += took;
+                        min = Math.min(min, took);
+                    }
+                    if (!supported) {
+                        System.out.println(String.format("  %-24s unsupported", op));
+                    }
+                    else {
+                        System.out.println(String.format("  %-24s %10.1f us/op (mean) %10.1f us/op (min)", op, total / 1000.0 / iterations / pairs, min / 1000.0 / pairs));
+                    }
+                }
+            }
+        }
+        finally {
+            AtomicTransformer.SLOW_TRANSFORMERS = slow;
+            AtomicTransformer.SORTED_EDGE_SETS = sorted;
+        }
+        System.out.println("(" + sink + ")");
+    }
+    
+    // time taken in ns to apply op to all pairs, or -1 if the backend
+    // doesn't support op
+    private long time(String op) {
+        // ops that update the receiver work on copies
+        ITransformer[] receivers = as;
+        if (op.equals("unionWith") || op.equals("addAllReturnDelta")) {
+            receivers = new ITransformer[pairs];
+            for (int i=0; i<pairs; i++) {
+                receivers[i] = as[i].clone();
+            }
+        }
+        boolean slow = AtomicTransformer.SLOW_TRANSFORMERS;
+        try {
+            long start = System.nanoTime();
+            for (int i=0; i<pairs; i++) {
+                ITransformer a = receivers[i];
+                ITransformer b = bs[i];
+                if (op.equals("composeWith")) {
+                    sink += a.composeWith(b).size();
+                }
+                else if (op.equals("unionWith")) {
+                    a.unionWith(b);
+                    sink += a.size();
+                }
+                else if (op.equals("addAllReturnDelta")) {
+                    // the slow backend only has the non-delta version
+                    sink += (slow ? a.addAll(b) : a.addAllReturnDelta(b, new DeltaTransformer())).size();
+                }
+                else if (op.equals("subsumes")) {
+                    sink += a.subsumes(b) ? 1 : 0;
+                }
+                else if (op.equals("differenceWith")) {
+                    sink += a.differenceWith(b).size();
+                }
+                else if (op.equals("calleeToCallerContext")) {
+                    sink += a.calleeToCallerContext(paramsToArgs).size();
+                }
+                else if (op.equals("removeMethodLocalVars")) {
+                    sink += a.removeMethodLocalVars().size();
+                }
+            }
+            return System.nanoTime() - start;
+        }
+        catch (UnsupportedOperationException e) {
+            return -1;
+        }
+    }
+    
+    private void generate() {
+        random = new Random(seed);
+        as = new ITransformer[pairs];
+        bs = new ITransformer[pairs];
+        for (int i=0; i<pairs; i++) {
+            as[i] = newSummary();
+            // b overlaps with a half of the time, so that subsumes and
+            // differenceWith see both outcomes
+            if (random.nextBoolean()) {
+                bs[i] = as[i].clone();
+                bs[i].unionWith(newPath());
+            }
+            else {
+                bs[i] = newSummary();
+            }
+        }
+    }
+    
+    private ITransformer newSummary() {
+        ITransformer t = newPath();
+        for (int i=1; i<fanOut; i++) {
+            t.unionWith(newPath());
+        }
+        return t;
+    }
+    
+    private ITransformer newPath() {
+        ITransformer t = newStmtTransformer();
+        for (int i=1; i<pathLength; i++) {
+            t = t.composeWith(newStmtTransformer());
+        }
+        return t;
+    }
+    
+    private ITransformer newStmtTransformer() {
+        Local x = locals.get(random.nextInt(LOCALS));
+        Local y = locals.get(random.nextInt(LOCALS));
+        SootField f = fields.get(random.nextInt(FIELDS));
+        Stmt n = stmts.get(random.nextInt(STMTS));
+        switch (random.nextInt(8)) {
+            case 0:
+            case 1:
+                return TransformerFactory.newFieldLoadTransformer(x, y, f, n);
+            case 2:
+                return TransformerFactory.newFieldStoreTransformer(x, f, y, n);
+            case 3:
+                return TransformerFactory.newLocalCopyTransformer(x, y);
+            case 4:
+                // x = @parameter or @this
+                int p = random.nextInt(PARAMS+1);
+                return TransformerFactory.newLocalCopyTransformer(x, p == PARAMS ? ThisVariable.v() : ParameterVariable.v(p));
+            case 5:
+                return TransformerFactory.newNullCopyTransformer(x);
+            case 6:
+                return TransformerFactory.newAccessTransformer(x, n, random.nextBoolean());
+            default:
+                return TransformerFactory.newReturnStmtTransformer(x);
+        }
+    }
+    
+    public static void main(String[] args) {
+        int pairs = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int pathLength = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int fanOut = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        int iterations = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 1;
+        new TransformerBenchmark(pairs, pathLength, fanOut, iterations, seed).run();
+    }
+
+}
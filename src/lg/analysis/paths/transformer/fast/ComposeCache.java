@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2013, Khilan Gudka.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package lg.analysis.paths.transformer.fast;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lg.transformer.AtomicTransformer;
+
+/**
+ * Bounded cache of the results of Transformer.composeWith and 
+ * calleeToCallerContext, enabled with the compose-cache option (its value is
+ * the number of entries kept).
+ * 
+ * Entries are keyed on the stamps of the transformers involved (see
+ * Transformer.stamp()), and for calleeToCallerContext the identity of the
+ * call site's parameters to arguments mapping. Results are stored as private
+ * copies and handed out as copies, so callers may go on to update them in
+ * place.
+ * 
+ * Split into stripes by key, each an access-ordered LinkedHashMap under its
+ * own lock that evicts its least recently used entry when full.
+ */
+public class ComposeCache {
+    
+    private static final int STRIPES = 32;
+    
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+    
+    private static final class Key {
+        final long a;
+        final long b;
+        final Object ctx; // compared by identity
+        
+        Key(long a, long b, Object ctx) {
+            this.a = a;
+            this.b = b;
+            this.ctx = ctx;
+        }
+        
+        @Override
+        public int hashCode() {
+            // stamps are sequential, so mix them
+            long h = a * 0x9E3779B97F4A7C15L + b * 0xC2B2AE3D27D4EB4FL + System.identityHashCode(ctx);
+            h ^= h >>> 29;
+            return (int)(h ^ (h >>> 32));
+        }
+        
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key k = (Key)other;
+            return a == k.a && b == k.b && ctx == k.ctx;
+        }
+    }
+    
+    @SuppressWarnings("serial")
+    private static final class Stripe extends LinkedHashMap<Key,Transformer> {
+        Stripe() {
+            super(16, 0.75f, true);
+        }
+        
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key,Transformer> eldest) {
+            if (size() > Math.max(1, AtomicTransformer.COMPOSE_CACHE / STRIPES)) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+    
+    private static final Stripe[] stripes = new Stripe[STRIPES];
+    static {
+        for (int i=0; i<STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+    
+    private ComposeCache() { }
+    
+    static boolean enabled() {
+        return AtomicTransformer.COMPOSE_CACHE > 0;
+    }
+    
+    private static Stripe stripe(Key k) {
+        int h = k.hashCode();
+        return stripes[(h ^ (h >>> 16)) & (STRIPES-1)];
+    }
+    
+    // cached result (not to be updated) or null
+    static Transformer get(long a, long b, Object ctx) {
+        Key k = new Key(a, b, ctx);
+        Stripe s = stripe(k);
+        Transformer t;
+        synchronized (s) {
+            t = s.get(k);
+        }
+        (t == null ? misses : hits).incrementAndGet();
+        return t;
+    }
+    
+    // result must not be updated after this
+    static void put(long a, long b, Object ctx, Transformer result) {
+        Key k = new Key(a, b, ctx);
+        Stripe s = stripe(k);
+        synchronized (s) {
+            s.put(k, result);
+        }
+    }
+    
+    public static void clear() {
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                s.clear();
+            }
+        }
+    }
+    
+    public static long getHits() {
+        return hits.get();
+    }
+    
+    public static long getMisses() {
+        return misses.get();
+    }
+    
+    public static long getEvictions() {
+        return evictions.get();
+    }
+    
+    public static String stats() {
+        long h = hits.get();
+        long m = misses.get();
+        return "hits: " + h + ", misses: " + m + ", evictions: " + evictions.get() + ", hit rate: " + (h+m == 0 ? 0 : (100*h)/(h+m)) + "%";
+    }
+}
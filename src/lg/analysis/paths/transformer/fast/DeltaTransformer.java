@@ -26,9 +26,10 @@
 
 package lg.analysis.paths.transformer.fast;
 
-import gnu.trove.procedure.*;
 import gnu.trove.set.hash.TLongHashSet;
 import lg.analysis.paths.transformer.ITransformer;
+import lg.util.IntObjectCursor;
+import lg.util.LongCursor;
 
 public class DeltaTransformer extends Transformer {
         
@@ -46,23 +47,20 @@ public class DeltaTransformer extends Transformer {
     // this = this U t
     public void unionWith(ITransformer it) {
         Transformer t = (Transformer)it;
-        t.map.forEachEntry(new TIntObjectProcedure<TLongHashSet>() {
-            public boolean execute(int o, TLongHashSet tEdges) {
-                final TLongHashSet edges = map.get(o);
-                if (edges == null) {
-                    map.put(o, new TLongHashSet(tEdges));
-                }
-                else {
-                    tEdges.forEach(new TLongProcedure() {
-                        public boolean execute(long e) {
-                            edges.add(e);
-                            return true;
-                        }
-                    });
-                }
-                return true;
+        modified();
+        IntObjectCursor<TLongHashSet> c = IntObjectCursor.open(t.map);
+        while (c.next()) {
+            int o = c.key();
+            TLongHashSet tEdges = c.value();
+            TLongHashSet edges = map.get(o);
+            if (edges == null) {
+                map.put(o, shareSet(tEdges));
             }
-        });
+            else if (edges != tEdges) {
+                addEdges(mutableEdges(map, o, edges), tEdges);
+            }
+        }
+        c.close();
         
 //
 //        for (Object o : t.map.keySet()) {
@@ -139,43 +137,42 @@ public class DeltaTransformer extends Transformer {
             return newInstance(this);
         }
         else {
-            final Transformer closure = newInstance();
-            map.forEachEntry(new TIntObjectProcedure<TLongHashSet>() {
-                public boolean execute(int o, TLongHashSet edges) {
-                    final TLongHashSet newEdges = newSet(edges.size()*2); // *2 to anticipate doubling
-//                    final TLongHashSet newEdges = newSet(); // *2 to anticipate doubling
-                    // transitive closure
-                    edges.forEach(new TLongProcedure() {
-                        public boolean execute(final long te) {
-                            if (te == killEdge) {
-                                // o --> e goes through (note we have implicit e --> e)
-                                newEdges.add(te);
-                            }
-                            else {
-                                // o --> d
-                                int d = TransformerEdgeFactory.getD(te);
-                                TLongHashSet dEdges = t.map.get(d);
-                                if (dEdges == null) {
-                                    // implicit edge in t
-                                    newEdges.add(te);
-                                }
-                                else {
-                                    dEdges.forEach(new TLongProcedure() {
-                                        public boolean execute(long te2) {
-                                            long composed = TransformerEdgeFactory.composeEdges(te, te2);
-                                            newEdges.add(composed);
-                                            return true;
-                                        }
-                                    });
-                                }
+            Transformer closure = newInstance();
+            IntObjectCursor<TLongHashSet> c = IntObjectCursor.open(map);
+            LongCursor ec = LongCursor.open();
+            LongCursor dc = LongCursor.open();
+            while (c.next()) {
+                TLongHashSet edges = c.value();
+                TLongHashSet newEdges = newSet(edges.size()*2); // *2 to anticipate doubling
+                // transitive closure
+                ec.reset(edges);
+                while (ec.next()) {
+                    long te = ec.value();
+                    if (te == killEdge) {
+                        // o --> e goes through (note we have implicit e --> e)
+                        newEdges.add(te);
+                    }
+                    else {
+                        // o --> d
+                        int d = TransformerEdgeFactory.getD(te);
+                        TLongHashSet dEdges = t.map.get(d);
+                        if (dEdges == null) {
+                            // implicit edge in t
+                            newEdges.add(te);
+                        }
+                        else {
+                            dc.reset(dEdges);
+                            while (dc.next()) {
+                                newEdges.add(TransformerEdgeFactory.composeEdges(te, dc.value()));
                             }
-                            return true;
                         }
-                    });
-                    closure.map.put(o, newEdges);
-                    return true;
+                    }
                 }
-            });
+                closure.map.put(c.key(), newEdges);
+            }
+            dc.close();
+            ec.close();
+            c.close();
             
             // compact all sets
 //            compact(closure);
@@ -232,58 +229,52 @@ public class DeltaTransformer extends Transformer {
             return newInstance(this);
         }
         else {
-            final Transformer closure = newInstance();
-            t.map.forEachEntry(new TIntObjectProcedure<TLongHashSet>() {
-                public boolean execute(int o, TLongHashSet edges) {
-                    final TLongHashSet newEdges = newSet(edges.size()*2); // *2 to anticipate doubling
-                    // transitive closure
-                    edges.forEach(new TLongProcedure() {
-                        public boolean execute(final long te) {
-                            // o --> d
-                            int d = TransformerEdgeFactory.getD(te);
-                            TLongHashSet dEdges = map.get(d);
-                            // NO IMPLICIT EDGES IN "THIS"
-                            if (dEdges != null) {
-                                dEdges.forEach(new TLongProcedure() {
-                                    public boolean execute(long te2) {
-                                        long composed = TransformerEdgeFactory.composeEdges(te, te2);
-                                        newEdges.add(composed);
-                                        return true;
-                                    }
-                                });
-                            }
-                            return true;
+            Transformer closure = newInstance();
+            IntObjectCursor<TLongHashSet> c = IntObjectCursor.open(t.map);
+            LongCursor ec = LongCursor.open();
+            LongCursor dc = LongCursor.open();
+            while (c.next()) {
+                TLongHashSet edges = c.value();
+                TLongHashSet newEdges = newSet(edges.size()*2); // *2 to anticipate doubling
+                // transitive closure
+                ec.reset(edges);
+                while (ec.next()) {
+                    // o --> d
+                    long te = ec.value();
+                    int d = TransformerEdgeFactory.getD(te);
+                    TLongHashSet dEdges = map.get(d);
+                    // NO IMPLICIT EDGES IN "THIS"
+                    if (dEdges != null) {
+                        dc.reset(dEdges);
+                        while (dc.next()) {
+                            newEdges.add(TransformerEdgeFactory.composeEdges(te, dc.value()));
                         }
-                    });
-                    closure.map.put(o, newEdges);
-                    return true;
+                    }
                 }
-            });
+                closure.map.put(c.key(), newEdges);
+            }
+            dc.close();
+            ec.close();
+            c.close();
 
             // take account of implicit edges in 't' transformer.
-            map.forEachEntry(new TIntObjectProcedure<TLongHashSet>() {
-                public boolean execute(int o, TLongHashSet edges) {
-                    TLongHashSet tEdges = t.map.get(o);
-                    if (o == capitalLambda || tEdges == null) {
-                        // implicit A --> A edge in 't'. Pass on accesses.
-                        final TLongHashSet closureEdges = closure.map.get(o);
-                        if (closureEdges == null) {
-                            closure.map.put(o, new TLongHashSet(edges));
-                        }
-                        else {
-                            closureEdges.ensureCapacity(edges.size());
-                            closureEdges.addAll(edges);
-//                            edges.forEach(new TLongProcedure() {
-//                                public boolean execute(long e) {
-//                                    closureEdges.add(e);
-//                                    return true;
-//                                }
-//                            });
-                        }
+            c = IntObjectCursor.open(map);
+            while (c.next()) {
+                int o = c.key();
+                if (o == capitalLambda || !t.map.containsKey(o)) {
+                    // implicit A --> A edge in 't'. Pass on accesses.
+                    TLongHashSet edges = c.value();
+                    TLongHashSet closureEdges = closure.map.get(o);
+                    if (closureEdges == null) {
+                        closure.map.put(o, shareSet(edges));
+                    }
+                    else {
+                        closureEdges.ensureCapacity(edges.size());
+                        addEdges(closureEdges, edges);
                     }
-                    return true;
                 }
-            });
+            }
+            c.close();
             
 //            closure.map.forEachValue(new TObjectProcedure<TLongHashSet>() {
 //                @Override
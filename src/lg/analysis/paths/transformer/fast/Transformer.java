@@ -27,11 +27,11 @@
 package lg.analysis.paths.transformer.fast;
 
 import gnu.trove.map.hash.*;
-import gnu.trove.procedure.*;
 import gnu.trove.set.hash.TLongHashSet;
 
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 import lg.analysis.paths.automata.*;
 import lg.analysis.paths.transformer.*;
@@ -53,8 +53,18 @@ public class Transformer implements Cloneable, Serializable, ITransformer {
     protected static final int thisVar = SymbolNumberer.getNumber(ThisVariable.v()); 
     protected static final State startState = StartState.v();
     
+    // Identifies the edges this transformer has (for ComposeCache). Assigned
+    // lazily, reset by updates in place and kept by exact copies.
+    private transient volatile long stamp;
+    private static final AtomicLong stamps = new AtomicLong();
+    
     public Transformer() {
-        map = new TIntObjectHashMap<TLongHashSet>();  
+        if (AtomicTransformer.PERSISTENT_MAPS) {
+            map = new PersistentIntObjectMap<TLongHashSet>();
+        }
+        else {
+            map = new TIntObjectHashMap<TLongHashSet>();  
+        }
     }
     
     protected Transformer(Transformer t) {
@@ -68,14 +78,19 @@ public class Transformer implements Cloneable, Serializable, ITransformer {
      * @see lg.analysis.paths.transformer.TransformerInterface#overwriteWith(lg.analysis.paths.transformer.Transformer)
      */
     public void overwriteWith(Transformer t) {
+        stamp = map.isEmpty() ? t.stamp : 0; // a copy has the same edges
+        if (map.isEmpty() && t.map instanceof PersistentIntObjectMap) {
+            // share t's map, edge sets are copied when first updated
+            map = ((PersistentIntObjectMap<TLongHashSet>)t.map).snapshot();
+            return;
+        }
         // don't use map.putAll as it causes problems due to aliasing
         // (it doesn't create new HashSets)
-        t.map.forEachEntry(new TIntObjectProcedure<TLongHashSet>() {
-            public boolean execute(int o, TLongHashSet d) {
-                map.put(o, new TLongHashSet(d));
-                return true;
-            }
-        });
+        IntObjectCursor<TLongHashSet> c = IntObjectCursor.open(t.map);
+        while (c.next()) {
+            map.put(c.key(), shareSet(c.value()));
+        }
+        c.close();
 //        for (Object o : t.map.keySet()) {
 //            map.put(o, newSetFast(t.map.get(o)));
 //        }
@@ -87,25 +102,27 @@ public class Transformer implements Cloneable, Serializable, ITransformer {
      * @see lg.analysis.paths.transformer.TransformerInterface#retainAll(lg.analysis.paths.transformer.Transformer)
      */
     public void retainAll(final Transformer t) {
-        map.forEachEntry(new TIntObjectProcedure<TLongHashSet>() {
-            public boolean execute(int o, final TLongHashSet edges) {
-                final TLongHashSet tEdges = t.map.get(o);
-                if (tEdges == null) {
-                    map.remove(o);
-                }
-                else {
-                    edges.forEach(new TLongProcedure() {
-                        public boolean execute(long value) {
-                            if (!tEdges.contains(value)) {
-                                edges.remove(value);
-                            }
-                            return true;
-                        }
-                    });
+        modified();
+        IntObjectCursor<TLongHashSet> c = IntObjectCursor.open(map);
+        LongCursor ec = LongCursor.open();
+        while (c.next()) {
+            int o = c.key();
+            TLongHashSet tEdges = t.map.get(o);
+            if (tEdges == null) {
+                map.remove(o);
+            }
+            else if (tEdges != c.value()) {
+                TLongHashSet edges = mutableEdges(map, o, c.value());
+                ec.reset(edges);
+                while (ec.next()) {
+                    if (!tEdges.contains(ec.value())) {
+                        edges.remove(ec.value());
+                    }
                 }
-                return true;
             }
-        });      
+        }
+        ec.close();
+        c.close();
 //        Set<Object> kill = new HashSet<Object>();
 //        for (Object o : map.keySet()) {
 //            Set<TransformerEdge> tEdges = t.map.get(o);
@@ -137,22 +154,33 @@ public class Transformer implements Cloneable, Serializable, ITransformer {
      * @see lg.analysis.paths.transformer.TransformerInterface#subsumes(lg.analysis.paths.transformer.Transformer)
      */
     public boolean subsumes(final Transformer t) {
-        return map.forEachEntry(new TIntObjectProcedure<TLongHashSet>() {
-            public boolean execute(int o, final TLongHashSet edges) {
-                final TLongHashSet tEdges = t.map.get(o);
-                if (tEdges == null) {
-                    long idEdge = TransformerEdgeFactory.newIdEdge(o);
-                    return edges.contains(idEdge); // implicit edge o-->o lost?
-                }
-                else {
-                    return tEdges.forEach(new TLongProcedure() {
-                        public boolean execute(long e) {
-                            return edges.contains(e); 
-                        }
-                    });
+        boolean subsumes = true;
+        IntObjectCursor<TLongHashSet> c = IntObjectCursor.open(map);
+        LongCursor ec = LongCursor.open();
+        while (subsumes && c.next()) {
+            int o = c.key();
+            TLongHashSet edges = c.value();
+            TLongHashSet tEdges = t.map.get(o);
+            if (tEdges == null) {
+                long idEdge = TransformerEdgeFactory.newIdEdge(o);
+                subsumes = edges.contains(idEdge); // implicit edge o-->o lost?
+            }
+            else if (edges == tEdges) {
+                // same set
+            }
+            else if (edges instanceof SortedLongArraySet) {
+                subsumes = edges.containsAll(tEdges);
+            }
+            else {
+                ec.reset(tEdges);
+                while (subsumes && ec.next()) {
+                    subsumes = edges.contains(ec.value());
                 }
             }
-        });
+        }
+        ec.close();
+        c.close();
+        return subsumes;
 //        Set<Object> keys = map.keySet();
 //        if (keys.containsAll(t.map.keySet())) {
 //            for (Object o : keys) {
@@ -182,30 +210,31 @@ public class Transformer implements Cloneable, Serializable, ITransformer {
      * @see lg.analysis.paths.transformer.TransformerInterface#differenceWith(lg.analysis.paths.transformer.Transformer)
      */
     public DeltaTransformer differenceWith(final Transformer t) {
-        final DeltaTransformer difference = new DeltaTransformer();
-        map.forEachEntry(new TIntObjectProcedure<TLongHashSet>() {
-            public boolean execute(int d, TLongHashSet thisEdges) {
-                final TLongHashSet tEdges = t.map.get(d);
-                if (tEdges == null) {
-                    difference.map.put(d, new TLongHashSet(thisEdges));
-                }
-                else {
-                    final TLongHashSet edgesDiff = newSet(thisEdges.size()*2);
-                    thisEdges.forEach(new TLongProcedure() {
-                        public boolean execute(long e) {
-                            if (!tEdges.contains(e)) {
-                                edgesDiff.add(e);
-                            }
-                            return true;
-                        }
-                    });
-                    if (!edgesDiff.isEmpty()) { // keep delta transformer sparse
-                        difference.map.put(d, edgesDiff);
+        DeltaTransformer difference = new DeltaTransformer();
+        IntObjectCursor<TLongHashSet> c = IntObjectCursor.open(map);
+        LongCursor ec = LongCursor.open();
+        while (c.next()) {
+            int d = c.key();
+            TLongHashSet thisEdges = c.value();
+            TLongHashSet tEdges = t.map.get(d);
+            if (tEdges == null) {
+                difference.map.put(d, shareSet(thisEdges));
+            }
+            else {
+                TLongHashSet edgesDiff = newSet(thisEdges.size()*2);
+                ec.reset(thisEdges);
+                while (ec.next()) {
+                    if (!tEdges.contains(ec.value())) {
+                        edgesDiff.add(ec.value());
                     }
                 }
-                return true;
+                if (!edgesDiff.isEmpty()) { // keep delta transformer sparse
+                    difference.map.put(d, edgesDiff);
+                }
             }
-        });
+        }
+        ec.close();
+        c.close();
         return difference;
 //        DeltaTransformer difference = new DeltaTransformer();
 //        for (Object d : map.keySet()) {
@@ -233,26 +262,31 @@ public class Transformer implements Cloneable, Serializable, ITransformer {
      * @see lg.analysis.paths.transformer.TransformerInterface#differenceWithInPlace(lg.analysis.paths.transformer.Transformer)
      */
     public void differenceWithInPlace(final Transformer t) {
-        map.forEachEntry(new TIntObjectProcedure<TLongHashSet>() {
-            public boolean execute(int d, TLongHashSet thisEdges) {
-                TLongHashSet tEdges = t.map.get(d);
-                if (tEdges != null) {
-                    final TLongHashSet thisExclusiveEdges = (thisEdges instanceof TwoLevelSet) ? ((TwoLevelSet)thisEdges).getChild() : thisEdges;
-                    tEdges.forEach(new TLongProcedure() {
-                        public boolean execute(long e) {
-                            thisExclusiveEdges.remove(e);  // note: t only ever grows
-                            return true;
-                        }
-                    });
-                    if (AtomicTransformer.COMPACT) {
-                        thisExclusiveEdges.compact(); // tEdges should already be compacted
-                    }
-                    TLongHashSet newThisEdges = new TwoLevelSet(tEdges, thisExclusiveEdges);
-                    map.put(d, newThisEdges);
+        modified();
+        IntObjectCursor<TLongHashSet> c = IntObjectCursor.open(map);
+        LongCursor ec = LongCursor.open();
+        while (c.next()) {
+            int d = c.key();
+            TLongHashSet thisEdges = c.value();
+            TLongHashSet tEdges = t.map.get(d);
+            if (tEdges != null) {
+                TLongHashSet exclusiveEdges = (thisEdges instanceof TwoLevelSet) ? ((TwoLevelSet)thisEdges).getChild() : thisEdges;
+                if (isShared(map, d, thisEdges)) {
+                    exclusiveEdges = copySet(exclusiveEdges);
+                }
+                ec.reset(tEdges);
+                while (ec.next()) {
+                    exclusiveEdges.remove(ec.value());  // note: t only ever grows
                 }
-                return true;
+                if (AtomicTransformer.COMPACT) {
+                    exclusiveEdges.compact(); // tEdges should already be compacted
+                }
+                TLongHashSet newThisEdges = new TwoLevelSet(tEdges, exclusiveEdges);
+                map.put(d, newThisEdges);
             }
-        });
+        }
+        ec.close();
+        c.close();
 //        for (Object d : map.keySet()) {
 //            Set<TransformerEdge> tEdges = t.map.get(d);
 //            if (tEdges != null) {
@@ -289,24 +323,21 @@ public class Transformer implements Cloneable, Serializable, ITransformer {
      * @see lg.analysis.paths.transformer.TransformerInterface#addAll(lg.analysis.paths.transformer.Transformer)
      */
     public Transformer addAll(Transformer t) {
-        final Transformer result = this;
-        t.map.forEachEntry(new TIntObjectProcedure<TLongHashSet>() {
-            public boolean execute(int o, TLongHashSet tEdges) {
-                final TLongHashSet edges = result.map.get(o);
-                if (edges == null) {
-                    result.map.put(o, new TLongHashSet(tEdges));
-                }
-                else {
-                    tEdges.forEach(new TLongProcedure() {
-                        public boolean execute(long e) {
-                            edges.add(e);
-                            return true;
-                        }
-                    });
-                }
-                return true;
+        Transformer result = this;
+        result.modified();
+        IntObjectCursor<TLongHashSet> c = IntObjectCursor.open(t.map);
+        while (c.next()) {
+            int o = c.key();
+            TLongHashSet tEdges = c.value();
+            TLongHashSet edges = result.map.get(o);
+            if (edges == null) {
+                result.map.put(o, shareSet(tEdges));
+            }
+            else if (edges != tEdges) {
+                addEdges(mutableEdges(result.map, o, edges), tEdges);
             }
-        });
+        }
+        c.close();
         return result;
 //        Transformer result = this;
 //        for (Object o : t.map.keySet()) {
@@ -368,31 +399,47 @@ public class Transformer implements Cloneable, Serializable, ITransformer {
      * @see lg.analysis.paths.transformer.TransformerInterface#addAllReturnDelta(lg.analysis.paths.transformer.Transformer, lg.analysis.paths.transformer.DeltaTransformer)
      */
     public Transformer addAllReturnDelta(Transformer t, final DeltaTransformer delta) {
-        final Transformer result = this;
-        t.map.forEachEntry(new TIntObjectProcedure<TLongHashSet>() {
-            public boolean execute(int o, TLongHashSet tEdges) {
-                final TLongHashSet edges = result.map.get(o);
-                if (edges == null) {
-                    result.map.put(o, new TLongHashSet(tEdges));
-                    delta.map.put(o, new TLongHashSet(tEdges));
+        Transformer result = this;
+        result.modified();
+        delta.modified();
+        IntObjectCursor<TLongHashSet> c = IntObjectCursor.open(t.map);
+        LongCursor ec = LongCursor.open();
+        while (c.next()) {
+            int o = c.key();
+            TLongHashSet tEdges = c.value();
+            TLongHashSet edges = result.map.get(o);
+            if (edges == null) {
+                result.map.put(o, shareSet(tEdges));
+                delta.map.put(o, shareSet(tEdges));
+            }
+            else if (edges != tEdges) {
+                TLongHashSet deltaEdges = newSet(tEdges.size());
+                ec.reset(tEdges);
+                if (isShared(result.map, o, edges)) {
+                    // only copy the shared edges if some are new
+                    while (ec.next()) {
+                        if (!edges.contains(ec.value())) {
+                            deltaEdges.add(ec.value());
+                        }
+                    }
+                    if (!deltaEdges.isEmpty()) {
+                        addEdges(mutableEdges(result.map, o, edges), deltaEdges);
+                    }
                 }
                 else {
-                    final TLongHashSet deltaEdges = newSet(tEdges.size());
-                    tEdges.forEach(new TLongProcedure() {
-                        public boolean execute(long e) {
-                            if (edges.add(e)) {
-                                deltaEdges.add(e);
-                            }
-                            return true;
+                    while (ec.next()) {
+                        if (edges.add(ec.value())) {
+                            deltaEdges.add(ec.value());
                         }
-                    });
-                    if (!deltaEdges.isEmpty()) {
-                        delta.map.put(o, deltaEdges);
                     }
                 }
-                return true;
+                if (!deltaEdges.isEmpty()) {
+                    delta.map.put(o, deltaEdges);
+                }
             }
-        });
+        }
+        ec.close();
+        c.close();
         return result;
 //        Transformer result = this;//clone();
 //        for (Object o : t.map.keySet()) {
@@ -426,46 +473,44 @@ public class Transformer implements Cloneable, Serializable, ITransformer {
     public void unionWith(final Transformer t) {
         // Merge 'this' with 't'
         // Remember to make implicit edges explicit where necessary
-        map.forEachEntry(new TIntObjectProcedure<TLongHashSet>() {
-            public boolean execute(int o, final TLongHashSet edges) {
-                TLongHashSet tEdges = t.map.get(o);
-                if (tEdges == null) {
-                    if (o != capitalLambda) {
-                        // make implicit edge explicit
-                        long idEdge = TransformerEdgeFactory.newIdEdge(o);
-                        edges.add(idEdge);
+        modified();
+        IntObjectCursor<TLongHashSet> c = IntObjectCursor.open(map);
+        while (c.next()) {
+            int o = c.key();
+            TLongHashSet edges = c.value();
+            TLongHashSet tEdges = t.map.get(o);
+            if (tEdges == null) {
+                if (o != capitalLambda) {
+                    // make implicit edge explicit
+                    long idEdge = TransformerEdgeFactory.newIdEdge(o);
+                    if (!edges.contains(idEdge)) {
+                        mutableEdges(map, o, edges).add(idEdge);
                     }
                 }
-                else {
-                    tEdges.forEach(new TLongProcedure() {
-                        public boolean execute(long e) {
-                            edges.add(e);
-                            return true;
-                        }
-                    });
-                }
-                map.put(o, edges);
-                return true;
             }
-        });
+            else if (tEdges != edges) {
+                addEdges(mutableEdges(map, o, edges), tEdges);
+            }
+        }
+        c.close();
 
         // Merge remaining edges in 't' with 'this' and make implicit edges
         // explicit where necessary
-        t.map.forEachEntry(new TIntObjectProcedure<TLongHashSet>() {
-            public boolean execute(int o, TLongHashSet tEdges) {
-                TLongHashSet edges = map.get(o);
-                if (edges == null) { // if edges != null, the unioning would have been done in the above for loop
-                    // make implicit edge explicit unless o == A
-                    edges = new TLongHashSet(tEdges);
-                    if (o != capitalLambda) {
-                        long idEdge = TransformerEdgeFactory.newIdEdge(o);
-                        edges.add(idEdge);
-                    }
-                    map.put(o, edges);
+        c = IntObjectCursor.open(t.map);
+        while (c.next()) {
+            int o = c.key();
+            TLongHashSet edges = map.get(o);
+            if (edges == null) { // if edges != null, the unioning would have been done in the above for loop
+                // make implicit edge explicit unless o == A
+                edges = copySet(c.value());
+                if (o != capitalLambda) {
+                    long idEdge = TransformerEdgeFactory.newIdEdge(o);
+                    edges.add(idEdge);
                 }
-                return true;
+                map.put(o, edges);
             }
-        });
+        }
+        c.close();
         
 //        compact(this);
         
@@ -604,67 +649,78 @@ public class Transformer implements Cloneable, Serializable, ITransformer {
             return newInstance(this);
         }
         else {
-            final Transformer closure = newInstance();
-            map.forEachEntry(new TIntObjectProcedure<TLongHashSet>() {
-                public boolean execute(int o, TLongHashSet edges) {
-                    final TLongHashSet newEdges = newSet(edges.size()*2);  // use *2 to anticipate doubling, speeds up composition
-                    // transitive closure
-                    edges.forEach(new TLongProcedure() {
-                        public boolean execute(final long te) {
-                            if (te == killEdge) {
-                                // o --> e goes through (note we have implicit e --> e)
-                                newEdges.add(te);
-                            }
-                            else {
-                                // o --> d
-                                int d = TransformerEdgeFactory.getD(te);
-                                TLongHashSet dEdges = t.map.get(d);
-                                if (dEdges == null) {
-                                    // implicit edge in t
-                                    newEdges.add(te);
-                                }
-                                else {
-                                    newEdges.ensureCapacity(dEdges.size());
-                                    dEdges.forEach(new TLongProcedure() {
-                                        public boolean execute(long te2) {
-                                            long composed = TransformerEdgeFactory.composeEdges(te, te2);
-                                            newEdges.add(composed);
-                                            return true;
-                                        }
-                                    });
-                                }
-                            }
-                            return true;
-                        }
-                    });
-                    closure.map.put(o, newEdges);
-                    return true;
+            boolean cache = ComposeCache.enabled();
+            long thisStamp = 0;
+            long tStamp = 0;
+            if (cache) {
+                thisStamp = stamp();
+                tStamp = t.stamp();
+                Transformer cached = ComposeCache.get(thisStamp, tStamp, null);
+                if (cached != null) {
+                    return newInstance(cached);
                 }
-            });
-            // take account of implicit edges in 'this' transformer.
-            t.map.forEachEntry(new TIntObjectProcedure<TLongHashSet>() {
-                public boolean execute(int o, TLongHashSet tEdges) {
-                    TLongHashSet edges = map.get(o);
-                    if (o == capitalLambda || edges == null) {
-                        // implicit A --> A or o --> o edge in 'this'. Pass on edges
-                        final TLongHashSet transEdges = closure.map.get(o);
-                        if (transEdges == null) {
-                            closure.map.put(o, new TLongHashSet(tEdges));
+            }
+            Transformer closure = newInstance();
+            IntObjectCursor<TLongHashSet> c = IntObjectCursor.open(map);
+            LongCursor ec = LongCursor.open();
+            LongCursor dc = LongCursor.open();
+            while (c.next()) {
+                TLongHashSet edges = c.value();
+                TLongHashSet newEdges = newSet(edges.size()*2);  // use *2 to anticipate doubling, speeds up composition
+                // transitive closure
+                ec.reset(edges);
+                while (ec.next()) {
+                    long te = ec.value();
+                    if (te == killEdge) {
+                        // o --> e goes through (note we have implicit e --> e)
+                        newEdges.add(te);
+                    }
+                    else {
+                        // o --> d
+                        int d = TransformerEdgeFactory.getD(te);
+                        TLongHashSet dEdges = t.map.get(d);
+                        if (dEdges == null) {
+                            // implicit edge in t
+                            newEdges.add(te);
                         }
                         else {
-                            transEdges.ensureCapacity(tEdges.size());
-                            tEdges.forEach(new TLongProcedure() {
-                                public boolean execute(long e) {
-                                    transEdges.add(e);
-                                    return true;
-                                }
-                            });
+                            newEdges.ensureCapacity(dEdges.size());
+                            dc.reset(dEdges);
+                            while (dc.next()) {
+                                newEdges.add(TransformerEdgeFactory.composeEdges(te, dc.value()));
+                            }
                         }
                     }
-                    return true;
                 }
-            });
+                closure.map.put(c.key(), newEdges);
+            }
+            dc.close();
+            ec.close();
+            c.close();
+            // take account of implicit edges in 'this' transformer.
+            c = IntObjectCursor.open(t.map);
+            while (c.next()) {
+                int o = c.key();
+                if (o == capitalLambda || !map.containsKey(o)) {
+                    // implicit A --> A or o --> o edge in 'this'. Pass on edges
+                    TLongHashSet tEdges = c.value();
+                    TLongHashSet transEdges = closure.map.get(o);
+                    if (transEdges == null) {
+                        closure.map.put(o, shareSet(tEdges));
+                    }
+                    else {
+                        transEdges.ensureCapacity(tEdges.size());
+                        addEdges(transEdges, tEdges);
+                    }
+                }
+            }
+            c.close();
             cleanup(closure);
+            
+            if (cache) {
+                closure.stamp();
+                ComposeCache.put(thisStamp, tStamp, null, newInstance(closure));
+            }
 
             return closure;
 //            Transformer closure = newInstance();
@@ -901,15 +957,16 @@ public class Transformer implements Cloneable, Serializable, ITransformer {
         compact(this);
     }
     
-    protected void compact(Transformer t) {
+    protected void compact(final Transformer t) {
         if (AtomicTransformer.COMPACT) {
 //            System.out.println("Compacting!");
-            t.map.forEachValue(new TObjectProcedure<TLongHashSet>() {
-                public boolean execute(TLongHashSet v) {
-                    v.compact();
-                    return true;
+            IntObjectCursor<TLongHashSet> c = IntObjectCursor.open(t.map);
+            while (c.next()) {
+                if (!isShared(t.map, c.key(), c.value())) {
+                    c.value().compact();
                 }
-            });
+            }
+            c.close();
         }
     }
     
@@ -924,26 +981,29 @@ public class Transformer implements Cloneable, Serializable, ITransformer {
      * @see lg.analysis.paths.transformer.TransformerInterface#cleanup2(lg.analysis.paths.transformer.Transformer)
      */
     public void cleanup2(final Transformer t) {
-        t.map.forEachEntry(new TIntObjectProcedure<TLongHashSet>() {
-            public boolean execute(int o, TLongHashSet edges) {
-                if (edges.size() > 1) {
-                    edges.remove(killEdge);
-                }
-                if (edges.size() == 1) {
-                    if (o == capitalLambda) {
-                        edges.remove(killEdge);
-                    }
-                    else {
-                        long idEdge = TransformerEdgeFactory.newIdEdge(o);
-                        edges.remove(idEdge);
-                    }
-                }
-                if (edges.isEmpty()) {
+        t.modified();
+        IntObjectCursor<TLongHashSet> c = IntObjectCursor.open(t.map);
+        while (c.next()) {
+            int o = c.key();
+            TLongHashSet edges = c.value();
+            // edges may be shared, so only copy (and update) them if an edge
+            // actually goes
+            if (edges.size() > 1 && edges.contains(killEdge)) {
+                edges = mutableEdges(t.map, o, edges);
+                edges.remove(killEdge);
+            }
+            if (edges.size() == 1) {
+                long e = (o == capitalLambda) ? killEdge : TransformerEdgeFactory.newIdEdge(o);
+                if (edges.contains(e)) {
                     t.map.remove(o);
+                    continue;
                 }
-                return true;
             }
-        });
+            if (edges.isEmpty()) {
+                t.map.remove(o);
+            }
+        }
+        c.close();
 //        Set<Object> kill = new HashSet<Object>();
 //        for (Object o : t.map.keySet()) {
 //            Set<TransformerEdge> edges = t.map.get(o);
@@ -1115,71 +1175,84 @@ public class Transformer implements Cloneable, Serializable, ITransformer {
      */
     @Override
     public String toString() {
-        final StringBuilder s = new StringBuilder("{");
-        map.forEachEntry(new TIntObjectProcedure<TLongHashSet>() {
-            boolean first = true;
-            public boolean execute(int o, TLongHashSet edges) {
-                if (!first) {
-                    s.append("; ");
+        StringBuilder s = new StringBuilder("{");
+        IntObjectCursor<TLongHashSet> c = IntObjectCursor.open(map);
+        LongCursor ec = LongCursor.open();
+        boolean first = true;
+        while (c.next()) {
+            if (!first) {
+                s.append("; ");
+            }
+            String oStr = SymbolNumberer.getObject(c.key()).toString();
+            s.append(oStr + "=[");
+            boolean firstEdge = true;
+            ec.reset(c.value());
+            while (ec.next()) {
+                if (!firstEdge) {
+                    s.append(", ");
                 }
-                String oStr = SymbolNumberer.getObject(o).toString();
-                s.append(oStr + "=[");
-                edges.forEach(new TLongProcedure() {
-                    boolean first = true;
-                    public boolean execute(long e) {
-                        if (!first) {
-                            s.append(", ");
-                        }
-                        s.append(TransformerEdgeFactory.toString(e));
-                        first = false;
-                        return true;
-                    }
-                });
-                s.append("]");
-                first = false;
-                return true;
+                s.append(TransformerEdgeFactory.toString(ec.value()));
+                firstEdge = false;
             }
-        });
+            s.append("]");
+            first = false;
+        }
+        ec.close();
+        c.close();
         s.append("}");
         return s.toString();
     }
 
     // returns a copy of this transformer but without any method local vars
+    // does any edge lead to a parameter (or the return variable)?
+    private static boolean hasParameterEdges(TLongHashSet edges) {
+        LongCursor c = LongCursor.open(edges);
+        boolean found = false;
+        while (!found && c.next()) {
+            long te = c.value();
+            found = !TransformerEdgeFactory.isKill(te) && SymbolNumberer.getObject(TransformerEdgeFactory.getD(te)) instanceof ParameterVariable;
+        }
+        c.close();
+        return found;
+    }
+    
     /* (non-Javadoc)
      * @see lg.analysis.paths.transformer.TransformerInterface#removeMethodLocalVars()
      */
     public ITransformer removeMethodLocalVars() {
-        final Transformer t = newInstance();
-        map.forEachEntry(new TIntObjectProcedure<TLongHashSet>() {
-            public boolean execute(int d, TLongHashSet edges) {
-                Object o = SymbolNumberer.getObject(d);
-                if (o instanceof Local) {
-                    // skip
-                }
-                else {
-                    final TLongHashSet edgesToKeep = newSet(edges.size()*2);
-                    edges.forEach(new TLongProcedure() {
-                        public boolean execute(long te) {
-                            if (te == killEdge) {
-                                edgesToKeep.add(te);
-                            }
-                            else {
-                                long d2 = TransformerEdgeFactory.getD(te);
-                                Object o2 = SymbolNumberer.getObject(d2);
-                                if (!(o2 instanceof Local)) {
-                                    edgesToKeep.add(te);
-                                }
-                            }
-                            return true;
+        Transformer t = newInstance();
+        IntObjectCursor<TLongHashSet> c = IntObjectCursor.open(map);
+        LongCursor ec = LongCursor.open();
+        while (c.next()) {
+            int d = c.key();
+            TLongHashSet edges = c.value();
+            Object o = SymbolNumberer.getObject(d);
+            if (o instanceof Local) {
+                // skip
+            }
+            else {
+                TLongHashSet edgesToKeep = newSet(edges.size()*2);
+                ec.reset(edges);
+                while (ec.next()) {
+                    long te = ec.value();
+                    if (te == killEdge) {
+                        edgesToKeep.add(te);
+                    }
+                    else {
+                        long d2 = TransformerEdgeFactory.getD(te);
+                        Object o2 = SymbolNumberer.getObject(d2);
+                        if (!(o2 instanceof Local)) {
+                            edgesToKeep.add(te);
                         }
-                    });
-                    if (!edgesToKeep.isEmpty()) {
-                        t.map.put(d, edgesToKeep);
                     }
                 }
-                return true;
+                if (!edgesToKeep.isEmpty()) {
+                    t.map.put(d, edgesToKeep);
+                }
             }
-        });
+        }
+        ec.close();
+        c.close();
         return t;
 //        Transformer t = newInstance();
 //        for (Object o : map.keySet()) {
@@ -1221,57 +1294,75 @@ public class Transformer implements Cloneable, Serializable, ITransformer {
     /* (non-Javadoc)
      * @see lg.analysis.paths.transformer.TransformerInterface#calleeToCallerContext(gnu.trove.map.hash.TIntIntHashMap)
      */
-    public ITransformer calleeToCallerContext(final TIntIntHashMap paramsToArgs) {
-        final Transformer t = newInstance();
-        map.forEachEntry(new TIntObjectProcedure<TLongHashSet>() {
-            public boolean execute(int o, TLongHashSet edges) {
-                if (o == retVar && !paramsToArgs.containsKey(o)) {
-                    // return value is not used by caller so ignore edges $ret --> *
-                    // continue;
+    public ITransformer calleeToCallerContext(TIntIntHashMap paramsToArgs) {
+        boolean cache = ComposeCache.enabled();
+        long thisStamp = 0;
+        if (cache) {
+            thisStamp = stamp();
+            Transformer cached = ComposeCache.get(thisStamp, 0, paramsToArgs);
+            if (cached != null) {
+                return newInstance(cached);
+            }
+        }
+        Transformer t = newInstance();
+        IntObjectCursor<TLongHashSet> c = IntObjectCursor.open(map);
+        LongCursor ec = LongCursor.open();
+        while (c.next()) {
+            int o = c.key();
+            TLongHashSet edges = c.value();
+            if (o == retVar && !paramsToArgs.containsKey(o)) {
+                // return value is not used by caller so ignore edges $ret --> *
+                // continue;
+            }
+            else if (AtomicTransformer.SHARE_EDGE_SETS && !hasParameterEdges(edges)) {
+                // nothing to rename, so the edges can be shared
+                if (o == retVar) {
+                    o = paramsToArgs.get(o);
                 }
-                else {
-                    final TLongHashSet newEdges = newSet(edges.size()*2);
-                    edges.forEach(new TLongProcedure() {
-                        public boolean execute(long te) {
-                            if (TransformerEdgeFactory.isKill(te)) {
-                                newEdges.add(te);
+                t.map.put(o, shareSet(edges));
+            }
+            else {
+                TLongHashSet newEdges = newSet(edges.size()*2);
+                ec.reset(edges);
+                while (ec.next()) {
+                    long te = ec.value();
+                    if (TransformerEdgeFactory.isKill(te)) {
+                        newEdges.add(te);
+                    }
+                    else {
+                        int d = TransformerEdgeFactory.getD(te);
+                        Object od = null;
+                        try {
+                            od = SymbolNumberer.getObject(d);
+                        }
+                        catch (ArrayIndexOutOfBoundsException e) {
+                            Logger.println(TransformerEdgeFactory.toString(te));
+                            System.exit(-1);
+                            ProfilerSupport.waitForKeyPress();
+                        }
+                        if (od instanceof ParameterVariable) {
+                            int arg = paramsToArgs.get(d);
+                            if (arg == 0) {
+                                newEdges.add(killEdge);
                             }
                             else {
-                                int d = TransformerEdgeFactory.getD(te);
-                                Object o = null;
-                                try {
-                                    o = SymbolNumberer.getObject(d);
-                                }
-                                catch (ArrayIndexOutOfBoundsException e) {
-                                    Logger.println(TransformerEdgeFactory.toString(te));
-                                    System.exit(-1);
-                                    ProfilerSupport.waitForKeyPress();
-                                }
-                                if (o instanceof ParameterVariable) {
-                                    int arg = paramsToArgs.get(d);
-                                    if (arg == 0) {
-                                        newEdges.add(killEdge);
-                                    }
-                                    else {
-                                        newEdges.add(TransformerEdgeFactory.updateD(te, arg));
-                                    }
-                                }
-                                else {
-                                    newEdges.add(te);
-                                }
+                                newEdges.add(TransformerEdgeFactory.updateD(te, arg));
                             }
-                            return true;
                         }
-                    });
-                    // rename $ret to actual return variable
-                    if (o == retVar) {
-                        o = paramsToArgs.get(o);
+                        else {
+                            newEdges.add(te);
+                        }
                     }
-                    t.map.put(o, newEdges);
                 }
-                return true;
+                // rename $ret to actual return variable
+                if (o == retVar) {
+                    o = paramsToArgs.get(o);
+                }
+                t.map.put(o, newEdges);
             }
-        });
+        }
+        ec.close();
+        c.close();
 //        for (Object o : map.keySet()) {
 //            if (o == retVar && paramsToArgs.get(o) == null) {
 //                // return value is not used by caller so ignore edges $ret --> *
@@ -1311,9 +1402,44 @@ public class Transformer implements Cloneable, Serializable, ITransformer {
                 t.map.put(actualRetVar, edges);
             }
         }*/
+        if (cache) {
+            t.stamp();
+            ComposeCache.put(thisStamp, 0, paramsToArgs, newInstance(t));
+        }
         return t;
     }
     
+    public ITransformer renumber(TIntIntHashMap symbols, TIntIntHashMap states) {
+        Transformer t = newInstance();
+        IntObjectCursor<TLongHashSet> c = IntObjectCursor.open(map);
+        LongCursor ec = LongCursor.open();
+        boolean complete = true;
+        while (complete && c.next()) {
+            int o = c.key();
+            if (!symbols.containsKey(o)) {
+                complete = false;
+            }
+            else {
+                TLongHashSet edges = c.value();
+                TLongHashSet newEdges = newSet(edges.size());
+                ec.reset(edges);
+                while (complete && ec.next()) {
+                    long te = ec.value();
+                    if (TransformerEdgeFactory.canRenumberEdge(te, symbols, states)) {
+                        newEdges.add(TransformerEdgeFactory.renumberEdge(te, symbols, states));
+                    }
+                    else {
+                        complete = false;
+                    }
+                }
+                t.map.put(symbols.get(o), newEdges);
+            }
+        }
+        ec.close();
+        c.close();
+        return complete ? t : null;
+    }
+    
 //    public int edgeCount() {
 //        int count = 0;
 //        for (Set<TransformerEdge> edges : map.values()) {
@@ -1621,26 +1747,26 @@ public class Transformer implements Cloneable, Serializable, ITransformer {
      * @see lg.analysis.paths.transformer.TransformerInterface#getAccessesNfa()
      */
     public Automaton getAccessesNfa() {
-        final Automaton nfa = new Automaton(startState);
+        Automaton nfa = new Automaton(startState);
         TLongHashSet accesses = map.get(capitalLambda);
         if (accesses != null) {
-            accesses.forEach(new TLongProcedure() {
-                public boolean execute(long te) {
-                    // convert transformer edge into automaton transition
-                    if (TransformerEdgeFactory.isKill(te)) {
-                        return true; // skip kill edges (will be present if compacting summaries)
-                    }
-                    State src = TransformerEdgeFactory.getSrcState(te);
-                    State dst = TransformerEdgeFactory.getDstState(te);
-                    int d = TransformerEdgeFactory.getD(te);
-                    Object lbl = SymbolNumberer.getObject(d);
-                    if (lbl != null) {
-                        boolean write = TransformerEdgeFactory.isWrite(te);
-                        nfa.addTransition(new Transition(src, dst, lbl, write));
-                    }
-                    return true;
+            LongCursor c = LongCursor.open(accesses);
+            while (c.next()) {
+                long te = c.value();
+                // convert transformer edge into automaton transition
+                if (TransformerEdgeFactory.isKill(te)) {
+                    continue; // skip kill edges (will be present if compacting summaries)
                 }
-            });
+                State src = TransformerEdgeFactory.getSrcState(te);
+                State dst = TransformerEdgeFactory.getDstState(te);
+                int d = TransformerEdgeFactory.getD(te);
+                Object lbl = SymbolNumberer.getObject(d);
+                if (lbl != null) {
+                    boolean write = TransformerEdgeFactory.isWrite(te);
+                    nfa.addTransition(new Transition(src, dst, lbl, write));
+                }
+            }
+            c.close();
             
 //            for (TransformerEdge te : accesses) {
 //                long fn = te.getJumpFunction();
@@ -1657,6 +1783,11 @@ public class Transformer implements Cloneable, Serializable, ITransformer {
         return nfa;
     }
 
+    // the accesses NFA without State or Transition objects
+    public CompactAutomaton getCompactAccessesNfa() {
+        return CompactAutomaton.fromEdges(map.get(capitalLambda));
+    }
+
     /* (non-Javadoc)
      * @see lg.analysis.paths.transformer.TransformerInterface#removeDeadEdges()
      */
@@ -1664,45 +1795,48 @@ public class Transformer implements Cloneable, Serializable, ITransformer {
         if (!AtomicTransformer.COMPACT_SUMMARIES) {
             cleanup2(this);  // breaks two-level set implementation
         }
-        Automaton nfa = getAccessesNfa();
-        final Set<State> reachables = nfa.cleanup();
+        CompactAutomaton nfa = getCompactAccessesNfa();
+        nfa.cleanup();
 
         TLongHashSet accessEdges = newSet(nfa.size());
-        for (Set<Transition> tns : nfa.getTransitions()) {
-            for (Transition tn : tns) {
-                accessEdges.add(TransformerEdgeFactory.newAccessEdge(tn.getSrc(), tn.getDst(), tn.isWrite(), (Numberable)tn.getLbl()));
+        for (int s=0; s<nfa.stateCount(); s++) {
+            int src = nfa.stateNumber(s);
+            for (int tn=nfa.first(s); tn<nfa.end(s); tn++) {
+                accessEdges.add(TransformerEdgeFactory.newAccessEdge(src, nfa.stateNumber(nfa.dst(tn)), nfa.isWrite(tn), nfa.lbl(tn)));
             }
         }
             
-        final Transformer result = newInstance();
+        Transformer result = newInstance();
         result.map.put(capitalLambda, accessEdges);
 
-        map.forEachEntry(new TIntObjectProcedure<TLongHashSet>() {
-            public boolean execute(int d, TLongHashSet dEdges) {
-                if (d != capitalLambda) {
-                    final TLongHashSet newEdges = newSet(dEdges.size());
-                    dEdges.forEach(new TLongProcedure() {
-                        public boolean execute(long dEdge) {
-                            if (!TransformerEdgeFactory.isId(dEdge) && !TransformerEdgeFactory.isKill(dEdge)) { // i.e. store or load edge (accesses already dealt with above)
-                                State n = TransformerEdgeFactory.getSrcState(dEdge); // store edge will always go through because src state is nfa 'start' which is reachable (but don't have a way of uniquely identifying loads as there is no need elsewhere)
-                                if (reachables.contains(n)) {
-                                    newEdges.add(dEdge);
-                                }
-                            }
-                            else {
-                                newEdges.add(dEdge);
-                            }
-                            return true;
+        IntObjectCursor<TLongHashSet> c = IntObjectCursor.open(map);
+        LongCursor ec = LongCursor.open();
+        while (c.next()) {
+            int d = c.key();
+            if (d != capitalLambda) {
+                TLongHashSet dEdges = c.value();
+                TLongHashSet newEdges = newSet(dEdges.size());
+                ec.reset(dEdges);
+                while (ec.next()) {
+                    long dEdge = ec.value();
+                    if (!TransformerEdgeFactory.isId(dEdge) && !TransformerEdgeFactory.isKill(dEdge)) { // i.e. store or load edge (accesses already dealt with above)
+                        int n = TransformerEdgeFactory.getSrcNumber(dEdge); // store edge will always go through because src state is nfa 'start' which is reachable (but don't have a way of uniquely identifying loads as there is no need elsewhere)
+                        if (nfa.hasStateNumber(n)) {
+                            newEdges.add(dEdge);
                         }
-                    });
-                    if (!newEdges.isEmpty()) {
-//                        newEdges.compact();
-                        result.map.put(d, newEdges);
                     }
+                    else {
+                        newEdges.add(dEdge);
+                    }
+                }
+                if (!newEdges.isEmpty()) {
+//                    newEdges.compact();
+                    result.map.put(d, newEdges);
                 }
-                return true;
             }
-        });
+        }
+        ec.close();
+        c.close();
 //        for (Object d : map.keySet()) {
 //            if (d != capitalLambda) {
 //                Set<TransformerEdge> dEdges = map.get(d);
@@ -1866,22 +2000,22 @@ public class Transformer implements Cloneable, Serializable, ITransformer {
      */
     public int countLocalAccesses() {
         TLongHashSet accesses = map.get(capitalLambda);
-        final IntWrapper localCount = new IntWrapper();
+        int localCount = 0;
         if (accesses != null) {
-            accesses.forEach(new TLongProcedure() {
-                public boolean execute(long e) {
-                    if (!TransformerEdgeFactory.isKill(e)) {
-                        int d = TransformerEdgeFactory.getD(e);
-                        Object o = SymbolNumberer.getObject(d);
-                        if (o instanceof Local) {
-                            localCount.add(1);
-                        }
+            LongCursor c = LongCursor.open(accesses);
+            while (c.next()) {
+                long e = c.value();
+                if (!TransformerEdgeFactory.isKill(e)) {
+                    int d = TransformerEdgeFactory.getD(e);
+                    Object o = SymbolNumberer.getObject(d);
+                    if (o instanceof Local) {
+                        localCount++;
                     }
-                    return true;
                 }
-            });
+            }
+            c.close();
         }
-        return localCount.get();
+        return localCount;
     }
 
     
@@ -1890,20 +2024,19 @@ public class Transformer implements Cloneable, Serializable, ITransformer {
      */
     public int countLocalAccesses(Local x) {
         TLongHashSet accesses = map.get(capitalLambda);
-        final int xNum = SymbolNumberer.getNumber(x);
-        final IntWrapper localCount = new IntWrapper();
+        int xNum = SymbolNumberer.getNumber(x);
+        int localCount = 0;
         if (accesses != null) {
-            accesses.forEach(new TLongProcedure() {
-                public boolean execute(long e) {
-                    int d = TransformerEdgeFactory.getD(e); 
-                    if (d == xNum) {
-                        localCount.add(1);
-                    }
-                    return true;
+            LongCursor c = LongCursor.open(accesses);
+            while (c.next()) {
+                int d = TransformerEdgeFactory.getD(c.value()); 
+                if (d == xNum) {
+                    localCount++;
                 }
-            });
+            }
+            c.close();
         }
-        return localCount.get();
+        return localCount;
     }
 //    
 //    public int countLoads() {
@@ -1962,6 +2095,28 @@ public class Transformer implements Cloneable, Serializable, ITransformer {
         return new Transformer(t);
     }
     
+    // Read-only copy with the edges in a FrozenEdgeMap, for summaries that
+    // won't be updated again. It can be composed with, copied and saved,
+    // but any update in place throws UnsupportedOperationException.
+    public Transformer freeze() {
+        if (isFrozen()) {
+            return this;
+        }
+        Transformer t = newInstance();
+        t.map = FrozenEdgeMap.freeze(map);
+        t.stamp = stamp;
+        return t;
+    }
+    
+    public boolean isFrozen() {
+        return map instanceof FrozenEdgeMap;
+    }
+    
+    // bytes taken by the edges of a frozen transformer, 0 otherwise
+    public long frozenBytes() {
+        return isFrozen() ? ((FrozenEdgeMap)map).bytes() : 0;
+    }
+    
 //    public Set<TransformerEdge> getEdges(String fieldSig) {
 //        for (Object o : map.keySet()) {
 //            if(o instanceof SootField) {
@@ -2002,27 +2157,86 @@ public class Transformer implements Cloneable, Serializable, ITransformer {
      * @see lg.analysis.paths.transformer.TransformerInterface#newSet(int)
      */
     public TLongHashSet newSet(int size) {
+        if (AtomicTransformer.SORTED_EDGE_SETS) {
+            return new SortedLongArraySet(size);
+        }
         return new TLongHashSet(size, 0.9f);
     }
     
+    // copy of edges, of the kind chosen by the edge-sets option
+    public TLongHashSet copySet(TLongHashSet edges) {
+        if (AtomicTransformer.SORTED_EDGE_SETS) {
+            return new SortedLongArraySet(edges);
+        }
+        return new TLongHashSet(edges);
+    }
+    
+    // copy of edges that won't be updated in place: with share-edge-sets
+    // this is the interned (shared) set, otherwise as copySet
+    public TLongHashSet shareSet(TLongHashSet edges) {
+        if (AtomicTransformer.SHARE_EDGE_SETS) {
+            return ImmutableLongSet.intern(edges);
+        }
+        return copySet(edges);
+    }
+    
+    // stamp identifying this transformer's current edges
+    protected final long stamp() {
+        long s = stamp;
+        if (s == 0) {
+            s = stamps.incrementAndGet();
+            stamp = s;
+        }
+        return s;
+    }
+    
+    // to be called by every update in place
+    protected final void modified() {
+        stamp = 0;
+    }
+    
+    // are edges (the edges of o in m) possibly shared with another transformer,
+    // i.e. interned or in a persistent map shared with a snapshot?
+    protected static final boolean isShared(TIntObjectHashMap<TLongHashSet> m, int o, TLongHashSet edges) {
+        return edges instanceof ImmutableLongSet || (m instanceof PersistentIntObjectMap && !((PersistentIntObjectMap<TLongHashSet>)m).owns(o));
+    }
+    
+    // edges (the edges of o in m), copied first if they are shared.
+    // Must be used before updating edges taken from a map in place.
+    protected final TLongHashSet mutableEdges(TIntObjectHashMap<TLongHashSet> m, int o, TLongHashSet edges) {
+        if (isShared(m, o, edges)) {
+            edges = copySet(edges);
+            m.put(o, edges);
+        }
+        return edges;
+    }
+    
+    // edges = edges U tEdges. Sorted sets are merged.
+    protected final void addEdges(TLongHashSet edges, TLongHashSet tEdges) {
+        if (edges instanceof SortedLongArraySet) {
+            edges.addAll(tEdges);
+        }
+        else {
+            LongCursor c = LongCursor.open(tEdges);
+            while (c.next()) {
+                edges.add(c.value());
+            }
+            c.close();
+        }
+    }
+    
     /* (non-Javadoc)
      * @see lg.analysis.paths.transformer.TransformerInterface#newSetFast(java.util.Set)
      */
     
     /*
     public TLongHashSet getEdges() {
-        final TLongHashSet edges = newSet();
-        map.forEachValue(new TObjectProcedure<TLongHashSet>() {
-            public boolean execute(TLongHashSet v) {
-                v.forEach(new TLongProcedure() {
-                    public boolean execute(long e) {
-                        edges.add(e);
-                        return true;
-                    }
-                });
-                return true;
-            }
-        });
+        TLongHashSet edges = newSet();
+        IntObjectCursor<TLongHashSet> c = IntObjectCursor.open(map);
+        while (c.next()) {
+            edges.addAll(c.value());
+        }
+        c.close();
         return edges;        
 //        Set<TransformerEdge> edges = newSet();
 //        for (Set<TransformerEdge> v : map.values()) {
@@ -2048,11 +2262,15 @@ public class Transformer implements Cloneable, Serializable, ITransformer {
 //    }
     
     protected final void addEdge(int d, long e) {
+        modified();
         TLongHashSet edges = map.get(d);
         if (edges == null) {
             edges = newSet(10);
             map.put(d, edges);
         }
+        else {
+            edges = mutableEdges(map, d, edges);
+        }
         edges.add(e);
     }
     
@@ -2060,24 +2278,13 @@ public class Transformer implements Cloneable, Serializable, ITransformer {
      * @see lg.analysis.paths.transformer.TransformerInterface#size()
      */
     public int size() {
-        final IntWrapper i = new IntWrapper();
-        map.forEachValue(new TObjectProcedure<TLongHashSet>() {
-            public boolean execute(TLongHashSet v) {
-                i.add(v.size());
-                return true;
-            }
-        });
-        return i.get();
-    }
-    
-    private class IntWrapper {
-        int value = 0;
-        public int get() {
-            return value;
-        }
-        public void add(int inc) {
-            value += inc;
+        int size = 0;
+        IntObjectCursor<TLongHashSet> c = IntObjectCursor.open(map);
+        while (c.next()) {
+            size += c.value().size();
         }
+        c.close();
+        return size;
     }
 
     @Override
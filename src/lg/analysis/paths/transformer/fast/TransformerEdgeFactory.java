@@ -26,6 +26,7 @@
 
 package lg.analysis.paths.transformer.fast;
 
+import gnu.trove.map.hash.TIntIntHashMap;
 import lg.analysis.paths.transformer.state.*;
 import lg.util.*;
 import soot.Scene;
@@ -34,12 +35,76 @@ import soot.util.*;
 
 public class TransformerEdgeFactory {
 
+    // Edge layout, from the most significant bit: access bit, write bit,
+    // src state, dst state, symbol (d). The two state fields and the symbol
+    // field share the remaining 62 bits: by default 21 bits per state and 20
+    // for the symbol. Wider symbol fields (narrower state fields) are chosen
+    // by setLayout/chooseLayout, before any edge is created.
+    public static final int DEFAULT_SYMBOL_BITS = 20;
+    public static final int MAX_SYMBOL_BITS = 28;
+    
+    private static int symbolBits;
+    private static int stateBits;
+    private static int srcShift;
+    private static long symbolMask;
+    private static long stateMask;
+    
     public static final int INITIAL_STATE_COUNTER = 1; // 0 is reserved to allow passing on values by using bit-wise OR (|)
-    public static final long START_STATE = 2097151; // 2^21 - 1 (i.e. all 1's in src state field)
+    public static long START_STATE; // all 1's in src state field
     private static final long KILL_EDGE = -1L;
     
-    private static final long CLEAR_SRC_D = 0xC00001FFFFF00000L;
-    private static final long CLEAR_D = 0xFFFFFFFFFFF00000L;
+    private static long CLEAR_SRC_D; // keeps access, write and dst
+    private static long CLEAR_D;
+    
+    static {
+        setLayout(DEFAULT_SYMBOL_BITS);
+    }
+    
+    // pre: no edges have been created yet
+    public static void setLayout(int symbolBits) {
+        if (symbolBits < DEFAULT_SYMBOL_BITS || symbolBits > MAX_SYMBOL_BITS || symbolBits % 2 != 0) {
+            throw new IllegalArgumentException("symbol bits must be even and between " + DEFAULT_SYMBOL_BITS + " and " + MAX_SYMBOL_BITS + ": " + symbolBits);
+        }
+        TransformerEdgeFactory.symbolBits = symbolBits;
+        stateBits = (62 - symbolBits) / 2;
+        srcShift = symbolBits + stateBits;
+        symbolMask = (1L << symbolBits) - 1;
+        stateMask = (1L << stateBits) - 1;
+        START_STATE = stateMask;
+        CLEAR_SRC_D = 0xC000000000000000L | (stateMask << symbolBits);
+        CLEAR_D = ~symbolMask;
+    }
+    
+    // Chooses the narrowest symbol field that leaves headroom for the
+    // estimated numbers of symbols and states. Keeps the widest layout that
+    // fits the states if there is none.
+    public static void chooseLayout(long symbols, long states) {
+        int chosen = -1;
+        for (int bits=DEFAULT_SYMBOL_BITS; bits<=MAX_SYMBOL_BITS && chosen == -1; bits+=2) {
+            long maxSymbol = (1L << bits) - 1;
+            long maxState = (1L << ((62 - bits) / 2)) - 2; // excluding START_STATE
+            if (symbols <= maxSymbol - maxSymbol/4 && states <= maxState - maxState/4) {
+                chosen = bits;
+            }
+        }
+        if (chosen == -1) {
+            chosen = DEFAULT_SYMBOL_BITS;
+            for (int bits=DEFAULT_SYMBOL_BITS; bits<=MAX_SYMBOL_BITS; bits+=2) {
+                if (states <= (1L << ((62 - bits) / 2)) - 2) {
+                    chosen = bits;
+                }
+            }
+        }
+        setLayout(chosen);
+    }
+    
+    public static int getSymbolBits() {
+        return symbolBits;
+    }
+    
+    public static int getStateBits() {
+        return stateBits;
+    }
     
     public static final long newAccessEdge(State src, State dst, boolean write, Object d) {
         long srcNum = src.getNumber();
@@ -48,18 +113,26 @@ public class TransformerEdgeFactory {
         checkState(srcNum);
         checkState(dstNum);
         checkSymbol(dNum);
-        return 1L << 63 | (write ? 1L : 0L) << 62 | srcNum << 41 | dstNum << 20 | dNum; 
+        return 1L << 63 | (write ? 1L : 0L) << 62 | srcNum << srcShift | dstNum << symbolBits | dNum; 
+    }
+    
+    // as above, from state and symbol numbers
+    public static final long newAccessEdge(int src, int dst, boolean write, int d) {
+        checkState(src);
+        checkState(dst);
+        checkSymbol(d);
+        return 1L << 63 | (write ? 1L : 0L) << 62 | (long)src << srcShift | (long)dst << symbolBits | d;
     }
     
     private static void checkSymbol(long d) {
-        if (!(0 <= d && d <= 1048575)) {
-            throw new IllegalArgumentException("symbol " + d + " doesn't fit");
+        if (!(0 <= d && d <= symbolMask)) {
+            throw new IllegalArgumentException("symbol " + d + " doesn't fit in " + symbolBits + " bits");
         }
     }
 
     private static void checkState(long s) {
         if (!(0 <= s && s <= START_STATE)) {
-            throw new IllegalArgumentException("state " + s + " doesn't fit");
+            throw new IllegalArgumentException("state " + s + " doesn't fit in " + stateBits + " bits");
         }
     }
 
@@ -68,13 +141,13 @@ public class TransformerEdgeFactory {
         long dNum = SymbolNumberer.getNumber(d);
         checkState(srcNum);
         checkSymbol(dNum);
-        return srcNum << 41 | dNum;
+        return srcNum << srcShift | dNum;
     }
     
     public static final long newStoreEdge(Object d) {
         long dNum = SymbolNumberer.getNumber(d);
         checkSymbol(dNum);
-        return START_STATE << 41 | dNum;
+        return START_STATE << srcShift | dNum;
     }    
 
     public static final long newKillEdge() {
@@ -114,7 +187,7 @@ public class TransformerEdgeFactory {
     }
     
     public static final boolean isId(long e) {
-        return (e >> 20) == 0;
+        return (e >> symbolBits) == 0;
     }
     
     public static final boolean isKill(long e) {
@@ -152,11 +225,19 @@ public class TransformerEdgeFactory {
     }
     
     private static final long getSrc(long e) {
-        return (e & ~CLEAR_SRC_D) >> 41;
+        return (e & ~CLEAR_SRC_D) >> srcShift;
     }
     
     private static final long getDst(long e) {
-        return (e >>> 20) & 0x00000000001FFFFFL;
+        return (e >>> symbolBits) & stateMask;
+    }
+    
+    public static final int getSrcNumber(long e) {
+        return (int)getSrc(e);
+    }
+    
+    public static final int getDstNumber(long e) {
+        return (int)getDst(e);
     }
     
     public static final State getSrcState(long e) {
@@ -179,6 +260,35 @@ public class TransformerEdgeFactory {
         return (e & 0x4000000000000000L) > 0;
     }
     
+    // true if renumberEdge can map e's symbol and states. 0 (no state) and 
+    // START_STATE are never renumbered.
+    public static final boolean canRenumberEdge(long e, TIntIntHashMap symbols, TIntIntHashMap states) {
+        if (isKill(e)) {
+            return true;
+        }
+        long src = getSrc(e);
+        long dst = getDst(e);
+        return symbols.containsKey(getD(e))
+            && (src == 0 || src == START_STATE || states.containsKey((int)src))
+            && (dst == 0 || dst == START_STATE || states.containsKey((int)dst));
+    }
+    
+    // pre: canRenumberEdge(e, symbols, states)
+    public static final long renumberEdge(long e, TIntIntHashMap symbols, TIntIntHashMap states) {
+        if (isKill(e)) {
+            return e;
+        }
+        long src = getSrc(e);
+        long dst = getDst(e);
+        long srcNum = (src == 0 || src == START_STATE) ? src : states.get((int)src);
+        long dstNum = (dst == 0 || dst == START_STATE) ? dst : states.get((int)dst);
+        long dNum = symbols.get(getD(e));
+        checkState(srcNum);
+        checkState(dstNum);
+        checkSymbol(dNum);
+        return (e & 0xC000000000000000L) | srcNum << srcShift | dstNum << symbolBits | dNum; // keep access and write bits
+    }
+    
     // test harness
     public static void main(String[] args) {
         Jimple j = Jimple.v();
@@ -191,7 +301,7 @@ public class TransformerEdgeFactory {
         State s2 = new State();
         Numberable d = new Numberable() {
             public int getNumber() {
-                return 1048575;
+                return (int)symbolMask;
             }
             public void setNumber(int number) {
             }
@@ -249,7 +359,7 @@ public class TransformerEdgeFactory {
     }
     
     private static boolean isLoad(long e) {
-        return ((e & ~CLEAR_SRC_D) & CLEAR_D) >> 41 != START_STATE;
+        return ((e & ~CLEAR_SRC_D) & CLEAR_D) >> srcShift != START_STATE;
     }
     
     public static String toString(long e) {
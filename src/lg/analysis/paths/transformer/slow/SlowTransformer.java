@@ -1111,6 +1111,12 @@ public class SlowTransformer implements Cloneable, Serializable, ITransformer {
 //            map.remove(o);
 //    }
 
+    // not supported (incremental summaries require the fast transformers),
+    // null tells the caller to reanalyse instead
+    public ITransformer renumber(TIntIntHashMap symbols, TIntIntHashMap states) {
+        return null;
+    }
+
     // renames params in transformer to args, wrt the given mapping
     /* (non-Javadoc)
      * @see lg.analysis.paths.transformer.TransformerInterface#calleeToCallerContext(gnu.trove.map.hash.TIntIntHashMap)
@@ -46,4 +46,10 @@ public class StartState extends State {
         instance = s;
     }
     
+    // follows the edge layout, which may be chosen after this is created
+    @Override
+    public int getNumber() {
+        return (int)TransformerEdgeFactory.START_STATE;
+    }
+    
 }
@@ -27,6 +27,7 @@
 package lg.analysis.paths.transformer.state;
 
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import lg.analysis.paths.transformer.fast.TransformerEdgeFactory;
 
@@ -37,15 +38,36 @@ public class State implements Numberable, Serializable {
     
     private static final long serialVersionUID = -8076415227657336062L;
     
-    static int counter = TransformerEdgeFactory.INITIAL_STATE_COUNTER;
+    // numbers are handed out to each thread in blocks so that creating a
+    // state only touches the shared counter once every BLOCK_SIZE states
+    static final int BLOCK_SIZE = 64;
+    static final AtomicInteger counter = new AtomicInteger(TransformerEdgeFactory.INITIAL_STATE_COUNTER);
+    static final AtomicInteger generation = new AtomicInteger(0); // bumped by setCounterValue to discard blocks
+    static final ThreadLocal<int[]> block = new ThreadLocal<int[]>() { // next, end, generation
+        protected int[] initialValue() {
+            return new int[] { 0, 0, -1 };
+        }
+    };
+    
     int number;
     
     Stmt n;
     
     public State(Stmt nn) {
-        number = counter++;
+        number = nextNumber();
         n = nn;
     }
+    
+    private static int nextNumber() {
+        int[] b = block.get();
+        int gen = generation.get();
+        if (b[0] == b[1] || b[2] != gen) {
+            b[0] = counter.getAndAdd(BLOCK_SIZE);
+            b[1] = b[0] + BLOCK_SIZE;
+            b[2] = gen;
+        }
+        return b[0]++;
+    }
 
     public State() {
         this(null);
@@ -68,12 +90,15 @@ public class State implements Numberable, Serializable {
         return "" + n + " (" + number + ")";
     }
     
+    // upper bound on the numbers handed out so far (includes unused parts of
+    // threads' blocks)
     public static int getCounterValue() {
-        return counter;
+        return counter.get();
     }
     
     public static void setCounterValue(int c) {
-        counter = c;
+        counter.set(c);
+        generation.incrementAndGet();
     }
     
 }
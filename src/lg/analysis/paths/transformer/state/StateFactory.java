@@ -28,6 +28,8 @@ package lg.analysis.paths.transformer.state;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import lg.analysis.paths.transformer.fast.TransformerEdgeFactory;
 
@@ -35,25 +37,36 @@ import soot.jimple.Stmt;
 
 public class StateFactory {
 
-    static Map<Stmt,State> stmtToState = new ConcurrentHashMap<Stmt, State>();
-    static Map<Integer,State> numToState = new ConcurrentHashMap<Integer, State>();
+    static ConcurrentMap<Stmt,State> stmtToState = new ConcurrentHashMap<Stmt, State>();
+    
+    // numToState is split into lazily created chunks so that looking up a
+    // state (when decoding edges) is two array reads, without locking or
+    // boxing
+    static final int CHUNK_BITS = 12;
+    static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    static final int MAX_CHUNKS = 1024;
+    static AtomicReferenceArray<AtomicReferenceArray<State>> numToState = new AtomicReferenceArray<AtomicReferenceArray<State>>(MAX_CHUNKS);
     static Map<Set<State>,State> statesToState = new ConcurrentHashMap<Set<State>, State>();
     
     private StateFactory() { }
     
     // units in a method will be processed by the same thread
     // (later calls to this method will only access the the state and not
-    // cause one to be created).
+    // cause one to be created). If two threads do race, the loser's state
+    // is dropped and its number is never used.
     public static State v(Stmt n) {
         State s = stmtToState.get(n);
         if (s == null) {
-            synchronized(stmtToState) {
-                s = stmtToState.get(n);
-                if (s == null) {
-                    s = new State(n);
-                    stmtToState.put(n, s);
-                    numToState.put(s.getNumber(), s);
-                }
+            State newState = new State(n);
+            // registered first so that edges to s can be decoded as soon as 
+            // another thread can see s
+            register(newState);
+            s = stmtToState.putIfAbsent(n, newState);
+            if (s == null) {
+                s = newState;
+            }
+            else {
+                unregister(newState);
             }
         }
         return s;
@@ -64,7 +77,8 @@ public class StateFactory {
             return StartState.v();
         }
         else {
-            State s = numToState.get(i);
+            AtomicReferenceArray<State> chunk = i < 0 ? null : numToState.get(i >>> CHUNK_BITS);
+            State s = chunk == null ? null : chunk.get(i & (CHUNK_SIZE-1));
             if (s == null) {
                 throw new UnsupportedOperationException("state is null: " + i);
             }
@@ -72,6 +86,25 @@ public class StateFactory {
         }
     }
     
+    private static void register(State s) {
+        int i = s.getNumber();
+        int c = i >>> CHUNK_BITS;
+        if (c >= MAX_CHUNKS) {
+            throw new RuntimeException("Too many states: " + i);
+        }
+        AtomicReferenceArray<State> chunk = numToState.get(c);
+        if (chunk == null) {
+            numToState.compareAndSet(c, null, new AtomicReferenceArray<State>(CHUNK_SIZE));
+            chunk = numToState.get(c);
+        }
+        chunk.set(i & (CHUNK_SIZE-1), s);
+    }
+    
+    private static void unregister(State s) {
+        int i = s.getNumber();
+        numToState.get(i >>> CHUNK_BITS).set(i & (CHUNK_SIZE-1), null);
+    }
+    
     public static State v(Set<State> states) {
         State s = statesToState.get(states);
         if (s == null) {
@@ -92,12 +125,28 @@ public class StateFactory {
         stmtToState.clear();
     }
     
+    // snapshot, for serialisation
     public static Map<Integer, State> getNumToStateMap() {
-        return numToState;
+        Map<Integer,State> map = new HashMap<Integer, State>();
+        for (int c=0; c<MAX_CHUNKS; c++) {
+            AtomicReferenceArray<State> chunk = numToState.get(c);
+            if (chunk != null) {
+                for (int j=0; j<CHUNK_SIZE; j++) {
+                    State s = chunk.get(j);
+                    if (s != null) {
+                        map.put(s.getNumber(), s);
+                    }
+                }
+            }
+        }
+        return map;
     }
     
     public static void setNumToStateMap(Map<Integer, State> map) {
-        numToState = map;
+        numToState = new AtomicReferenceArray<AtomicReferenceArray<State>>(MAX_CHUNKS);
+        for (State s : map.values()) {
+            register(s);
+        }
     }
     
 }
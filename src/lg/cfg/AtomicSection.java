@@ -28,7 +28,7 @@ package lg.cfg;
 
 import java.util.*;
 
-import lg.cg.NonColdEdgesPred;
+import lg.cg.CallGraphIndex;
 
 import soot.*;
 import soot.jimple.Stmt;
@@ -275,21 +275,12 @@ public class AtomicSection extends ExceptionalUnitGraph {
     
     public Set<SootMethod> getCalledMethods() {
         Set<SootMethod> callees = new HashSet<SootMethod>();
-        CallGraph cg = Scene.v().getCallGraph();
-        NonColdEdgesPred edgesPred = new NonColdEdgesPred();
+        CallGraphIndex cgIndex = CallGraphIndex.v();
         for (Unit u : this) {
             if (u instanceof Stmt) {
                 Stmt s = (Stmt)u;
                 if (s.containsInvokeExpr()) {
-                    for (Iterator<Edge> edgesIt=cg.edgesOutOf(s); edgesIt.hasNext(); ) {
-                        Edge e = edgesIt.next();
-                        if (edgesPred.want(e)) {
-                            SootMethod tgt = e.getTgt().method();
-//                            if (tgt.isConcrete()) {
-                                callees.add(tgt);
-//                            }
-                        }
-                    }
+                    callees.addAll(cgIndex.getNonColdTargets(s));
                 }
             }
         }
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2013, Khilan Gudka.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package lg.cg;
+
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+import java.util.*;
+
+import soot.*;
+import soot.jimple.toolkits.callgraph.*;
+import soot.jimple.toolkits.thread.mhp.RunMethodsPred;
+import soot.util.queue.QueueReader;
+
+/**
+ * Compressed sparse row index of the call graph, built in one pass over its
+ * edges so that NonColdEdgesPred is evaluated once per edge rather than each
+ * time an edge is visited. Holds two adjacencies:
+ * 
+ *  - method number -> distinct target method numbers of edges wanted by
+ *    NonColdEdgesPred
+ *  - call site -> targets of edges wanted by NonColdEdgesPred or
+ *    RunMethodsPred (in call graph order), with a bit recording which of
+ *    them NonColdEdgesPred wants
+ *
+ * The index is immutable once built and may be read from any thread. It
+ * must be reset if the call graph changes.
+ */
+public class CallGraphIndex {
+
+    private static volatile CallGraphIndex instance;
+    
+    public static CallGraphIndex v() {
+        CallGraphIndex i = instance;
+        if (i == null) {
+            synchronized (CallGraphIndex.class) {
+                i = instance;
+                if (i == null) {
+                    i = new CallGraphIndex(Scene.v().getCallGraph());
+                    instance = i;
+                }
+            }
+        }
+        return i;
+    }
+    
+    public static synchronized void reset() {
+        instance = null;
+    }
+    
+    // indexed by method number
+    SootMethod[] methods;
+    int[] succsOffsets;
+    int[] succs;
+    
+    // call sites
+    TObjectIntHashMap<Unit> unitToSite;
+    int[] siteOffsets;
+    int[] siteTargets;
+    BitSet siteTargetsNonCold;
+    
+    private CallGraphIndex(CallGraph cg) {
+        EdgePredicate nonColdPred = new NonColdEdgesPred();
+        EdgePredicate runPred = new RunMethodsPred();
+        
+        // evaluate predicates once per edge
+        List<Edge> edges = new ArrayList<Edge>();
+        BitSet nonCold = new BitSet();
+        int maxNum = 0;
+        for (QueueReader<Edge> edgesIt = cg.listener(); edgesIt.hasNext(); ) {
+            Edge e = edgesIt.next();
+            boolean wanted = nonColdPred.want(e);
+            if (wanted || runPred.want(e)) {
+                if (wanted) {
+                    nonCold.set(edges.size());
+                }
+                edges.add(e);
+                maxNum = Math.max(maxNum, Math.max(e.src().getNumber(), e.tgt().getNumber()));
+            }
+        }
+        
+        // method level
+        methods = new SootMethod[maxNum+1];
+        succsOffsets = new int[maxNum+2];
+        for (int i = nonCold.nextSetBit(0); i >= 0; i = nonCold.nextSetBit(i+1)) {
+            succsOffsets[edges.get(i).src().getNumber()+1]++;
+        }
+        for (int i=0; i<=maxNum; i++) {
+            succsOffsets[i+1] += succsOffsets[i];
+        }
+        int[] fill = Arrays.copyOf(succsOffsets, maxNum+1);
+        int[] allSuccs = new int[succsOffsets[maxNum+1]];
+        for (int i=0; i<edges.size(); i++) {
+            Edge e = edges.get(i);
+            SootMethod src = e.src();
+            SootMethod tgt = e.tgt();
+            methods[src.getNumber()] = src;
+            methods[tgt.getNumber()] = tgt;
+            if (nonCold.get(i)) {
+                allSuccs[fill[src.getNumber()]++] = tgt.getNumber();
+            }
+        }
+        
+        // remove duplicate targets (e.g. from different call sites)
+        succs = new int[allSuccs.length];
+        int next = 0;
+        for (int m=0; m<=maxNum; m++) {
+            int start = succsOffsets[m];
+            int end = succsOffsets[m+1];
+            succsOffsets[m] = next;
+            Arrays.sort(allSuccs, start, end);
+            for (int i=start; i<end; i++) {
+                if (i == start || allSuccs[i] != allSuccs[i-1]) {
+                    succs[next++] = allSuccs[i];
+                }
+            }
+        }
+        succsOffsets[maxNum+1] = next;
+        succs = Arrays.copyOf(succs, next);
+        
+        // call site level
+        unitToSite = new TObjectIntHashMap<Unit>(edges.size(), 0.5f, -1);
+        List<Unit> sites = new ArrayList<Unit>();
+        int[] edgeToSite = new int[edges.size()];
+        for (int i=0; i<edges.size(); i++) {
+            Unit u = edges.get(i).srcUnit();
+            if (u == null) {
+                edgeToSite[i] = -1;
+                continue;
+            }
+            int site = unitToSite.get(u);
+            if (site == -1) {
+                site = sites.size();
+                unitToSite.put(u, site);
+                sites.add(u);
+            }
+            edgeToSite[i] = site;
+        }
+        siteOffsets = new int[sites.size()+1];
+        for (int i=0; i<edges.size(); i++) {
+            if (edgeToSite[i] != -1) {
+                siteOffsets[edgeToSite[i]+1]++;
+            }
+        }
+        for (int i=0; i<sites.size(); i++) {
+            siteOffsets[i+1] += siteOffsets[i];
+        }
+        fill = Arrays.copyOf(siteOffsets, sites.size());
+        siteTargets = new int[siteOffsets[sites.size()]];
+        siteTargetsNonCold = new BitSet(siteTargets.length);
+        for (int i=0; i<edges.size(); i++) {
+            int site = edgeToSite[i];
+            if (site != -1) {
+                int pos = fill[site]++;
+                siteTargets[pos] = edges.get(i).tgt().getNumber();
+                if (nonCold.get(i)) {
+                    siteTargetsNonCold.set(pos);
+                }
+            }
+        }
+    }
+    
+    public SootMethod getMethod(int num) {
+        return methods[num];
+    }
+    
+    public int getMethodCount() {
+        return methods.length;
+    }
+    
+    // succs of method number m are getSucc(i) for
+    // getSuccsStart(m) <= i < getSuccsEnd(m)
+    public int getSuccsStart(int m) {
+        return m < methods.length ? succsOffsets[m] : 0;
+    }
+    
+    public int getSuccsEnd(int m) {
+        return m < methods.length ? succsOffsets[m+1] : 0;
+    }
+    
+    public int getSucc(int i) {
+        return succs[i];
+    }
+    
+    // returns -1 if u has no wanted edges out of it
+    public int getCallSite(Unit u) {
+        return unitToSite.get(u);
+    }
+    
+    // targets of call site s are getTarget(i) for
+    // getTargetsStart(s) <= i < getTargetsEnd(s)
+    public int getTargetsStart(int s) {
+        return s == -1 ? 0 : siteOffsets[s];
+    }
+    
+    public int getTargetsEnd(int s) {
+        return s == -1 ? 0 : siteOffsets[s+1];
+    }
+    
+    public SootMethod getTarget(int i) {
+        return methods[siteTargets[i]];
+    }
+    
+    // whether the edge to target i is wanted by NonColdEdgesPred, otherwise
+    // it is only wanted by RunMethodsPred
+    public boolean isNonCold(int i) {
+        return siteTargetsNonCold.get(i);
+    }
+    
+    public List<SootMethod> getNonColdTargets(Unit u) {
+        int s = getCallSite(u);
+        List<SootMethod> targets = new ArrayList<SootMethod>();
+        for (int i=getTargetsStart(s); i<getTargetsEnd(s); i++) {
+            if (isNonCold(i)) {
+                targets.add(getTarget(i));
+            }
+        }
+        return targets;
+    }
+    
+}
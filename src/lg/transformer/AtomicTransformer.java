@@ -30,16 +30,21 @@ import java.io.*;
 import java.util.*;
 import java.util.concurrent.*;
 
+import lg.analysis.PointsToQueries;
 import lg.analysis.VMMethodMarker;
 import lg.analysis.local.*;
 import lg.analysis.locks.*;
 import lg.analysis.locks.dominators.LockDominatorsAnalysis;
 import lg.analysis.paths.*;
 import lg.analysis.paths.automata.Automaton;
+import lg.analysis.paths.automata.CompactAutomaton;
 import lg.analysis.paths.transformer.ITransformer;
+import lg.analysis.paths.transformer.fast.ComposeCache;
 import lg.analysis.paths.transformer.fast.Transformer;
+import lg.analysis.paths.transformer.fast.TransformerEdgeFactory;
 import lg.analysis.paths.transformer.state.*;
 import lg.cfg.*;
+import lg.cg.CallGraphIndex;
 import lg.util.*;
 import soot.*;
 import soot.jimple.*;
@@ -103,6 +108,25 @@ public class AtomicTransformer extends SceneTransformer {
     public static boolean MANUAL_LOCKS = false;
     public static boolean IGNORE_UNREACHABLE_ATOMICS = false;
     public static boolean SLOW_TRANSFORMERS = false;
+    public static boolean SORTED_EDGE_SETS = false;
+    public static boolean SHARE_EDGE_SETS = false;
+    public static boolean PERSISTENT_MAPS = false;
+    public static boolean RECYCLE_LOCALS = true;
+    public static int COMPOSE_CACHE = 0; // entries, 0: no cache
+    public static boolean FREEZE_SUMMARIES = true;
+    public static boolean MINIMISE_NFA = true;
+    public static int SYMBOL_BITS = 0; // 0: chosen automatically
+    public static boolean PARALLEL_COMPONENTS = false;
+    public static ExecutorService COMPONENT_POOL = null;
+    public static boolean PARALLEL_ATOMICS = false;
+    public static ExecutorService ATOMIC_POOL = null;
+    private static final Object LOCK_INFERENCE_LOCK = new Object();
+    
+    // condensation of the call graph reachable from all atomics, each
+    // atomic selects the part reachable from its own called methods
+    private StronglyConnectedComponentsDAG callGraphDag;
+    public static String INCREMENTAL = null;
+    public static boolean WORK_STEALING = false;
     
     @Override
 	protected void internalTransform(String phaseName, Map options) {
@@ -161,6 +185,38 @@ public class AtomicTransformer extends SceneTransformer {
 		MANUAL_LOCKS = Boolean.parseBoolean((String)options.get("manual-locks"));
 		IGNORE_UNREACHABLE_ATOMICS = Boolean.parseBoolean((String)options.get("ignore-unreachable-atomics"));
 		SLOW_TRANSFORMERS = Boolean.parseBoolean((String)options.get("slow-transformers"));
+		String edgeSets = (String)options.get("edge-sets");
+		if (!"hash".equals(edgeSets) && !"sorted".equals(edgeSets)) {
+		    throw new RuntimeException("edge-sets must be hash or sorted: " + edgeSets);
+		}
+		SORTED_EDGE_SETS = "sorted".equals(edgeSets);
+		SHARE_EDGE_SETS = Boolean.parseBoolean((String)options.get("share-edge-sets"));
+		PERSISTENT_MAPS = Boolean.parseBoolean((String)options.get("persistent-maps"));
+		RECYCLE_LOCALS = Boolean.parseBoolean((String)options.get("recycle-locals"));
+		COMPOSE_CACHE = Integer.parseInt((String)options.get("compose-cache"));
+		FREEZE_SUMMARIES = Boolean.parseBoolean((String)options.get("freeze-summaries"));
+		MINIMISE_NFA = Boolean.parseBoolean((String)options.get("minimise-nfa"));
+		String symbolBits = (String)options.get("symbol-bits");
+		SYMBOL_BITS = "auto".equals(symbolBits) ? 0 : Integer.parseInt(symbolBits);
+		PARALLEL_COMPONENTS = Boolean.parseBoolean((String)options.get("parallel-components"));
+		// separate pool for component workers as they themselves submit to POOL
+		if (PARALLEL_COMPONENTS) {
+		    COMPONENT_POOL = new MyThreadPoolExecutor(THREADS, THREADS, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+		}
+		PARALLEL_ATOMICS = Boolean.parseBoolean((String)options.get("parallel-atomics"));
+		INCREMENTAL = (String)options.get("incremental");
+		if ("null".equals(INCREMENTAL)) {
+		    INCREMENTAL = null;
+		}
+		// saved summaries are renumbered on reuse, which only the fast
+		// transformers support
+		if (INCREMENTAL != null && SLOW_TRANSFORMERS) {
+		    throw new RuntimeException("incremental:" + INCREMENTAL + " cannot be used with slow-transformers:true");
+		}
+		if (PARALLEL_ATOMICS) {
+		    ATOMIC_POOL = new MyThreadPoolExecutor(THREADS, THREADS, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+		}
+		WORK_STEALING = Boolean.parseBoolean((String)options.get("work-stealing"));
 		
 		Logger.println("");
 		Logger.println("Running with options " + options);
@@ -172,6 +228,14 @@ public class AtomicTransformer extends SceneTransformer {
 		// mark VM-specific methods
         VMMethodMarker.markMethods();
         
+        // index wanted call graph edges (must come after marking VM methods)
+        PhaseStats.begin("index-call-graph");
+        long startIndex = System.currentTimeMillis();
+        CallGraphIndex.reset();
+        CallGraphIndex.v();
+        Logger.println("Indexed call graph in " + (System.currentTimeMillis() - startIndex) + "ms");
+        
+        PhaseStats.begin("find-atomics");
 	    AtomicsFinder atomicFinder = new AtomicsFinder();
 	    List<AtomicSection> atomics = atomicFinder.findAtomics();
 	    
@@ -185,11 +249,30 @@ public class AtomicTransformer extends SceneTransformer {
 	        Logger.println(" " + (a.isReachable() ? "** " : "") + a.getId() + " in " + a.getEnclosingUnitGraph().getBody().getMethod());
 	    }
 
+        PhaseStats.begin("condense-call-graph");
+        long startCondensation = System.currentTimeMillis();
+        Set<SootMethod> calledMethods = new HashSet<SootMethod>();
+        for (AtomicSection a : atomics) {
+            calledMethods.addAll(a.getCalledMethods());
+        }
+        callGraphDag = new StronglyConnectedComponentsDAG(new StronglyConnectedComponents(calledMethods));
+        Logger.println("Call graph condensed into " + callGraphDag.getComponents().size() + " components in " + (System.currentTimeMillis() - startCondensation) + "ms");
+        
+        // before any transformer edges are created
+        chooseEdgeLayout(calledMethods);
+
         outputClientLibStats(atomics);
 	    
         if (CLIENT_LIB_STATS_ONLY) {
+            PhaseStats.end();
             stopMemoryMonitor();
             POOL.shutdown();
+            if (COMPONENT_POOL != null) {
+                COMPONENT_POOL.shutdown();
+            }
+            if (ATOMIC_POOL != null) {
+                ATOMIC_POOL.shutdown();
+            }
             return;
         }
         
@@ -219,6 +302,7 @@ public class AtomicTransformer extends SceneTransformer {
 	    
         Map<AtomicSection,LockSet> atomicToLocks = new HashMap<AtomicSection, LockSet>();
         
+        PhaseStats.begin("local-analyses");
         ThreadLocalAnalysis tla = null;
         if (AtomicTransformer.THREAD_LOCAL) {
             long startThreadLocal = System.currentTimeMillis();
@@ -246,139 +330,95 @@ public class AtomicTransformer extends SceneTransformer {
             AnalysisTimer.addForClassLocalAnalysis(classLocalTook);
         }
         
+        if (INCREMENTAL != null) {
+            IncrementalSummaries.load(INCREMENTAL);
+        }
+        
+        // sequentially, each atomic switches between the paths-analysis and
+        // lock-inference phases. Concurrently, paths-analysis covers them all
+        // and lock-inference is the time summed over atomics
+        PhaseStats.begin("paths-analysis");
         int atomicsDone = 0;
-	    for (AtomicSection a : atomics) {
-	        
-	        Set<Component> components = new HashSet<Component>();
-	        
-	        // find all components
-	        for (SootMethod m : a.getCalledMethods()) {
-	            StronglyConnectedComponents scc = new StronglyConnectedComponents(m);
-	            components.addAll(scc.getComponents());
-	        }
-
-	        if (METHOD_LIST) {
-	            for (Component c : components) {
-	                for (SootMethod m : c) {
-	                    methodListFile.println(m.toString());
-	                }
-	            }
-	            continue;
-	        }
-	        
-	        Logger.println(components.size() + " components found");
-
-	        int largestComponent = 0;
-	        int numMethods = 0;
-	        for (Component c : components) {
-	            numMethods += c.size();
-	            largestComponent = Math.max(c.size(), largestComponent);
-	        }
-	        
-            Logger.println("\n");
-            Logger.println("==============================================================");
-            Logger.println("Atomic " + ++atomicsDone + " of " + atomics.size() + ": " + a.getId(), ANSICode.FG_MAGENTA);
-            Logger.println("Enclosing method: " + a.getBody().getMethod());
-            Logger.println("Largest component size: " + largestComponent);
-            Logger.println("Total number of methods: " + numMethods);
-            Logger.println("==============================================================");
-            
-            if (GLOBAL_LOCK) {
-                // use a write type lock on java.lang.Object for the global lock
-                LockSet locks = new LockSet();
-                Type lockedType = RefType.v("java.lang.Object");
-                TypeLock tl = new TypeLock(lockedType, true, false, false, false, false);
-                locks.add(tl);
-                atomicToLocks.put(a, locks);
-                
-                if (LOCKS_PRINT) {
-                    locks.print();
-                }
+        if (PARALLEL_ATOMICS) {
+            // analyse atomics concurrently, but gather their locks in
+            // program order so that atomicToLocks is built deterministically.
+            // Each task's log and file output is buffered and written out in
+            // the same order, so that atomics don't interleave.
+            final ThreadLocalAnalysis tlaF = tla;
+            final InstanceLocalAnalysisTransformer ilaF = ila;
+            final ClassLocalAnalysisTransformer claF = cla;
+            final int numAtomics = atomics.size();
+            final AtomicOutput[] outputs = new AtomicOutput[numAtomics];
+            List<Callable<LockSet>> tasks = new ArrayList<Callable<LockSet>>();
+            for (int i=0; i<numAtomics; i++) {
+                final AtomicSection a = atomics.get(i);
+                final int atomicNum = i+1;
+                final AtomicOutput output = outputs[i] = new AtomicOutput();
+                tasks.add(new Callable<LockSet>() {
+                    public LockSet call() {
+                        Logger.buffer();
+                        try {
+                            return analyseAtomic(a, atomicNum, numAtomics, tlaF, ilaF, claF, output.pathTimes, output.lockTimes, output.methodList);
+                        }
+                        finally {
+                            output.log = Logger.unbuffer();
+                        }
+                    }
+                });
             }
-            else if (MANUAL_LOCKS) {
-                // use a write type lock on the monitor local
-                LockSet locks = new LockSet();
-                Local monitorLocal = a.getMonitorLocal();
-                PathLock pl = new PathLock(null, new LocalLookup(monitorLocal, null), true, false, false, null, false, false, false, false, false, false);
-                locks.add(pl);
-                atomicToLocks.put(a, locks);
-
-                if (LOCKS_PRINT) {
-                    locks.print();
-                }
+            List<Future<LockSet>> results;
+            try {
+                results = ATOMIC_POOL.invokeAll(tasks);
             }
-            else {
-                long startPathsAnalysis = System.currentTimeMillis();
-    
-                StronglyConnectedComponentsDAG sccDag = new StronglyConnectedComponentsDAG(components);
-                PathsAnalysis p = new PathsAnalysis(a, components, sccDag);
-                p.doAnalysis();
-                ITransformer atomicSummary = p.getAtomicSummary();
-                Logger.println("Atomic's summary has " + atomicSummary.size() + " edges");
-                    
-                long pathsAnalysisTook = System.currentTimeMillis() - startPathsAnalysis;
-                AnalysisTimer.addForPathsAnalysis(pathsAnalysisTook);
-                
-                Date pathsAnalysisTookDate = new Date(pathsAnalysisTook);
-                Logger.println("Paths took: " + String.format("%2d:%2d:%2d", pathsAnalysisTookDate.getHours(), pathsAnalysisTookDate.getMinutes(), pathsAnalysisTookDate.getSeconds()));
-                
-                SootMethod m = a.getBody().getMethod();
-                pathTimesFile.println((LIBRARY ? m.toString() : a.getId()) + "," + pathsAnalysisTook);
-                
-                if (AtomicTransformer.LOCKS) {
-                    Logger.println("");
-                    Logger.println("Locks:", ANSICode.FG_BLUE);
-                    Logger.println("");
-    
-                    long startLocks = System.currentTimeMillis();
-                    Automaton accesses = atomicSummary.getAccessesNfa();
-                    Set<State> reachables = accesses.cleanup();
-                    Logger.println("NFA size: " + accesses.size() + ", reachables: " + reachables.size());
-                    
-                    AutomatonToLocks convertor = new AutomatonToLocks(accesses, tla, ila, cla);
-                    LockSet locks = (LockSet)convertor.getLocks();
-    
-                    long locksTook = System.currentTimeMillis()-startLocks;
-                    AnalysisTimer.addForLocks(locksTook);            
-                    
-                    lockTimesFile.println((LIBRARY ? a.getBody().getMethod() : a.getId()) + "," + locksTook);
-                    Date locksTookDate = new Date(locksTook);               
-                    
-                    if (INSTANCE_LOCAL) {
-                        // add locks to protect instance and class local accesses (these local locks will not be instrumented)
-                        long addInstanceLocalstartTime = System.currentTimeMillis();
-                        locks.addRequiredLocksForInstanceLocalAccesses();
-                        AnalysisTimer.addForInstanceLocalAnalysis(System.currentTimeMillis()-addInstanceLocalstartTime);
-                    }
-    
-                    if (CLASS_LOCAL) {
-                        long addClassLocalstartTime = System.currentTimeMillis();
-                        locks.addRequiredLocksForClassLocalAccesses();
-                        AnalysisTimer.addForClassLocalAnalysis(System.currentTimeMillis()-addClassLocalstartTime);
+            catch (InterruptedException ie) {
+                throw new RuntimeException(ie);
+            }
+            int atomicsFailed = 0;
+            Throwable firstFailure = null;
+            for (int i=0; i<numAtomics; i++) {
+                LockSet locks = null;
+                Throwable failure = null;
+                try {
+                    locks = results.get(i).get();
+                }
+                catch (InterruptedException ie) {
+                    throw new RuntimeException(ie);
+                }
+                catch (ExecutionException ee) {
+                    failure = ee.getCause();
+                }
+                outputs[i].writeTo(pathTimesFile, lockTimesFile, methodListFile);
+                if (failure != null) {
+                    Logger.println("Atomic " + (i+1) + " of " + numAtomics + " (" + atomics.get(i).getId() + ") failed: " + failure, ANSICode.FG_RED);
+                    atomicsFailed++;
+                    if (firstFailure == null) {
+                        firstFailure = failure;
                     }
-                    
-                    // remove read locks if write lock already exists
-                    locks.removeSubsumed();
-                    
-                    // remove method-local locks
-                    if (METHOD_LOCAL) {
-                        MethodEscapeAnalysisTransformer methodEscapeAnalysis = new MethodEscapeAnalysisTransformer(a, locks);
-                        methodEscapeAnalysis.doAnalysis();
+                }
+                else {
+                    atomicsDone++;
+                    if (locks != null) {
+                        atomicToLocks.put(atomics.get(i), locks);
                     }
-                    
-                    Pair<Set<Lock>,Set<Lock>> sepLocks = locks.separateLocks();
-                    Set<Lock> typeLocks = sepLocks.getFirst();
-                    Set<Lock> pathLocks = sepLocks.getSecond();
-                    
-                    Logger.println("Locks: " + locks.size() + ", types: " + typeLocks.size() + ", paths: " + pathLocks.size() +", took: " + String.format("%2d:%2d:%2d", locksTookDate.getHours(), locksTookDate.getMinutes(), locksTookDate.getSeconds()));
-    
-                    atomicToLocks.put(a, locks);
                 }
             }
-	    }
+            Logger.println(atomicsDone + " atomics analysed, " + atomicsFailed + " failed");
+            if (atomicsFailed > 0) {
+                throw new RuntimeException(atomicsFailed + " of " + numAtomics + " atomics failed", firstFailure);
+            }
+        }
+        else {
+    	    for (AtomicSection a : atomics) {
+    	        LockSet locks = analyseAtomic(a, ++atomicsDone, atomics.size(), tla, ila, cla, pathTimesFile, lockTimesFile, methodListFile);
+    	        if (locks != null) {
+    	            atomicToLocks.put(a, locks);
+    	        }
+    	    }
+        }
 	    
 	    lockTimesFile.println("*," + AnalysisTimer.getTotalLocksAnalysis());
 
+	    PhaseStats.begin("lock-optimisations");
 	    if (!GLOBAL_LOCK && !MANUAL_LOCKS) {
 	    
     	    if (REMOVE_REDUNDANT_READ_LOCKS) {
@@ -425,6 +465,12 @@ public class AtomicTransformer extends SceneTransformer {
 	    outputLockTotals(atomics, atomicToLocks, lockCountsFile);
 	    pathTimesFile.println("*," + AnalysisTimer.getTotalPathsAnalysis());
 	    
+	    // save before instrumenting, as fingerprints are of the original bodies
+	    if (INCREMENTAL != null && !GLOBAL_LOCK && !MANUAL_LOCKS) {
+	        IncrementalSummaries.save(INCREMENTAL);
+	    }
+	    
+	    PhaseStats.begin("instrument");
 	    if (AtomicTransformer.INSTRUMENT) {
 		    for (AtomicSection a : atomics) {
 		        LockSet locks = atomicToLocks.get(a);
@@ -447,14 +493,228 @@ public class AtomicTransformer extends SceneTransformer {
 	    lockCountsFile.close();
 	    lockTimesFile.close();
 	    methodListFile.close();
+	    PhaseStats.end();
 		    
 		outputAnalysisTimes();
 		
 		Info.outputMemoryStatistics(null);
 		POOL.shutdown();
+		if (COMPONENT_POOL != null) {
+		    COMPONENT_POOL.shutdown();
+		}
+		if (ATOMIC_POOL != null) {
+		    ATOMIC_POOL.shutdown();
+		}
 		stopMemoryMonitor();
     }
 
+    // an atomic's output when analysed concurrently with others, written
+    // out once it has finished
+    private static final class AtomicOutput {
+        final ByteArrayOutputStream pathTimesBytes = new ByteArrayOutputStream();
+        final ByteArrayOutputStream lockTimesBytes = new ByteArrayOutputStream();
+        final ByteArrayOutputStream methodListBytes = new ByteArrayOutputStream();
+        final PrintStream pathTimes = new PrintStream(pathTimesBytes);
+        final PrintStream lockTimes = new PrintStream(lockTimesBytes);
+        final PrintStream methodList = new PrintStream(methodListBytes);
+        Logger.Buffer log;
+        
+        void writeTo(PrintStream pathTimesFile, PrintStream lockTimesFile, PrintStream methodListFile) {
+            pathTimes.flush();
+            lockTimes.flush();
+            methodList.flush();
+            try {
+                pathTimesBytes.writeTo(pathTimesFile);
+                lockTimesBytes.writeTo(lockTimesFile);
+                methodListBytes.writeTo(methodListFile);
+            }
+            catch (IOException ioe) {
+                throw new RuntimeException(ioe);
+            }
+            if (log != null) {
+                Logger.flush(log);
+            }
+        }
+    }
+    
+    // the enclosing method's locals are numbered in the atomic's summary and
+    // must keep their numbers until its locks have been inferred
+    private LockSet analyseAtomic(AtomicSection a, int atomicNum, int numAtomics, ThreadLocalAnalysis tla, InstanceLocalAnalysisTransformer ila, ClassLocalAnalysisTransformer cla, PrintStream pathTimesFile, PrintStream lockTimesFile, PrintStream methodListFile) {
+        List<SootMethod> enclosing = Collections.singletonList(a.getBody().getMethod());
+        SymbolNumberer.acquireLocals(enclosing);
+        try {
+            return analyseAtomicLocals(a, atomicNum, numAtomics, tla, ila, cla, pathTimesFile, lockTimesFile, methodListFile);
+        }
+        finally {
+            SymbolNumberer.releaseLocals(enclosing);
+        }
+    }
+    
+    private LockSet analyseAtomicLocals(AtomicSection a, int atomicNum, int numAtomics, ThreadLocalAnalysis tla, InstanceLocalAnalysisTransformer ila, ClassLocalAnalysisTransformer cla, PrintStream pathTimesFile, PrintStream lockTimesFile, PrintStream methodListFile) {
+	    
+	    if (!PARALLEL_ATOMICS) {
+	        PhaseStats.begin("paths-analysis");
+	    }
+	    
+	    // find all components
+	    StronglyConnectedComponentsDAG sccDag = callGraphDag.getSubDAGReachableFrom(a.getCalledMethods());
+	    Set<Component> components = sccDag.getComponents();
+
+	    if (METHOD_LIST) {
+	        for (Component c : components) {
+	            for (SootMethod m : c) {
+	                methodListFile.println(m.toString());
+	            }
+	        }
+	        return null;
+	    }
+	    
+	    Logger.println(components.size() + " components found");
+
+	    int largestComponent = 0;
+	    int numMethods = 0;
+	    for (Component c : components) {
+	        numMethods += c.size();
+	        largestComponent = Math.max(c.size(), largestComponent);
+	    }
+	    
+        Logger.println("\n");
+        Logger.println("==============================================================");
+        Logger.println("Atomic " + atomicNum + " of " + numAtomics + ": " + a.getId(), ANSICode.FG_MAGENTA);
+        Logger.println("Enclosing method: " + a.getBody().getMethod());
+        Logger.println("Largest component size: " + largestComponent);
+        Logger.println("Total number of methods: " + numMethods);
+        Logger.println("==============================================================");
+        
+        if (GLOBAL_LOCK) {
+            // use a write type lock on java.lang.Object for the global lock
+            LockSet locks = new LockSet();
+            Type lockedType = RefType.v("java.lang.Object");
+            TypeLock tl = new TypeLock(lockedType, true, false, false, false, false);
+            locks.add(tl);
+            
+            if (LOCKS_PRINT) {
+                locks.print();
+            }
+            return locks;
+        }
+        else if (MANUAL_LOCKS) {
+            // use a write type lock on the monitor local
+            LockSet locks = new LockSet();
+            Local monitorLocal = a.getMonitorLocal();
+            PathLock pl = new PathLock(null, new LocalLookup(monitorLocal, null), true, false, false, null, false, false, false, false, false, false);
+            locks.add(pl);
+
+            if (LOCKS_PRINT) {
+                locks.print();
+            }
+            return locks;
+        }
+        else {
+            long startPathsAnalysis = System.currentTimeMillis();
+    
+            PathsAnalysis p = new PathsAnalysis(a, components, sccDag);
+            p.doAnalysis();
+            ITransformer atomicSummary = p.getAtomicSummary();
+            Logger.println("Atomic's summary has " + atomicSummary.size() + " edges");
+            Logger.println("Symbols: " + SymbolNumberer.liveCount() + " live, " + SymbolNumberer.recycledCount() + " recycled");
+            if (COMPOSE_CACHE > 0) {
+                Logger.println("Compose cache: " + ComposeCache.stats());
+            }
+                
+            long pathsAnalysisTook = System.currentTimeMillis() - startPathsAnalysis;
+            AnalysisTimer.addForPathsAnalysis(pathsAnalysisTook);
+            
+            Date pathsAnalysisTookDate = new Date(pathsAnalysisTook);
+            Logger.println("Paths took: " + String.format("%2d:%2d:%2d", pathsAnalysisTookDate.getHours(), pathsAnalysisTookDate.getMinutes(), pathsAnalysisTookDate.getSeconds()));
+            
+            SootMethod m = a.getBody().getMethod();
+            pathTimesFile.println((LIBRARY ? m.toString() : a.getId()) + "," + pathsAnalysisTook);
+            
+            if (AtomicTransformer.LOCKS) {
+                Logger.println("");
+                Logger.println("Locks:", ANSICode.FG_BLUE);
+                Logger.println("");
+    
+                if (!PARALLEL_ATOMICS) {
+                    PhaseStats.begin("lock-inference");
+                }
+                long startLocks = System.currentTimeMillis();
+                Automaton accesses;
+                int reachables;
+                if (atomicSummary instanceof Transformer) {
+                    // clean up before creating any State or Transition objects
+                    CompactAutomaton nfa = ((Transformer)atomicSummary).getCompactAccessesNfa();
+                    reachables = nfa.cleanup();
+                    if (MINIMISE_NFA) {
+                        int states = nfa.stateCount();
+                        int transitions = nfa.size();
+                        nfa.minimise(AutomatonToLocks.stateKeys(nfa));
+                        Logger.println("Minimised NFA: " + states + " -> " + nfa.stateCount() + " states, " + transitions + " -> " + nfa.size() + " transitions");
+                    }
+                    accesses = nfa.toAutomaton();
+                }
+                else {
+                    accesses = atomicSummary.getAccessesNfa();
+                    reachables = accesses.cleanup().size();
+                }
+                Logger.println("NFA size: " + accesses.size() + ", reachables: " + reachables);
+                
+                // PointsToQueries' caches are concurrent, but the Paddle
+                // queries behind them are not thread-safe, nor are the
+                // instance-, class- and method-local analyses the locks
+                // are refined with
+                LockSet locks;
+                long locksTook;
+                synchronized (LOCK_INFERENCE_LOCK) {
+                    AutomatonToLocks convertor = new AutomatonToLocks(accesses, tla, ila, cla);
+                    locks = (LockSet)convertor.getLocks();
+    
+                    locksTook = System.currentTimeMillis()-startLocks;
+                    AnalysisTimer.addForLocks(locksTook);            
+                
+                    lockTimesFile.println((LIBRARY ? a.getBody().getMethod() : a.getId()) + "," + locksTook);
+                
+                    if (INSTANCE_LOCAL) {
+                        // add locks to protect instance and class local accesses (these local locks will not be instrumented)
+                        long addInstanceLocalstartTime = System.currentTimeMillis();
+                        locks.addRequiredLocksForInstanceLocalAccesses();
+                        AnalysisTimer.addForInstanceLocalAnalysis(System.currentTimeMillis()-addInstanceLocalstartTime);
+                    }
+    
+                    if (CLASS_LOCAL) {
+                        long addClassLocalstartTime = System.currentTimeMillis();
+                        locks.addRequiredLocksForClassLocalAccesses();
+                        AnalysisTimer.addForClassLocalAnalysis(System.currentTimeMillis()-addClassLocalstartTime);
+                    }
+                
+                    // remove read locks if write lock already exists
+                    locks.removeSubsumed();
+                
+                    // remove method-local locks
+                    if (METHOD_LOCAL) {
+                        MethodEscapeAnalysisTransformer methodEscapeAnalysis = new MethodEscapeAnalysisTransformer(a, locks);
+                        methodEscapeAnalysis.doAnalysis();
+                    }
+                
+                }
+                if (PARALLEL_ATOMICS) {
+                    PhaseStats.add("lock-inference", System.currentTimeMillis()-startLocks);
+                }
+                Date locksTookDate = new Date(locksTook);
+                
+                Pair<Set<Lock>,Set<Lock>> sepLocks = locks.separateLocks();
+                Set<Lock> typeLocks = sepLocks.getFirst();
+                Set<Lock> pathLocks = sepLocks.getSecond();
+                
+                Logger.println("Locks: " + locks.size() + ", types: " + typeLocks.size() + ", paths: " + pathLocks.size() +", took: " + String.format("%2d:%2d:%2d", locksTookDate.getHours(), locksTookDate.getMinutes(), locksTookDate.getSeconds()));
+    
+                return locks;
+            }
+            return null;
+        }
+    }
+    
     private void outputLockTotals(List<AtomicSection> atomics, Map<AtomicSection,LockSet> atomicToLocks, PrintStream lockResults) {
         
         long[] overallTotals = new long[4];
@@ -651,19 +911,17 @@ public class AtomicTransformer extends SceneTransformer {
         // Cache points-to "abstract" objects that are write-locked
         //
         final Set<Node> writeSet = new HashSet<Node>();
+        final BitSet writeAllocs = new BitSet();
         for (final PathLock pl : pathLocks) {
-            BDDPointsToSet pts = (BDDPointsToSet)pl.getPointsToSet();
+            PointsToSet pts = pl.getPointsToSet();
             if (pts == null) continue;
-            pts.forall(new P2SetVisitor() {
-                @Override
-                public void visit(ContextAllocNode cn) {
-                    Node n = cn.node();
-                    // ptoToWrite(n) = ptoToWrite(n) |_| pl.isWrite()
-                    if (pl.isWrite()) {
-                        writeSet.add(n);
-                    }
+            // ptoToWrite(n) = ptoToWrite(n) |_| pl.isWrite()
+            if (pl.isWrite()) {
+                for (Object n : PointsToQueries.allocNodes(pts)) {
+                    writeSet.add((Node)n);
                 }
-            });
+                writeAllocs.or(PointsToQueries.allocNumbers(pts));
+            }
         }
         
         // 
@@ -721,20 +979,13 @@ public class AtomicTransformer extends SceneTransformer {
                 final boolean[] readOnly = new boolean[1];
                 readOnly[0] = !pl.isWrite();
                 if (readOnly[0]) {
-                    pts.forall(new P2SetVisitor() {
-                        @Override
-                        public void visit(ContextAllocNode cn) {
-                            Node n = cn.node();
-                            if (writeSet.contains(n)) {
-                                readOnly[0] = false;
-                                // how could we break out of here?
-                            }
-                        }
-                    });
+                    if (PointsToQueries.allocNumbers(pts).intersects(writeAllocs)) {
+                        readOnly[0] = false;
+                    }
                 }
                 // if still read-only then check types
                 if (readOnly[0]) {
-                    Set<Type> types = pts.possibleTypes();
+                    Set<Type> types = PointsToQueries.possibleTypes(pts);
                     for (Type t : types) {
                         if (typesWriteLocked.contains(t)) {
                             readOnly[0] = false;
@@ -993,18 +1244,48 @@ public class AtomicTransformer extends SceneTransformer {
     Set<Component> libOnlyComponents = new HashSet<Component>();
     Set<Component> mixedComponents = new HashSet<Component>();
 
+    // Picks the transformer edge layout from upper estimates of the symbols
+    // (locals, fields, parameters) and states (field and array accesses)
+    // that the paths analysis will number, unless fixed by symbol-bits.
+    private void chooseEdgeLayout(Set<SootMethod> methods) {
+        if (SYMBOL_BITS != 0) {
+            TransformerEdgeFactory.setLayout(SYMBOL_BITS);
+        }
+        else {
+            long symbols = SymbolNumberer.size() + 256; // parameter and return variables etc.
+            long states = State.getCounterValue();
+            Set<String> fields = new HashSet<String>();
+            for (SootMethod m : methods) {
+                if (m.isConcrete()) {
+                    Body b = m.retrieveActiveBody();
+                    symbols += b.getLocalCount();
+                    for (Unit u : b.getUnits()) {
+                        Stmt s = (Stmt)u;
+                        if (s.containsFieldRef()) {
+                            fields.add(s.getFieldRef().getFieldRef().getSignature());
+                            states++;
+                        }
+                        else if (s.containsArrayRef()) {
+                            states++;
+                        }
+                    }
+                }
+            }
+            symbols += fields.size();
+            states *= 2; // allow for merged (DFA) states
+            TransformerEdgeFactory.chooseLayout(symbols, states);
+            Logger.println("Estimated " + symbols + " symbols and " + states + " states");
+        }
+        Logger.println("Transformer edges use " + TransformerEdgeFactory.getSymbolBits() + "-bit symbols and " + TransformerEdgeFactory.getStateBits() + "-bit states");
+    }
+    
     private void outputClientLibStats(List<AtomicSection> atomics) {
         try {
             PrintWriter printer = new PrintWriter("libclient.txt");
             printer.println("per-atomic stats");
             printer.println("atomic id,enclosing method,total methods,lib methods,client methods,lib-only componenets,client-only components,mixed components");
             for (AtomicSection a : atomics) {
-                Set<Component> components = new HashSet<Component>();
-                for (SootMethod m : a.getCalledMethods()) {
-                    StronglyConnectedComponents scc = new StronglyConnectedComponents(
-                            m);
-                    components.addAll(scc.getComponents());
-                }
+                Set<Component> components = callGraphDag.getSubDAGReachableFrom(a.getCalledMethods()).getComponents();
                 checkLibClient(a, components, printer);
             }
     
@@ -1305,10 +1586,7 @@ public class AtomicTransformer extends SceneTransformer {
                     }
                     
                     if (l != null) {
-                        PointsToAnalysis pta = Scene.v().getPointsToAnalysis();
-                        PointsToSet pts = pta.reachingObjects(l);
-                        Set<Type> types = pts.possibleTypes();
-                        stmtToTypes.put(s, types);
+                        stmtToTypes.put(s, PointsToQueries.stmtTypes(s, l));
                     }
                 }
             }
@@ -1520,10 +1798,7 @@ public class AtomicTransformer extends SceneTransformer {
                     }
                     
                     if (l != null) {
-                        PointsToAnalysis pta = Scene.v().getPointsToAnalysis();
-                        PointsToSet pts = pta.reachingObjects(l);
-                        Set<Type> types = pts.possibleTypes();
-                        stmtToTypes.put(s, types);
+                        stmtToTypes.put(s, PointsToQueries.stmtTypes(s, l));
                     }
                 }
             }
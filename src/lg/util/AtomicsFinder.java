@@ -31,6 +31,7 @@ import java.util.*;
 
 import lg.analysis.singlethread.SingleThreadTag;
 import lg.cfg.*;
+import lg.cg.CallGraphIndex;
 import lg.cg.NonColdEdgesPred;
 import lg.transformer.AtomicTransformer;
 import soot.*;
@@ -48,6 +49,7 @@ public class AtomicsFinder {
 
     // callgraph
     CallGraph callGraph;
+    CallGraphIndex cgIndex;
     EdgePredicate explicitEdgePred;
     EdgePredicate runMethodPred;
 
@@ -61,6 +63,7 @@ public class AtomicsFinder {
         atomicSections = new ArrayList<AtomicSection>();
         atomicType = RefType.v(Atomic.class.getCanonicalName());
         callGraph = Scene.v().getCallGraph();
+        cgIndex = CallGraphIndex.v();
         explicitEdgePred = new NonColdEdgesPred();
         runMethodPred = new RunMethodsPred();
         visitedMethods = new GoogleHashSet<SootMethod>();
@@ -294,12 +297,10 @@ public class AtomicsFinder {
                 Stmt currStmt = (Stmt) curr;
 
                 if (currStmt.containsInvokeExpr()) {
-                    for (Iterator<Edge> edgesIt = callGraph.edgesOutOf(currStmt); edgesIt.hasNext();) {
-                        Edge e = edgesIt.next();
-                        if (explicitEdgePred.want(e) || runMethodPred.want(e)) {
-                            SootMethod callee = e.tgt();
-                            findAtomics(callee);
-                        }
+                    // explicit or run method edges
+                    int site = cgIndex.getCallSite(currStmt);
+                    for (int i=cgIndex.getTargetsStart(site); i<cgIndex.getTargetsEnd(site); i++) {
+                        findAtomics(cgIndex.getTarget(i));
                     }
                 }
 
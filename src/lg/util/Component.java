@@ -27,12 +27,13 @@
 package lg.util;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import soot.SootMethod;
 
 public class Component extends TreeSet<SootMethod> {
 
-	private static int counter = 0;
+	private static AtomicInteger counter = new AtomicInteger(0);
 	private int id;
 	private boolean analysed;
 	
@@ -44,7 +45,7 @@ public class Component extends TreeSet<SootMethod> {
                 return num1 - num2;
             }
 	    });
-		id = counter++;
+		id = counter.getAndIncrement();
 		analysed = false;
 	}
 	
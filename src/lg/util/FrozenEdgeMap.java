@@ -0,0 +1,429 @@
+/*
+ * Copyright (c) 2013, Khilan Gudka.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package lg.util;
+
+import gnu.trove.function.TObjectFunction;
+import gnu.trove.iterator.TIntObjectIterator;
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.procedure.*;
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TLongHashSet;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Read-only symbol to edge set map for summaries that will no longer change.
+ * Symbols are kept sorted (looked up by binary search) and each symbol's
+ * edges are stored sorted and delta-encoded as varints in one byte array,
+ * so there are no hash tables and no per-set objects. An edge set is decoded
+ * into a fresh ImmutableLongSet each time it is read and is not kept, so a
+ * frozen summary only ever holds its encoded bytes.
+ * 
+ * Extends TIntObjectHashMap so it can replace the fast Transformer's map;
+ * any update throws UnsupportedOperationException. Being immutable it may
+ * be read concurrently.
+ */
+public final class FrozenEdgeMap extends TIntObjectHashMap<TLongHashSet> {
+
+    private static final int[] NO_KEYS = new int[0];
+    private static final byte[] NO_DATA = new byte[0];
+    
+    // sorted
+    private int[] keys;
+    
+    // edges of keys[i] are at data[offsets[i]..offsets[i+1]): their count,
+    // then the first edge and the gaps between successive edges
+    private int[] offsets;
+    private byte[] data;
+    
+    // computed on first use (0 until then), as for String
+    private transient int hash;
+    
+    public FrozenEdgeMap() {
+        super(0);
+        _set = null;
+        _values = null;
+        _states = null;
+        keys = NO_KEYS;
+        offsets = new int[1];
+        data = NO_DATA;
+    }
+    
+    public static FrozenEdgeMap freeze(TIntObjectHashMap<TLongHashSet> m) {
+        if (m instanceof FrozenEdgeMap) {
+            return (FrozenEdgeMap)m;
+        }
+        FrozenEdgeMap f = new FrozenEdgeMap();
+        // the cursor, unlike keys(int[]), also walks a PersistentIntObjectMap
+        int n = m.size();
+        int[] ks = new int[n];
+        IntObjectCursor<TLongHashSet> c = IntObjectCursor.open(m);
+        for (int i=0; c.next(); i++) {
+            ks[i] = c.key();
+        }
+        c.close();
+        Arrays.sort(ks, 0, n);
+        int[] offs = new int[n+1];
+        Encoder e = new Encoder(n*8);
+        for (int i=0; i<n; i++) {
+            long[] a = sorted(m.get(ks[i]));
+            e.writeVarLong(a.length);
+            long prev = 0;
+            for (long v : a) {
+                e.writeVarLong(v - prev);
+                prev = v;
+            }
+            offs[i+1] = e.size;
+        }
+        f.keys = n == 0 ? NO_KEYS : ks;
+        f.offsets = offs;
+        f.data = e.toArray();
+        return f;
+    }
+    
+    private static long[] sorted(TLongHashSet s) {
+        if (s instanceof SortedLongArraySet) {
+            return ((SortedLongArraySet)s).sorted();
+        }
+        final long[] a = new long[s.size()];
+        s.forEach(new TLongProcedure() {
+            int i = 0;
+            public boolean execute(long v) {
+                a[i++] = v;
+                return true;
+            }
+        });
+        Arrays.sort(a);
+        return a;
+    }
+    
+    private static final class Encoder {
+        byte[] buf;
+        int size;
+        
+        Encoder(int capacity) {
+            buf = new byte[Math.max(16, capacity)];
+        }
+        
+        // unsigned, 7 bits per byte
+        void writeVarLong(long v) {
+            if (size + 10 > buf.length) {
+                buf = Arrays.copyOf(buf, buf.length*2);
+            }
+            while ((v & ~0x7FL) != 0) {
+                buf[size++] = (byte)((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[size++] = (byte)v;
+        }
+        
+        byte[] toArray() {
+            return size == 0 ? NO_DATA : Arrays.copyOf(buf, size);
+        }
+    }
+    
+    // key of the i-th entry, in increasing order of keys
+    public int keyAt(int i) {
+        return keys[i];
+    }
+    
+    // edges of the i-th entry, decoded afresh on each call
+    public TLongHashSet valueAt(int i) {
+        return ImmutableLongSet.wrap(decode(i));
+    }
+    
+    private long[] decode(int i) {
+        int p = offsets[i];
+        long v = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[p++];
+            v |= (long)(b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        long[] a = new long[(int)v];
+        long prev = 0;
+        for (int j=0; j<a.length; j++) {
+            v = 0;
+            shift = 0;
+            do {
+                b = data[p++];
+                v |= (long)(b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            prev += v;
+            a[j] = prev;
+        }
+        return a;
+    }
+    
+    // approximate number of bytes used by the encoded edges and the index
+    public long bytes() {
+        return data.length + 4L*(keys.length + offsets.length);
+    }
+    
+    private int indexOf(int key) {
+        return Arrays.binarySearch(keys, key);
+    }
+    
+    @Override
+    public TLongHashSet get(int key) {
+        int i = indexOf(key);
+        return i < 0 ? null : valueAt(i);
+    }
+    
+    @Override
+    public boolean containsKey(int key) {
+        return indexOf(key) >= 0;
+    }
+    
+    @Override
+    public int size() {
+        return keys.length;
+    }
+    
+    @Override
+    public boolean isEmpty() {
+        return keys.length == 0;
+    }
+    
+    @Override
+    public TLongHashSet put(int key, TLongHashSet value) {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public TLongHashSet putIfAbsent(int key, TLongHashSet value) {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public TLongHashSet remove(int key) {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public void compact() {
+        // already compact
+    }
+    
+    @Override
+    public void ensureCapacity(int desiredCapacity) {
+        // nothing to reserve
+    }
+    
+    @Override
+    public boolean forEachEntry(TIntObjectProcedure<? super TLongHashSet> procedure) {
+        for (int i=0; i<keys.length; i++) {
+            if (!procedure.execute(keys[i], valueAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    @Override
+    public boolean forEachKey(TIntProcedure procedure) {
+        for (int k : keys) {
+            if (!procedure.execute(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    @Override
+    public boolean forEachValue(TObjectProcedure<? super TLongHashSet> procedure) {
+        for (int i=0; i<keys.length; i++) {
+            if (!procedure.execute(valueAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    @Override
+    public boolean containsValue(final Object value) {
+        return !forEachValue(new TObjectProcedure<TLongHashSet>() {
+            public boolean execute(TLongHashSet v) {
+                return !v.equals(value);
+            }
+        });
+    }
+    
+    @Override
+    public int[] keys() {
+        return keys.clone();
+    }
+    
+    @Override
+    public int[] keys(int[] dest) {
+        if (dest.length < keys.length) {
+            dest = new int[keys.length];
+        }
+        System.arraycopy(keys, 0, dest, 0, keys.length);
+        return dest;
+    }
+    
+    @Override
+    public TLongHashSet[] values(TLongHashSet[] dest) {
+        if (dest.length < keys.length) {
+            dest = (TLongHashSet[])java.lang.reflect.Array.newInstance(dest.getClass().getComponentType(), keys.length);
+        }
+        for (int i=0; i<keys.length; i++) {
+            dest[i] = valueAt(i);
+        }
+        return dest;
+    }
+    
+    @Override
+    public Object[] values() {
+        return values(new TLongHashSet[keys.length]);
+    }
+    
+    @Override
+    public void putAll(TIntObjectMap<? extends TLongHashSet> map) {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public void putAll(Map<? extends Integer, ? extends TLongHashSet> map) {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public boolean retainEntries(TIntObjectProcedure<? super TLongHashSet> procedure) {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public void transformValues(TObjectFunction<TLongHashSet,TLongHashSet> function) {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public TIntSet keySet() {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public Collection<TLongHashSet> valueCollection() {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public TIntObjectIterator<TLongHashSet> iterator() {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean equals(Object other) {
+        if (other == this) {
+            return true;
+        }
+        else if (!(other instanceof TIntObjectMap)) {
+            return false;
+        }
+        TIntObjectMap<TLongHashSet> that = (TIntObjectMap<TLongHashSet>)other;
+        if (that.size() != keys.length) {
+            return false;
+        }
+        else if (that instanceof FrozenEdgeMap) {
+            FrozenEdgeMap f = (FrozenEdgeMap)that;
+            return Arrays.equals(keys, f.keys) && Arrays.equals(offsets, f.offsets) && Arrays.equals(data, f.data);
+        }
+        for (int i=0; i<keys.length; i++) {
+            TLongHashSet w = that.get(keys[i]);
+            if (w == null || !valueAt(i).equals(w)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    // same as TIntObjectHashMap
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            for (int i=0; i<keys.length; i++) {
+                h += keys[i] ^ valueAt(i).hashCode();
+            }
+            hash = h;
+        }
+        return h;
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder("{");
+        for (int i=0; i<keys.length; i++) {
+            if (i > 0) {
+                s.append(",");
+            }
+            s.append(keys[i]).append("=").append(valueAt(i));
+        }
+        return s.append("}").toString();
+    }
+    
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeByte(0); // version
+        out.writeInt(keys.length);
+        for (int i=0; i<keys.length; i++) {
+            out.writeInt(keys[i]);
+            out.writeInt(offsets[i+1]);
+        }
+        out.writeInt(data.length);
+        out.write(data);
+    }
+    
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        in.readByte();
+        int n = in.readInt();
+        keys = n == 0 ? NO_KEYS : new int[n];
+        offsets = new int[n+1];
+        for (int i=0; i<n; i++) {
+            keys[i] = in.readInt();
+            offsets[i+1] = in.readInt();
+        }
+        data = new byte[in.readInt()];
+        in.readFully(data);
+        hash = 0;
+    }
+    
+}
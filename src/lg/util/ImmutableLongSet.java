@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2013, Khilan Gudka.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package lg.util;
+
+import gnu.trove.TLongCollection;
+import gnu.trove.procedure.TLongProcedure;
+import gnu.trove.set.hash.TLongHashSet;
+
+import java.io.*;
+import java.lang.ref.WeakReference;
+import java.util.*;
+
+/**
+ * Frozen edge set. Instances are obtained through intern, which returns one
+ * canonical instance per distinct set of edges, so transformers holding
+ * equal edge sets share them. Any update throws
+ * UnsupportedOperationException: callers must copy first (copy-on-write).
+ * 
+ * The interning table holds its entries weakly, so sets no longer used by
+ * any transformer are collected. FrozenEdgeMap creates its sets through wrap,
+ * without interning.
+ */
+public final class ImmutableLongSet extends SortedLongArraySet {
+
+    private static final int STRIPES = 32;
+    
+    @SuppressWarnings("unchecked")
+    private static final Map<ImmutableLongSet,WeakReference<ImmutableLongSet>>[] table = new Map[STRIPES];
+    static {
+        for (int i=0; i<STRIPES; i++) {
+            table[i] = new WeakHashMap<ImmutableLongSet,WeakReference<ImmutableLongSet>>();
+        }
+    }
+    
+    private int hash;
+    
+    public ImmutableLongSet() {
+        super();
+    }
+    
+    private ImmutableLongSet(long[] a) {
+        super();
+        elems = a;
+        hash = super.hashCode();
+    }
+    
+    public static ImmutableLongSet intern(TLongHashSet s) {
+        if (s instanceof ImmutableLongSet) {
+            return (ImmutableLongSet)s;
+        }
+        long[] a;
+        if (s instanceof SortedLongArraySet) {
+            a = ((SortedLongArraySet)s).sorted();
+        }
+        else {
+            final long[] b = new long[s.size()];
+            s.forEach(new TLongProcedure() {
+                int i = 0;
+                public boolean execute(long v) {
+                    b[i++] = v;
+                    return true;
+                }
+            });
+            Arrays.sort(b);
+            a = b;
+        }
+        return canonical(new ImmutableLongSet(a));
+    }
+    
+    // a must be sorted and distinct, and is not copied. Not interned.
+    static ImmutableLongSet wrap(long[] a) {
+        return new ImmutableLongSet(a);
+    }
+    
+    private static ImmutableLongSet canonical(ImmutableLongSet s) {
+        Map<ImmutableLongSet,WeakReference<ImmutableLongSet>> m = table[(s.hash ^ (s.hash >>> 16)) & (STRIPES-1)];
+        synchronized (m) {
+            WeakReference<ImmutableLongSet> ref = m.get(s);
+            ImmutableLongSet c = (ref == null) ? null : ref.get();
+            if (c == null) {
+                m.put(s, new WeakReference<ImmutableLongSet>(s));
+                c = s;
+            }
+            return c;
+        }
+    }
+    
+    // number of distinct sets currently interned
+    public static int internedCount() {
+        int n = 0;
+        for (Map<ImmutableLongSet,WeakReference<ImmutableLongSet>> m : table) {
+            synchronized (m) {
+                n += m.size();
+            }
+        }
+        return n;
+    }
+    
+    @Override
+    public boolean add(long v) {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public boolean addAll(TLongCollection c) {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public boolean addAll(long[] array) {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public boolean addAll(Collection<? extends Long> c) {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public boolean remove(long v) {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public boolean removeAll(TLongCollection c) {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public boolean removeAll(long[] array) {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public boolean retainAll(TLongCollection c) {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public boolean retainAll(long[] array) {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public void compact() {
+        // already compact
+    }
+    
+    @Override
+    public boolean equals(Object other) {
+        return other == this || super.equals(other);
+    }
+    
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+    
+    @Override
+    public Object clone() {
+        return this;
+    }
+    
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        super.readExternal(in);
+        hash = super.hashCode();
+    }
+    
+    private Object readResolve() {
+        return canonical(this);
+    }
+    
+}
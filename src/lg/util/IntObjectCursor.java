@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2013, Khilan Gudka.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package lg.util;
+
+import gnu.trove.impl.hash.TPrimitiveHash;
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+
+/**
+ * Allocation-free iteration over the entries of a TIntObjectHashMap, the
+ * map counterpart of LongCursor (pooled per thread in the same way):
+ * 
+ *     IntObjectCursor<TLongHashSet> c = IntObjectCursor.open(map);
+ *     while (c.next()) {
+ *         int o = c.key();
+ *         TLongHashSet edges = c.value();
+ *         ...
+ *     }
+ *     c.close();
+ * 
+ * A PersistentIntObjectMap is walked through its trie, a FrozenEdgeMap by
+ * index (values are decoded as they are reached) and other maps through
+ * their hash tables. Either way the current entry may be removed or replaced
+ * while iterating, but nothing may be added.
+ */
+public final class IntObjectCursor<V> {
+    
+    // TIntObjectHashMap's keys and states are public but its values are not
+    private static final Field VALUES;
+    static {
+        try {
+            VALUES = TIntObjectHashMap.class.getDeclaredField("_values");
+            VALUES.setAccessible(true);
+        }
+        catch (NoSuchFieldException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    private static final ThreadLocal<Pool> pools = new ThreadLocal<Pool>() {
+        protected Pool initialValue() {
+            return new Pool();
+        }
+    };
+    
+    private static final class Pool {
+        IntObjectCursor<?>[] free = new IntObjectCursor<?>[8];
+        int n = 0;
+    }
+    
+    private final Pool pool;
+    
+    // trie walk: slots of the nodes on the current path and the next
+    // position in each, when depth >= 0
+    private Object[][] path = new Object[8][];
+    private int[] pos = new int[8];
+    private int depth = -1;
+    
+    // frozen entries [i..n)
+    private FrozenEdgeMap frozen;
+    
+    // hash table walk (downwards from i), when states != null
+    private int[] keys;
+    private Object[] values;
+    private byte[] states;
+    
+    private int n;
+    private int i;
+    
+    private int key;
+    private V value;
+    
+    private IntObjectCursor(Pool p) {
+        pool = p;
+    }
+    
+    @SuppressWarnings("unchecked")
+    public static <V> IntObjectCursor<V> open(TIntObjectHashMap<V> m) {
+        Pool p = pools.get();
+        IntObjectCursor<V> c = p.n == 0 ? new IntObjectCursor<V>(p) : (IntObjectCursor<V>)p.free[--p.n];
+        c.reset(m);
+        return c;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private void reset(TIntObjectHashMap<V> m) {
+        i = 0;
+        n = 0;
+        depth = -1;
+        if (m instanceof PersistentIntObjectMap) {
+            PersistentIntObjectMap.Node root = ((PersistentIntObjectMap<V>)m).root();
+            if (root != null) {
+                depth = 0;
+                path[0] = root.slots;
+                pos[0] = 0;
+            }
+        }
+        else if (m instanceof FrozenEdgeMap) {
+            frozen = (FrozenEdgeMap)m;
+            n = frozen.size();
+        }
+        else {
+            keys = m._set;
+            states = m._states;
+            try {
+                values = (Object[])VALUES.get(m);
+            }
+            catch (IllegalAccessException e) {
+                throw new RuntimeException(e);
+            }
+            i = states.length;
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    public boolean next() {
+        while (depth >= 0) {
+            Object[] slots = path[depth];
+            if (pos[depth] == slots.length) {
+                path[depth--] = null;
+                continue;
+            }
+            Object s = slots[pos[depth]++];
+            if (s instanceof PersistentIntObjectMap.Leaf) {
+                PersistentIntObjectMap.Leaf l = (PersistentIntObjectMap.Leaf)s;
+                key = l.key;
+                value = (V)l.value;
+                return true;
+            }
+            if (++depth == path.length) {
+                path = Arrays.copyOf(path, depth*2);
+                pos = Arrays.copyOf(pos, depth*2);
+            }
+            path[depth] = ((PersistentIntObjectMap.Node)s).slots;
+            pos[depth] = 0;
+        }
+        if (frozen != null) {
+            if (i < n) {
+                key = frozen.keyAt(i);
+                value = (V)frozen.valueAt(i++);
+                return true;
+            }
+            return false;
+        }
+        if (states != null) {
+            while (i > 0) {
+                if (states[--i] == TPrimitiveHash.FULL) {
+                    key = keys[i];
+                    value = (V)values[i];
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    public int key() {
+        return key;
+    }
+    
+    public V value() {
+        return value;
+    }
+    
+    public void close() {
+        while (depth >= 0) {
+            path[depth--] = null;
+        }
+        frozen = null;
+        keys = null;
+        values = null;
+        states = null;
+        i = n = 0;
+        value = null;
+        if (pool.n == pool.free.length) {
+            IntObjectCursor<?>[] f = new IntObjectCursor<?>[pool.n*2];
+            System.arraycopy(pool.free, 0, f, 0, pool.n);
+            pool.free = f;
+        }
+        pool.free[pool.n++] = this;
+    }
+}
@@ -27,6 +27,7 @@
 package lg.util;
 
 import java.io.*;
+import java.util.*;
 
 public class Logger {
 
@@ -35,6 +36,14 @@ public class Logger {
     private static PrintStream err;
     private static PrintStream stats;
     
+    // lines held back by buffer(): {coloured, plain} for println and
+    // {null, line} for printstats
+    public static final class Buffer {
+        private final List<String[]> lines = new ArrayList<String[]>();
+    }
+    
+    private static final ThreadLocal<Buffer> buffers = new ThreadLocal<Buffer>();
+    
     static {
         try {
             out = new PrintStream(System.out, true, "UTF-8");
@@ -52,7 +61,37 @@ public class Logger {
     }
 
     public static void printstats(String s) {
-        stats.println(s);
+        Buffer b = buffers.get();
+        if (b != null) {
+            b.lines.add(new String[] { null, s });
+        }
+        else {
+            stats.println(s);
+        }
+    }
+    
+    // holds back the calling thread's output until unbuffer(), so that
+    // concurrent tasks can each write theirs out in one piece
+    public static void buffer() {
+        buffers.set(new Buffer());
+    }
+    
+    public static Buffer unbuffer() {
+        Buffer b = buffers.get();
+        buffers.remove();
+        return b;
+    }
+    
+    public synchronized static void flush(Buffer b) {
+        for (String[] l : b.lines) {
+            if (l[0] == null) {
+                stats.println(l[1]);
+            }
+            else {
+                out.println(l[0]);
+                outFile.println(l[1]);
+            }
+        }
     }
     
 	public static void println(String s) {
@@ -63,9 +102,20 @@ public class Logger {
 	    println(s, fgcolour, ANSICode.BG_DEFAULT);
 	}
 	
-	public synchronized static void println(String s, ANSICode fgcolour, ANSICode bgcolour) {
-	    out.println("\033[" + fgcolour.getVal() + ";1m\033[" + bgcolour.getVal() + "m" + s + "\033[0m");
-	    outFile.println(s);	    
+	public static void println(String s, ANSICode fgcolour, ANSICode bgcolour) {
+	    String coloured = "\033[" + fgcolour.getVal() + ";1m\033[" + bgcolour.getVal() + "m" + s + "\033[0m";
+	    Buffer b = buffers.get();
+	    if (b != null) {
+	        b.lines.add(new String[] { coloured, s });
+	    }
+	    else {
+	        write(coloured, s);
+	    }
+	}
+	
+	private synchronized static void write(String coloured, String s) {
+	    out.println(coloured);
+	    outFile.println(s);
 	}
 
     public static void errprintln(String s) {
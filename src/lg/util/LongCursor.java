@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2013, Khilan Gudka.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package lg.util;
+
+import gnu.trove.impl.hash.TPrimitiveHash;
+import gnu.trove.procedure.TLongProcedure;
+import gnu.trove.set.hash.TLongHashSet;
+
+/**
+ * Allocation-free iteration over a TLongHashSet:
+ * 
+ *     LongCursor c = LongCursor.open(edges);
+ *     while (c.next()) {
+ *         long e = c.value();
+ *         ...
+ *     }
+ *     c.close();
+ * 
+ * A plain TLongHashSet is walked through its hash table and a
+ * SortedLongArraySet through its runs. Other sets (e.g. TwoLevelSet) are
+ * first copied into a buffer that the cursor keeps. Cursors are pooled per
+ * thread, so they must be closed by the thread that opened them and not used
+ * after closing. reset() lets one cursor be reused for several sets.
+ * 
+ * As with forEach, the current element may be removed while iterating but
+ * nothing may be added.
+ */
+public final class LongCursor {
+    
+    private static final long[] EMPTY = new long[0];
+    
+    private static final ThreadLocal<Pool> pools = new ThreadLocal<Pool>() {
+        protected Pool initialValue() {
+            return new Pool();
+        }
+    };
+    
+    private static final class Pool {
+        LongCursor[] free = new LongCursor[8];
+        int n = 0;
+    }
+    
+    private final Pool pool;
+    
+    // hash table walk (downwards from i), when set != null
+    private long[] set;
+    private byte[] states;
+    
+    // otherwise, merge of the sorted runs a[i..na) and b[j..nb)
+    private long[] a;
+    private long[] b;
+    private int na;
+    private int nb;
+    
+    private int i;
+    private int j;
+    private long value;
+    
+    private long[] buf = EMPTY;
+    private final TLongProcedure copier = new TLongProcedure() {
+        public boolean execute(long v) {
+            buf[na++] = v;
+            return true;
+        }
+    };
+    
+    private LongCursor(Pool p) {
+        pool = p;
+    }
+    
+    public static LongCursor open() {
+        Pool p = pools.get();
+        return p.n == 0 ? new LongCursor(p) : p.free[--p.n];
+    }
+    
+    public static LongCursor open(TLongHashSet s) {
+        return open().reset(s);
+    }
+    
+    // starts iterating over s
+    public LongCursor reset(TLongHashSet s) {
+        if (s.getClass() == TLongHashSet.class) {
+            set = s._set;
+            states = s._states;
+            i = states.length;
+        }
+        else {
+            set = null;
+            i = 0;
+            j = 0;
+            if (s instanceof SortedLongArraySet) {
+                SortedLongArraySet ss = (SortedLongArraySet)s;
+                a = ss.elems;
+                na = a.length;
+                b = ss.recent;
+                nb = ss.r;
+            }
+            else {
+                int size = s.size();
+                if (buf.length < size) {
+                    buf = new long[Math.max(size, buf.length*2)];
+                }
+                na = 0;
+                s.forEach(copier);
+                a = buf;
+                b = EMPTY;
+                nb = 0;
+            }
+        }
+        return this;
+    }
+    
+    public boolean next() {
+        if (set != null) {
+            while (i > 0) {
+                if (states[--i] == TPrimitiveHash.FULL) {
+                    value = set[i];
+                    return true;
+                }
+            }
+            return false;
+        }
+        else if (i < na) {
+            value = (j < nb && b[j] < a[i]) ? b[j++] : a[i++];
+            return true;
+        }
+        else if (j < nb) {
+            value = b[j++];
+            return true;
+        }
+        return false;
+    }
+    
+    public long value() {
+        return value;
+    }
+    
+    public void close() {
+        set = null;
+        states = null;
+        a = null;
+        b = null;
+        na = nb = i = j = 0;
+        if (pool.n == pool.free.length) {
+            LongCursor[] f = new LongCursor[pool.n*2];
+            System.arraycopy(pool.free, 0, f, 0, pool.n);
+            pool.free = f;
+        }
+        pool.free[pool.n++] = this;
+    }
+}
@@ -0,0 +1,568 @@
+/*
+ * Copyright (c) 2013, Khilan Gudka.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package lg.util;
+
+import gnu.trove.iterator.TIntObjectIterator;
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.function.TObjectFunction;
+import gnu.trove.procedure.*;
+import gnu.trove.set.TIntSet;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Persistent int to object map: a hash array mapped trie on the key's bits,
+ * 5 bits per level. snapshot() is O(1) as the copy shares the whole trie,
+ * after which an update copies only the path to the entry it touches.
+ * 
+ * Every map has an owner token, and nodes and entries record the owner that
+ * created them. Those still owned by this map (i.e. created since its last
+ * snapshot) are updated in place, so a map that is never snapshotted behaves
+ * much like a mutable one. owns(key) tells whether the entry (and so the
+ * value) of key is private to this map, for callers that update values in
+ * place.
+ * 
+ * Extends TIntObjectHashMap so it can replace the fast Transformer's map;
+ * only the operations used there are supported. The inherited hash table is
+ * released. Not thread-safe, like TIntObjectHashMap.
+ */
+public class PersistentIntObjectMap<V> extends TIntObjectHashMap<V> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    
+    static final class Node {
+        int bitmap;
+        Object[] slots; // a Leaf or Node per bit set in bitmap, in bit order
+        final Object owner;
+        
+        Node(int bitmap, Object[] slots, Object owner) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+            this.owner = owner;
+        }
+    }
+    
+    static final class Leaf {
+        final int key;
+        Object value;
+        final Object owner;
+        
+        Leaf(int key, Object value, Object owner) {
+            this.key = key;
+            this.value = value;
+            this.owner = owner;
+        }
+    }
+    
+    private Node root;
+    private int size;
+    private Object owner;
+    
+    // result of the last put/remove
+    private Object previous;
+    
+    public PersistentIntObjectMap() {
+        super(0);
+        _set = null;
+        _values = null;
+        _states = null;
+        owner = new Object();
+    }
+    
+    // O(1) copy. Everything in the trie becomes shared by both maps.
+    public PersistentIntObjectMap<V> snapshot() {
+        PersistentIntObjectMap<V> m = new PersistentIntObjectMap<V>();
+        m.root = root;
+        m.size = size;
+        owner = new Object();
+        return m;
+    }
+    
+    // for IntObjectCursor
+    Node root() {
+        return root;
+    }
+    
+    // is the entry for key private to this map (not shared with a snapshot)?
+    public boolean owns(int key) {
+        Leaf l = find(key);
+        return l != null && l.owner == owner;
+    }
+    
+    private Leaf find(int key) {
+        Node n = root;
+        int shift = 0;
+        while (n != null) {
+            int bit = 1 << ((key >>> shift) & MASK);
+            if ((n.bitmap & bit) == 0) {
+                return null;
+            }
+            Object s = n.slots[Integer.bitCount(n.bitmap & (bit-1))];
+            if (s instanceof Leaf) {
+                Leaf l = (Leaf)s;
+                return l.key == key ? l : null;
+            }
+            n = (Node)s;
+            shift += BITS;
+        }
+        return null;
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        Leaf l = find(key);
+        return l == null ? null : (V)l.value;
+    }
+    
+    @Override
+    public boolean containsKey(int key) {
+        return find(key) != null;
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        previous = null;
+        if (root == null) {
+            root = new Node(0, new Object[0], owner);
+        }
+        root = put(root, 0, key, value);
+        V p = (V)previous;
+        previous = null;
+        return p;
+    }
+    
+    @Override
+    public V putIfAbsent(int key, V value) {
+        V v = get(key);
+        if (v != null || containsKey(key)) {
+            return v;
+        }
+        put(key, value);
+        return null;
+    }
+    
+    private Node put(Node n, int shift, int key, Object value) {
+        int bit = 1 << ((key >>> shift) & MASK);
+        int i = Integer.bitCount(n.bitmap & (bit-1));
+        if ((n.bitmap & bit) == 0) {
+            Object[] a = new Object[n.slots.length+1];
+            System.arraycopy(n.slots, 0, a, 0, i);
+            a[i] = new Leaf(key, value, owner);
+            System.arraycopy(n.slots, i, a, i+1, n.slots.length-i);
+            size++;
+            if (n.owner == owner) {
+                n.bitmap |= bit;
+                n.slots = a;
+                return n;
+            }
+            return new Node(n.bitmap | bit, a, owner);
+        }
+        Object s = n.slots[i];
+        if (s instanceof Leaf) {
+            Leaf l = (Leaf)s;
+            if (l.key == key) {
+                previous = l.value;
+                if (l.value == value) {
+                    return n;
+                }
+                else if (l.owner == owner) {
+                    l.value = value;
+                    return n;
+                }
+                return setSlot(n, i, new Leaf(key, value, owner));
+            }
+            size++;
+            return setSlot(n, i, pair(l, new Leaf(key, value, owner), shift+BITS));
+        }
+        Node child = (Node)s;
+        Node newChild = put(child, shift+BITS, key, value);
+        return newChild == child ? n : setSlot(n, i, newChild);
+    }
+    
+    // node holding the leaves a and b (whose keys agree below shift)
+    private Node pair(Leaf a, Leaf b, int shift) {
+        int ia = (a.key >>> shift) & MASK;
+        int ib = (b.key >>> shift) & MASK;
+        if (ia == ib) {
+            return new Node(1 << ia, new Object[] { pair(a, b, shift+BITS) }, owner);
+        }
+        return new Node((1 << ia) | (1 << ib), ia < ib ? new Object[] { a, b } : new Object[] { b, a }, owner);
+    }
+    
+    private Node setSlot(Node n, int i, Object s) {
+        if (n.owner == owner) {
+            n.slots[i] = s;
+            return n;
+        }
+        Object[] a = n.slots.clone();
+        a[i] = s;
+        return new Node(n.bitmap, a, owner);
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        if (root == null) {
+            return null;
+        }
+        previous = null;
+        Object r = remove(root, 0, key);
+        if (r == null) {
+            root = null;
+        }
+        else if (r instanceof Leaf) {
+            Leaf l = (Leaf)r;
+            root = new Node(1 << (l.key & MASK), new Object[] { l }, owner);
+        }
+        else {
+            root = (Node)r;
+        }
+        V p = (V)previous;
+        previous = null;
+        return p;
+    }
+    
+    // returns what replaces n: n or a copy of it, a single remaining Leaf
+    // (which the parent inlines), or null if n is now empty
+    private Object remove(Node n, int shift, int key) {
+        int bit = 1 << ((key >>> shift) & MASK);
+        if ((n.bitmap & bit) == 0) {
+            return n;
+        }
+        int i = Integer.bitCount(n.bitmap & (bit-1));
+        Object s = n.slots[i];
+        Object r;
+        if (s instanceof Leaf) {
+            Leaf l = (Leaf)s;
+            if (l.key != key) {
+                return n;
+            }
+            previous = l.value;
+            size--;
+            r = null;
+        }
+        else {
+            r = remove((Node)s, shift+BITS, key);
+            if (r == s) {
+                return n;
+            }
+        }
+        if (r == null) {
+            if (n.slots.length == 1) {
+                return null;
+            }
+            else if (n.slots.length == 2 && n.slots[1-i] instanceof Leaf) {
+                return n.slots[1-i];
+            }
+            Object[] a = new Object[n.slots.length-1];
+            System.arraycopy(n.slots, 0, a, 0, i);
+            System.arraycopy(n.slots, i+1, a, i, a.length-i);
+            if (n.owner == owner) {
+                n.bitmap &= ~bit;
+                n.slots = a;
+                return n;
+            }
+            return new Node(n.bitmap & ~bit, a, owner);
+        }
+        else if (r instanceof Leaf && n.slots.length == 1) {
+            return r;
+        }
+        return setSlot(n, i, r);
+    }
+    
+    @Override
+    public int size() {
+        return size;
+    }
+    
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    
+    @Override
+    public void clear() {
+        root = null;
+        size = 0;
+    }
+    
+    @Override
+    public void compact() {
+        // nothing to compact
+    }
+    
+    @Override
+    public void ensureCapacity(int desiredCapacity) {
+        // nothing to reserve
+    }
+    
+    // entries may be removed (or their values replaced) while iterating
+    @Override
+    public boolean forEachEntry(TIntObjectProcedure<? super V> procedure) {
+        return root == null || forEachEntry(root, procedure);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private boolean forEachEntry(Node n, TIntObjectProcedure<? super V> procedure) {
+        for (Object s : n.slots) {
+            if (s instanceof Leaf) {
+                Leaf l = (Leaf)s;
+                if (!procedure.execute(l.key, (V)l.value)) {
+                    return false;
+                }
+            }
+            else if (!forEachEntry((Node)s, procedure)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    @Override
+    public boolean forEachKey(final TIntProcedure procedure) {
+        return forEachEntry(new TIntObjectProcedure<V>() {
+            public boolean execute(int k, V v) {
+                return procedure.execute(k);
+            }
+        });
+    }
+    
+    @Override
+    public boolean forEachValue(final TObjectProcedure<? super V> procedure) {
+        return forEachEntry(new TIntObjectProcedure<V>() {
+            public boolean execute(int k, V v) {
+                return procedure.execute(v);
+            }
+        });
+    }
+    
+    @Override
+    public boolean containsValue(final Object value) {
+        return !forEachValue(new TObjectProcedure<V>() {
+            public boolean execute(V v) {
+                return !(v == value || (v != null && v.equals(value)));
+            }
+        });
+    }
+    
+    @Override
+    public int[] keys() {
+        final int[] keys = new int[size];
+        forEachKey(new TIntProcedure() {
+            int i = 0;
+            public boolean execute(int k) {
+                keys[i++] = k;
+                return true;
+            }
+        });
+        return keys;
+    }
+    
+    @Override
+    public int[] keys(int[] dest) {
+        if (dest.length < size) {
+            dest = new int[size];
+        }
+        IntObjectCursor<V> c = IntObjectCursor.open(this);
+        for (int i=0; c.next(); i++) {
+            dest[i] = c.key();
+        }
+        c.close();
+        return dest;
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object[] values() {
+        return values((V[])new Object[size]);
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    public V[] values(V[] dest) {
+        if (dest.length < size) {
+            dest = (V[])java.lang.reflect.Array.newInstance(dest.getClass().getComponentType(), size);
+        }
+        IntObjectCursor<V> c = IntObjectCursor.open(this);
+        for (int i=0; c.next(); i++) {
+            dest[i] = c.value();
+        }
+        c.close();
+        return dest;
+    }
+    
+    @Override
+    public void putAll(TIntObjectMap<? extends V> map) {
+        map.forEachEntry(new TIntObjectProcedure<V>() {
+            public boolean execute(int k, V v) {
+                put(k, v);
+                return true;
+            }
+        });
+    }
+    
+    @Override
+    public void putAll(Map<? extends Integer, ? extends V> map) {
+        for (Map.Entry<? extends Integer, ? extends V> e : map.entrySet()) {
+            put(e.getKey(), e.getValue());
+        }
+    }
+    
+    @Override
+    public boolean retainEntries(TIntObjectProcedure<? super V> procedure) {
+        boolean modified = false;
+        IntObjectCursor<V> c = IntObjectCursor.open(this);
+        while (c.next()) {
+            if (!procedure.execute(c.key(), c.value())) {
+                remove(c.key());
+                modified = true;
+            }
+        }
+        c.close();
+        return modified;
+    }
+    
+    @Override
+    public void transformValues(TObjectFunction<V,V> function) {
+        IntObjectCursor<V> c = IntObjectCursor.open(this);
+        while (c.next()) {
+            put(c.key(), function.execute(c.value()));
+        }
+        c.close();
+    }
+    
+    @Override
+    public TIntSet keySet() {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public Collection<V> valueCollection() {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public TIntObjectIterator<V> iterator() {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean equals(Object other) {
+        if (other == this) {
+            return true;
+        }
+        else if (!(other instanceof TIntObjectMap)) {
+            return false;
+        }
+        final TIntObjectMap<V> that = (TIntObjectMap<V>)other;
+        if (that.size() != size) {
+            return false;
+        }
+        else if (that instanceof PersistentIntObjectMap && ((PersistentIntObjectMap<V>)that).root == root) {
+            return true;
+        }
+        return forEachEntry(new TIntObjectProcedure<V>() {
+            public boolean execute(int k, V v) {
+                V w = that.get(k);
+                return v == w || (v != null && v.equals(w)) || (w == null && v == null && that.containsKey(k));
+            }
+        });
+    }
+    
+    // same as TIntObjectHashMap
+    @Override
+    public int hashCode() {
+        final int[] h = new int[1];
+        forEachEntry(new TIntObjectProcedure<V>() {
+            public boolean execute(int k, V v) {
+                h[0] += k ^ (v == null ? 0 : v.hashCode());
+                return true;
+            }
+        });
+        return h[0];
+    }
+    
+    @Override
+    public String toString() {
+        final StringBuilder s = new StringBuilder("{");
+        forEachEntry(new TIntObjectProcedure<V>() {
+            boolean first = true;
+            public boolean execute(int k, V v) {
+                if (!first) {
+                    s.append(",");
+                }
+                first = false;
+                s.append(k).append("=").append(v);
+                return true;
+            }
+        });
+        return s.append("}").toString();
+    }
+    
+    @Override
+    public void writeExternal(final ObjectOutput out) throws IOException {
+        out.writeByte(0); // version
+        out.writeInt(size);
+        final IOException[] e = new IOException[1];
+        forEachEntry(new TIntObjectProcedure<V>() {
+            public boolean execute(int k, V v) {
+                try {
+                    out.writeInt(k);
+                    out.writeObject(v);
+                    return true;
+                }
+                catch (IOException ex) {
+                    e[0] = ex;
+                    return false;
+                }
+            }
+        });
+        if (e[0] != null) {
+            throw e[0];
+        }
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        in.readByte();
+        owner = new Object();
+        clear();
+        int n = in.readInt();
+        for (int i=0; i<n; i++) {
+            int k = in.readInt();
+            put(k, (V)in.readObject());
+        }
+    }
+    
+}
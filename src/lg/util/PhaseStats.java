@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2013, Khilan Gudka.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package lg.util;
+
+import java.io.PrintStream;
+import java.lang.management.*;
+import java.util.*;
+
+/**
+ * Records wall-clock time and peak heap for consecutive, named phases of a
+ * run. Starting a phase ends the current one. Peak heap is the sum of the
+ * peaks of each heap memory pool since the phase started, which is an upper
+ * bound on the actual peak (pools need not peak at the same time).
+ * A phase that is begun again (e.g. once per atomic) accumulates its time
+ * and keeps the largest peak. Time spent concurrently by several tasks can
+ * be recorded with add(), which sums it and has no peak.
+ */
+public class PhaseStats {
+
+    static List<String> names = new ArrayList<String>();
+    static List<Long> times = new ArrayList<Long>();
+    static List<Long> peaks = new ArrayList<Long>();
+    
+    static String current = null;
+    static long start;
+    
+    public static synchronized void begin(String name) {
+        end();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                pool.resetPeakUsage();
+            }
+        }
+        current = name;
+        start = System.currentTimeMillis();
+    }
+    
+    public static synchronized void end() {
+        if (current != null) {
+            long took = System.currentTimeMillis() - start;
+            long peak = 0;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                    peak += pool.getPeakUsage().getUsed();
+                }
+            }
+            record(current, took, peak);
+            current = null;
+        }
+    }
+    
+    public static synchronized void add(String name, long took) {
+        record(name, took, -1);
+    }
+    
+    private static void record(String name, long took, long peak) {
+        int i = names.indexOf(name);
+        if (i == -1) {
+            names.add(name);
+            times.add(took);
+            peaks.add(peak);
+        }
+        else {
+            times.set(i, times.get(i) + took);
+            peaks.set(i, Math.max(peaks.get(i), peak));
+        }
+    }
+    
+    public static synchronized void clear() {
+        current = null;
+        names.clear();
+        times.clear();
+        peaks.clear();
+    }
+    
+    // csv: phase,ms,peak heap (MB)
+    public static synchronized void output(PrintStream out) {
+        out.println("phase,ms,peak heap (MB)");
+        for (int i=0; i<names.size(); i++) {
+            long peak = peaks.get(i);
+            out.println(names.get(i) + "," + times.get(i) + "," + (peak == -1 ? "" : String.format("%.1f", peak / 1024.0 / 1024.0)));
+        }
+        out.flush();
+    }
+    
+}
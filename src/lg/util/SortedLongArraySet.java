@@ -0,0 +1,546 @@
+/*
+ * Copyright (c) 2013, Khilan Gudka.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package lg.util;
+
+import gnu.trove.TLongCollection;
+import gnu.trove.iterator.TLongIterator;
+import gnu.trove.procedure.TLongProcedure;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Set of longs kept as two sorted runs instead of a hash table: the main run
+ * and a run of recent additions, which is merged into the main run once it
+ * grows past roughly the square root of the main run's size. Unions with
+ * another SortedLongArraySet are merges and containsAll gallops through the
+ * main run.
+ * 
+ * The main run is never updated in place (it is replaced), so it can be
+ * shared between copies and a forEach may remove elements as it goes. Read
+ * operations don't modify the set, so it may be read concurrently.
+ * 
+ * Extends TLongHashSet (like TwoLevelSet) so it can be used wherever the
+ * fast Transformer expects edge sets. The inherited hash table is released.
+ */
+public class SortedLongArraySet extends TLongHashSet {
+
+    private static final long[] EMPTY = new long[0];
+    private static final int MIN_RECENT = 16;
+    
+    // sorted and distinct
+    long[] elems;
+    
+    // sorted, distinct and disjoint from elems
+    long[] recent;
+    int r;
+    
+    public SortedLongArraySet() {
+        super(0);
+        _set = null;
+        _states = null;
+        elems = EMPTY;
+        recent = EMPTY;
+        r = 0;
+    }
+    
+    public SortedLongArraySet(int initialCapacity) {
+        this();
+    }
+    
+    public SortedLongArraySet(long[] array) {
+        this();
+        addAll(array);
+    }
+    
+    public SortedLongArraySet(TLongCollection c) {
+        this();
+        if (c instanceof SortedLongArraySet) {
+            SortedLongArraySet s = (SortedLongArraySet)c;
+            elems = s.elems;
+            recent = s.r == 0 ? EMPTY : Arrays.copyOf(s.recent, s.r);
+            r = s.r;
+        }
+        else {
+            addAll(c);
+        }
+    }
+    
+    @Override
+    public boolean add(long v) {
+        if (Arrays.binarySearch(elems, v) >= 0) {
+            return false;
+        }
+        int i = Arrays.binarySearch(recent, 0, r, v);
+        if (i >= 0) {
+            return false;
+        }
+        i = -i - 1;
+        if (r == recent.length) {
+            int limit = Math.max(MIN_RECENT, (int)Math.sqrt(elems.length));
+            if (r >= limit) {
+                flush();
+                i = 0;
+            }
+            else {
+                recent = Arrays.copyOf(recent, Math.min(limit, Math.max(2, r*2)));
+            }
+        }
+        System.arraycopy(recent, i, recent, i+1, r-i);
+        recent[i] = v;
+        r++;
+        return true;
+    }
+    
+    @Override
+    public boolean addAll(TLongCollection c) {
+        if (c instanceof SortedLongArraySet) {
+            SortedLongArraySet s = (SortedLongArraySet)c;
+            int oldSize = size();
+            long[] u = union(sorted(), s.sorted());
+            elems = u;
+            r = 0;
+            return u.length != oldSize;
+        }
+        else {
+            final boolean[] changed = new boolean[1];
+            c.forEach(new TLongProcedure() {
+                public boolean execute(long v) {
+                    changed[0] |= add(v);
+                    return true;
+                }
+            });
+            return changed[0];
+        }
+    }
+    
+    @Override
+    public boolean addAll(long[] array) {
+        boolean changed = false;
+        for (long v : array) {
+            changed |= add(v);
+        }
+        return changed;
+    }
+    
+    @Override
+    public boolean addAll(Collection<? extends Long> c) {
+        boolean changed = false;
+        for (Long v : c) {
+            changed |= add(v);
+        }
+        return changed;
+    }
+    
+    @Override
+    public boolean contains(long v) {
+        return Arrays.binarySearch(elems, v) >= 0 || Arrays.binarySearch(recent, 0, r, v) >= 0;
+    }
+    
+    @Override
+    public boolean containsAll(TLongCollection c) {
+        if (c instanceof SortedLongArraySet) {
+            SortedLongArraySet s = (SortedLongArraySet)c;
+            if (s.size() > size()) {
+                return false;
+            }
+            long[] sRecent = s.recent;
+            return containsAllSorted(s.elems, s.elems.length) && containsAllSorted(sRecent, s.r);
+        }
+        else {
+            return c.forEach(new TLongProcedure() {
+                public boolean execute(long v) {
+                    return contains(v);
+                }
+            });
+        }
+    }
+    
+    @Override
+    public boolean containsAll(long[] array) {
+        for (long v : array) {
+            if (!contains(v)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    @Override
+    public boolean containsAll(Collection<?> c) {
+        for (Object o : c) {
+            if (!(o instanceof Long) || !contains((Long)o)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    // a[0..n) is sorted. Gallops through elems, as a's elements are found
+    // in increasing order.
+    private boolean containsAllSorted(long[] a, int n) {
+        long[] e = elems;
+        int pos = 0;
+        for (int k=0; k<n; k++) {
+            long v = a[k];
+            // find the first index >= pos with e[index] >= v
+            int step = 1;
+            int lo = pos;
+            int hi = pos;
+            while (hi < e.length && e[hi] < v) {
+                lo = hi + 1;
+                hi = pos + step;
+                step <<= 1;
+            }
+            int i = Arrays.binarySearch(e, lo, Math.min(hi+1, e.length), v);
+            if (i >= 0) {
+                pos = i + 1;
+            }
+            else {
+                pos = -i - 1;
+                if (Arrays.binarySearch(recent, 0, r, v) < 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+    
+    @Override
+    public boolean remove(long v) {
+        int i = Arrays.binarySearch(recent, 0, r, v);
+        if (i >= 0) {
+            // copy, so that a forEach over recent is unaffected
+            long[] rc = new long[recent.length];
+            System.arraycopy(recent, 0, rc, 0, i);
+            System.arraycopy(recent, i+1, rc, i, r-i-1);
+            recent = rc;
+            r--;
+            return true;
+        }
+        i = Arrays.binarySearch(elems, v);
+        if (i >= 0) {
+            elems = without(elems, i);
+            return true;
+        }
+        return false;
+    }
+    
+    @Override
+    public boolean removeAll(TLongCollection c) {
+        return retain(c, false);
+    }
+    
+    @Override
+    public boolean removeAll(long[] array) {
+        return retain(new SortedLongArraySet(array), false);
+    }
+    
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        boolean changed = false;
+        for (Object o : c) {
+            if (o instanceof Long) {
+                changed |= remove((Long)o);
+            }
+        }
+        return changed;
+    }
+    
+    @Override
+    public boolean retainAll(TLongCollection c) {
+        return retain(c, true);
+    }
+    
+    @Override
+    public boolean retainAll(long[] array) {
+        return retain(new SortedLongArraySet(array), true);
+    }
+    
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        long[] a = sorted();
+        long[] kept = new long[a.length];
+        int n = 0;
+        for (long v : a) {
+            if (c.contains(v)) {
+                kept[n++] = v;
+            }
+        }
+        return replaceWith(kept, n, a.length);
+    }
+    
+    // keeps the elements that are (keep) or aren't (!keep) in c
+    private boolean retain(TLongCollection c, boolean keep) {
+        long[] a = sorted();
+        long[] kept = new long[a.length];
+        int n = 0;
+        for (long v : a) {
+            if (c.contains(v) == keep) {
+                kept[n++] = v;
+            }
+        }
+        return replaceWith(kept, n, a.length);
+    }
+    
+    private boolean replaceWith(long[] a, int n, int oldSize) {
+        elems = n == 0 ? EMPTY : (n == a.length ? a : Arrays.copyOf(a, n));
+        recent = EMPTY;
+        r = 0;
+        return n != oldSize;
+    }
+    
+    @Override
+    public void clear() {
+        elems = EMPTY;
+        recent = EMPTY;
+        r = 0;
+    }
+    
+    @Override
+    public int size() {
+        return elems.length + r;
+    }
+    
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+    
+    public int capacity() {
+        return elems.length + recent.length;
+    }
+    
+    @Override
+    public void ensureCapacity(int desiredCapacity) {
+        // nothing to reserve, runs are sized as they are merged
+    }
+    
+    @Override
+    public void compact() {
+        flush();
+        recent = EMPTY;
+    }
+    
+    // elements are visited in increasing order
+    @Override
+    public boolean forEach(TLongProcedure procedure) {
+        long[] e = elems;
+        long[] rc = recent;
+        int nr = r;
+        int i = 0;
+        int j = 0;
+        while (i < e.length && j < nr) {
+            if (!procedure.execute(e[i] < rc[j] ? e[i++] : rc[j++])) {
+                return false;
+            }
+        }
+        while (i < e.length) {
+            if (!procedure.execute(e[i++])) {
+                return false;
+            }
+        }
+        while (j < nr) {
+            if (!procedure.execute(rc[j++])) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    @Override
+    public TLongIterator iterator() {
+        final long[] a = toArray();
+        return new TLongIterator() {
+            int i = 0;
+            public boolean hasNext() {
+                return i < a.length;
+            }
+            public long next() {
+                if (i == a.length) {
+                    throw new NoSuchElementException();
+                }
+                return a[i++];
+            }
+            public void remove() {
+                SortedLongArraySet.this.remove(a[i-1]);
+            }
+        };
+    }
+    
+    @Override
+    public long[] toArray() {
+        long[] a = sorted();
+        return a == elems ? a.clone() : a;
+    }
+    
+    @Override
+    public long[] toArray(long[] dest) {
+        long[] a = sorted();
+        System.arraycopy(a, 0, dest, 0, Math.min(a.length, dest.length));
+        if (dest.length > a.length) {
+            dest[a.length] = getNoEntryValue();
+        }
+        return dest;
+    }
+    
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof TLongSet)) {
+            return false;
+        }
+        final TLongSet that = (TLongSet)other;
+        if (that.size() != size()) {
+            return false;
+        }
+        if (that instanceof SortedLongArraySet) {
+            return Arrays.equals(sorted(), ((SortedLongArraySet)that).sorted());
+        }
+        return forEach(new TLongProcedure() {
+            public boolean execute(long v) {
+                return that.contains(v);
+            }
+        });
+    }
+    
+    // same as TLongHashSet, so that equal sets of either kind hash equally
+    @Override
+    public int hashCode() {
+        int h = 0;
+        for (long v : elems) {
+            h += (int)(v ^ (v >>> 32));
+        }
+        for (int j=0; j<r; j++) {
+            h += (int)(recent[j] ^ (recent[j] >>> 32));
+        }
+        return h;
+    }
+    
+    @Override
+    public String toString() {
+        final StringBuilder s = new StringBuilder("{");
+        forEach(new TLongProcedure() {
+            boolean first = true;
+            public boolean execute(long v) {
+                if (!first) {
+                    s.append(", ");
+                }
+                first = false;
+                s.append(v);
+                return true;
+            }
+        });
+        return s.append("}").toString();
+    }
+    
+    @Override
+    public Object clone() {
+        return new SortedLongArraySet(this);
+    }
+    
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeByte(0); // version
+        long[] a = sorted();
+        out.writeInt(a.length);
+        for (long v : a) {
+            out.writeLong(v);
+        }
+    }
+    
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        in.readByte();
+        long[] a = new long[in.readInt()];
+        for (int i=0; i<a.length; i++) {
+            a[i] = in.readLong();
+        }
+        Arrays.sort(a);
+        elems = a.length == 0 ? EMPTY : a;
+        recent = EMPTY;
+        r = 0;
+    }
+    
+    // merges recent into elems
+    private void flush() {
+        if (r > 0) {
+            elems = union(elems, Arrays.copyOf(recent, r));
+            r = 0;
+        }
+    }
+    
+    // all elements in one sorted run, without modifying this set
+    long[] sorted() {
+        return r == 0 ? elems : union(elems, Arrays.copyOf(recent, r));
+    }
+    
+    // a and b are sorted and distinct
+    private static long[] union(long[] a, long[] b) {
+        if (b.length == 0) {
+            return a;
+        }
+        else if (a.length == 0) {
+            return b;
+        }
+        long[] u = new long[a.length + b.length];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                u[n++] = a[i++];
+            }
+            else if (a[i] > b[j]) {
+                u[n++] = b[j++];
+            }
+            else {
+                u[n++] = a[i++];
+                j++;
+            }
+        }
+        while (i < a.length) {
+            u[n++] = a[i++];
+        }
+        while (j < b.length) {
+            u[n++] = b[j++];
+        }
+        return n == u.length ? u : Arrays.copyOf(u, n);
+    }
+    
+    private static long[] without(long[] a, int i) {
+        if (a.length == 1) {
+            return EMPTY;
+        }
+        long[] b = new long[a.length-1];
+        System.arraycopy(a, 0, b, 0, i);
+        System.arraycopy(a, i+1, b, i, a.length-i-1);
+        return b;
+    }
+    
+}
@@ -29,6 +29,7 @@ package lg.util;
 import java.io.*;
 import java.util.*;
 
+import lg.cg.CallGraphIndex;
 import lg.cg.NonColdEdgesPred;
 import lg.transformer.AtomicTransformer;
 import soot.*;
@@ -37,70 +38,139 @@ import soot.jimple.toolkits.callgraph.*;
 
 public class StronglyConnectedComponents {
 
-	CallGraph cg;
+	CallGraphIndex cgIndex;
 	static NonColdEdgesPred edgesPred = new NonColdEdgesPred();
 	List<Component> components;
 	
-	Stack<SootMethod> s;
-	Map<SootMethod,Integer> indices;
-	Map<SootMethod,Integer> lowlinks;
+	// indexed by SootMethod.getNumber(). indices are stored +1, so that 0
+	// means not yet visited
+	int[] indices;
+	int[] lowlinks;
+	BitSet onStack;
+	Component[] methodToComponent;
+	List<SootMethod> s;
 	int index;
 		
 	public StronglyConnectedComponents(SootMethod m) {
-		cg = Scene.v().getCallGraph();
+		this(Collections.singleton(m));
+	}
+	
+	// Finds the components of all methods reachable from the given roots
+	// in one pass, so that components shared between roots are found once.
+	public StronglyConnectedComponents(Collection<SootMethod> roots) {
+		cgIndex = CallGraphIndex.v();
 		
-		s = new Stack<SootMethod>();
-		indices = new HashMap<SootMethod, Integer>();
-		lowlinks = new HashMap<SootMethod, Integer>();
+		int size = Scene.v().getMethodNumberer().size() + 1;
+		indices = new int[size];
+		lowlinks = new int[size];
+		onStack = new BitSet(size);
+		methodToComponent = new Component[size];
+		s = new ArrayList<SootMethod>();
 		index = 0;
 		components = new ArrayList<Component>();
 		
-		findComponents(m);
+		for (SootMethod m : roots) {
+			findComponents(m);
+		}
 		
 		s = null;
 		indices = null;
 		lowlinks = null;
+		onStack = null;
 	}
 
 	private void findComponents(SootMethod m) {
-		tarjan(m);
+		ensureCapacity(m.getNumber());
+		if (indices[m.getNumber()] == 0) {
+			tarjan(m);
+		}
 	}
 
 	// See http://en.wikipedia.org/wiki/Tarjan%27s_strongly_connected_components_algorithm
 	// or Robert Tarjan: Depth-first search and linear graph algorithms. 
 	//    In: SIAM Journal on Computing. Vol. 1 (1972), No. 2, P. 146-160.
-	private void tarjan(SootMethod m) {
-		indices.put(m, index);
-		lowlinks.put(m, index);
-		index++;
-		s.push(m);
+	// Iterative version: callStack holds the methods being visited and
+	// succsStack how far through their succs (in cgIndex) we have got.
+	private void tarjan(SootMethod root) {
+		List<SootMethod> callStack = new ArrayList<SootMethod>();
+		int[] succsStack = new int[16];
+		succsStack[0] = cgIndex.getSuccsStart(root.getNumber());
+		visit(root, callStack);
 		
-		Iterator<Edge> edges = cg.edgesOutOf(m);  // iterate through m's succs
-		while (edges.hasNext()) {
-			Edge e = edges.next();
-			if (edgesPred.want(e)) {
-				SootMethod mSucc = e.getTgt().method();
-				if (!indices.containsKey(mSucc)) {
-					tarjan(mSucc);
-					lowlinks.put(m, Math.min(lowlinks.get(m).intValue(), lowlinks.get(mSucc).intValue()));
+		while (!callStack.isEmpty()) {
+			int top = callStack.size()-1;
+			SootMethod m = callStack.get(top);
+			int mNum = m.getNumber();
+			int succsEnd = cgIndex.getSuccsEnd(mNum);
+			boolean descended = false;
+			while (succsStack[top] < succsEnd) {  // iterate through m's succs
+				int succNum = cgIndex.getSucc(succsStack[top]++);
+				ensureCapacity(succNum);
+				if (indices[succNum] == 0) {
+					if (top+1 == succsStack.length) {
+						succsStack = Arrays.copyOf(succsStack, succsStack.length*2);
+					}
+					succsStack[top+1] = cgIndex.getSuccsStart(succNum);
+					visit(cgIndex.getMethod(succNum), callStack);
+					descended = true;
+					break;
 				}
-				else if (s.contains(mSucc)) {
-					lowlinks.put(m, Math.min(lowlinks.get(m).intValue(), indices.get(mSucc).intValue()));
+				else if (onStack.get(succNum)) {
+					lowlinks[mNum] = Math.min(lowlinks[mNum], indices[succNum]);
 				}
 			}
+			if (descended) {
+				continue;
+			}
+			
+			// all of m's succs have been visited
+			callStack.remove(top);
+			
+			if (lowlinks[mNum] == indices[mNum]) {  // Is m the root of an SCC?
+				Component scc = new Component();
+				SootMethod m2;
+				do {
+					m2 = s.remove(s.size()-1);
+					onStack.clear(m2.getNumber());
+					methodToComponent[m2.getNumber()] = scc;
+					scc.add(m2);
+				} while (m != m2);
+				components.add(scc);
+			}
+			
+			if (top > 0) {
+				int parentNum = callStack.get(top-1).getNumber();
+				lowlinks[parentNum] = Math.min(lowlinks[parentNum], lowlinks[mNum]);
+			}
 		}
-		
-		if (lowlinks.get(m).intValue() == indices.get(m).intValue()) {  // Is m the root of an SCC?
-			Component scc = new Component();
-			SootMethod m2;
-			do {
-				m2 = s.pop();
-				scc.add(m2);
-			} while (m != m2);
-			components.add(scc);
+	}
+	
+	private void visit(SootMethod m, List<SootMethod> callStack) {
+		int mNum = m.getNumber();
+		index++;
+		indices[mNum] = index;
+		lowlinks[mNum] = index;
+		s.add(m);
+		onStack.set(mNum);
+		callStack.add(m);
+	}
+	
+	// methods may have been created since the arrays were allocated
+	private void ensureCapacity(int num) {
+		if (num >= indices.length) {
+			int size = Math.max(num+1, indices.length*2);
+			indices = Arrays.copyOf(indices, size);
+			lowlinks = Arrays.copyOf(lowlinks, size);
+			methodToComponent = Arrays.copyOf(methodToComponent, size);
 		}
 	}
 	
+	// the component containing m, or null if m is not reachable from the roots
+	public Component getComponentOf(SootMethod m) {
+		int num = m.getNumber();
+		return num < methodToComponent.length ? methodToComponent[num] : null;
+	}
+	
 	public List<Component> getComponents() {
 		return components;
 	}
@@ -24,24 +24,136 @@
  * POSSIBILITY OF SUCH DAMAGE.
  */
 
+
 package lg.util;
 
-import soot.util.MapNumberer;
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import lg.transformer.AtomicTransformer;
+import soot.Local;
+import soot.SootMethod;
+
+// Numbers the symbols (locals, fields, parameters, ...) that transformer
+// edges refer to. Lookups in either direction are lock-free, only handing
+// out a new number takes the lock.
+//
+// Locals are only meaningful while their method is being analysed, so users
+// bracket their analysis with acquireLocals/releaseLocals. Once the last
+// user of a method releases it, the numbers of its locals are recycled.
+// Numbers start at 1, 0 is reserved for null.
 public class SymbolNumberer {
     
-    private static MapNumberer numberer = new MapNumberer();
+    private static final ConcurrentHashMap<Object,Integer> objectToNumber = new ConcurrentHashMap<Object,Integer>(1024, 0.75f, 64);
+    
+    // replaced (never shrunk) when full, a slot is written before the
+    // array is (re)published so readers that see the number see the object
+    private static volatile Object[] numberToObject = new Object[1024];
+    
+    private static volatile int next = 1;
+    
+    // guarded by lock
+    private static final TIntArrayList free = new TIntArrayList();
+    private static final Map<SootMethod,Integer> methodToUsers = new HashMap<SootMethod, Integer>();
+    private static long recycled = 0;
+    
+    private static final Object lock = new Object();
     
     public static int getNumber(Object o) {
-        numberer.add(o);
-        return (int)numberer.get(o);
+        if (o == null) {
+            return 0;
+        }
+        Integer n = objectToNumber.get(o);
+        if (n != null) {
+            return n;
+        }
+        synchronized (lock) {
+            n = objectToNumber.get(o);
+            if (n == null) {
+                int i = free.isEmpty() ? next++ : free.removeAt(free.size()-1);
+                Object[] objects = numberToObject;
+                if (i >= objects.length) {
+                    objects = Arrays.copyOf(objects, Math.max(objects.length*2, i+1));
+                }
+                objects[i] = o;
+                numberToObject = objects;
+                n = i;
+                objectToNumber.put(o, n);
+            }
+            return n;
+        }
     }
     
+    // null if i has not been handed out or has been recycled
     public static Object getObject(long i) {
-        return numberer.get(i);
+        Object[] objects = numberToObject;
+        return i >= 0 && i < objects.length ? objects[(int)i] : null;
     }
     
+    // highest number handed out so far
     public static int size() {
-        return numberer.size();
+        return next-1;
+    }
+    
+    // numbers currently in use
+    public static int liveCount() {
+        return objectToNumber.size();
+    }
+    
+    public static long recycledCount() {
+        synchronized (lock) {
+            return recycled;
+        }
+    }
+    
+    // marks methods whose locals are about to be numbered
+    public static void acquireLocals(Collection<SootMethod> methods) {
+        if (!AtomicTransformer.RECYCLE_LOCALS) {
+            return;
+        }
+        synchronized (lock) {
+            for (SootMethod m : methods) {
+                Integer users = methodToUsers.get(m);
+                methodToUsers.put(m, users == null ? 1 : users+1);
+            }
+        }
+    }
+    
+    // recycles the numbers of the locals of methods no longer acquired by
+    // anyone. Transformers still referring to them must have been dropped.
+    public static void releaseLocals(Collection<SootMethod> methods) {
+        if (!AtomicTransformer.RECYCLE_LOCALS) {
+            return;
+        }
+        synchronized (lock) {
+            Object[] objects = numberToObject;
+            for (SootMethod m : methods) {
+                Integer users = methodToUsers.get(m);
+                if (users == null) {
+                    throw new RuntimeException("Locals of " + m + " released but not acquired");
+                }
+                else if (users > 1) {
+                    methodToUsers.put(m, users-1);
+                }
+                else {
+                    methodToUsers.remove(m);
+                    if (m.hasActiveBody()) {
+                        for (Local l : m.getActiveBody().getLocals()) {
+                            Integer n = objectToNumber.remove(l);
+                            if (n != null) {
+                                objects[n] = null;
+                                free.add(n);
+                                recycled++;
+                            }
+                        }
+                    }
+                }
+            }
+        }
     }
 }
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2013, Khilan Gudka.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package lg.util;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Generates a synthetic Java program for scalability experiments. The call
+ * graph has callDepth levels of sccsPerLevel strongly connected components,
+ * each a ring of sccSize methods. Methods walk field paths of length
+ * fieldDepth over a Node class, store into them, optionally call themselves
+ * (recursion) and call calleesPerMethod methods in the next level. The
+ * program has numAtomics synchronized blocks, each calling into a random
+ * component, all reachable from main.
+ * 
+ * Options are given as key=value, e.g. sccSize=8 callDepth=10.
+ */
+public class WorkloadGenerator {
+
+    public static final String MAIN_CLASS = "Workload";
+    
+    int callDepth = 5;
+    int sccsPerLevel = 10;
+    int sccSize = 4;
+    int fieldDepth = 3;
+    int numFields = 4;
+    int calleesPerMethod = 2;
+    boolean recursion = true;
+    int numAtomics = 10;
+    long seed = 1;
+    
+    Random random;
+    
+    public WorkloadGenerator(Map<String,String> options) {
+        for (String key : options.keySet()) {
+            String value = options.get(key);
+            if (key.equals("callDepth")) callDepth = Integer.parseInt(value);
+            else if (key.equals("sccsPerLevel")) sccsPerLevel = Integer.parseInt(value);
+            else if (key.equals("sccSize")) sccSize = Integer.parseInt(value);
+            else if (key.equals("fieldDepth")) fieldDepth = Integer.parseInt(value);
+            else if (key.equals("numFields")) numFields = Integer.parseInt(value);
+            else if (key.equals("calleesPerMethod")) calleesPerMethod = Integer.parseInt(value);
+            else if (key.equals("recursion")) recursion = Boolean.parseBoolean(value);
+            else if (key.equals("numAtomics")) numAtomics = Integer.parseInt(value);
+            else if (key.equals("seed")) seed = Long.parseLong(value);
+            else throw new IllegalArgumentException("unknown option: " + key);
+        }
+    }
+    
+    public static Map<String,String> parseOptions(List<String> args) {
+        Map<String,String> options = new LinkedHashMap<String,String>();
+        for (String arg : args) {
+            int i = arg.indexOf('=');
+            if (i == -1) {
+                throw new IllegalArgumentException("expected key=value: " + arg);
+            }
+            options.put(arg.substring(0, i), arg.substring(i+1));
+        }
+        return options;
+    }
+    
+    @Override
+    public String toString() {
+        return "callDepth=" + callDepth + " sccsPerLevel=" + sccsPerLevel + " sccSize=" + sccSize + " fieldDepth=" + fieldDepth + " numFields=" + numFields + " calleesPerMethod=" + calleesPerMethod + " recursion=" + recursion + " numAtomics=" + numAtomics + " seed=" + seed;
+    }
+    
+    // writes Node.java and Workload.java to dir
+    public void generate(File dir) {
+        random = new Random(seed);
+        dir.mkdirs();
+        try {
+            PrintWriter node = new PrintWriter(new File(dir, "Node.java"));
+            node.println("class Node {");
+            for (int i=0; i<numFields; i++) {
+                node.println("    Node f" + i + ";");
+            }
+            // so that the program can also be run
+            node.println("    Node() {");
+            for (int i=0; i<numFields; i++) {
+                node.println("        f" + i + " = this;");
+            }
+            node.println("    }");
+            node.println("}");
+            node.close();
+            
+            PrintWriter p = new PrintWriter(new File(dir, MAIN_CLASS + ".java"));
+            p.println("public class " + MAIN_CLASS + " {");
+            p.println();
+            p.println("    static final Object LOCK = new Object();");
+            p.println();
+            p.println("    public static void main(String[] args) {");
+            p.println("        Node p = new Node();");
+            for (int i=0; i<numAtomics; i++) {
+                p.println("        atomic" + i + "(p);");
+            }
+            p.println("    }");
+            p.println();
+            for (int i=0; i<numAtomics; i++) {
+                p.println("    static void atomic" + i + "(Node p) {");
+                p.println("        synchronized (LOCK) {");
+                p.println("            " + method(random.nextInt(callDepth), random.nextInt(sccsPerLevel), random.nextInt(sccSize)) + "(" + fieldPath("p") + ", 2);");
+                p.println("        }");
+                p.println("    }");
+                p.println();
+            }
+            for (int l=0; l<callDepth; l++) {
+                for (int s=0; s<sccsPerLevel; s++) {
+                    for (int m=0; m<sccSize; m++) {
+                        generateMethod(p, l, s, m);
+                    }
+                }
+            }
+            p.println("}");
+            p.close();
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    private void generateMethod(PrintWriter p, int l, int s, int m) {
+        p.println("    static Node " + method(l, s, m) + "(Node p, int n) {");
+        p.println("        Node x = " + fieldPath("p") + ";");
+        p.println("        " + fieldPath("x") + ".f" + random.nextInt(numFields) + " = p;");
+        p.println("        Node r = x;");
+        p.println("        if (n > 0) {");
+        if (sccSize > 1) {
+            p.println("            r = " + method(l, s, (m+1) % sccSize) + "(x, n - 1);");
+        }
+        if (recursion) {
+            p.println("            " + method(l, s, m) + "(" + fieldPath("p") + ", n - 1);");
+        }
+        p.println("        }");
+        if (l+1 < callDepth) {
+            for (int i=0; i<calleesPerMethod; i++) {
+                p.println("        r = " + method(l+1, random.nextInt(sccsPerLevel), random.nextInt(sccSize)) + "(r, n);");
+            }
+        }
+        p.println("        return r;");
+        p.println("    }");
+        p.println();
+    }
+    
+    private String method(int l, int s, int m) {
+        return "m" + l + "_" + s + "_" + m;
+    }
+    
+    // x.fi.fj... of length fieldDepth
+    private String fieldPath(String x) {
+        String path = x;
+        for (int i=0; i<fieldDepth; i++) {
+            path += ".f" + random.nextInt(numFields);
+        }
+        return path;
+    }
+    
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("usage: WorkloadGenerator <dir> [key=value ...]");
+            System.exit(1);
+        }
+        WorkloadGenerator g = new WorkloadGenerator(parseOptions(Arrays.asList(args).subList(1, args.length)));
+        g.generate(new File(args[0]));
+        System.out.println("Generated " + MAIN_CLASS + " (" + g + ") in " + args[0]);
+    }
+    
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright (c) 2013, Khilan Gudka.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package lg.analysis.paths.automata;
+
+import static org.junit.Assert.*;
+
+import gnu.trove.set.hash.TLongHashSet;
+
+import java.util.*;
+
+import lg.analysis.paths.transformer.fast.TransformerEdgeFactory;
+import lg.util.SymbolNumberer;
+
+import org.junit.Test;
+
+public class CompactAutomatonTest {
+
+    private static final int START = (int)TransformerEdgeFactory.START_STATE;
+    
+    private static final int F = SymbolNumberer.getNumber("CompactAutomatonTest.f");
+    private static final int G = SymbolNumberer.getNumber("CompactAutomatonTest.g");
+    private static final int H = SymbolNumberer.getNumber("CompactAutomatonTest.h");
+    private static final int[] LABELS = { F, G, H };
+    
+    private static long edge(int src, int dst, boolean write, int lbl) {
+        return TransformerEdgeFactory.newAccessEdge(src, dst, write, lbl);
+    }
+    
+    private static Set<Integer> stateNumbers(CompactAutomaton nfa) {
+        Set<Integer> nums = new HashSet<Integer>();
+        for (int s=0; s<nfa.stateCount(); s++) {
+            nums.add(nfa.stateNumber(s));
+        }
+        return nums;
+    }
+    
+    // state numbers of the dense states in bs
+    private static Set<Integer> stateNumbers(CompactAutomaton nfa, BitSet bs) {
+        Set<Integer> nums = new HashSet<Integer>();
+        for (int s=bs.nextSetBit(0); s>=0; s=bs.nextSetBit(s+1)) {
+            nums.add(nfa.stateNumber(s));
+        }
+        return nums;
+    }
+    
+    // transitions as "src -lbl(r|w)-> dst", by state number
+    private static Set<String> transitions(CompactAutomaton nfa) {
+        Set<String> ts = new HashSet<String>();
+        for (int s=0; s<nfa.stateCount(); s++) {
+            for (int t=nfa.first(s); t<nfa.end(s); t++) {
+                ts.add(nfa.stateNumber(s) + " -" + nfa.lbl(t) + (nfa.isWrite(t) ? "w" : "r") + "-> " + nfa.stateNumber(nfa.dst(t)));
+            }
+        }
+        return ts;
+    }
+    
+    private static String transition(int src, int lbl, boolean write, int dst) {
+        return src + " -" + lbl + (write ? "w" : "r") + "-> " + dst;
+    }
+    
+    // state number -> key, the start state has its own
+    private static Object[] keys(CompactAutomaton nfa, Map<Integer,Object> numToKey) {
+        Object[] keys = new Object[nfa.stateCount()];
+        for (int s=0; s<keys.length; s++) {
+            keys[s] = numToKey.get(nfa.stateNumber(s));
+        }
+        return keys;
+    }
+    
+    // labelled paths of up to depth transitions from the start state, with
+    // the key of each state reached
+    private static Set<String> paths(CompactAutomaton nfa, Object[] keys, int depth) {
+        Set<String> paths = new HashSet<String>();
+        walk(nfa, CompactAutomaton.START, "", depth, keys, paths);
+        return paths;
+    }
+    
+    private static void walk(CompactAutomaton nfa, int s, String path, int depth, Object[] keys, Set<String> paths) {
+        paths.add(path);
+        if (depth > 0) {
+            for (int t=nfa.first(s); t<nfa.end(s); t++) {
+                int d = nfa.dst(t);
+                walk(nfa, d, path + "/" + nfa.lbl(t) + (nfa.isWrite(t) ? "w" : "r") + "@" + keys[d], depth-1, keys, paths);
+            }
+        }
+    }
+    
+    @Test
+    public void testFromEdges() {
+        TLongHashSet edges = new TLongHashSet();
+        edges.add(edge(START, 1, false, F));
+        edges.add(edge(START, 2, true, G));
+        edges.add(edge(1, 2, false, H));
+        CompactAutomaton nfa = CompactAutomaton.fromEdges(edges);
+        assertEquals(3, nfa.stateCount());
+        assertEquals(3, nfa.size());
+        assertEquals(START, nfa.stateNumber(CompactAutomaton.START));
+        assertEquals(new HashSet<Integer>(Arrays.asList(START, 1, 2)), stateNumbers(nfa));
+        assertTrue(nfa.hasStateNumber(2));
+        assertFalse(nfa.hasStateNumber(3));
+        assertEquals(new HashSet<String>(Arrays.asList(
+                transition(START, F, false, 1),
+                transition(START, G, true, 2),
+                transition(1, H, false, 2))), transitions(nfa));
+        assertEquals(2, nfa.end(CompactAutomaton.START) - nfa.first(CompactAutomaton.START));
+    }
+    
+    @Test
+    public void testFromNoEdges() {
+        CompactAutomaton nfa = CompactAutomaton.fromEdges(null);
+        assertEquals(1, nfa.stateCount());
+        assertEquals(0, nfa.size());
+        assertEquals(START, nfa.stateNumber(CompactAutomaton.START));
+        assertEquals(1, nfa.cleanup());
+    }
+    
+    @Test
+    public void testCleanupRemovesUnreachableStates() {
+        // start -f-> 1 -g-> 2, and an unreachable cycle 3 -f-> 4 -f-> 3
+        TLongHashSet edges = new TLongHashSet();
+        edges.add(edge(START, 1, false, F));
+        edges.add(edge(1, 2, true, G));
+        edges.add(edge(3, 4, false, F));
+        edges.add(edge(4, 3, false, F));
+        edges.add(edge(4, 2, false, H));
+        CompactAutomaton nfa = CompactAutomaton.fromEdges(edges);
+        assertEquals(5, nfa.stateCount());
+        assertEquals(3, nfa.reachable().cardinality());
+        
+        assertEquals(3, nfa.cleanup());
+        assertEquals(3, nfa.stateCount());
+        assertEquals(2, nfa.size());
+        assertEquals(START, nfa.stateNumber(CompactAutomaton.START));
+        assertEquals(new HashSet<Integer>(Arrays.asList(START, 1, 2)), stateNumbers(nfa));
+        assertFalse(nfa.hasStateNumber(3));
+        assertFalse(nfa.hasStateNumber(4));
+        assertEquals(new HashSet<String>(Arrays.asList(
+                transition(START, F, false, 1),
+                transition(1, G, true, 2))), transitions(nfa));
+        // nothing left to remove
+        assertEquals(3, nfa.cleanup());
+    }
+    
+    @Test
+    public void testCyclicStates() {
+        // start -f-> 1 -g-> 2 -g-> 1 (a cycle), 2 -h-> 3 and start -h-> 4
+        TLongHashSet edges = new TLongHashSet();
+        edges.add(edge(START, 1, false, F));
+        edges.add(edge(1, 2, false, G));
+        edges.add(edge(2, 1, false, G));
+        edges.add(edge(2, 3, true, H));
+        edges.add(edge(START, 4, false, H));
+        CompactAutomaton nfa = CompactAutomaton.fromEdges(edges);
+        // 3 is not on the cycle but can be reached from it
+        assertEquals(new HashSet<Integer>(Arrays.asList(1, 2, 3)), stateNumbers(nfa, nfa.cyclicStates()));
+    }
+    
+    // a long chain is walked iteratively
+    @Test
+    public void testLongChain() {
+        TLongHashSet edges = new TLongHashSet();
+        edges.add(edge(START, 1, false, F));
+        for (int n=1; n<100000; n++) {
+            edges.add(edge(n, n+1, false, F));
+        }
+        CompactAutomaton nfa = CompactAutomaton.fromEdges(edges);
+        assertEquals(100001, nfa.cleanup());
+        assertTrue(nfa.cyclicStates().isEmpty());
+    }
+    
+    @Test
+    public void testEquivalentStatesAreMerged() {
+        // start -f-> 1 -g-> 3 and start -f-> 2 -g-> 4
+        TLongHashSet edges = new TLongHashSet();
+        edges.add(edge(START, 1, false, F));
+        edges.add(edge(START, 2, false, F));
+        edges.add(edge(1, 3, true, G));
+        edges.add(edge(2, 4, true, G));
+        CompactAutomaton nfa = CompactAutomaton.fromEdges(edges);
+        assertEquals(5, nfa.cleanup());
+        
+        Map<Integer,Object> numToKey = new HashMap<Integer, Object>();
+        numToKey.put(START, "start");
+        for (int n=1; n<=4; n++) {
+            numToKey.put(n, "x");
+        }
+        assertEquals(3, nfa.minimise(keys(nfa, numToKey)));
+        assertEquals(3, nfa.stateCount());
+        assertEquals(2, nfa.size());
+        assertEquals(START, nfa.stateNumber(CompactAutomaton.START));
+        // each merged state keeps the number of one of its members, and the
+        // others' numbers still lead to it
+        Set<Integer> nums = stateNumbers(nfa);
+        assertTrue(nums.contains(1) != nums.contains(2));
+        assertTrue(nums.contains(3) != nums.contains(4));
+        for (int n=1; n<=4; n++) {
+            assertTrue(nfa.hasStateNumber(n));
+        }
+    }
+    
+    @Test
+    public void testStatesWithDifferentKeysOrFuturesAreKept() {
+        // start -f-> 1 -g-> 3, start -f-> 2 -g-> 4, start -f-> 5 -g(w)-> 6
+        TLongHashSet edges = new TLongHashSet();
+        edges.add(edge(START, 1, false, F));
+        edges.add(edge(START, 2, false, F));
+        edges.add(edge(START, 5, false, F));
+        edges.add(edge(1, 3, false, G));
+        edges.add(edge(2, 4, false, G));
+        edges.add(edge(5, 6, true, G));
+        CompactAutomaton nfa = CompactAutomaton.fromEdges(edges);
+        nfa.cleanup();
+        
+        // 1 and 2 differ in their keys, 5 in the write bit of its future.
+        // 3, 4 and 6 have no future and the same key, so are merged
+        Map<Integer,Object> numToKey = new HashMap<Integer, Object>();
+        numToKey.put(START, "start");
+        numToKey.put(1, "a");
+        numToKey.put(2, "b");
+        numToKey.put(5, "a");
+        numToKey.put(3, "x");
+        numToKey.put(4, "x");
+        numToKey.put(6, "x");
+        assertEquals(5, nfa.minimise(keys(nfa, numToKey)));
+        Set<Integer> nums = stateNumbers(nfa);
+        assertTrue(nums.containsAll(Arrays.asList(1, 2, 5)));
+        nums.retainAll(Arrays.asList(3, 4, 6));
+        assertEquals(1, nums.size());
+    }
+    
+    @Test
+    public void testCyclicStatesAreNotMergedWithAcyclicOnes() {
+        // start -f-> 1 -f-> 1 (a cycle) and start -f-> 2 -f-> 3
+        TLongHashSet edges = new TLongHashSet();
+        edges.add(edge(START, 1, false, F));
+        edges.add(edge(1, 1, false, F));
+        edges.add(edge(START, 2, false, F));
+        edges.add(edge(2, 3, false, F));
+        CompactAutomaton nfa = CompactAutomaton.fromEdges(edges);
+        nfa.cleanup();
+        Map<Integer,Object> numToKey = new HashMap<Integer, Object>();
+        numToKey.put(START, "start");
+        for (int n=1; n<=3; n++) {
+            numToKey.put(n, "x");
+        }
+        assertEquals(4, nfa.minimise(keys(nfa, numToKey)));
+        assertEquals(1, nfa.cyclicStates().cardinality());
+    }
+    
+    // random automata, including cycles and states unreachable from the
+    // start state: minimise keeps the keyed paths from the start state and
+    // which states are cyclic
+    @Test
+    public void testMinimisePreservesLanguage() {
+        Random r = new Random(11);
+        int merged = 0;
+        for (int it=0; it<1000; it++) {
+            int states = 2 + r.nextInt(15);
+            TLongHashSet edges = new TLongHashSet();
+            for (int i=r.nextInt(40); i>0; i--) {
+                int src = r.nextInt(3) == 0 ? START : 1 + r.nextInt(states);
+                int dst = 1 + r.nextInt(states);
+                // mostly forward edges, so that there are acyclic parts
+                if (r.nextBoolean() && src != START && dst <= src) {
+                    dst = src + 1 + r.nextInt(3);
+                }
+                edges.add(edge(src, dst, r.nextInt(4) == 0, LABELS[r.nextInt(LABELS.length)]));
+            }
+            CompactAutomaton nfa = CompactAutomaton.fromEdges(edges);
+            nfa.cleanup();
+            
+            Map<Integer,Object> numToKey = new HashMap<Integer, Object>();
+            Set<Integer> cyclic = new HashSet<Integer>();
+            BitSet c = nfa.cyclicStates();
+            for (int s=0; s<nfa.stateCount(); s++) {
+                int n = nfa.stateNumber(s);
+                numToKey.put(n, s == CompactAutomaton.START ? "start" : Integer.valueOf(n % 3));
+                if (c.get(s)) {
+                    cyclic.add(n);
+                }
+            }
+            int before = nfa.stateCount();
+            Set<String> paths = paths(nfa, keys(nfa, numToKey), 5);
+            
+            int after = nfa.minimise(keys(nfa, numToKey));
+            assertEquals(after, nfa.stateCount());
+            assertTrue(after <= before);
+            if (after < before) {
+                merged++;
+            }
+            assertEquals(START, nfa.stateNumber(CompactAutomaton.START));
+            assertEquals("iteration " + it, paths, paths(nfa, keys(nfa, numToKey), 5));
+            c = nfa.cyclicStates();
+            for (int s=0; s<nfa.stateCount(); s++) {
+                assertEquals(cyclic.contains(nfa.stateNumber(s)), c.get(s));
+            }
+        }
+        // the automata are small, but some must have had states to merge
+        assertTrue(merged > 0);
+    }
+    
+    @Test(expected=IllegalStateException.class)
+    public void testUnknownSymbolIsAnError() {
+        TLongHashSet edges = new TLongHashSet();
+        edges.add(edge(START, 1, false, SymbolNumberer.size() + 1));
+        CompactAutomaton.fromEdges(edges);
+    }
+    
+}
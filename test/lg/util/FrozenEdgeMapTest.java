@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2013, Khilan Gudka.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package lg.util;
+
+import static org.junit.Assert.*;
+
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.set.hash.TLongHashSet;
+
+import java.io.*;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class FrozenEdgeMapTest {
+
+    // edges as packed by TransformerEdgeFactory use the sign bit, so
+    // include negative values and extremes
+    private static TLongHashSet edges(Random r, int n) {
+        TLongHashSet s = new TLongHashSet();
+        s.add(Long.MIN_VALUE);
+        s.add(Long.MAX_VALUE);
+        s.add(-1);
+        s.add(0);
+        for (int i=0; i<n; i++) {
+            s.add(r.nextBoolean() ? r.nextLong() : r.nextInt(100));
+        }
+        return s;
+    }
+    
+    private static void fill(TIntObjectHashMap<TLongHashSet> m, Random r, boolean sortedSets) {
+        for (int i=0; i<200; i++) {
+            int k = r.nextInt(1 << 20);
+            TLongHashSet s = edges(r, r.nextInt(40));
+            m.put(k, sortedSets ? new SortedLongArraySet(s) : s);
+        }
+    }
+    
+    @Test
+    public void testFreezeHashMap() {
+        TIntObjectHashMap<TLongHashSet> m = new TIntObjectHashMap<TLongHashSet>();
+        fill(m, new Random(1), false);
+        assertSameEntries(m, FrozenEdgeMap.freeze(m));
+    }
+    
+    @Test
+    public void testFreezeHashMapOfSortedSets() {
+        TIntObjectHashMap<TLongHashSet> m = new TIntObjectHashMap<TLongHashSet>();
+        fill(m, new Random(2), true);
+        assertSameEntries(m, FrozenEdgeMap.freeze(m));
+    }
+    
+    @Test
+    public void testFreezePersistentMap() {
+        PersistentIntObjectMap<TLongHashSet> m = new PersistentIntObjectMap<TLongHashSet>();
+        fill(m, new Random(3), true);
+        TIntObjectHashMap<TLongHashSet> expected = new TIntObjectHashMap<TLongHashSet>();
+        IntObjectCursor<TLongHashSet> c = IntObjectCursor.open(m);
+        while (c.next()) {
+            expected.put(c.key(), c.value());
+        }
+        c.close();
+        assertSameEntries(expected, FrozenEdgeMap.freeze(m));
+    }
+    
+    @Test
+    public void testFreezeFrozenMap() {
+        TIntObjectHashMap<TLongHashSet> m = new TIntObjectHashMap<TLongHashSet>();
+        fill(m, new Random(4), false);
+        FrozenEdgeMap f = FrozenEdgeMap.freeze(m);
+        assertSame(f, FrozenEdgeMap.freeze(f));
+    }
+    
+    @Test
+    public void testFreezeEmptyMap() {
+        FrozenEdgeMap f = FrozenEdgeMap.freeze(new TIntObjectHashMap<TLongHashSet>());
+        assertEquals(0, f.size());
+        assertTrue(f.isEmpty());
+        assertNull(f.get(1));
+        assertEquals(0, f.keys().length);
+    }
+    
+    @Test
+    public void testValuesAreNotKept() {
+        TIntObjectHashMap<TLongHashSet> m = new TIntObjectHashMap<TLongHashSet>();
+        fill(m, new Random(5), false);
+        FrozenEdgeMap f = FrozenEdgeMap.freeze(m);
+        for (int i=0; i<f.size(); i++) {
+            assertNotSame(f.valueAt(i), f.valueAt(i));
+            assertEquals(f.valueAt(i), f.get(f.keyAt(i)));
+        }
+        assertEquals(m.hashCode(), f.hashCode());
+        assertEquals(f.hashCode(), f.hashCode());
+    }
+    
+    @Test
+    public void testSerialisation() throws Exception {
+        TIntObjectHashMap<TLongHashSet> m = new TIntObjectHashMap<TLongHashSet>();
+        fill(m, new Random(6), false);
+        FrozenEdgeMap f = FrozenEdgeMap.freeze(m);
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(f);
+        out.writeObject(FrozenEdgeMap.freeze(new TIntObjectHashMap<TLongHashSet>()));
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        FrozenEdgeMap g = (FrozenEdgeMap)in.readObject();
+        FrozenEdgeMap empty = (FrozenEdgeMap)in.readObject();
+        in.close();
+        
+        assertEquals(f, g);
+        assertEquals(f.hashCode(), g.hashCode());
+        assertSameEntries(m, g);
+        assertEquals(0, empty.size());
+    }
+    
+    @Test(expected=UnsupportedOperationException.class)
+    public void testPut() {
+        FrozenEdgeMap.freeze(new TIntObjectHashMap<TLongHashSet>()).put(1, new TLongHashSet());
+    }
+    
+    @Test(expected=UnsupportedOperationException.class)
+    public void testRemove() {
+        TIntObjectHashMap<TLongHashSet> m = new TIntObjectHashMap<TLongHashSet>();
+        m.put(1, new TLongHashSet());
+        FrozenEdgeMap.freeze(m).remove(1);
+    }
+    
+    @Test(expected=UnsupportedOperationException.class)
+    public void testEdgeSetUpdate() {
+        TIntObjectHashMap<TLongHashSet> m = new TIntObjectHashMap<TLongHashSet>();
+        m.put(1, new TLongHashSet(new long[] { 1, 2 }));
+        FrozenEdgeMap.freeze(m).get(1).add(3);
+    }
+    
+    private static void assertSameEntries(TIntObjectHashMap<TLongHashSet> expected, FrozenEdgeMap f) {
+        assertEquals(expected.size(), f.size());
+        assertEquals(f, expected);
+        assertEquals(expected.hashCode(), f.hashCode());
+        int[] keys = f.keys();
+        assertEquals(expected.size(), keys.length);
+        TLongHashSet[] values = f.values(new TLongHashSet[0]);
+        for (int i=0; i<keys.length; i++) {
+            // in increasing order of keys
+            assertEquals(keys[i], f.keyAt(i));
+            if (i > 0) {
+                assertTrue(keys[i-1] < keys[i]);
+            }
+            TLongHashSet e = expected.get(keys[i]);
+            assertNotNull(e);
+            assertTrue(e.equals(values[i]));
+            assertTrue(values[i].equals(e));
+            assertTrue(f.containsKey(keys[i]));
+        }
+        assertNull(f.get(-1));
+    }
+    
+}
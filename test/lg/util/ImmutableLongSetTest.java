@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2013, Khilan Gudka.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package lg.util;
+
+import static org.junit.Assert.*;
+
+import gnu.trove.iterator.TLongIterator;
+import gnu.trove.set.hash.TLongHashSet;
+
+import org.junit.Test;
+
+public class ImmutableLongSetTest {
+
+    private static TLongHashSet hashSet(long... vs) {
+        TLongHashSet s = new TLongHashSet();
+        s.addAll(vs);
+        return s;
+    }
+    
+    @Test
+    public void testEqualSetsAreInternedOnce() {
+        ImmutableLongSet a = ImmutableLongSet.intern(hashSet(3, 1, 2, Long.MIN_VALUE));
+        ImmutableLongSet b = ImmutableLongSet.intern(hashSet(Long.MIN_VALUE, 2, 3, 1));
+        ImmutableLongSet c = ImmutableLongSet.intern(new SortedLongArraySet(new long[] { 1, 2, 3, Long.MIN_VALUE }));
+        assertSame(a, b);
+        assertSame(a, c);
+        assertSame(a, ImmutableLongSet.intern(a));
+        
+        ImmutableLongSet d = ImmutableLongSet.intern(hashSet(1, 2));
+        assertNotSame(a, d);
+        assertFalse(a.equals(d));
+    }
+    
+    @Test
+    public void testInternedContents() {
+        TLongHashSet h = hashSet(5, -7, 11);
+        ImmutableLongSet s = ImmutableLongSet.intern(h);
+        assertEquals(3, s.size());
+        assertTrue(s.contains(-7));
+        assertFalse(s.contains(6));
+        assertTrue(s.equals(h));
+        assertTrue(h.equals(s));
+        assertEquals(h.hashCode(), s.hashCode());
+        assertArrayEquals(new long[] { -7, 5, 11 }, s.toArray());
+        
+        // interning copies: later changes to the source don't show
+        h.add(12);
+        assertFalse(s.contains(12));
+    }
+    
+    @Test
+    public void testCloneIsSelf() {
+        ImmutableLongSet s = ImmutableLongSet.intern(hashSet(1));
+        assertSame(s, s.clone());
+    }
+    
+    @Test
+    public void testWrapIsNotInterned() {
+        ImmutableLongSet interned = ImmutableLongSet.intern(hashSet(100, 200));
+        ImmutableLongSet wrapped = ImmutableLongSet.wrap(new long[] { 100, 200 });
+        assertNotSame(interned, wrapped);
+        assertTrue(interned.equals(wrapped));
+        assertEquals(interned.hashCode(), wrapped.hashCode());
+    }
+    
+    @Test(expected=UnsupportedOperationException.class)
+    public void testAdd() {
+        ImmutableLongSet.intern(hashSet(1)).add(2);
+    }
+    
+    @Test(expected=UnsupportedOperationException.class)
+    public void testAddExisting() {
+        ImmutableLongSet.intern(hashSet(1)).add(1);
+    }
+    
+    @Test(expected=UnsupportedOperationException.class)
+    public void testAddAll() {
+        ImmutableLongSet.intern(hashSet(1)).addAll(hashSet(2));
+    }
+    
+    @Test(expected=UnsupportedOperationException.class)
+    public void testAddAllArray() {
+        ImmutableLongSet.intern(hashSet(1)).addAll(new long[] { 2 });
+    }
+    
+    @Test(expected=UnsupportedOperationException.class)
+    public void testRemove() {
+        ImmutableLongSet.intern(hashSet(1)).remove(1);
+    }
+    
+    @Test(expected=UnsupportedOperationException.class)
+    public void testRemoveAll() {
+        ImmutableLongSet.intern(hashSet(1)).removeAll(hashSet(1));
+    }
+    
+    @Test(expected=UnsupportedOperationException.class)
+    public void testRetainAll() {
+        ImmutableLongSet.intern(hashSet(1)).retainAll(hashSet(2));
+    }
+    
+    @Test(expected=UnsupportedOperationException.class)
+    public void testClear() {
+        ImmutableLongSet.intern(hashSet(1)).clear();
+    }
+    
+    @Test(expected=UnsupportedOperationException.class)
+    public void testIteratorRemove() {
+        TLongIterator i = ImmutableLongSet.intern(hashSet(1)).iterator();
+        i.next();
+        i.remove();
+    }
+    
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2013, Khilan Gudka.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package lg.util;
+
+import static org.junit.Assert.*;
+
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.procedure.TIntObjectProcedure;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PersistentIntObjectMapTest {
+
+    // random puts and removes, checked against a TIntObjectHashMap. Keys
+    // that only differ in their high bits share long trie paths.
+    @Test
+    public void testAgainstHashMap() {
+        Random r = new Random(1);
+        PersistentIntObjectMap<String> m = new PersistentIntObjectMap<String>();
+        TIntObjectHashMap<String> h = new TIntObjectHashMap<String>();
+        for (int i=0; i<20000; i++) {
+            int k = r.nextBoolean() ? r.nextInt(3000) : r.nextInt(8) << 27;
+            if (r.nextInt(3) == 0) {
+                assertEquals(h.remove(k), m.remove(k));
+            }
+            else {
+                String v = "v" + i;
+                assertEquals(h.put(k, v), m.put(k, v));
+            }
+            assertEquals(h.size(), m.size());
+            assertEquals(h.get(k), m.get(k));
+            assertEquals(h.containsKey(k), m.containsKey(k));
+        }
+        assertSameEntries(h, m);
+    }
+    
+    @Test
+    public void testSnapshotIsolation() {
+        PersistentIntObjectMap<String> m = new PersistentIntObjectMap<String>();
+        for (int k=0; k<1000; k++) {
+            m.put(k, "a" + k);
+        }
+        TIntObjectHashMap<String> before = copy(m);
+        
+        PersistentIntObjectMap<String> s = m.snapshot();
+        for (int k=0; k<1000; k+=3) {
+            m.put(k, "b" + k);
+        }
+        for (int k=1; k<1000; k+=3) {
+            m.remove(k);
+        }
+        m.put(5000, "new");
+        
+        // the snapshot still has the old entries
+        assertSameEntries(before, s);
+        
+        // and updating the snapshot doesn't change the map
+        TIntObjectHashMap<String> after = copy(m);
+        s.clear();
+        s.put(2, "c");
+        s.remove(0);
+        assertSameEntries(after, m);
+        assertEquals("b0", m.get(0));
+        assertNull(m.get(1));
+        assertEquals("a2", m.get(2));
+        assertEquals("new", m.get(5000));
+    }
+    
+    @Test
+    public void testOwns() {
+        PersistentIntObjectMap<String> m = new PersistentIntObjectMap<String>();
+        m.put(1, "a");
+        m.put(2, "b");
+        assertTrue(m.owns(1));
+        PersistentIntObjectMap<String> s = m.snapshot();
+        assertFalse(m.owns(1));
+        assertFalse(s.owns(1));
+        m.put(1, "c");
+        assertTrue(m.owns(1));
+        assertFalse(m.owns(2));
+        assertFalse(s.owns(1));
+        assertFalse(m.owns(3));
+    }
+    
+    @Test
+    public void testKeysAndValues() {
+        PersistentIntObjectMap<String> m = new PersistentIntObjectMap<String>();
+        for (int k=-50; k<50; k++) {
+            m.put(k * 1000003, "v" + k);
+        }
+        int[] keys = m.keys();
+        assertEquals(100, keys.length);
+        int[] expected = new int[100];
+        for (int k=-50; k<50; k++) {
+            expected[k+50] = k * 1000003;
+        }
+        Arrays.sort(expected);
+        int[] sorted = keys.clone();
+        Arrays.sort(sorted);
+        assertArrayEquals(expected, sorted);
+        
+        // a large enough array is filled in, a smaller one replaced
+        int[] dest = new int[150];
+        assertSame(dest, m.keys(dest));
+        assertArrayEquals(keys, Arrays.copyOf(dest, 100));
+        assertEquals(100, m.keys(new int[10]).length);
+        
+        String[] values = m.values(new String[0]);
+        assertEquals(100, values.length);
+        Object[] objects = m.values();
+        assertEquals(100, objects.length);
+        for (int i=0; i<100; i++) {
+            // keys and values are in the same order
+            assertEquals(m.get(keys[i]), values[i]);
+            assertEquals(values[i], objects[i]);
+        }
+    }
+    
+    @Test
+    public void testRetainEntries() {
+        PersistentIntObjectMap<String> m = new PersistentIntObjectMap<String>();
+        for (int k=0; k<100; k++) {
+            m.put(k, "v" + k);
+        }
+        PersistentIntObjectMap<String> s = m.snapshot();
+        m.retainEntries(new TIntObjectProcedure<String>() {
+            public boolean execute(int k, String v) {
+                return k % 2 == 0;
+            }
+        });
+        assertEquals(50, m.size());
+        assertEquals(100, s.size());
+        assertNull(m.get(1));
+        assertEquals("v1", s.get(1));
+    }
+    
+    private static TIntObjectHashMap<String> copy(PersistentIntObjectMap<String> m) {
+        TIntObjectHashMap<String> h = new TIntObjectHashMap<String>();
+        IntObjectCursor<String> c = IntObjectCursor.open(m);
+        while (c.next()) {
+            h.put(c.key(), c.value());
+        }
+        c.close();
+        return h;
+    }
+    
+    private static void assertSameEntries(TIntObjectHashMap<String> expected, PersistentIntObjectMap<String> m) {
+        assertEquals(expected.size(), m.size());
+        for (int k : expected.keys()) {
+            assertTrue(m.containsKey(k));
+            assertEquals(expected.get(k), m.get(k));
+        }
+        assertEquals(expected, copy(m));
+    }
+    
+}
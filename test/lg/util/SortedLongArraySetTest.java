@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2013, Khilan Gudka.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package lg.util;
+
+import static org.junit.Assert.*;
+
+import gnu.trove.procedure.TLongProcedure;
+import gnu.trove.set.hash.TLongHashSet;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SortedLongArraySetTest {
+
+    // random adds and removes, checked against a TLongHashSet. Values are
+    // drawn from a range that makes both new and repeated values likely.
+    @Test
+    public void testAddRemoveAgainstHashSet() {
+        Random r = new Random(1);
+        SortedLongArraySet s = new SortedLongArraySet();
+        TLongHashSet h = new TLongHashSet();
+        for (int i=0; i<20000; i++) {
+            long v = r.nextInt(4000) - 2000;
+            if (r.nextInt(4) == 0) {
+                assertEquals(h.remove(v), s.remove(v));
+            }
+            else {
+                assertEquals(h.add(v), s.add(v));
+            }
+            assertEquals(h.size(), s.size());
+            assertTrue(s.contains(v) == h.contains(v));
+            if (i % 1000 == 0) {
+                assertSameElements(h, s);
+            }
+        }
+        assertSameElements(h, s);
+    }
+    
+    // the recent run is merged into the main run once it reaches roughly
+    // the square root of the main run's size
+    @Test
+    public void testRecentBufferIsFlushed() {
+        SortedLongArraySet s = new SortedLongArraySet();
+        for (int i=0; i<10000; i++) {
+            s.add(i % 2 == 0 ? i : -i);
+            assertTrue(s.r <= Math.max(16, (int)Math.sqrt(s.elems.length)));
+            assertTrue(s.r <= s.recent.length);
+        }
+        assertTrue(s.elems.length > 0);
+        assertEquals(10000, s.size());
+        for (int i=0; i<10000; i++) {
+            assertTrue(s.contains(i % 2 == 0 ? i : -i));
+        }
+        assertSortedAndDistinct(s.elems, s.elems.length);
+        assertSortedAndDistinct(s.recent, s.r);
+    }
+    
+    @Test
+    public void testRemoveFromBothRuns() {
+        SortedLongArraySet s = new SortedLongArraySet();
+        for (int i=0; i<100; i++) {
+            s.add(i);
+        }
+        s.compact();
+        assertEquals(0, s.r);
+        s.add(1000);
+        s.add(1001);
+        assertTrue(s.remove(50));    // main run
+        assertTrue(s.remove(1000));  // recent run
+        assertFalse(s.remove(1000));
+        assertFalse(s.contains(50));
+        assertFalse(s.contains(1000));
+        assertTrue(s.contains(1001));
+        assertEquals(100, s.size());
+    }
+    
+    @Test
+    public void testSorted() {
+        Random r = new Random(2);
+        SortedLongArraySet s = new SortedLongArraySet();
+        TLongHashSet h = new TLongHashSet();
+        for (int i=0; i<5000; i++) {
+            long v = r.nextLong();
+            s.add(v);
+            h.add(v);
+        }
+        long[] expected = h.toArray();
+        Arrays.sort(expected);
+        assertArrayEquals(expected, s.sorted());
+        assertArrayEquals(expected, s.toArray());
+        
+        // forEach visits the elements in increasing order
+        final long[] seen = new long[s.size()];
+        s.forEach(new TLongProcedure() {
+            int i = 0;
+            public boolean execute(long v) {
+                seen[i++] = v;
+                return true;
+            }
+        });
+        assertArrayEquals(expected, seen);
+    }
+    
+    @Test
+    public void testEqualsAndHashCodeAgainstHashSet() {
+        Random r = new Random(3);
+        for (int n=0; n<300; n+=7) {
+            SortedLongArraySet s = new SortedLongArraySet();
+            TLongHashSet h = new TLongHashSet();
+            for (int i=0; i<n; i++) {
+                long v = r.nextLong();
+                s.add(v);
+                h.add(v);
+            }
+            assertTrue(s.equals(h));
+            assertTrue(h.equals(s));
+            assertEquals(h.hashCode(), s.hashCode());
+            
+            SortedLongArraySet copy = new SortedLongArraySet(h);
+            assertTrue(s.equals(copy));
+            assertEquals(s.hashCode(), copy.hashCode());
+            
+            if (n > 0) {
+                h.add(r.nextLong());
+                assertFalse(s.equals(h));
+                assertFalse(h.equals(s));
+            }
+        }
+    }
+    
+    // the main run is replaced rather than updated, so forEach may remove
+    // elements as it goes
+    @Test
+    public void testRemoveDuringForEach() {
+        final SortedLongArraySet s = new SortedLongArraySet();
+        for (int i=0; i<1000; i++) {
+            s.add(i);
+        }
+        final int[] visited = new int[1];
+        s.forEach(new TLongProcedure() {
+            public boolean execute(long v) {
+                visited[0]++;
+                if (v % 2 == 0) {
+                    s.remove(v);
+                }
+                return true;
+            }
+        });
+        assertEquals(1000, visited[0]);
+        assertEquals(500, s.size());
+        for (int i=0; i<1000; i++) {
+            assertEquals(i % 2 != 0, s.contains(i));
+        }
+    }
+    
+    @Test
+    public void testUnionOfSortedSets() {
+        SortedLongArraySet a = new SortedLongArraySet(new long[] { 1, 3, 5, 7 });
+        SortedLongArraySet b = new SortedLongArraySet(new long[] { 2, 3, 6, 7, 8 });
+        assertTrue(a.addAll(b));
+        assertArrayEquals(new long[] { 1, 2, 3, 5, 6, 7, 8 }, a.sorted());
+        assertFalse(a.addAll(b));
+        assertTrue(a.containsAll(b));
+        assertFalse(b.containsAll(a));
+    }
+    
+    private static void assertSameElements(TLongHashSet expected, SortedLongArraySet s) {
+        long[] e = expected.toArray();
+        Arrays.sort(e);
+        assertArrayEquals(e, s.sorted());
+        assertTrue(s.equals(expected));
+        assertEquals(expected.hashCode(), s.hashCode());
+    }
+    
+    private static void assertSortedAndDistinct(long[] a, int n) {
+        for (int i=1; i<n; i++) {
+            assertTrue(a[i-1] < a[i]);
+        }
+    }
+    
+}